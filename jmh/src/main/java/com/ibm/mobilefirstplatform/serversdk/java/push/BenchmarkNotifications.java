@@ -0,0 +1,75 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import org.json.JSONObject;
+
+import com.ibm.mobilefirstplatform.serversdk.java.push.FCM.Builder.FCMPriority;
+import com.ibm.mobilefirstplatform.serversdk.java.push.FCM.Builder.Visibility;
+import com.ibm.mobilefirstplatform.serversdk.java.push.FCM.FCMLights.Builder.FCMLED;
+import com.ibm.mobilefirstplatform.serversdk.java.push.FCM.FCMStyle.Builder.FCMStyleTypes;
+
+/**
+ *
+ * Notifications shared by the benchmarks: a minimal one with only an alert,
+ * and a full one with a target and FCM, APNs and web settings.
+ *
+ */
+final class BenchmarkNotifications {
+
+	private BenchmarkNotifications() {
+
+	}
+
+	static JSONObject payload() {
+		JSONObject payload = new JSONObject();
+		payload.put("orderId", "4711");
+		payload.put("status", "shipped");
+		payload.put("items", 3);
+		return payload;
+	}
+
+	static Notification minimal() {
+		return new Notification.Builder().message(new Message.Builder().alert("Your order has shipped").build())
+				.build();
+	}
+
+	static Notification full(int index) {
+		JSONObject payload = payload();
+		Message message = new Message.Builder().alert("Your order has shipped").url("https://example.com/orders/4711")
+				.build();
+		Target target = new Target.Builder().deviceIds(new String[] { "device-" + index })
+				.tagNames(new String[] { "orders", "shipping" }).build();
+
+		FCM fcm = new FCM.Builder().androidTitle("Order update").collapseKey("order-4711").timeToLive(3600)
+				.delayWhileIdle(false).payload(payload).sound("chime").priority(FCMPriority.HIGH)
+				.visibility(Visibility.PUBLIC).icon("ic_order")
+				.lights(new FCM.FCMLights.Builder().ledArgb(FCMLED.GREEN).ledOnMs(300).ledOffMs(1000).build())
+				.style(new FCM.FCMStyle.Builder().type(FCMStyleTypes.BIGTEXT_NOTIFICATION).title("Order update")
+						.text("Your order 4711 has shipped and arrives tomorrow.").build())
+				.build();
+		APNs apns = new APNs.Builder().badge(1).sound("chime.aiff").payload(payload).title("Order update")
+				.subtitle("Order 4711").interactiveCategory("ORDER").apnsCollapseId("order-4711").build();
+		FirefoxWeb firefoxWeb = new FirefoxWeb.Builder().title("Order update").iconUrl("https://example.com/icon.png")
+				.timeToLive(3600).payload(payload).build();
+		ChromeWeb chromeWeb = new ChromeWeb.Builder().title("Order update").iconUrl("https://example.com/icon.png")
+				.timeToLive(3600).payload(payload).build();
+		SafariWeb safariWeb = new SafariWeb.Builder().title("Order update").action("View")
+				.urlArgs(new String[] { "orders", "4711" }).build();
+
+		Settings settings = new Settings.Builder().fcm(fcm).apns(apns).firefoxWeb(firefoxWeb).chromeWeb(chromeWeb)
+				.safariWeb(safariWeb).build();
+		return new Notification.Builder().message(message).target(target).settings(settings).build();
+	}
+}
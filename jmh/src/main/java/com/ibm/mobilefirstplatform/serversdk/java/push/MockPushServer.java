@@ -0,0 +1,406 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ *
+ * In-process stand-in for the message, bulk message and IAM token endpoints
+ * of the Push Notifications service, for load tests without network access.
+ * Point a client at it with {@link #getPushMessageEndpointURL(String)} and
+ * {@link #getServerHost()}, through the {@link PushNotificationsClient.Builder}
+ * or {@link PushNotifications#overrideIamServerHost}.
+ * <p>
+ * Request bodies may be gzip compressed. Every push request waits for the configured latency and then fails with
+ * 500 or 429 at the configured rates, is rejected with 401 if its access
+ * token is unknown or expired, or is accepted with 202.
+ *
+ */
+public final class MockPushServer implements Closeable {
+
+	private static final String PUSH_PATH = "/imfpush/";
+	private static final String MESSAGES_PATH = "/messages";
+	private static final String BULK_PATH = "/messages/bulk";
+
+	private static final int ACCEPTED = 202;
+	private static final int UNAUTHORIZED = 401;
+	private static final int INTERNAL_SERVER_ERROR = 500;
+
+	private final int latencyMillis;
+	private final int latencyJitterMillis;
+	private final double errorRate;
+	private final double tooManyRequestsRate;
+	private final int retryAfterSeconds;
+	private final long tokenLifetimeSeconds;
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+	private final Map<String, Long> tokenExpirations = new ConcurrentHashMap<String, Long>();
+	private final AtomicLong tokensIssued = new AtomicLong();
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong acceptedNotifications = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong tooManyRequests = new AtomicLong();
+	private final AtomicLong unauthorized = new AtomicLong();
+	private final AtomicLong compressedRequests = new AtomicLong();
+
+	static {
+		// Otherwise responses written in two parts wait for delayed ACKs.
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+	}
+
+	private MockPushServer(Builder builder) throws IOException {
+		this.latencyMillis = builder.latencyMillis;
+		this.latencyJitterMillis = builder.latencyJitterMillis;
+		this.errorRate = builder.errorRate;
+		this.tooManyRequestsRate = builder.tooManyRequestsRate;
+		this.retryAfterSeconds = builder.retryAfterSeconds;
+		this.tokenLifetimeSeconds = builder.tokenLifetimeSeconds;
+		this.executor = Executors.newFixedThreadPool(builder.threads);
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", builder.port), builder.threads * 4);
+		server.setExecutor(executor);
+		server.createContext(PushConstants.IAM_TOKEN_PATH, new TokenHandler());
+		server.createContext(PUSH_PATH, new PushHandler());
+		server.start();
+	}
+
+	/**
+	 * @return The host to use as IAM server host, for example
+	 *         {@code http://127.0.0.1:54321}.
+	 */
+	public String getServerHost() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	/**
+	 * @return The endpoint URL for messages to the given tenant, for example
+	 *         {@code http://127.0.0.1:54321/imfpush/v1/apps/tenantId/messages}.
+	 */
+	public String getPushMessageEndpointURL(String tenantId) {
+		return getServerHost() + PUSH_PATH + "v1/apps/" + tenantId + MESSAGES_PATH;
+	}
+
+	public long getTokensIssued() {
+		return tokensIssued.get();
+	}
+
+	/**
+	 * @return The number of push requests received, single and bulk.
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * @return The number of notifications accepted, counting each
+	 *         notification of a bulk request.
+	 */
+	public long getAcceptedNotifications() {
+		return acceptedNotifications.get();
+	}
+
+	public long getErrors() {
+		return errors.get();
+	}
+
+	public long getTooManyRequests() {
+		return tooManyRequests.get();
+	}
+
+	public long getUnauthorized() {
+		return unauthorized.get();
+	}
+
+	/**
+	 * @return The number of requests with a gzip compressed body.
+	 */
+	public long getCompressedRequests() {
+		return compressedRequests.get();
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	@Override
+	public String toString() {
+		return "MockPushServer [tokensIssued=" + tokensIssued + ", requests=" + requests
+				+ ", acceptedNotifications=" + acceptedNotifications + ", errors=" + errors + ", tooManyRequests="
+				+ tooManyRequests + ", unauthorized=" + unauthorized + ", compressedRequests=" + compressedRequests + "]";
+	}
+
+	private final class TokenHandler implements HttpHandler {
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			String body = readBody(exchange);
+			pause();
+			if (!"POST".equals(exchange.getRequestMethod()) || !body.contains("apikey=")) {
+				respond(exchange, 400, "{\"errorMessage\":\"Provided API key could not be found\"}");
+				return;
+			}
+			String token = "mock-token-" + tokensIssued.incrementAndGet();
+			long expiration = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + tokenLifetimeSeconds;
+			tokenExpirations.put(token, TimeUnit.SECONDS.toMillis(expiration));
+
+			JSONObject response = new JSONObject();
+			response.put(PushConstants.ACCESS_TOKEN, token);
+			response.put("token_type", PushConstants.BEARER);
+			response.put("expires_in", tokenLifetimeSeconds);
+			response.put(PushConstants.EXPIRATION, expiration);
+			respond(exchange, 200, response.toString());
+		}
+	}
+
+	private final class PushHandler implements HttpHandler {
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			String path = exchange.getRequestURI().getPath();
+			boolean bulk = path.endsWith(BULK_PATH);
+			if (!"POST".equals(exchange.getRequestMethod()) || (!bulk && !path.endsWith(MESSAGES_PATH))) {
+				respond(exchange, 404, "{\"message\":\"Not Found\"}");
+				return;
+			}
+			String body = readBody(exchange);
+			requests.incrementAndGet();
+			pause();
+
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			if (!isAuthorized(exchange)) {
+				unauthorized.incrementAndGet();
+				respond(exchange, UNAUTHORIZED, "{\"message\":\"Not Authorized\"}");
+			} else if (random.nextDouble() < errorRate) {
+				errors.incrementAndGet();
+				respond(exchange, INTERNAL_SERVER_ERROR, "{\"message\":\"Internal Server Error\"}");
+			} else if (random.nextDouble() < tooManyRequestsRate) {
+				tooManyRequests.incrementAndGet();
+				exchange.getResponseHeaders().set(PushConstants.RETRY_AFTER_HEADER, String.valueOf(retryAfterSeconds));
+				respond(exchange, PushConstants.TOO_MANY_REQUESTS, "{\"message\":\"Too Many Requests\"}");
+			} else if (bulk) {
+				int count = new JSONArray(body).length();
+				JSONArray results = new JSONArray();
+				for (int i = 0; i < count; i++) {
+					results.put(new JSONObject().put("messageId", messageId()));
+				}
+				acceptedNotifications.addAndGet(count);
+				respond(exchange, ACCEPTED, results.toString());
+			} else {
+				acceptedNotifications.incrementAndGet();
+				respond(exchange, ACCEPTED, new JSONObject().put("messageId", messageId()).toString());
+			}
+		}
+
+		private boolean isAuthorized(HttpExchange exchange) {
+			if (exchange.getRequestHeaders().getFirst(PushConstants.APPSECRET) != null) {
+				return true;
+			}
+			String authorization = exchange.getRequestHeaders().getFirst(PushConstants.AUTHORIZATION_HEADER);
+			String prefix = PushConstants.BEARER + " ";
+			if (authorization == null || !authorization.startsWith(prefix)) {
+				return false;
+			}
+			Long expiration = tokenExpirations.get(authorization.substring(prefix.length()));
+			return expiration != null && expiration > System.currentTimeMillis();
+		}
+
+		private String messageId() {
+			return Long.toHexString(ThreadLocalRandom.current().nextLong());
+		}
+	}
+
+	private void pause() {
+		int millis = latencyMillis
+				+ (latencyJitterMillis > 0 ? ThreadLocalRandom.current().nextInt(latencyJitterMillis + 1) : 0);
+		if (millis > 0) {
+			try {
+				Thread.sleep(millis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private String readBody(HttpExchange exchange) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		InputStream in = exchange.getRequestBody();
+		if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+			in = new GZIPInputStream(in);
+			compressedRequests.incrementAndGet();
+		}
+		byte[] buffer = new byte[8192];
+		for (int read; (read = in.read(buffer)) != -1;) {
+			body.write(buffer, 0, read);
+		}
+		in.close();
+		return new String(body.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static void respond(HttpExchange exchange, int statusCode, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", PushConstants.CONTENT_TYPE);
+		exchange.sendResponseHeaders(statusCode, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+
+	/**
+	 *
+	 * Builder for {@link MockPushServer}.
+	 *
+	 */
+	public static class Builder {
+
+		private int port;
+		private int threads = 64;
+		private int latencyMillis;
+		private int latencyJitterMillis;
+		private double errorRate;
+		private double tooManyRequestsRate;
+		private int retryAfterSeconds = 1;
+		private long tokenLifetimeSeconds = 3600;
+
+		/**
+		 *
+		 * @param port
+		 *            The port to listen on. 0, the default, picks a free one.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder port(final int port) {
+			this.port = port;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param threads
+		 *            The number of requests handled at the same time.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder threads(final int threads) {
+			this.threads = threads;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param latencyMillis
+		 *            How long every request takes at least.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder latencyMillis(final int latencyMillis) {
+			this.latencyMillis = latencyMillis;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param latencyJitterMillis
+		 *            The most that is randomly added to the latency of a
+		 *            request.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder latencyJitterMillis(final int latencyJitterMillis) {
+			this.latencyJitterMillis = latencyJitterMillis;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param errorRate
+		 *            The fraction of push requests failed with 500.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder errorRate(final double errorRate) {
+			this.errorRate = errorRate;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param tooManyRequestsRate
+		 *            The fraction of push requests rejected with 429.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder tooManyRequestsRate(final double tooManyRequestsRate) {
+			this.tooManyRequestsRate = tooManyRequestsRate;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param retryAfterSeconds
+		 *            The Retry-After of 429 responses.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder retryAfterSeconds(final int retryAfterSeconds) {
+			this.retryAfterSeconds = retryAfterSeconds;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param tokenLifetimeSeconds
+		 *            How long issued access tokens are accepted.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder tokenLifetimeSeconds(final long tokenLifetimeSeconds) {
+			this.tokenLifetimeSeconds = tokenLifetimeSeconds;
+			return this;
+		}
+
+		/**
+		 * Starts the server.
+		 *
+		 * @return the running {@link MockPushServer}.
+		 * @throws IOException
+		 *             If the port cannot be bound.
+		 */
+		public final MockPushServer start() throws IOException {
+			if (port < 0 || threads <= 0 || latencyMillis < 0 || latencyJitterMillis < 0 || errorRate < 0
+					|| errorRate > 1 || tooManyRequestsRate < 0 || tooManyRequestsRate > 1 || retryAfterSeconds < 0
+					|| tokenLifetimeSeconds <= 0) {
+				throw new IllegalArgumentException("Invalid mock push server settings");
+			}
+			return new MockPushServer(this);
+		}
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * The payload setters of the settings builders, which convert the
+ * {@link JSONObject} of the caller into a tree of the serializer.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PayloadBuilderBenchmark {
+
+	private JSONObject payload;
+
+	@Setup
+	public void setUp() {
+		payload = BenchmarkNotifications.payload();
+	}
+
+	@Benchmark
+	public FCM.Builder fcmPayload() {
+		return new FCM.Builder().payload(payload);
+	}
+
+	@Benchmark
+	public APNs.Builder apnsPayload() {
+		return new APNs.Builder().payload(payload);
+	}
+
+	@Benchmark
+	public ChromeWeb.Builder chromeWebPayload() {
+		return new ChromeWeb.Builder().payload(payload);
+	}
+
+	@Benchmark
+	public FirefoxWeb.Builder firefoxWebPayload() {
+		return new FirefoxWeb.Builder().payload(payload);
+	}
+
+	@Benchmark
+	public ChromeAppExt.Builder chromeAppExtPayload() {
+		return new ChromeAppExt.Builder().payload(payload);
+	}
+}
@@ -0,0 +1,219 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+/**
+ *
+ * Drives {@link PushNotifications} against a {@link MockPushServer} at a
+ * fixed rate and reports throughput and latency percentiles. Sends are
+ * started on schedule whether or not earlier ones completed, and latency is
+ * measured from the scheduled start, so a slow client shows up in the
+ * percentiles instead of lowering the rate.
+ * <p>
+ * Options are given as {@code --name=value}:
+ * <ul>
+ * <li>{@code rate}: requests per second, 1000 by default.</li>
+ * <li>{@code duration}: seconds to send for, 30 by default.</li>
+ * <li>{@code warmup}: seconds to send for before, not measured, 5 by
+ * default.</li>
+ * <li>{@code bulk}: notifications per request; 1, the default, sends them
+ * one by one.</li>
+ * <li>{@code latency} and {@code jitter}: milliseconds each request takes on
+ * the server, 20 and 10 by default.</li>
+ * <li>{@code errorRate} and {@code tooManyRequestsRate}: fractions of
+ * requests failed with 500 and 429, 0 by default.</li>
+ * <li>{@code tokenLifetime}: seconds an access token is valid, 3600 by
+ * default.</li>
+ * <li>{@code connections}: size of the connection pool, 200 by default.</li>
+ * <li>{@code compressionThreshold}: size in bytes from which request bodies
+ * are compressed; not set by default, so none are.</li>
+ * <li>{@code maxOutstanding}: sends in flight after which further sends are
+ * dropped, 10000 by default.</li>
+ * </ul>
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.ibm.mobilefirstplatform.serversdk.java.push.PushLoadTest --rate=2000 --errorRate=0.01
+ * </pre>
+ *
+ */
+public final class PushLoadTest {
+
+	private static final String TENANT_ID = "loadTestTenantId";
+	private static final int ACCEPTED = 202;
+
+	private PushLoadTest() {
+
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = parse(args);
+		int rate = Integer.parseInt(option(options, "rate", "1000"));
+		int duration = Integer.parseInt(option(options, "duration", "30"));
+		int warmup = Integer.parseInt(option(options, "warmup", "5"));
+		int bulk = Integer.parseInt(option(options, "bulk", "1"));
+		int connections = Integer.parseInt(option(options, "connections", "200"));
+		int maxOutstanding = Integer.parseInt(option(options, "maxOutstanding", "10000"));
+
+		MockPushServer server = new MockPushServer.Builder()
+				.latencyMillis(Integer.parseInt(option(options, "latency", "20")))
+				.latencyJitterMillis(Integer.parseInt(option(options, "jitter", "10")))
+				.errorRate(Double.parseDouble(option(options, "errorRate", "0")))
+				.tooManyRequestsRate(Double.parseDouble(option(options, "tooManyRequestsRate", "0")))
+				.tokenLifetimeSeconds(Long.parseLong(option(options, "tokenLifetime", "3600")))
+				.threads(Math.max(connections, 1)).start();
+		try {
+			PushNotifications.overrideIamServerHost = server.getServerHost();
+			PushNotifications.configureHttpClient(new PushHttpClientConfig.Builder()
+					.maxTotalConnections(connections).maxConnectionsPerRoute(connections).build());
+			if (options.containsKey("compressionThreshold")) {
+				PushNotifications.setCompression(new PushCompression.Builder()
+						.thresholdBytes(Integer.parseInt(options.get("compressionThreshold"))).build());
+			}
+			PushNotifications.initWithApiKey(TENANT_ID, "loadTestApiKey", PushNotifications.US_SOUTH_REGION);
+			// The service URL has a ':' for an empty port before the path, so the mock's port cannot go in a server host.
+			PushNotifications.pushMessageEndpointURL = server.getPushMessageEndpointURL(TENANT_ID);
+
+			if (warmup > 0) {
+				run(rate, warmup, bulk, maxOutstanding);
+			}
+			Result result = run(rate, duration, bulk, maxOutstanding);
+			System.out.println(result.report(bulk));
+			System.out.println(server);
+		} finally {
+			PushNotifications.shutdown();
+			server.close();
+		}
+	}
+
+	private static Result run(int rate, int duration, int bulk, int maxOutstanding) throws InterruptedException {
+		final Notification[] notifications = new Notification[bulk];
+		for (int i = 0; i < bulk; i++) {
+			notifications[i] = BenchmarkNotifications.full(i);
+		}
+		int total = rate * duration;
+		long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+		final Result result = new Result(total);
+		final Semaphore outstanding = new Semaphore(maxOutstanding);
+		final CountDownLatch done = new CountDownLatch(total);
+
+		result.startNanos = System.nanoTime();
+		for (int i = 0; i < total; i++) {
+			final long scheduledNanos = result.startNanos + i * intervalNanos;
+			for (long wait; (wait = scheduledNanos - System.nanoTime()) > 0;) {
+				LockSupport.parkNanos(wait);
+			}
+			if (!outstanding.tryAcquire()) {
+				result.dropped.incrementAndGet();
+				result.latencies[i] = -1;
+				done.countDown();
+				continue;
+			}
+			final int index = i;
+			CompletableFuture<PushResponse> future = bulk == 1 ? PushNotifications.sendAsync(notifications[0])
+					: PushNotifications.sendBulkAsync(notifications);
+			future.whenComplete(new BiConsumer<PushResponse, Throwable>() {
+
+				@Override
+				public void accept(PushResponse response, Throwable failure) {
+					long now = System.nanoTime();
+					result.latencies[index] = now - scheduledNanos;
+					result.endNanos.accumulateAndGet(now, Math::max);
+					if (failure == null && response.getStatusCode() == ACCEPTED) {
+						result.succeeded.incrementAndGet();
+					} else {
+						result.failed.incrementAndGet();
+					}
+					outstanding.release();
+					done.countDown();
+				}
+			});
+		}
+		if (!done.await(duration + 120, TimeUnit.SECONDS)) {
+			System.out.println("Not all sends completed; the results are incomplete.");
+		}
+		return result;
+	}
+
+	private static Map<String, String> parse(String[] args) {
+		Map<String, String> options = new HashMap<String, String>();
+		for (String arg : args) {
+			int separator = arg.indexOf('=');
+			if (!arg.startsWith("--") || separator < 0) {
+				throw new IllegalArgumentException("Options are given as --name=value: " + arg);
+			}
+			options.put(arg.substring(2, separator), arg.substring(separator + 1));
+		}
+		return options;
+	}
+
+	private static String option(Map<String, String> options, String name, String defaultValue) {
+		String value = options.get(name);
+		return value != null ? value : defaultValue;
+	}
+
+	private static final class Result {
+
+		private final long[] latencies;
+		private final AtomicLong succeeded = new AtomicLong();
+		private final AtomicLong failed = new AtomicLong();
+		private final AtomicLong dropped = new AtomicLong();
+		private final AtomicLong endNanos = new AtomicLong();
+		private long startNanos;
+
+		Result(int total) {
+			this.latencies = new long[total];
+		}
+
+		String report(int bulk) {
+			long[] completed = new long[latencies.length];
+			int count = 0;
+			for (long latency : latencies) {
+				if (latency >= 0) {
+					completed[count++] = latency;
+				}
+			}
+			completed = Arrays.copyOf(completed, count);
+			Arrays.sort(completed);
+			double seconds = Math.max(endNanos.get() - startNanos, 1) / 1e9;
+
+			return String.format(Locale.ROOT,
+					"requests: %d succeeded, %d failed, %d dropped%n"
+							+ "throughput: %.1f requests/s, %.1f notifications/s%n"
+							+ "latency (ms): p50 %.2f, p90 %.2f, p99 %.2f, p99.9 %.2f, max %.2f",
+					succeeded.get(), failed.get(), dropped.get(), succeeded.get() / seconds,
+					succeeded.get() * bulk / seconds, percentile(completed, 0.5), percentile(completed, 0.9),
+					percentile(completed, 0.99), percentile(completed, 0.999), percentile(completed, 1));
+		}
+
+		private static double percentile(long[] sorted, double quantile) {
+			if (sorted.length == 0) {
+				return Double.NaN;
+			}
+			int index = (int) Math.ceil(quantile * sorted.length) - 1;
+			return sorted[Math.max(index, 0)] / 1e6;
+		}
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.impl.client.HttpClients;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * Construction of the single and bulk push requests for a growing number of
+ * notifications. The client authenticates with an app secret, so no token is
+ * fetched and nothing is sent.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestBuilderBenchmark {
+
+	@Param({ "1", "10", "100", "1000" })
+	public int batchSize;
+
+	private PushNotificationsClient client;
+	private JSONObject notification;
+	private List<JSONObject> notifications;
+	private Notification[] bulk;
+
+	@Setup
+	public void setUp() {
+		client = new PushNotificationsClient.Builder().tenantId("benchmarkTenantId").appSecret("benchmarkAppSecret")
+				.region(PushNotifications.US_SOUTH_REGION).httpClient(HttpClients.createMinimal()).build();
+		notification = PushNotificationsClient.generateJSON(BenchmarkNotifications.full(0));
+		notifications = new ArrayList<JSONObject>(batchSize);
+		bulk = new Notification[batchSize];
+		for (int i = 0; i < batchSize; i++) {
+			bulk[i] = BenchmarkNotifications.full(i);
+			notifications.add(PushNotificationsClient.generateJSON(bulk[i]));
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		client.close();
+	}
+
+	@Benchmark
+	public HttpPost createPushPostRequest() {
+		return client.createPushPostRequest(notification, null);
+	}
+
+	@Benchmark
+	public HttpPost createBulkPushPostRequest() {
+		return client.createBulkPushPostRequest(notifications, null);
+	}
+
+	@Benchmark
+	public byte[] writeNotifications() throws IOException {
+		return PushMessageSerializer.writeNotifications(bulk);
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * Serialization of a single notification: through
+ * {@link PushNotificationsClient#generateJSON(Object)} into a
+ * {@link JSONObject} and its string, and straight to bytes as the sends do,
+ * with the settings serialized for each send or once by a
+ * {@link NotificationTemplate}.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+
+	private Notification minimal;
+	private Notification full;
+	private Notification templated;
+
+	@Setup
+	public void setUp() {
+		minimal = BenchmarkNotifications.minimal();
+		full = BenchmarkNotifications.full(0);
+		templated = new NotificationTemplate.Builder().settings(full.getSettings()).build()
+				.notification(full.getMessage(), full.getTarget());
+	}
+
+	@Benchmark
+	public JSONObject generateJSONMinimal() {
+		return PushNotificationsClient.generateJSON(minimal);
+	}
+
+	@Benchmark
+	public JSONObject generateJSONFull() {
+		return PushNotificationsClient.generateJSON(full);
+	}
+
+	@Benchmark
+	public String generateJSONStringFull() {
+		return PushNotificationsClient.generateJSON(full).toString();
+	}
+
+	@Benchmark
+	public byte[] writeNotificationMinimal() {
+		return PushMessageSerializer.writeNotification(minimal);
+	}
+
+	@Benchmark
+	public byte[] writeNotificationFull() {
+		return PushMessageSerializer.writeNotification(full);
+	}
+
+	@Benchmark
+	public byte[] writeNotificationTemplated() {
+		return PushMessageSerializer.writeNotification(templated);
+	}
+}
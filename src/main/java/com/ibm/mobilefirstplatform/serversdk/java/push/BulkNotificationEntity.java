@@ -0,0 +1,116 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.function.LongConsumer;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+/**
+ * Request body of the bulk endpoint that serializes the notifications while
+ * it is written to the connection, with chunked transfer encoding. The JSON
+ * of a large batch is never held in memory as a whole.
+ * <p>
+ * The entity is repeatable, since the notifications are serialized again on
+ * every write, so the HTTP client can still retry the request. The size of
+ * the body is reported once, on the first write.
+ */
+final class BulkNotificationEntity extends AbstractHttpEntity {
+
+	private final Notification[] notifications;
+	private final LongConsumer sizeListener;
+	private volatile boolean sizeReported;
+
+	BulkNotificationEntity(Notification[] notifications) {
+		this(notifications, null);
+	}
+
+	BulkNotificationEntity(Notification[] notifications, LongConsumer sizeListener) {
+		this.notifications = notifications.clone();
+		this.sizeListener = sizeListener;
+		setContentType(ContentType.APPLICATION_JSON.toString());
+		setChunked(true);
+	}
+
+	@Override
+	public boolean isRepeatable() {
+		return true;
+	}
+
+	@Override
+	public long getContentLength() {
+		return -1;
+	}
+
+	/**
+	 * Only used by clients that read the body instead of letting the entity
+	 * write it, in which case the whole body is serialized up front.
+	 */
+	@Override
+	public InputStream getContent() throws IOException {
+		byte[] body = PushMessageSerializer.writeNotifications(notifications);
+		reportSize(body.length);
+		return new ByteArrayInputStream(body);
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		if (sizeListener == null || sizeReported) {
+			PushMessageSerializer.writeNotifications(notifications, out);
+			return;
+		}
+		CountingOutputStream counting = new CountingOutputStream(out);
+		PushMessageSerializer.writeNotifications(notifications, counting);
+		reportSize(counting.count);
+	}
+
+	private void reportSize(long bytes) {
+		if (sizeListener != null && !sizeReported) {
+			sizeReported = true;
+			sizeListener.accept(bytes);
+		}
+	}
+
+	@Override
+	public boolean isStreaming() {
+		return false;
+	}
+
+	private static final class CountingOutputStream extends FilterOutputStream {
+
+		private long count;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+}
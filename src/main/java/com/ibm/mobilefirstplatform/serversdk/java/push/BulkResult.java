@@ -0,0 +1,350 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ *
+ * The outcome of a request to the bulk endpoint, broken down per
+ * notification. The result at index {@code i} belongs to the notification at
+ * index {@code i} of the array that was sent.
+ *
+ * <pre>
+ * BulkResult result = client.sendBulkAsyncWithResults(notifications).join();
+ * if (!result.isSuccess()) {
+ * 	client.sendBulkAsync(result.getFailedNotifications(notifications));
+ * }
+ * </pre>
+ *
+ */
+public final class BulkResult {
+
+	private static final String MESSAGE_ID = "messageId";
+	private static final String[] STATUS_FIELDS = { "statusCode", "code", "status" };
+	private static final String[] ERROR_FIELDS = { "error", "errorMessage", "errors" };
+
+	private final int statusCode;
+	private final String responseBody;
+	private final List<NotificationResult> results;
+
+	private BulkResult(int statusCode, String responseBody, List<NotificationResult> results) {
+		this.statusCode = statusCode;
+		this.responseBody = responseBody;
+		this.results = Collections.unmodifiableList(results);
+	}
+
+	/**
+	 * Parses the response of the bulk endpoint.
+	 * <p>
+	 * If the whole request was rejected, every notification fails with the
+	 * status of the response. Otherwise the entries of the returned JSON array
+	 * are matched to the notifications by position; an entry with a
+	 * {@code messageId} or a success status was accepted, an entry with an
+	 * error status or message was not. Notifications without an entry, or
+	 * whose entry has neither a {@code messageId} nor a status, fail without a
+	 * status code, as their outcome is unknown.
+	 *
+	 * @param statusCode
+	 *            The status code of the response.
+	 * @param responseBody
+	 *            The body of the response, as passed to the listener.
+	 * @param notificationCount
+	 *            The number of notifications that were sent.
+	 * @return The per-notification results.
+	 */
+	public static BulkResult parse(int statusCode, String responseBody, int notificationCount) {
+		List<NotificationResult> results = new ArrayList<NotificationResult>(notificationCount);
+
+		if (!isSuccessful(statusCode)) {
+			for (int i = 0; i < notificationCount; i++) {
+				results.add(new NotificationResult(i, statusCode, null, responseBody, null));
+			}
+			return new BulkResult(statusCode, responseBody, results);
+		}
+
+		JSONArray entries = parseArray(responseBody);
+		for (int i = 0; i < notificationCount; i++) {
+			if (entries == null) {
+				// Accepted as a whole, but without details.
+				results.add(new NotificationResult(i, statusCode, null, null, null));
+			} else if (i >= entries.length() || entries.optJSONObject(i) == null) {
+				results.add(new NotificationResult(i, null, null,
+						PushConstants.PushServerSDKExceptions.MISSING_BULK_RESULT_EXCEPTION, null));
+			} else {
+				results.add(parseEntry(i, statusCode, entries.getJSONObject(i)));
+			}
+		}
+		return new BulkResult(statusCode, responseBody, results);
+	}
+
+	/**
+	 * @see #parse(int, String, int)
+	 */
+	public static BulkResult parse(PushResponse response, int notificationCount) {
+		return parse(response.getStatusCode(), response.getResponseBody(), notificationCount);
+	}
+
+	/**
+	 * @return The results of all notifications of a bulk send, of which only
+	 *         those in sent went out; the others were dropped as duplicates.
+	 */
+	static BulkResult withDuplicates(BulkResult result, Notification[] sent, Notification[] notifications) {
+		List<NotificationResult> results = new ArrayList<NotificationResult>(notifications.length);
+		int next = 0;
+		for (int i = 0; i < notifications.length; i++) {
+			if (next < sent.length && sent[next] == notifications[i]) {
+				NotificationResult sentResult = result.results.get(next++);
+				results.add(new NotificationResult(i, sentResult.getStatusCode(), sentResult.getMessageId(),
+						sentResult.getError(), sentResult.getResponseEntry()));
+			} else {
+				results.add(new NotificationResult(i, null, null,
+						PushConstants.PushServerSDKExceptions.DUPLICATE_NOTIFICATION_EXCEPTION, null));
+			}
+		}
+		return new BulkResult(result.statusCode, result.responseBody, results);
+	}
+
+	/**
+	 * @return The results of a bulk send whose notifications were all dropped
+	 *         as duplicates, so that no request was made; its status code is
+	 *         0.
+	 */
+	static BulkResult duplicates(Notification[] notifications) {
+		return withDuplicates(new BulkResult(0, null, Collections.<NotificationResult> emptyList()),
+				new Notification[0], notifications);
+	}
+
+	private static NotificationResult parseEntry(int index, int statusCode, JSONObject entry) {
+		Integer entryStatus = null;
+		for (String field : STATUS_FIELDS) {
+			if (entry.opt(field) instanceof Number) {
+				entryStatus = entry.getInt(field);
+				break;
+			}
+		}
+		String messageId = entry.optString(MESSAGE_ID, null);
+		String error = null;
+		for (String field : ERROR_FIELDS) {
+			if (entry.has(field)) {
+				error = entry.get(field).toString();
+				break;
+			}
+		}
+		if (entryStatus == null) {
+			if (messageId == null) {
+				// Neither accepted nor rejected in a form we know, so it may have to be sent again.
+				return new NotificationResult(index, null, null,
+						error != null ? error : PushConstants.PushServerSDKExceptions.UNKNOWN_BULK_RESULT_EXCEPTION,
+						entry.toString());
+			}
+			entryStatus = statusCode;
+		}
+		if (error == null && !isSuccessful(entryStatus)) {
+			error = entry.optString("message", entry.toString());
+		}
+		return new NotificationResult(index, entryStatus, messageId, error, entry.toString());
+	}
+
+	private static JSONArray parseArray(String responseBody) {
+		if (responseBody == null) {
+			return null;
+		}
+		try {
+			return new JSONArray(responseBody);
+		} catch (JSONException e) {
+			return null;
+		}
+	}
+
+	private static boolean isSuccessful(Integer statusCode) {
+		return statusCode != null && statusCode >= 200 && statusCode < 300;
+	}
+
+	/**
+	 *
+	 * @return The status code of the bulk request.
+	 */
+	public final int getStatusCode() {
+		return statusCode;
+	}
+
+	/**
+	 *
+	 * @return The body of the bulk response, or null if it had none.
+	 */
+	public final String getResponseBody() {
+		return responseBody;
+	}
+
+	/**
+	 *
+	 * @return The number of notifications in the bulk request.
+	 */
+	public final int size() {
+		return results.size();
+	}
+
+	/**
+	 *
+	 * @return The result of the notification at the given index of the sent
+	 *         array.
+	 */
+	public final NotificationResult get(int index) {
+		return results.get(index);
+	}
+
+	/**
+	 *
+	 * @return The results of all notifications, in the order they were sent.
+	 */
+	public final List<NotificationResult> getResults() {
+		return results;
+	}
+
+	/**
+	 *
+	 * @return true if every notification was accepted.
+	 */
+	public final boolean isSuccess() {
+		for (NotificationResult result : results) {
+			if (!result.isSuccess()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 *
+	 * @return The indexes of the notifications that were not accepted.
+	 */
+	public final List<Integer> getFailedIndexes() {
+		List<Integer> failed = new ArrayList<Integer>();
+		for (NotificationResult result : results) {
+			if (!result.isSuccess()) {
+				failed.add(result.getIndex());
+			}
+		}
+		return failed;
+	}
+
+	/**
+	 * Picks the notifications that were not accepted out of the array that was
+	 * sent, for example to send them again.
+	 *
+	 * @param sent
+	 *            The array that was passed to the bulk send.
+	 * @return The notifications that were not accepted, in their original
+	 *         order.
+	 */
+	public final Notification[] getFailedNotifications(Notification[] sent) {
+		List<Integer> failed = getFailedIndexes();
+		Notification[] notifications = new Notification[failed.size()];
+		for (int i = 0; i < notifications.length; i++) {
+			notifications[i] = sent[failed.get(i)];
+		}
+		return notifications;
+	}
+
+	@Override
+	public String toString() {
+		return "BulkResult [statusCode=" + statusCode + ", results=" + results + "]";
+	}
+
+	/**
+	 *
+	 * The outcome of one notification of a bulk request.
+	 *
+	 */
+	public static final class NotificationResult {
+
+		private final int index;
+		private final Integer statusCode;
+		private final String messageId;
+		private final String error;
+		private final String responseEntry;
+
+		NotificationResult(int index, Integer statusCode, String messageId, String error, String responseEntry) {
+			this.index = index;
+			this.statusCode = statusCode;
+			this.messageId = messageId;
+			this.error = error;
+			this.responseEntry = responseEntry;
+		}
+
+		/**
+		 *
+		 * @return The index of the notification in the sent array.
+		 */
+		public final int getIndex() {
+			return index;
+		}
+
+		/**
+		 *
+		 * @return The status of this notification, or null if the response
+		 *         did not contain one for it.
+		 */
+		public final Integer getStatusCode() {
+			return statusCode;
+		}
+
+		/**
+		 *
+		 * @return The ID the service assigned to the message, or null if it
+		 *         was not accepted or the response did not contain one.
+		 */
+		public final String getMessageId() {
+			return messageId;
+		}
+
+		/**
+		 *
+		 * @return The reason the notification was not accepted, or null.
+		 */
+		public final String getError() {
+			return error;
+		}
+
+		/**
+		 *
+		 * @return The JSON entry of the bulk response for this notification,
+		 *         or null if there was none.
+		 */
+		public final String getResponseEntry() {
+			return responseEntry;
+		}
+
+		/**
+		 *
+		 * @return true if the service accepted the notification.
+		 */
+		public final boolean isSuccess() {
+			return isSuccessful(statusCode) && error == null;
+		}
+
+		@Override
+		public String toString() {
+			return "NotificationResult [index=" + index + ", statusCode=" + statusCode + ", messageId=" + messageId
+					+ ", error=" + error + "]";
+		}
+	}
+}
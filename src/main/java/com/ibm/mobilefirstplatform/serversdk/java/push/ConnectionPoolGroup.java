@@ -0,0 +1,84 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * The connection pools reported under one name, for metrics bindings that
+ * register one gauge per name: several clients then add up instead of
+ * replacing each other.
+ */
+final class ConnectionPoolGroup {
+
+	private final List<PushMetrics.ConnectionPool> pools = new CopyOnWriteArrayList<PushMetrics.ConnectionPool>();
+
+	/**
+	 * Adds the pool to the group of its name, creating the group and
+	 * passing it to the callback to register its gauges if it is new.
+	 */
+	static void add(ConcurrentMap<String, ConnectionPoolGroup> groups, PushMetrics.ConnectionPool pool,
+			Consumer<ConnectionPoolGroup> onCreated) {
+		ConnectionPoolGroup group = groups.get(pool.getName());
+		if (group == null) {
+			ConnectionPoolGroup created = new ConnectionPoolGroup();
+			group = groups.putIfAbsent(pool.getName(), created);
+			if (group == null) {
+				group = created;
+				onCreated.accept(group);
+			}
+		}
+		group.pools.add(pool);
+	}
+
+	static void remove(ConcurrentMap<String, ConnectionPoolGroup> groups, PushMetrics.ConnectionPool pool) {
+		ConnectionPoolGroup group = groups.get(pool.getName());
+		if (group != null) {
+			group.pools.remove(pool);
+		}
+	}
+
+	static ConcurrentMap<String, ConnectionPoolGroup> newGroups() {
+		return new ConcurrentHashMap<String, ConnectionPoolGroup>();
+	}
+
+	private int sum(ToIntFunction<PushMetrics.ConnectionPool> stat) {
+		int sum = 0;
+		for (PushMetrics.ConnectionPool pool : pools) {
+			sum += stat.applyAsInt(pool);
+		}
+		return sum;
+	}
+
+	int getLeased() {
+		return sum(PushMetrics.ConnectionPool::getLeased);
+	}
+
+	int getAvailable() {
+		return sum(PushMetrics.ConnectionPool::getAvailable);
+	}
+
+	int getPending() {
+		return sum(PushMetrics.ConnectionPool::getPending);
+	}
+
+	int getMax() {
+		return sum(PushMetrics.ConnectionPool::getMax);
+	}
+}
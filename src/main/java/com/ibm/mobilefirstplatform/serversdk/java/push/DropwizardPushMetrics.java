@@ -0,0 +1,145 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * Records {@link PushMetrics} in a Dropwizard {@link MetricRegistry}, where
+ * {@code <endpoint>} is {@code single}, {@code bulk} or {@code iam}:
+ * <ul>
+ * <li>{@code push.requests.<endpoint>}: timer of every request.</li>
+ * <li>{@code push.responses.<endpoint>.<status>},
+ * {@code push.failures.<endpoint>}: meters of responses per status code and
+ * of requests without response.</li>
+ * <li>{@code push.retries.<endpoint>},
+ * {@code push.circuit.rejections.<endpoint>}: meters.</li>
+ * <li>{@code push.token.refresh}: timer of IAM token refreshes, and
+ * {@code push.token.refresh.failures}: meter of failed ones.</li>
+ * <li>{@code push.payload.size.<endpoint>}: histogram of request body sizes
+ * in bytes.</li>
+ * <li>{@code push.connections.<pool>.leased}, {@code .available},
+ * {@code .pending}, {@code .max}: gauges.</li>
+ * </ul>
+ * Needs {@code io.dropwizard.metrics:metrics-core} on the class path.
+ */
+public final class DropwizardPushMetrics implements PushMetrics {
+
+	private final MetricRegistry registry;
+	private final Map<Endpoint, Timer> requests = new EnumMap<Endpoint, Timer>(Endpoint.class);
+	private final Map<Endpoint, ConcurrentMap<Integer, Meter>> responses = new EnumMap<Endpoint, ConcurrentMap<Integer, Meter>>(
+			Endpoint.class);
+	private final Map<Endpoint, Meter> failures = new EnumMap<Endpoint, Meter>(Endpoint.class);
+	private final Map<Endpoint, Meter> retries = new EnumMap<Endpoint, Meter>(Endpoint.class);
+	private final Map<Endpoint, Meter> circuitBreakerRejections = new EnumMap<Endpoint, Meter>(Endpoint.class);
+	private final Map<Endpoint, Histogram> payloadSizes = new EnumMap<Endpoint, Histogram>(Endpoint.class);
+	private final Timer tokenRefreshes;
+	private final Meter failedTokenRefreshes;
+	private final ConcurrentMap<String, ConnectionPoolGroup> pools = ConnectionPoolGroup.newGroups();
+
+	/**
+	 *
+	 * @param registry
+	 *            The registry to create the metrics in.
+	 */
+	public DropwizardPushMetrics(MetricRegistry registry) {
+		if (registry == null) {
+			throw new IllegalArgumentException(PushConstants.PushServerSDKExceptions.INVALID_METRICS_EXCEPTION);
+		}
+		this.registry = registry;
+		for (Endpoint endpoint : Endpoint.values()) {
+			requests.put(endpoint, registry.timer(MetricRegistry.name("push.requests", endpoint.tag())));
+			responses.put(endpoint, new ConcurrentHashMap<Integer, Meter>());
+			failures.put(endpoint, registry.meter(MetricRegistry.name("push.failures", endpoint.tag())));
+			retries.put(endpoint, registry.meter(MetricRegistry.name("push.retries", endpoint.tag())));
+			circuitBreakerRejections.put(endpoint,
+					registry.meter(MetricRegistry.name("push.circuit.rejections", endpoint.tag())));
+			payloadSizes.put(endpoint, registry.histogram(MetricRegistry.name("push.payload.size", endpoint.tag())));
+		}
+		this.tokenRefreshes = registry.timer("push.token.refresh");
+		this.failedTokenRefreshes = registry.meter("push.token.refresh.failures");
+	}
+
+	@Override
+	public void onResponse(Endpoint endpoint, int statusCode, long durationNanos) {
+		requests.get(endpoint).update(durationNanos, TimeUnit.NANOSECONDS);
+		ConcurrentMap<Integer, Meter> meters = responses.get(endpoint);
+		Meter meter = meters.get(statusCode);
+		if (meter == null) {
+			meter = registry.meter(MetricRegistry.name("push.responses", endpoint.tag(), Integer.toString(statusCode)));
+			meters.putIfAbsent(statusCode, meter);
+		}
+		meter.mark();
+	}
+
+	@Override
+	public void onFailure(Endpoint endpoint, Throwable failure, long durationNanos) {
+		requests.get(endpoint).update(durationNanos, TimeUnit.NANOSECONDS);
+		failures.get(endpoint).mark();
+	}
+
+	@Override
+	public void onRetry(Endpoint endpoint) {
+		retries.get(endpoint).mark();
+	}
+
+	@Override
+	public void onCircuitBreakerRejection(Endpoint endpoint) {
+		circuitBreakerRejections.get(endpoint).mark();
+	}
+
+	@Override
+	public void onTokenRefresh(long durationNanos, boolean succeeded) {
+		tokenRefreshes.update(durationNanos, TimeUnit.NANOSECONDS);
+		if (!succeeded) {
+			failedTokenRefreshes.mark();
+		}
+	}
+
+	@Override
+	public void onPayload(Endpoint endpoint, long bytes) {
+		payloadSizes.get(endpoint).update(bytes);
+	}
+
+	@Override
+	public void onConnectionPoolOpened(final ConnectionPool pool) {
+		ConnectionPoolGroup.add(pools, pool, group -> {
+			String prefix = MetricRegistry.name("push.connections", pool.getName());
+			registry.gauge(MetricRegistry.name(prefix, "leased"), () -> (Gauge<Integer>) group::getLeased);
+			registry.gauge(MetricRegistry.name(prefix, "available"), () -> (Gauge<Integer>) group::getAvailable);
+			registry.gauge(MetricRegistry.name(prefix, "pending"), () -> (Gauge<Integer>) group::getPending);
+			registry.gauge(MetricRegistry.name(prefix, "max"), () -> (Gauge<Integer>) group::getMax);
+		});
+	}
+
+	@Override
+	public void onConnectionPoolClosed(ConnectionPool pool) {
+		ConnectionPoolGroup.remove(pools, pool);
+	}
+
+	@Override
+	public String toString() {
+		return "DropwizardPushMetrics [registry=" + registry + "]";
+	}
+}
@@ -0,0 +1,175 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HTTP;
+
+/**
+ * Request body compressed with gzip while it is sent, with chunked transfer
+ * encoding. The blocking client writes the body through
+ * {@link #writeTo(OutputStream)}, the non-blocking one reads it from
+ * {@link #getContent()}; both compress a buffer at a time.
+ */
+final class GzipRequestEntity extends HttpEntityWrapper {
+
+	private static final Header CONTENT_ENCODING = new BasicHeader(HTTP.CONTENT_ENCODING, "gzip");
+	private static final int BUFFER_SIZE = 8192;
+
+	private final int level;
+
+	GzipRequestEntity(HttpEntity entity, int level) {
+		super(entity);
+		this.level = level;
+	}
+
+	@Override
+	public Header getContentEncoding() {
+		return CONTENT_ENCODING;
+	}
+
+	@Override
+	public long getContentLength() {
+		return -1;
+	}
+
+	@Override
+	public boolean isChunked() {
+		return true;
+	}
+
+	@Override
+	public InputStream getContent() throws IOException {
+		return new CompressingInputStream(wrappedEntity.getContent(), level);
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		GZIPOutputStream gzip = new GZIPOutputStream(out, BUFFER_SIZE) {
+			{
+				def.setLevel(level);
+			}
+		};
+		wrappedEntity.writeTo(gzip);
+		gzip.close();
+	}
+
+	/**
+	 * Reads the gzip compressed form of another stream, in the format written
+	 * by {@link GZIPOutputStream}.
+	 */
+	static final class CompressingInputStream extends InputStream {
+
+		private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+		private static final int TRAILER_SIZE = 8;
+
+		private final InputStream in;
+		private final Deflater deflater;
+		private final CRC32 crc = new CRC32();
+		private final byte[] input = new byte[BUFFER_SIZE];
+		private final byte[] output = new byte[BUFFER_SIZE];
+		private int position;
+		private int limit;
+		private final byte[] single = new byte[1];
+		private boolean endOfInput;
+		private boolean headerWritten;
+		private boolean trailerWritten;
+
+		CompressingInputStream(InputStream in, int level) {
+			this.in = in;
+			this.deflater = new Deflater(level, true);
+		}
+
+		@Override
+		public int read() throws IOException {
+			return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			while (position == limit) {
+				if (!fill()) {
+					return -1;
+				}
+			}
+			int count = Math.min(len, limit - position);
+			System.arraycopy(output, position, b, off, count);
+			position += count;
+			return count;
+		}
+
+		/**
+		 * Puts the next compressed bytes, possibly none, into the output
+		 * buffer.
+		 *
+		 * @return false once everything has been read.
+		 */
+		private boolean fill() throws IOException {
+			position = 0;
+			limit = 0;
+			if (!headerWritten) {
+				System.arraycopy(HEADER, 0, output, 0, HEADER.length);
+				limit = HEADER.length;
+				headerWritten = true;
+				return true;
+			}
+			if (trailerWritten) {
+				return false;
+			}
+			if (deflater.finished()) {
+				writeInt((int) crc.getValue(), 0);
+				writeInt((int) deflater.getBytesRead(), 4);
+				limit = TRAILER_SIZE;
+				trailerWritten = true;
+				return true;
+			}
+			if (deflater.needsInput() && !endOfInput) {
+				int read = in.read(input, 0, input.length);
+				if (read == -1) {
+					endOfInput = true;
+					deflater.finish();
+				} else if (read > 0) {
+					crc.update(input, 0, read);
+					deflater.setInput(input, 0, read);
+				}
+			}
+			limit = deflater.deflate(output, 0, output.length);
+			return true;
+		}
+
+		private void writeInt(int value, int offset) {
+			for (int i = 0; i < 4; i++) {
+				output[offset + i] = (byte) (value >>> (8 * i));
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			deflater.end();
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,324 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.core5.http2.config.H2Config;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.AbstractExecutionAwareRequest;
+import org.apache.http.client.methods.Configurable;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.Cancellable;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.EnglishReasonPhraseCatalog;
+import org.apache.http.impl.execchain.RequestAbortedException;
+import org.apache.http.message.BasicHttpResponse;
+
+/**
+ * Sends push requests over HTTP/2, multiplexing all concurrent sends to an
+ * endpoint as streams of a single connection instead of holding one pooled
+ * connection per request in flight.
+ *
+ * <pre>
+ * PushTransport transport = new Http2PushTransport.Builder().build();
+ * PushNotificationsClient client = new PushNotificationsClient.Builder()....transport(transport).build();
+ * </pre>
+ *
+ * HTTPS endpoints negotiate HTTP/2 through ALPN, which needs Java 8u252 or
+ * later; plain HTTP endpoints are spoken to in HTTP/2 directly. The transport
+ * needs the optional {@code org.apache.httpcomponents.client5:httpclient5}
+ * dependency on the class path. It does not go through the proxy of
+ * {@link PushProxyConfig}.
+ * <p>
+ * Request bodies are buffered before they are sent, compressed if the
+ * client's {@link PushCompression} says so. The transport may be shared by
+ * several clients and must be closed when no longer needed.
+ */
+public final class Http2PushTransport implements PushTransport {
+
+	public static final int DEFAULT_IO_THREADS = 1;
+
+	private static final ProtocolVersion HTTP_2 = new ProtocolVersion("HTTP", 2, 0);
+
+	private final int ioThreads;
+	private final CloseableHttpAsyncClient client;
+
+	private Http2PushTransport(Builder builder) {
+		this.ioThreads = builder.ioThreads;
+		this.client = HttpAsyncClients.customHttp2()
+				.setH2Config(H2Config.custom().setPushEnabled(false).build())
+				.setIOReactorConfig(IOReactorConfig.custom().setIoThreadCount(ioThreads).build())
+				.disableAutomaticRetries().disableRedirectHandling().disableCookieManagement().build();
+		this.client.start();
+	}
+
+	public final int getIoThreads() {
+		return ioThreads;
+	}
+
+	@Override
+	public HttpResponse execute(HttpUriRequest request) throws IOException {
+		Future<SimpleHttpResponse> future = client.execute(toSimpleRequest(request), null);
+		abortWith(request, future);
+		try {
+			return toResponse(future.get());
+		} catch (CancellationException e) {
+			throw new RequestAbortedException("Request aborted");
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(e.getMessage());
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+		}
+	}
+
+	@Override
+	public Future<HttpResponse> execute(HttpUriRequest request, final FutureCallback<HttpResponse> callback) {
+		SimpleHttpRequest simpleRequest;
+		try {
+			simpleRequest = toSimpleRequest(request);
+		} catch (IOException e) {
+			callback.failed(e);
+			return PushNotificationsClient.failedFuture(e);
+		}
+		Future<SimpleHttpResponse> future = client.execute(simpleRequest,
+				new org.apache.hc.core5.concurrent.FutureCallback<SimpleHttpResponse>() {
+
+					@Override
+					public void completed(SimpleHttpResponse response) {
+						callback.completed(toResponse(response));
+					}
+
+					@Override
+					public void failed(Exception e) {
+						callback.failed(e);
+					}
+
+					@Override
+					public void cancelled() {
+						callback.cancelled();
+					}
+				});
+		abortWith(request, future);
+		return new ResponseFuture(future);
+	}
+
+	/**
+	 * Lets {@code abort()} on the request, which clients call at the
+	 * deadline, cancel the stream.
+	 */
+	private static void abortWith(HttpUriRequest request, final Future<?> future) {
+		if (request instanceof AbstractExecutionAwareRequest) {
+			AbstractExecutionAwareRequest abortable = (AbstractExecutionAwareRequest) request;
+			abortable.setCancellable(new Cancellable() {
+
+				@Override
+				public boolean cancel() {
+					return future.cancel(true);
+				}
+			});
+			if (abortable.isAborted()) {
+				future.cancel(true);
+			}
+		}
+	}
+
+	static SimpleHttpRequest toSimpleRequest(HttpUriRequest request) throws IOException {
+		SimpleHttpRequest simpleRequest = new SimpleHttpRequest(request.getMethod(), request.getURI());
+		String contentType = null;
+		for (Header header : request.getAllHeaders()) {
+			String name = header.getName();
+			if (HttpHeaders.CONTENT_TYPE.equalsIgnoreCase(name)) {
+				contentType = header.getValue();
+			} else if (!isConnectionHeader(name)) {
+				simpleRequest.addHeader(name, header.getValue());
+			}
+		}
+		if (request instanceof HttpEntityEnclosingRequest) {
+			HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+			if (entity != null) {
+				if (entity.getContentType() != null) {
+					contentType = entity.getContentType().getValue();
+				}
+				if (entity.getContentEncoding() != null) {
+					simpleRequest.addHeader(entity.getContentEncoding().getName(),
+							entity.getContentEncoding().getValue());
+				}
+				long length = entity.getContentLength();
+				ByteArrayOutputStream body = new ByteArrayOutputStream(
+						length > 0 && length < Integer.MAX_VALUE ? (int) length : 512);
+				entity.writeTo(body);
+				simpleRequest.setBody(body.toByteArray(),
+						contentType != null ? org.apache.hc.core5.http.ContentType.parse(contentType) : null);
+			}
+		}
+		if (request instanceof Configurable && ((Configurable) request).getConfig() != null) {
+			simpleRequest.setConfig(toRequestConfig(((Configurable) request).getConfig()));
+		}
+		return simpleRequest;
+	}
+
+	/**
+	 * @return true for the headers HTTP/2 leaves to the framing, or forbids.
+	 */
+	private static boolean isConnectionHeader(String name) {
+		return HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name) || HttpHeaders.TRANSFER_ENCODING.equalsIgnoreCase(name)
+				|| HttpHeaders.CONNECTION.equalsIgnoreCase(name) || HttpHeaders.HOST.equalsIgnoreCase(name)
+				|| "Keep-Alive".equalsIgnoreCase(name) || HttpHeaders.UPGRADE.equalsIgnoreCase(name);
+	}
+
+	private static org.apache.hc.client5.http.config.RequestConfig toRequestConfig(RequestConfig config) {
+		org.apache.hc.client5.http.config.RequestConfig.Builder builder = org.apache.hc.client5.http.config.RequestConfig
+				.custom().setRedirectsEnabled(false);
+		// As in HttpClient 4, 0 means no timeout; negative values leave the default.
+		if (config.getConnectTimeout() >= 0) {
+			builder.setConnectTimeout(config.getConnectTimeout(), TimeUnit.MILLISECONDS);
+		}
+		if (config.getSocketTimeout() >= 0) {
+			builder.setResponseTimeout(config.getSocketTimeout(), TimeUnit.MILLISECONDS);
+		}
+		if (config.getConnectionRequestTimeout() >= 0) {
+			builder.setConnectionRequestTimeout(config.getConnectionRequestTimeout(), TimeUnit.MILLISECONDS);
+		}
+		return builder.build();
+	}
+
+	static HttpResponse toResponse(SimpleHttpResponse simpleResponse) {
+		int statusCode = simpleResponse.getCode();
+		String reasonPhrase = simpleResponse.getReasonPhrase() != null ? simpleResponse.getReasonPhrase()
+				: EnglishReasonPhraseCatalog.INSTANCE.getReason(statusCode, null);
+		HttpResponse response = new BasicHttpResponse(HTTP_2, statusCode, reasonPhrase);
+		for (org.apache.hc.core5.http.Header header : simpleResponse.getHeaders()) {
+			response.addHeader(header.getName(), header.getValue());
+		}
+		byte[] body = simpleResponse.getBodyBytes();
+		if (body != null) {
+			org.apache.hc.core5.http.ContentType contentType = simpleResponse.getContentType();
+			response.setEntity(new ByteArrayEntity(body,
+					contentType != null ? ContentType.parse(contentType.toString()) : null));
+		}
+		return response;
+	}
+
+	/**
+	 * Closes the connections of the transport, cancelling the requests still
+	 * in flight.
+	 */
+	@Override
+	public void close() throws IOException {
+		client.close(CloseMode.GRACEFUL);
+	}
+
+	@Override
+	public String toString() {
+		return "Http2PushTransport [ioThreads=" + ioThreads + "]";
+	}
+
+	/**
+	 * The response of a request in flight, converted once it arrives.
+	 */
+	private static final class ResponseFuture implements Future<HttpResponse> {
+
+		private final Future<SimpleHttpResponse> future;
+
+		ResponseFuture(Future<SimpleHttpResponse> future) {
+			this.future = future;
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return future.cancel(mayInterruptIfRunning);
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return future.isCancelled();
+		}
+
+		@Override
+		public boolean isDone() {
+			return future.isDone();
+		}
+
+		@Override
+		public HttpResponse get() throws InterruptedException, ExecutionException {
+			return toResponse(future.get());
+		}
+
+		@Override
+		public HttpResponse get(long timeout, TimeUnit unit)
+				throws InterruptedException, ExecutionException, TimeoutException {
+			return toResponse(future.get(timeout, unit));
+		}
+	}
+
+	/**
+	 *
+	 * Builder for {@link Http2PushTransport}.
+	 *
+	 */
+	public static class Builder {
+
+		private int ioThreads = DEFAULT_IO_THREADS;
+
+		/**
+		 *
+		 * @param ioThreads
+		 *            The number of threads that read and write the
+		 *            connections. As every endpoint is served by a single
+		 *            connection, one thread is enough for most uses and the
+		 *            default.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder ioThreads(final int ioThreads) {
+			this.ioThreads = ioThreads;
+			return this;
+		}
+
+		/**
+		 *
+		 * @return the started {@link Http2PushTransport} object.
+		 */
+		public final Http2PushTransport build() {
+			if (ioThreads < 1) {
+				throw new IllegalArgumentException(PushConstants.PushServerSDKExceptions.INVALID_TRANSPORT_EXCEPTION);
+			}
+			return new Http2PushTransport(this);
+		}
+	}
+}
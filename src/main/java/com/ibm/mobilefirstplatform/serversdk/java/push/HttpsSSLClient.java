@@ -22,9 +22,11 @@ import javax.net.ssl.SSLSession;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.routing.HttpRoutePlanner;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
@@ -34,6 +36,11 @@ public class HttpsSSLClient {
 
 
     public static CloseableHttpClient createSSLInsecureClient() {
+        return createSSLInsecureClient(null, null);
+    }
+
+
+    static CloseableHttpClient createSSLInsecureClient(HttpRoutePlanner routePlanner, RequestConfig requestConfig) {
         
         SSLContext sslcontext = createSSLContext();
         SSLConnectionSocketFactory sslsf = new SSLConnectionSocketFactory(sslcontext, new HostnameVerifier() {
@@ -43,7 +50,8 @@ public class HttpsSSLClient {
                 return true;
             }
         });
-        CloseableHttpClient httpclient = HttpClients.custom().setSSLSocketFactory(sslsf).build();
+        CloseableHttpClient httpclient = HttpClients.custom().setSSLSocketFactory(sslsf).setRoutePlanner(routePlanner)
+                .setDefaultRequestConfig(requestConfig).build();
         return httpclient;
     }
 
@@ -0,0 +1,353 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.util.EntityUtils;
+import org.json.JSONObject;
+
+import com.ibm.mobilefirstplatform.serversdk.java.push.exception.IamTokenException;
+import com.ibm.mobilefirstplatform.serversdk.java.push.exception.PushServerSDKException;
+
+/**
+ * Obtains and caches the IAM access token of one API key.
+ * <p>
+ * Once a token has been fetched, it is refreshed on the shared
+ * {@link PushSchedulers} when {@link #REFRESH_AT_LIFETIME_FRACTION} of its
+ * lifetime has passed, so senders keep using a valid cached token across a
+ * rollover. Callers that find no valid token share a single in-flight request to IAM instead of each sending
+ * their own. The lifetime is taken from {@code expires_in} where IAM sends it,
+ * so that a local clock that is off does not move the refresh, and refreshes
+ * are never scheduled less than {@link #RETRY_DELAY_MILLIS} apart.
+ */
+final class IamTokenManager implements Closeable {
+
+	private static final Logger logger = Logger.getLogger(IamTokenManager.class.getName());
+
+	static final double REFRESH_AT_LIFETIME_FRACTION = 0.8;
+	static final long RETRY_DELAY_MILLIS = 10000L;
+
+	private final String iamTokenURL;
+	private final String apiKey;
+	private final CloseableHttpClient iamHttpClient;
+	private final PushDebugLog debugLog;
+	private final PushRetryPolicy retryPolicy;
+	private final PushMetrics metrics;
+
+	private final AtomicReference<CompletableFuture<AccessToken>> refreshInFlight = new AtomicReference<CompletableFuture<AccessToken>>();
+	private volatile AccessToken accessToken;
+
+	private final Object refreshLock = new Object();
+	private ScheduledFuture<?> scheduledRefresh;
+	private volatile boolean closed;
+
+	IamTokenManager(String iamTokenURL, String apiKey, CloseableHttpClient iamHttpClient, PushDebugLog debugLog,
+			PushRetryPolicy retryPolicy, PushMetrics metrics) {
+		this.iamTokenURL = iamTokenURL;
+		this.apiKey = apiKey;
+		this.iamHttpClient = iamHttpClient;
+		this.debugLog = debugLog;
+		this.retryPolicy = retryPolicy;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @return A future completed with a valid access token. It is already
+	 *         complete unless no valid token is cached.
+	 */
+	CompletableFuture<String> token() {
+		AccessToken token = accessToken;
+		if (token != null && !token.isExpired()) {
+			return CompletableFuture.completedFuture(token.value);
+		}
+		return refresh().thenApply(AccessToken::getValue);
+	}
+
+	/**
+	 * Blocking variant of {@link #token()}.
+	 *
+	 * @throws PushServerSDKException
+	 *             if no token could be obtained.
+	 */
+	String getToken() {
+		try {
+			return token().join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof PushServerSDKException) {
+				throw (PushServerSDKException) e.getCause();
+			}
+			throw new IamTokenException(PushConstants.PushServerSDKExceptions.IAM_FAILURE_EXCEPTION, e.getCause());
+		}
+	}
+
+	/**
+	 * Like {@link #getToken()}, waiting no longer than until the deadline.
+	 *
+	 * @param deadlineNanos
+	 *            The {@link System#nanoTime()} to give up at, or
+	 *            {@link Long#MAX_VALUE} to wait as long as IAM takes.
+	 * @throws PushServerSDKException
+	 *             if no token could be obtained in time.
+	 */
+	String getToken(long deadlineNanos) {
+		if (deadlineNanos == Long.MAX_VALUE) {
+			return getToken();
+		}
+		try {
+			return token().get(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			throw new PushServerSDKException(PushConstants.PushServerSDKExceptions.DEADLINE_EXCEEDED_EXCEPTION, e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IamTokenException(PushConstants.PushServerSDKExceptions.IAM_FAILURE_EXCEPTION, e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof PushServerSDKException) {
+				throw (PushServerSDKException) e.getCause();
+			}
+			throw new IamTokenException(PushConstants.PushServerSDKExceptions.IAM_FAILURE_EXCEPTION, e.getCause());
+		}
+	}
+
+	/**
+	 * Drops the cached token, for example after the push service answered
+	 * 401, so that the next caller fetches a new one.
+	 */
+	void invalidate() {
+		accessToken = null;
+	}
+
+	/**
+	 * Starts a refresh unless one is already in flight, and returns the
+	 * refresh every caller waits on.
+	 */
+	CompletableFuture<AccessToken> refresh() {
+		while (true) {
+			CompletableFuture<AccessToken> inFlight = refreshInFlight.get();
+			if (inFlight != null) {
+				return inFlight;
+			}
+			final CompletableFuture<AccessToken> future = new CompletableFuture<AccessToken>();
+			if (refreshInFlight.compareAndSet(null, future)) {
+				try {
+					if (closed) {
+						throw new RejectedExecutionException();
+					}
+					// The request to IAM blocks, and its retries sleep.
+					PushSchedulers.worker().execute(new Runnable() {
+
+						@Override
+						public void run() {
+							completeRefresh(future);
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					refreshInFlight.set(null);
+					future.completeExceptionally(
+							new IamTokenException(PushConstants.PushServerSDKExceptions.IAM_FAILURE_EXCEPTION, e));
+				}
+				return future;
+			}
+		}
+	}
+
+	private void completeRefresh(CompletableFuture<AccessToken> future) {
+		AccessToken token;
+		long startNanos = System.nanoTime();
+		try {
+			token = fetchAccessToken();
+		} catch (RuntimeException e) {
+			metrics.onTokenRefresh(System.nanoTime() - startNanos, false);
+			logger.log(Level.SEVERE, e.toString(), e);
+			refreshInFlight.set(null);
+			AccessToken current = accessToken;
+			if (current != null && !current.isExpired()) {
+				schedule(RETRY_DELAY_MILLIS);
+			}
+			future.completeExceptionally(e);
+			return;
+		}
+		metrics.onTokenRefresh(System.nanoTime() - startNanos, true);
+		accessToken = token;
+		refreshInFlight.set(null);
+		// A token that is short-lived, or already expired by the local clock, must not refresh in a tight loop.
+		schedule(Math.max(token.refreshAtMillis - System.currentTimeMillis(), RETRY_DELAY_MILLIS));
+		future.complete(token);
+	}
+
+	private void schedule(long delayMillis) {
+		synchronized (refreshLock) {
+			if (closed) {
+				return;
+			}
+			scheduledRefresh = PushSchedulers.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					refresh();
+				}
+			}, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Sends the token request to IAM. The caller must close the response.
+	 */
+	CloseableHttpResponse executeTokenRequest() {
+		HttpPost tokenPost = new HttpPost(iamTokenURL);
+		tokenPost.addHeader(HTTP.CONTENT_TYPE, PushConstants.IAM_CONTENT_TYPE);
+		List<NameValuePair> nvps = new ArrayList<NameValuePair>();
+		nvps.add(new BasicNameValuePair(PushConstants.GRANT_TYPE, PushConstants.GRANT_TYPE_VALUE_APIKEY));
+		nvps.add(new BasicNameValuePair("apikey", apiKey));
+		try {
+			tokenPost.setEntity(new UrlEncodedFormEntity(nvps, PushConstants.UTFEIGHT));
+			return iamHttpClient.execute(tokenPost);
+		} catch (IOException e) {
+			logger.log(Level.SEVERE, e.toString(), e);
+			throw new IamTokenException(PushConstants.PushServerSDKExceptions.IAM_FAILURE_EXCEPTION, e);
+		}
+	}
+
+	/**
+	 * Fetches a token, retrying as the retry policy allows. A token request
+	 * has no side effects, so every failure counts as safe to repeat.
+	 */
+	private AccessToken fetchAccessToken() {
+		for (int attempt = 1;; attempt++) {
+			long delay;
+			try {
+				return fetchAccessTokenOnce();
+			} catch (IamTokenException e) {
+				delay = e.getStatusCode() != null
+						? retryPolicy.retryDelayAfterResponse(attempt, e.getStatusCode(), null, true)
+						: retryPolicy.retryDelayAfterFailure(attempt, e.getCause(), true);
+				if (delay == PushRetryPolicy.NO_RETRY) {
+					throw e;
+				}
+				metrics.onRetry(PushMetrics.Endpoint.IAM);
+			}
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IamTokenException(PushConstants.PushServerSDKExceptions.IAM_FAILURE_EXCEPTION, e);
+			}
+		}
+	}
+
+	private AccessToken fetchAccessTokenOnce() {
+		boolean traced = debugLog.sample();
+		long startNanos = System.nanoTime();
+		CloseableHttpResponse auth;
+		try {
+			auth = executeTokenRequest();
+		} catch (RuntimeException e) {
+			metrics.onFailure(PushMetrics.Endpoint.IAM, e.getCause() != null ? e.getCause() : e,
+					System.nanoTime() - startNanos);
+			if (traced) {
+				debugLog.failure("iam.failure", e, startNanos);
+			}
+			throw e;
+		}
+		try {
+			int statusCode = auth.getStatusLine().getStatusCode();
+			String body = EntityUtils.toString(auth.getEntity());
+			metrics.onResponse(PushMetrics.Endpoint.IAM, statusCode, System.nanoTime() - startNanos);
+			if (traced) {
+				debugLog.response("iam.response", statusCode, body, startNanos);
+			}
+
+			if (statusCode != HttpStatus.SC_OK) {
+				throw new IamTokenException(auth.getStatusLine().getReasonPhrase(), statusCode);
+			}
+			JSONObject json = new JSONObject(body);
+			return new AccessToken(json.getString(PushConstants.ACCESS_TOKEN), json.getLong(PushConstants.EXPIRATION),
+					json.has(PushConstants.EXPIRES_IN) ? json.getLong(PushConstants.EXPIRES_IN) : null);
+		} catch (IOException e) {
+			throw new IamTokenException(PushConstants.PushServerSDKExceptions.JSON_IO_EXCEPTION, e);
+		} finally {
+			try {
+				auth.close();
+			} catch (IOException e) {
+				logger.log(Level.SEVERE, e.toString(), e);
+			}
+		}
+	}
+
+	/**
+	 * Stops the background refresh and closes the IAM HTTP client.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (refreshLock) {
+			closed = true;
+			if (scheduledRefresh != null) {
+				scheduledRefresh.cancel(false);
+			}
+		}
+		iamHttpClient.close();
+	}
+
+	/**
+	 * An IAM access token together with its expiry.
+	 */
+	static final class AccessToken {
+		private final String value;
+		private final long expirationMillis;
+		private final long refreshAtMillis;
+
+		/**
+		 * @param expirationSeconds
+		 *            The expiry in seconds since the epoch.
+		 * @param expiresInSeconds
+		 *            The lifetime in seconds, or null if IAM did not send
+		 *            it; it takes precedence over the expiry.
+		 */
+		AccessToken(String value, long expirationSeconds, Long expiresInSeconds) {
+			long now = System.currentTimeMillis();
+			this.value = value;
+			this.expirationMillis = expiresInSeconds != null ? now + expiresInSeconds * 1000 : expirationSeconds * 1000;
+			this.refreshAtMillis = now + (long) ((expirationMillis - now) * REFRESH_AT_LIFETIME_FRACTION);
+		}
+
+		String getValue() {
+			return value;
+		}
+
+		boolean isExpired() {
+			return System.currentTimeMillis() > expirationMillis;
+		}
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Records {@link PushMetrics} in a Micrometer {@link MeterRegistry}:
+ * <ul>
+ * <li>{@code push.requests}: timer of every request, with percentile
+ * histogram, tagged with {@code endpoint} ({@code single}, {@code bulk},
+ * {@code iam}), the {@code status} code ({@code none} without response) and
+ * the {@code exception} of requests without response.</li>
+ * <li>{@code push.retries}, {@code push.circuit.rejections}: counters tagged
+ * with {@code endpoint}.</li>
+ * <li>{@code push.token.refresh}: timer of IAM token refreshes, tagged with
+ * {@code outcome} ({@code success}, {@code failure}).</li>
+ * <li>{@code push.payload.size}: distribution of request body sizes in bytes,
+ * tagged with {@code endpoint}.</li>
+ * <li>{@code push.connections.leased}, {@code .available}, {@code .pending},
+ * {@code .max}: gauges tagged with the {@code pool} name.</li>
+ * </ul>
+ * Needs {@code io.micrometer:micrometer-core} on the class path.
+ */
+public final class MicrometerPushMetrics implements PushMetrics {
+
+	private static final String NONE = "none";
+
+	private final MeterRegistry registry;
+	private final Map<Endpoint, ConcurrentMap<Integer, Timer>> responseTimers = new EnumMap<Endpoint, ConcurrentMap<Integer, Timer>>(
+			Endpoint.class);
+	private final Map<Endpoint, Counter> retries = new EnumMap<Endpoint, Counter>(Endpoint.class);
+	private final Map<Endpoint, Counter> circuitBreakerRejections = new EnumMap<Endpoint, Counter>(Endpoint.class);
+	private final Map<Endpoint, DistributionSummary> payloadSizes = new EnumMap<Endpoint, DistributionSummary>(
+			Endpoint.class);
+	private final Timer tokenRefreshes;
+	private final Timer failedTokenRefreshes;
+	private final ConcurrentMap<String, ConnectionPoolGroup> pools = ConnectionPoolGroup.newGroups();
+
+	/**
+	 *
+	 * @param registry
+	 *            The registry to create the meters in.
+	 */
+	public MicrometerPushMetrics(MeterRegistry registry) {
+		if (registry == null) {
+			throw new IllegalArgumentException(PushConstants.PushServerSDKExceptions.INVALID_METRICS_EXCEPTION);
+		}
+		this.registry = registry;
+		for (Endpoint endpoint : Endpoint.values()) {
+			responseTimers.put(endpoint, new ConcurrentHashMap<Integer, Timer>());
+			retries.put(endpoint, Counter.builder("push.retries").description("Requests repeated after a failure")
+					.tag("endpoint", endpoint.tag()).register(registry));
+			circuitBreakerRejections.put(endpoint, Counter.builder("push.circuit.rejections")
+					.description("Requests not sent because the circuit breaker was open")
+					.tag("endpoint", endpoint.tag()).register(registry));
+			payloadSizes.put(endpoint, DistributionSummary.builder("push.payload.size")
+					.description("Request body sizes before compression").baseUnit("bytes")
+					.tag("endpoint", endpoint.tag()).publishPercentileHistogram().register(registry));
+		}
+		this.tokenRefreshes = tokenRefreshTimer("success");
+		this.failedTokenRefreshes = tokenRefreshTimer("failure");
+	}
+
+	private Timer tokenRefreshTimer(String outcome) {
+		return Timer.builder("push.token.refresh").description("IAM access token refreshes, including retries")
+				.tag("outcome", outcome).register(registry);
+	}
+
+	private Timer requestTimer(Endpoint endpoint, String status, String exception) {
+		return Timer.builder("push.requests").description("Requests to the push service and to IAM")
+				.tag("endpoint", endpoint.tag()).tag("status", status).tag("exception", exception)
+				.publishPercentileHistogram().register(registry);
+	}
+
+	@Override
+	public void onResponse(Endpoint endpoint, int statusCode, long durationNanos) {
+		ConcurrentMap<Integer, Timer> timers = responseTimers.get(endpoint);
+		Timer timer = timers.get(statusCode);
+		if (timer == null) {
+			timer = requestTimer(endpoint, Integer.toString(statusCode), NONE);
+			timers.putIfAbsent(statusCode, timer);
+		}
+		timer.record(durationNanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void onFailure(Endpoint endpoint, Throwable failure, long durationNanos) {
+		requestTimer(endpoint, NONE, failure != null ? failure.getClass().getSimpleName() : NONE)
+				.record(durationNanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void onRetry(Endpoint endpoint) {
+		retries.get(endpoint).increment();
+	}
+
+	@Override
+	public void onCircuitBreakerRejection(Endpoint endpoint) {
+		circuitBreakerRejections.get(endpoint).increment();
+	}
+
+	@Override
+	public void onTokenRefresh(long durationNanos, boolean succeeded) {
+		(succeeded ? tokenRefreshes : failedTokenRefreshes).record(durationNanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void onPayload(Endpoint endpoint, long bytes) {
+		payloadSizes.get(endpoint).record(bytes);
+	}
+
+	@Override
+	public void onConnectionPoolOpened(final ConnectionPool pool) {
+		ConnectionPoolGroup.add(pools, pool, group -> {
+			gauge("push.connections.leased", "Connections in use", pool.getName(), group,
+					ConnectionPoolGroup::getLeased);
+			gauge("push.connections.available", "Idle connections kept alive", pool.getName(), group,
+					ConnectionPoolGroup::getAvailable);
+			gauge("push.connections.pending", "Requests waiting for a connection", pool.getName(), group,
+					ConnectionPoolGroup::getPending);
+			gauge("push.connections.max", "Maximum number of connections", pool.getName(), group,
+					ConnectionPoolGroup::getMax);
+		});
+	}
+
+	private void gauge(String name, String description, String pool, ConnectionPoolGroup group,
+			ToDoubleFunction<ConnectionPoolGroup> value) {
+		Gauge.builder(name, group, value).description(description).tag("pool", pool).strongReference(true)
+				.register(registry);
+	}
+
+	@Override
+	public void onConnectionPoolClosed(ConnectionPool pool) {
+		ConnectionPoolGroup.remove(pools, pool);
+	}
+
+	@Override
+	public String toString() {
+		return "MicrometerPushMetrics [registry=" + registry + "]";
+	}
+}
@@ -23,6 +23,11 @@ public class Notification {
 	private Message message;
 	private Target target;
 	private Settings settings;
+	private NotificationTemplate template;
+	private Object[] values;
+	private byte[] json;
+	private String dedupKey;
+	private boolean idempotent;
 
 	public final Message getMessage() {
 		return message;
@@ -32,14 +37,112 @@ public class Notification {
 		return target;
 	}
 
+	/**
+	 * @return The settings. Those of a notification created from a
+	 *         {@link NotificationTemplate} still contain its variables.
+	 */
 	public final Settings getSettings() {
 		return settings;
 	}
 
+	/**
+	 * @return The key under which a {@link PushDeduplicator} drops repeated
+	 *         sends of this notification, or null.
+	 */
+	public final String getDedupKey() {
+		return dedupKey;
+	}
+
+	/**
+	 * Copies the notification with a deduplication key, for example one
+	 * created from a {@link NotificationTemplate}.
+	 *
+	 * @param dedupKey
+	 *            The key under which a {@link PushDeduplicator} drops
+	 *            repeated sends, or null.
+	 * @return A notification that differs from this one only in its key.
+	 */
+	public final Notification withDedupKey(String dedupKey) {
+		Notification notification = new Notification(this, json);
+		notification.template = template;
+		notification.values = values;
+		notification.dedupKey = dedupKey;
+		return notification;
+	}
+
+	final NotificationTemplate getTemplate() {
+		return template;
+	}
+
+	/**
+	 * @return The values of the variables of the template, in the order of
+	 *         {@link NotificationTemplate#getVariables()}.
+	 */
+	final Object[] getValues() {
+		return values;
+	}
+
+	/**
+	 * @return The notification already serialized, as it was journaled in a
+	 *         {@link PushSpool}, or null.
+	 */
+	final byte[] getJson() {
+		return json;
+	}
+
+	/**
+	 * @return true if the notification was journaled in a {@link PushSpool}
+	 *         as idempotent. The settings that made it so are not kept.
+	 */
+	final boolean isIdempotent() {
+		return idempotent;
+	}
+
+	/**
+	 * A notification serialized once, before it is journaled, and sent as is.
+	 * The message, target and settings of the original are kept for the
+	 * retry policy.
+	 */
+	Notification(Notification notification, byte[] json) {
+		this.message = notification.message;
+		this.target = notification.target;
+		this.settings = notification.settings;
+		this.dedupKey = notification.dedupKey;
+		this.idempotent = notification.idempotent;
+		this.json = json;
+	}
+
+	/**
+	 * A notification replayed from a {@link PushSpool}, of which only the
+	 * serialized form is left.
+	 */
+	Notification(byte[] json) {
+		this.json = json;
+	}
+
+	/**
+	 * A notification replayed from a {@link PushSpool}, with the
+	 * deduplication key and idempotency it was journaled with.
+	 */
+	Notification(byte[] json, String dedupKey, boolean idempotent) {
+		this.json = json;
+		this.dedupKey = dedupKey;
+		this.idempotent = idempotent;
+	}
+
+	Notification(Message message, Target target, NotificationTemplate template, Object[] values) {
+		this.message = message;
+		this.target = target;
+		this.settings = template.getSettings();
+		this.template = template;
+		this.values = values;
+	}
+
 	private Notification(Builder builder) {
 		this.message = builder.message;
 		this.target = builder.target;
 		this.settings = builder.settings;
+		this.dedupKey = builder.dedupKey;
 	}
 
 	public static class Builder {
@@ -47,6 +150,7 @@ public class Notification {
 		private Message message;
 		private Target target;
 		private Settings settings;
+		private String dedupKey;
 
 		/**
 		 * Sets the Message object to the NotificationBuilder.
@@ -89,6 +193,21 @@ public class Notification {
 			return this;
 		}
 
+		/**
+		 * Sets the key under which a {@link PushDeduplicator} drops repeated
+		 * sends of the notification, for example an id of the event it
+		 * announces.
+		 * 
+		 * @param dedupKey
+		 *            The deduplication key.
+		 * 
+		 * @return The NotificationBuilder object for calls to be linked.
+		 */
+		public Builder dedupKey(String dedupKey) {
+			this.dedupKey = dedupKey;
+			return this;
+		}
+
 		/**
 		 * Build the push notification as configured. The result of this method
 		 * is to be passed to
@@ -0,0 +1,205 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ *
+ * Settings shared by many notifications, serialized once. Notifications
+ * created from a template carry their own message and target, and the
+ * request body is put together from these and the bytes of the settings, so
+ * the settings are not serialized again for every send.
+ * <p>
+ * Parts of the settings that change per notification, such as payload
+ * values, are given as variables: string values of the form
+ * <code>{{name}}</code>, which are replaced by the value given for the name
+ * when the notification is serialized. A value can be of any type that can be
+ * serialized to JSON.
+ *
+ * <pre>
+ * NotificationTemplate template = new NotificationTemplate.Builder().settings(new Settings.Builder()
+ * 		.fcm(new FCM.Builder().payload(new JSONObject().put("orderId", "{{orderId}}")).build()).build()).build();
+ * client.send(template.notification(message, target, Collections.singletonMap("orderId", 4711)), listener);
+ * </pre>
+ *
+ */
+public final class NotificationTemplate {
+
+	private static final Pattern VARIABLE = Pattern.compile("\"\\{\\{([A-Za-z0-9_.\\-]+)\\}\\}\"");
+	private static final String MESSAGE = "message";
+	private static final String TARGET = "target";
+	private static final String SETTINGS = "settings";
+
+	private final Settings settings;
+	private final List<String> variables;
+	// The serialized settings around the variables, one more than there are variables.
+	private final byte[][] segments;
+
+	private NotificationTemplate(Builder builder) {
+		this.settings = builder.settings;
+		String json = new String(PushMessageSerializer.writeSettings(settings), StandardCharsets.UTF_8);
+		List<String> names = new ArrayList<String>();
+		List<byte[]> parts = new ArrayList<byte[]>();
+		Matcher matcher = VARIABLE.matcher(json);
+		int start = 0;
+		while (matcher.find()) {
+			parts.add(json.substring(start, matcher.start()).getBytes(StandardCharsets.UTF_8));
+			names.add(matcher.group(1));
+			start = matcher.end();
+		}
+		parts.add(json.substring(start).getBytes(StandardCharsets.UTF_8));
+		this.variables = Collections.unmodifiableList(names);
+		this.segments = parts.toArray(new byte[parts.size()][]);
+	}
+
+	public final Settings getSettings() {
+		return settings;
+	}
+
+	/**
+	 * @return The names of the variables in the settings, in the order they
+	 *         appear. A name used more than once is listed once per use.
+	 */
+	public final List<String> getVariables() {
+		return variables;
+	}
+
+	/**
+	 * Creates a notification with the settings of this template, for a
+	 * template without variables.
+	 *
+	 * @param message
+	 *            The message, with an alert.
+	 * @param target
+	 *            The target, or null to send to all devices.
+	 * @return The notification, to be sent like any other.
+	 * @throws IllegalArgumentException
+	 *             if the message has no alert or the template has variables.
+	 */
+	public final Notification notification(Message message, Target target) {
+		return notification(message, target, Collections.<String, Object> emptyMap());
+	}
+
+	/**
+	 * Creates a notification with the settings of this template.
+	 *
+	 * @param message
+	 *            The message, with an alert.
+	 * @param target
+	 *            The target, or null to send to all devices.
+	 * @param values
+	 *            The value of each variable of the template, by name. They
+	 *            are read now, so the map can be reused.
+	 * @return The notification, to be sent like any other.
+	 * @throws IllegalArgumentException
+	 *             if the message has no alert or a variable has no value.
+	 */
+	public final Notification notification(Message message, Target target, Map<String, ?> values) {
+		if (message == null || message.getAlert() == null || values == null) {
+			throw new IllegalArgumentException(PushConstants.PushServerSDKExceptions.INVALID_TEMPLATE_EXCEPTION);
+		}
+		Object[] variableValues = new Object[variables.size()];
+		for (int i = 0; i < variableValues.length; i++) {
+			String name = variables.get(i);
+			if (!values.containsKey(name)) {
+				throw new IllegalArgumentException(PushConstants.PushServerSDKExceptions.INVALID_TEMPLATE_EXCEPTION);
+			}
+			variableValues[i] = values.get(name);
+		}
+		return new Notification(message, target, this, variableValues);
+	}
+
+	/**
+	 * Writes the notification as a JSON object to the generator, which writes
+	 * to the given stream.
+	 */
+	final void write(JsonGenerator generator, OutputStream out, Notification notification) throws IOException {
+		generator.writeStartObject();
+		generator.writeFieldName(MESSAGE);
+		PushMessageSerializer.VALUE_WRITER.writeValue(generator, notification.getMessage());
+		if (notification.getTarget() != null) {
+			generator.writeFieldName(TARGET);
+			PushMessageSerializer.VALUE_WRITER.writeValue(generator, notification.getTarget());
+		}
+		generator.writeFieldName(SETTINGS);
+		// Writes the separator before the value, which is then written to the stream directly.
+		generator.writeRawValue("");
+		generator.flush();
+		out.write(segments[0]);
+		if (segments.length > 1) {
+			Object[] values = notification.getValues();
+			JsonGenerator valueGenerator = PushMessageSerializer.createGenerator(out);
+			try {
+				for (int i = 0; i < values.length; i++) {
+					PushMessageSerializer.VALUE_WRITER.writeValue(valueGenerator, values[i]);
+					valueGenerator.flush();
+					out.write(segments[i + 1]);
+				}
+			} finally {
+				valueGenerator.close();
+			}
+		}
+		generator.writeEndObject();
+	}
+
+	@Override
+	public String toString() {
+		return "NotificationTemplate [settings=" + settings + ", variables=" + variables + "]";
+	}
+
+	/**
+	 *
+	 * Builder for {@link NotificationTemplate}.
+	 *
+	 */
+	public static class Builder {
+
+		private Settings settings;
+
+		/**
+		 *
+		 * @param settings
+		 *            The settings shared by the notifications, which may
+		 *            contain variables.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder settings(final Settings settings) {
+			this.settings = settings;
+			return this;
+		}
+
+		/**
+		 * Serializes the settings.
+		 *
+		 * @return the {@link NotificationTemplate} object.
+		 */
+		public final NotificationTemplate build() {
+			if (settings == null) {
+				throw new IllegalArgumentException(PushConstants.PushServerSDKExceptions.INVALID_TEMPLATE_EXCEPTION);
+			}
+			return new NotificationTemplate(this);
+		}
+	}
+}
@@ -0,0 +1,582 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.http.HttpStatus;
+
+import com.ibm.mobilefirstplatform.serversdk.java.push.exception.PushServerSDKException;
+
+/**
+ * Coalesces single notifications into requests to the bulk endpoint.
+ * <p>
+ * Notifications are queued and sent together as soon as
+ * {@link Builder#maxBatchSize(int)} of them are waiting, or when the oldest
+ * one has waited {@link Builder#lingerMillis(long)}. Every caller still gets
+ * its own future or listener, completed with the outcome of its own
+ * notification within the bulk response.
+ *
+ * <pre>
+ * PushBatchingDispatcher dispatcher = new PushBatchingDispatcher.Builder().client(client).maxBatchSize(100)
+ * 		.lingerMillis(20).build();
+ * dispatcher.send(notification).thenAccept(response -&gt; ...);
+ * </pre>
+ *
+ * The queue is bounded; once {@link Builder#maxQueuedNotifications(int)} are
+ * waiting, further sends fail immediately instead of blocking the caller.
+ * Closing the dispatcher sends what is queued and stops accepting new
+ * notifications.
+ * <p>
+ * With a {@link PushSpool}, every notification is journaled before it is
+ * queued and acknowledged once the service has answered for it, so that
+ * notifications accepted before a crash are sent when the next dispatcher is
+ * built with the same spool. Notifications the service did not answer for,
+ * because the request failed or was throttled, are sent again with a growing
+ * backoff of up to {@link #MAX_RESEND_BACKOFF_MILLIS}, at most
+ * {@link Builder#maxResends(int)} times. After that their futures fail, and
+ * they stay in the spool for the next dispatcher.
+ */
+public final class PushBatchingDispatcher implements Closeable {
+
+	public static final Logger logger = Logger.getLogger(PushBatchingDispatcher.class.getName());
+
+	public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+	public static final long DEFAULT_LINGER_MILLIS = 10L;
+	public static final int DEFAULT_MAX_QUEUED_NOTIFICATIONS = 10000;
+	public static final long DEFAULT_RESEND_BACKOFF_MILLIS = 1000L;
+	public static final long MAX_RESEND_BACKOFF_MILLIS = 60000L;
+	public static final int DEFAULT_MAX_RESENDS = 10;
+
+	private static final long IDLE_POLL_MILLIS = 100L;
+	private static final long NOT_SPOOLED = -1L;
+
+	private final Function<Notification[], CompletableFuture<BulkResult>> bulkSender;
+	private final int maxBatchSize;
+	private final long lingerNanos;
+	private final long resendBackoffMillis;
+	private final int maxResends;
+	private final BlockingQueue<Pending> queue;
+	private final Thread flusher;
+	private final PushSpool spool;
+	private final List<PushSpool.Entry> recovered;
+
+	private volatile boolean closed;
+
+	private PushBatchingDispatcher(Builder builder) {
+		this.bulkSender = builder.bulkSender;
+		this.maxBatchSize = builder.maxBatchSize;
+		this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(builder.lingerMillis);
+		this.resendBackoffMillis = builder.resendBackoffMillis;
+		this.maxResends = builder.maxResends;
+		this.queue = new LinkedBlockingQueue<Pending>(builder.maxQueuedNotifications);
+		this.spool = builder.spool;
+		this.recovered = spool == null ? Collections.<PushSpool.Entry> emptyList() : spool.takeRecovered();
+		this.flusher = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				flushUntilClosed();
+			}
+		}, "push-batching-dispatcher");
+		this.flusher.setDaemon(true);
+		this.flusher.start();
+	}
+
+	/**
+	 * Queues the notification for the next bulk request.
+	 *
+	 * @param notification
+	 *            The push notification to be sent.
+	 * @return A future completed with the outcome of the notification. Its
+	 *         status code and response body are those of the notification's
+	 *         entry in the bulk response. It completes exceptionally if the
+	 *         notification could not be queued or no result was received for
+	 *         it. With a spool, it returns once the notification is journaled,
+	 *         and the future completes only once the service has answered for
+	 *         the notification or the dispatcher is closed.
+	 */
+	public CompletableFuture<PushResponse> send(Notification notification) {
+		if (notification == null) {
+			return PushNotificationsClient.failedFuture(
+					new IllegalArgumentException(PushConstants.PushServerSDKExceptions.NULL_NOTIFICATION_EXCEPTION));
+		}
+		if (closed) {
+			return PushNotificationsClient.failedFuture(
+					new PushServerSDKException(PushConstants.PushServerSDKExceptions.DISPATCHER_CLOSED_EXCEPTION));
+		}
+		Pending pending;
+		if (spool == null) {
+			pending = new Pending(notification, NOT_SPOOLED);
+		} else {
+			try {
+				// Serialized once, for the spool and the bulk request.
+				byte[] json = PushMessageSerializer.writeNotification(notification);
+				pending = new Pending(new Notification(notification, json),
+						spool.append(PushMessageSerializer.writeRecord(notification, json, 0)));
+			} catch (PushServerSDKException e) {
+				return PushNotificationsClient.failedFuture(e);
+			}
+		}
+		if (!queue.offer(pending)) {
+			acknowledge(pending);
+			return PushNotificationsClient.failedFuture(
+					new PushServerSDKException(PushConstants.PushServerSDKExceptions.DISPATCHER_QUEUE_FULL_EXCEPTION));
+		}
+		// close() may have drained the queue just before the offer.
+		if (closed && queue.remove(pending)) {
+			acknowledge(pending);
+			pending.future.completeExceptionally(
+					new PushServerSDKException(PushConstants.PushServerSDKExceptions.DISPATCHER_CLOSED_EXCEPTION));
+		}
+		return pending.future;
+	}
+
+	/**
+	 * Queues the notification for the next bulk request and reports the
+	 * outcome to the listener. The listener is called on an I/O thread of the
+	 * HTTP client and must not block.
+	 *
+	 * @param notification
+	 *            The push notification to be sent.
+	 * @param listener
+	 *            PushNotificationsResponseListener to listen to the result of
+	 *            this operation.
+	 */
+	public void send(Notification notification, final PushNotificationsResponseListener listener) {
+		send(notification).whenComplete(new BiConsumer<PushResponse, Throwable>() {
+
+			@Override
+			public void accept(PushResponse response, Throwable t) {
+				if (listener == null) {
+					return;
+				}
+				if (t != null) {
+					listener.onFailure(null, null, t);
+				} else if (response.isSuccess()) {
+					listener.onSuccess(response.getStatusCode(), response.getResponseBody());
+				} else {
+					listener.onFailure(response.getStatusCode(), response.getResponseBody(), null);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return The number of notifications waiting for the next bulk request.
+	 */
+	public int getQueuedNotifications() {
+		return queue.size();
+	}
+
+	/**
+	 * Stops accepting notifications and sends the ones already queued. Waits
+	 * until they have been handed to the HTTP client, but not for the
+	 * responses. Spooled notifications waiting to be sent again fail with
+	 * {@link PushConstants.PushServerSDKExceptions#DISPATCHER_CLOSED_EXCEPTION}.
+	 * The spool is not closed; notifications not answered before it is closed
+	 * are sent again by the next dispatcher.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		try {
+			flusher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		List<Pending> stranded = new ArrayList<Pending>();
+		queue.drainTo(stranded);
+		for (Pending pending : stranded) {
+			pending.future.completeExceptionally(
+					new PushServerSDKException(PushConstants.PushServerSDKExceptions.DISPATCHER_CLOSED_EXCEPTION));
+		}
+	}
+
+	private void flushUntilClosed() {
+		replayRecovered();
+		try {
+			while (true) {
+				Pending first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					if (closed) {
+						return;
+					}
+					continue;
+				}
+				List<Pending> batch = new ArrayList<Pending>(maxBatchSize);
+				batch.add(first);
+				fillBatch(batch, System.nanoTime() + lingerNanos);
+				dispatch(batch);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Adds queued notifications to the batch until it is full or the linger
+	 * deadline has passed. Once closed, it only takes what is already queued.
+	 */
+	private void fillBatch(List<Pending> batch, long deadlineNanos) throws InterruptedException {
+		while (batch.size() < maxBatchSize) {
+			queue.drainTo(batch, maxBatchSize - batch.size());
+			if (batch.size() >= maxBatchSize || closed) {
+				return;
+			}
+			long remainingNanos = deadlineNanos - System.nanoTime();
+			if (remainingNanos <= 0) {
+				return;
+			}
+			Pending next = queue.poll(remainingNanos, TimeUnit.NANOSECONDS);
+			if (next == null) {
+				return;
+			}
+			batch.add(next);
+		}
+	}
+
+	/**
+	 * Sends the notifications recovered from the spool ahead of the new ones.
+	 * Nobody waits for them, so failures are only logged.
+	 */
+	private void replayRecovered() {
+		if (!recovered.isEmpty()) {
+			logger.info("Sending " + recovered.size() + " notifications recovered from the spool.");
+		}
+		List<Pending> batch = new ArrayList<Pending>(Math.min(maxBatchSize, recovered.size()));
+		for (PushSpool.Entry entry : recovered) {
+			Pending pending = new Pending(PushMessageSerializer.readRecord(entry.payload, 0), entry.id);
+			pending.future.whenComplete(new BiConsumer<PushResponse, Throwable>() {
+
+				@Override
+				public void accept(PushResponse response, Throwable t) {
+					if (t != null || !response.isSuccess()) {
+						logger.warning("A notification recovered from the spool failed: "
+								+ (t != null ? t.toString() : response.toString()));
+					}
+				}
+			});
+			batch.add(pending);
+			if (batch.size() == maxBatchSize) {
+				dispatch(batch);
+				batch = new ArrayList<Pending>(maxBatchSize);
+			}
+		}
+		if (!batch.isEmpty()) {
+			dispatch(batch);
+		}
+	}
+
+	private void dispatch(List<Pending> batch) {
+		dispatch(batch, 1);
+	}
+
+	private void dispatch(final List<Pending> batch, final int attempt) {
+		Notification[] notifications = new Notification[batch.size()];
+		for (int i = 0; i < notifications.length; i++) {
+			notifications[i] = batch.get(i).notification;
+		}
+
+		CompletableFuture<BulkResult> response;
+		try {
+			response = bulkSender.apply(notifications);
+		} catch (RuntimeException e) {
+			response = PushNotificationsClient.failedFuture(e);
+		}
+		response.whenComplete(new BiConsumer<BulkResult, Throwable>() {
+
+			@Override
+			public void accept(BulkResult result, Throwable t) {
+				if (t != null) {
+					logger.log(Level.SEVERE, t.toString(), t);
+				}
+				List<Pending> unanswered = new ArrayList<Pending>();
+				for (int i = 0; i < batch.size(); i++) {
+					Pending pending = batch.get(i);
+					if (t == null && isAnswered(result.get(i))) {
+						acknowledge(pending);
+						complete(pending.future, result, result.get(i));
+					} else if (pending.spoolId != NOT_SPOOLED) {
+						unanswered.add(pending);
+					} else if (t != null) {
+						pending.future.completeExceptionally(t);
+					} else {
+						complete(pending.future, result, result.get(i));
+					}
+				}
+				if (!unanswered.isEmpty()) {
+					resendLater(unanswered, attempt);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Sends spooled notifications the service did not answer for again after
+	 * a backoff that doubles with every attempt. Past the resend limit, they
+	 * fail and are left in the spool.
+	 */
+	private void resendLater(final List<Pending> batch, final int attempt) {
+		if (attempt > maxResends) {
+			logger.warning("Giving up on " + batch.size() + " spooled notifications after " + maxResends
+					+ " resends. They stay in the spool for the next dispatcher.");
+			fail(batch, PushConstants.PushServerSDKExceptions.RESENDS_EXHAUSTED_EXCEPTION);
+			return;
+		}
+		long maxDelayMillis = Math.max(resendBackoffMillis, MAX_RESEND_BACKOFF_MILLIS);
+		long delayMillis = resendBackoffMillis;
+		for (int i = 1; i < attempt && delayMillis < maxDelayMillis; i++) {
+			delayMillis *= 2;
+		}
+		delayMillis = Math.min(delayMillis, maxDelayMillis);
+		logger.warning("Sending " + batch.size() + " spooled notifications again in " + delayMillis
+				+ " ms, as the service did not answer for them.");
+		try {
+			PushSchedulers.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					if (closed) {
+						fail(batch, PushConstants.PushServerSDKExceptions.DISPATCHER_CLOSED_EXCEPTION);
+					} else {
+						dispatch(batch, attempt + 1);
+					}
+				}
+			}, delayMillis, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			fail(batch, PushConstants.PushServerSDKExceptions.DISPATCHER_CLOSED_EXCEPTION);
+		}
+	}
+
+	/**
+	 * Fails the callers of notifications that stay in the spool for the next
+	 * dispatcher.
+	 */
+	private static void fail(List<Pending> batch, String message) {
+		for (Pending pending : batch) {
+			pending.future.completeExceptionally(new PushServerSDKException(message));
+		}
+	}
+
+	/**
+	 * @return Whether sending the notification again cannot change its
+	 *         outcome: it was accepted, dropped as a duplicate, or rejected
+	 *         for a reason other than authorization, a timeout or throttling.
+	 */
+	private static boolean isAnswered(BulkResult.NotificationResult result) {
+		return isAnswered(result.getStatusCode(), result.getError());
+	}
+
+	/**
+	 * @see #isAnswered(BulkResult.NotificationResult)
+	 */
+	static boolean isAnswered(Integer statusCode, String error) {
+		if (PushConstants.PushServerSDKExceptions.DUPLICATE_NOTIFICATION_EXCEPTION.equals(error)) {
+			return true;
+		}
+		if (statusCode == null || statusCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+			return false;
+		}
+		return statusCode != HttpStatus.SC_UNAUTHORIZED && statusCode != HttpStatus.SC_REQUEST_TIMEOUT
+				&& statusCode != PushConstants.TOO_MANY_REQUESTS;
+	}
+
+	private void acknowledge(Pending pending) {
+		if (pending.spoolId == NOT_SPOOLED) {
+			return;
+		}
+		try {
+			spool.acknowledge(pending.spoolId);
+		} catch (PushServerSDKException e) {
+			logger.log(Level.WARNING, e.toString(), e);
+		}
+	}
+
+	static void complete(CompletableFuture<PushResponse> future, BulkResult bulkResult,
+			BulkResult.NotificationResult result) {
+		if (result.getStatusCode() == null) {
+			future.completeExceptionally(new PushServerSDKException(result.getError()));
+			return;
+		}
+		String responseBody = result.getResponseEntry() != null ? result.getResponseEntry()
+				: bulkResult.getResponseBody();
+		future.complete(new PushResponse(result.getStatusCode(), responseBody, result.getError()));
+	}
+
+	/**
+	 * A queued notification together with the future of its caller and its id
+	 * in the spool.
+	 */
+	private static final class Pending {
+		private final Notification notification;
+		private final long spoolId;
+		private final CompletableFuture<PushResponse> future = new CompletableFuture<PushResponse>();
+
+		Pending(Notification notification, long spoolId) {
+			this.notification = notification;
+			this.spoolId = spoolId;
+		}
+	}
+
+	/**
+	 *
+	 * Builder for {@link PushBatchingDispatcher}.
+	 *
+	 */
+	public static class Builder {
+
+		private Function<Notification[], CompletableFuture<BulkResult>> bulkSender;
+		private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+		private long lingerMillis = DEFAULT_LINGER_MILLIS;
+		private int maxQueuedNotifications = DEFAULT_MAX_QUEUED_NOTIFICATIONS;
+		private long resendBackoffMillis = DEFAULT_RESEND_BACKOFF_MILLIS;
+		private int maxResends = DEFAULT_MAX_RESENDS;
+		private PushSpool spool;
+
+		/**
+		 *
+		 * @param client
+		 *            The client whose bulk endpoint the notifications are sent
+		 *            to. The client is not closed with the dispatcher.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder client(final PushNotificationsClient client) {
+			this.bulkSender = client == null ? null : new Function<Notification[], CompletableFuture<BulkResult>>() {
+
+				@Override
+				public CompletableFuture<BulkResult> apply(Notification[] notifications) {
+					return client.sendBulkAsyncWithResults(notifications);
+				}
+			};
+			return this;
+		}
+
+		final Builder bulkSender(final Function<Notification[], CompletableFuture<BulkResult>> bulkSender) {
+			this.bulkSender = bulkSender;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param maxBatchSize
+		 *            The number of notifications that are sent as soon as they
+		 *            are queued. Defaults to
+		 *            {@link PushBatchingDispatcher#DEFAULT_MAX_BATCH_SIZE}.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder maxBatchSize(final int maxBatchSize) {
+			this.maxBatchSize = maxBatchSize;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param lingerMillis
+		 *            How long the first notification of a batch waits for
+		 *            others to join it. Bounds the added latency per
+		 *            notification. Defaults to
+		 *            {@link PushBatchingDispatcher#DEFAULT_LINGER_MILLIS}.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder lingerMillis(final long lingerMillis) {
+			this.lingerMillis = lingerMillis;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param maxQueuedNotifications
+		 *            The number of notifications that may wait to be sent
+		 *            before further sends are rejected. Defaults to
+		 *            {@link PushBatchingDispatcher#DEFAULT_MAX_QUEUED_NOTIFICATIONS}.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder maxQueuedNotifications(final int maxQueuedNotifications) {
+			this.maxQueuedNotifications = maxQueuedNotifications;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param spool
+		 *            The spool notifications are journaled in before they are
+		 *            queued. Its unacknowledged notifications are sent first.
+		 *            A spool must be used by one dispatcher at a time and is
+		 *            not closed with it. None by default.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder spool(final PushSpool spool) {
+			this.spool = spool;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param resendBackoffMillis
+		 *            How long a spooled notification the service did not
+		 *            answer for waits before it is sent again the first time.
+		 *            The wait doubles with every further attempt, up to
+		 *            {@link PushBatchingDispatcher#MAX_RESEND_BACKOFF_MILLIS}.
+		 *            Defaults to
+		 *            {@link PushBatchingDispatcher#DEFAULT_RESEND_BACKOFF_MILLIS}.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder resendBackoffMillis(final long resendBackoffMillis) {
+			this.resendBackoffMillis = resendBackoffMillis;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param maxResends
+		 *            How often a spooled notification the service did not
+		 *            answer for is sent again. Once they are used up, its
+		 *            future fails and the notification stays in the spool
+		 *            for the next dispatcher built with it. Defaults to
+		 *            {@link PushBatchingDispatcher#DEFAULT_MAX_RESENDS}, about
+		 *            five minutes with the default backoff.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder maxResends(final int maxResends) {
+			this.maxResends = maxResends;
+			return this;
+		}
+
+		/**
+		 *
+		 * @return the {@link PushBatchingDispatcher} object, already
+		 *         accepting notifications.
+		 */
+		public final PushBatchingDispatcher build() {
+			if (bulkSender == null || maxBatchSize <= 0 || lingerMillis < 0 || maxQueuedNotifications <= 0
+					|| resendBackoffMillis <= 0 || maxResends < 0) {
+				throw new IllegalArgumentException(PushConstants.PushServerSDKExceptions.INVALID_DISPATCHER_EXCEPTION);
+			}
+			return new PushBatchingDispatcher(this);
+		}
+	}
+}
@@ -0,0 +1,434 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stops calling the push service while it is unhealthy.
+ * <p>
+ * The outcome of the last {@link Builder#slidingWindowSize(int)} requests is
+ * kept. Once at least {@link Builder#minimumCalls(int)} of them are known and
+ * the share of failed (5xx or I/O error) or slow requests reaches its
+ * threshold, the breaker opens: further sends fail at once with a
+ * {@link com.ibm.mobilefirstplatform.serversdk.java.push.exception.PushServerSDKException}
+ * instead of waiting for a timeout. After {@link Builder#openDurationMillis(long)}
+ * a few probe requests are let through; if they all succeed the breaker
+ * closes again, otherwise it stays open for another period.
+ *
+ * <pre>
+ * PushCircuitBreaker breaker = new PushCircuitBreaker.Builder().failureRateThreshold(0.5)
+ * 		.listener((from, to) -&gt; logger.warning("Push circuit " + from + " -&gt; " + to)).build();
+ * </pre>
+ */
+public final class PushCircuitBreaker {
+
+	public static final Logger logger = Logger.getLogger(PushCircuitBreaker.class.getName());
+
+	public static final double DEFAULT_FAILURE_RATE_THRESHOLD = 0.5;
+	public static final long DEFAULT_SLOW_CALL_DURATION_MILLIS = 10000L;
+	public static final double DEFAULT_SLOW_CALL_RATE_THRESHOLD = 0.5;
+	public static final int DEFAULT_SLIDING_WINDOW_SIZE = 50;
+	public static final int DEFAULT_MINIMUM_CALLS = 20;
+	public static final long DEFAULT_OPEN_DURATION_MILLIS = 30000L;
+	public static final int DEFAULT_HALF_OPEN_CALLS = 3;
+
+	private static final byte FAILED = 1;
+	private static final byte SLOW = 2;
+
+	private static final PushCircuitBreaker DISABLED = new PushCircuitBreaker(new Builder(), false);
+
+	/**
+	 * The states of the breaker.
+	 */
+	public enum State {
+		/** Requests are sent and their outcome is recorded. */
+		CLOSED,
+		/** Requests fail without being sent. */
+		OPEN,
+		/** A limited number of probe requests are sent. */
+		HALF_OPEN
+	}
+
+	/**
+	 * Notified when the breaker changes its state, for example to raise an
+	 * alert or update a gauge.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called after the transition, on the thread whose request caused
+		 * it. It must not block.
+		 */
+		void onStateTransition(State from, State to);
+	}
+
+	private final boolean enabled;
+	private final double failureRateThreshold;
+	private final long slowCallNanos;
+	private final double slowCallRateThreshold;
+	private final int minimumCalls;
+	private final long openNanos;
+	private final int halfOpenCalls;
+	private final Listener listener;
+	private final LongSupplier clock;
+
+	// Outcomes of the last calls while closed, as a ring buffer.
+	private final byte[] outcomes;
+	private int nextOutcome;
+	private int recordedCalls;
+	private int failedCalls;
+	private int slowCalls;
+
+	private volatile State state = State.CLOSED;
+	private long openedAtNanos;
+	private int halfOpenPermits;
+	private int halfOpenSuccesses;
+
+	private final AtomicLong notPermittedCalls = new AtomicLong();
+
+	private PushCircuitBreaker(Builder builder, boolean enabled) {
+		this.enabled = enabled;
+		this.failureRateThreshold = builder.failureRateThreshold;
+		this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(builder.slowCallDurationMillis);
+		this.slowCallRateThreshold = builder.slowCallRateThreshold;
+		this.minimumCalls = builder.minimumCalls;
+		this.openNanos = TimeUnit.MILLISECONDS.toNanos(builder.openDurationMillis);
+		this.halfOpenCalls = builder.halfOpenCalls;
+		this.listener = builder.listener;
+		this.clock = builder.clock;
+		this.outcomes = new byte[enabled ? builder.slidingWindowSize : 0];
+	}
+
+	/**
+	 *
+	 * @return A new breaker with all default values.
+	 */
+	public static PushCircuitBreaker defaults() {
+		return new Builder().build();
+	}
+
+	/**
+	 *
+	 * @return A breaker that never opens.
+	 */
+	public static PushCircuitBreaker disabled() {
+		return DISABLED;
+	}
+
+	/**
+	 * Asks whether a request may be sent. Every permitted request must be
+	 * followed by exactly one call to {@link #onResult(long, boolean)}.
+	 *
+	 * @return false if the breaker is open, or half-open with all probes
+	 *         already in flight.
+	 */
+	boolean tryAcquirePermission() {
+		if (!enabled) {
+			return true;
+		}
+		State from = null;
+		boolean permitted;
+		synchronized (this) {
+			if (state == State.OPEN && clock.getAsLong() - openedAtNanos >= openNanos) {
+				from = transitionTo(State.HALF_OPEN);
+			}
+			if (state == State.CLOSED) {
+				permitted = true;
+			} else if (state == State.HALF_OPEN && halfOpenPermits > 0) {
+				halfOpenPermits--;
+				permitted = true;
+			} else {
+				permitted = false;
+			}
+		}
+		if (!permitted) {
+			notPermittedCalls.incrementAndGet();
+		}
+		notifyListener(from, State.HALF_OPEN);
+		return permitted;
+	}
+
+	/**
+	 * Records the outcome of a permitted request.
+	 *
+	 * @param durationNanos
+	 *            How long the request took.
+	 * @param failed
+	 *            Whether the service failed to handle it, that is, it
+	 *            answered with a 5xx status or could not be reached.
+	 */
+	void onResult(long durationNanos, boolean failed) {
+		if (!enabled) {
+			return;
+		}
+		boolean slow = durationNanos >= slowCallNanos;
+		State from = null;
+		State to = null;
+		synchronized (this) {
+			if (state == State.HALF_OPEN) {
+				if (failed || slow) {
+					to = State.OPEN;
+				} else if (++halfOpenSuccesses >= halfOpenCalls) {
+					to = State.CLOSED;
+				}
+			} else if (state == State.CLOSED) {
+				record((byte) ((failed ? FAILED : 0) | (slow ? SLOW : 0)));
+				if (recordedCalls >= minimumCalls && (failedCalls >= failureRateThreshold * recordedCalls
+						|| slowCalls >= slowCallRateThreshold * recordedCalls)) {
+					to = State.OPEN;
+				}
+			}
+			// Late results of requests sent before the breaker opened are ignored.
+			if (to != null) {
+				from = transitionTo(to);
+			}
+		}
+		notifyListener(from, to);
+	}
+
+	private void record(byte outcome) {
+		if (recordedCalls == outcomes.length) {
+			byte evicted = outcomes[nextOutcome];
+			failedCalls -= evicted & FAILED;
+			slowCalls -= (evicted & SLOW) >> 1;
+		} else {
+			recordedCalls++;
+		}
+		outcomes[nextOutcome] = outcome;
+		failedCalls += outcome & FAILED;
+		slowCalls += (outcome & SLOW) >> 1;
+		nextOutcome = (nextOutcome + 1) % outcomes.length;
+	}
+
+	/**
+	 * Must be called while holding the lock.
+	 *
+	 * @return The previous state.
+	 */
+	private State transitionTo(State to) {
+		State from = state;
+		state = to;
+		if (to == State.OPEN) {
+			openedAtNanos = clock.getAsLong();
+		} else if (to == State.HALF_OPEN) {
+			halfOpenPermits = halfOpenCalls;
+			halfOpenSuccesses = 0;
+		} else {
+			nextOutcome = 0;
+			recordedCalls = 0;
+			failedCalls = 0;
+			slowCalls = 0;
+		}
+		return from;
+	}
+
+	private void notifyListener(State from, State to) {
+		if (from == null) {
+			return;
+		}
+		logger.log(to == State.OPEN ? Level.WARNING : Level.INFO, "Push circuit breaker " + from + " -> " + to);
+		if (listener != null) {
+			try {
+				listener.onStateTransition(from, to);
+			} catch (RuntimeException e) {
+				logger.log(Level.SEVERE, e.toString(), e);
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return The current state.
+	 */
+	public final State getState() {
+		return state;
+	}
+
+	/**
+	 *
+	 * @return The share of failed requests among the recorded ones, between
+	 *         0 and 1.
+	 */
+	public final synchronized double getFailureRate() {
+		return recordedCalls == 0 ? 0 : (double) failedCalls / recordedCalls;
+	}
+
+	/**
+	 *
+	 * @return The share of slow requests among the recorded ones, between 0
+	 *         and 1.
+	 */
+	public final synchronized double getSlowCallRate() {
+		return recordedCalls == 0 ? 0 : (double) slowCalls / recordedCalls;
+	}
+
+	/**
+	 *
+	 * @return The number of requests that failed fast because the breaker
+	 *         was open.
+	 */
+	public final long getNotPermittedCalls() {
+		return notPermittedCalls.get();
+	}
+
+	@Override
+	public String toString() {
+		return "PushCircuitBreaker [state=" + state + ", failureRate=" + getFailureRate() + ", slowCallRate="
+				+ getSlowCallRate() + ", notPermittedCalls=" + getNotPermittedCalls() + "]";
+	}
+
+	/**
+	 *
+	 * Builder for {@link PushCircuitBreaker}.
+	 *
+	 */
+	public static class Builder {
+
+		private double failureRateThreshold = DEFAULT_FAILURE_RATE_THRESHOLD;
+		private long slowCallDurationMillis = DEFAULT_SLOW_CALL_DURATION_MILLIS;
+		private double slowCallRateThreshold = DEFAULT_SLOW_CALL_RATE_THRESHOLD;
+		private int slidingWindowSize = DEFAULT_SLIDING_WINDOW_SIZE;
+		private int minimumCalls = DEFAULT_MINIMUM_CALLS;
+		private long openDurationMillis = DEFAULT_OPEN_DURATION_MILLIS;
+		private int halfOpenCalls = DEFAULT_HALF_OPEN_CALLS;
+		private Listener listener;
+		private LongSupplier clock = new LongSupplier() {
+
+			@Override
+			public long getAsLong() {
+				return System.nanoTime();
+			}
+		};
+
+		/**
+		 *
+		 * @param failureRateThreshold
+		 *            The share of failed requests, between 0 and 1, at which
+		 *            the breaker opens.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder failureRateThreshold(final double failureRateThreshold) {
+			this.failureRateThreshold = failureRateThreshold;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param slowCallDurationMillis
+		 *            How long a request may take before it counts as slow.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder slowCallDurationMillis(final long slowCallDurationMillis) {
+			this.slowCallDurationMillis = slowCallDurationMillis;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param slowCallRateThreshold
+		 *            The share of slow requests, between 0 and 1, at which the
+		 *            breaker opens.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder slowCallRateThreshold(final double slowCallRateThreshold) {
+			this.slowCallRateThreshold = slowCallRateThreshold;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param slidingWindowSize
+		 *            The number of most recent requests the rates are computed
+		 *            over.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder slidingWindowSize(final int slidingWindowSize) {
+			this.slidingWindowSize = slidingWindowSize;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param minimumCalls
+		 *            The number of requests that must be recorded before the
+		 *            breaker may open, so a single early failure does not
+		 *            trip it.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder minimumCalls(final int minimumCalls) {
+			this.minimumCalls = minimumCalls;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param openDurationMillis
+		 *            How long the breaker stays open before letting probe
+		 *            requests through.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder openDurationMillis(final long openDurationMillis) {
+			this.openDurationMillis = openDurationMillis;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param halfOpenCalls
+		 *            The number of probe requests that must all succeed for
+		 *            the breaker to close again.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder halfOpenCalls(final int halfOpenCalls) {
+			this.halfOpenCalls = halfOpenCalls;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param listener
+		 *            Notified of every state transition.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder listener(final Listener listener) {
+			this.listener = listener;
+			return this;
+		}
+
+		final Builder clock(final LongSupplier clock) {
+			this.clock = clock;
+			return this;
+		}
+
+		/**
+		 *
+		 * @return the {@link PushCircuitBreaker} object, closed.
+		 */
+		public final PushCircuitBreaker build() {
+			if (failureRateThreshold <= 0 || failureRateThreshold > 1 || slowCallDurationMillis <= 0
+					|| slowCallRateThreshold <= 0 || slowCallRateThreshold > 1 || slidingWindowSize <= 0
+					|| minimumCalls <= 0 || minimumCalls > slidingWindowSize || openDurationMillis < 0
+					|| halfOpenCalls <= 0 || clock == null) {
+				throw new IllegalArgumentException(
+						PushConstants.PushServerSDKExceptions.INVALID_CIRCUIT_BREAKER_EXCEPTION);
+			}
+			return new PushCircuitBreaker(this, true);
+		}
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import java.util.zip.Deflater;
+
+import org.apache.http.HttpEntity;
+
+/**
+ *
+ * Gzip compression of request bodies. Bodies at least as large as the
+ * threshold are compressed while they are sent and carry a
+ * {@code Content-Encoding: gzip} header; the compressed body is never held in
+ * memory as a whole. Bulk bodies that are serialized while they are sent have
+ * no known size, so they are always compressed.
+ * <p>
+ * Compression is off by default. Set it for a client through
+ * {@link PushNotificationsClient.Builder#compression(PushCompression)}, or for
+ * the static API through {@link PushNotifications#setCompression(PushCompression)}.
+ *
+ */
+public final class PushCompression {
+
+	public static final int DEFAULT_THRESHOLD_BYTES = 8192;
+	public static final int DEFAULT_LEVEL = Deflater.DEFAULT_COMPRESSION;
+
+	private static final PushCompression DISABLED = new PushCompression(false, Integer.MAX_VALUE, DEFAULT_LEVEL);
+
+	private final boolean enabled;
+	private final int thresholdBytes;
+	private final int level;
+
+	private PushCompression(boolean enabled, int thresholdBytes, int level) {
+		this.enabled = enabled;
+		this.thresholdBytes = thresholdBytes;
+		this.level = level;
+	}
+
+	/**
+	 *
+	 * @return gzip compression of bodies of at least
+	 *         {@link #DEFAULT_THRESHOLD_BYTES} at the default level.
+	 */
+	public static PushCompression defaults() {
+		return new Builder().build();
+	}
+
+	/**
+	 *
+	 * @return the {@link PushCompression} that sends all bodies uncompressed.
+	 */
+	public static PushCompression disabled() {
+		return DISABLED;
+	}
+
+	public final boolean isEnabled() {
+		return enabled;
+	}
+
+	public final int getThresholdBytes() {
+		return thresholdBytes;
+	}
+
+	public final int getLevel() {
+		return level;
+	}
+
+	/**
+	 * @return The entity compressed if it is large enough or of unknown size,
+	 *         otherwise the entity itself.
+	 */
+	final HttpEntity apply(HttpEntity entity) {
+		if (!enabled) {
+			return entity;
+		}
+		long length = entity.getContentLength();
+		if (length >= 0 && length < thresholdBytes) {
+			return entity;
+		}
+		return new GzipRequestEntity(entity, level);
+	}
+
+	@Override
+	public String toString() {
+		return "PushCompression [enabled=" + enabled + ", thresholdBytes=" + thresholdBytes + ", level=" + level
+				+ "]";
+	}
+
+	/**
+	 *
+	 * Builder for {@link PushCompression}.
+	 *
+	 */
+	public static class Builder {
+
+		private int thresholdBytes = DEFAULT_THRESHOLD_BYTES;
+		private int level = DEFAULT_LEVEL;
+
+		/**
+		 *
+		 * @param thresholdBytes
+		 *            The size from which bodies are compressed. 0 compresses
+		 *            all bodies.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder thresholdBytes(final int thresholdBytes) {
+			this.thresholdBytes = thresholdBytes;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param level
+		 *            The compression level from 0, none, to 9, best, or -1
+		 *            for the default of the platform.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder level(final int level) {
+			this.level = level;
+			return this;
+		}
+
+		/**
+		 *
+		 * @return the {@link PushCompression} object.
+		 */
+		public final PushCompression build() {
+			if (thresholdBytes < 0 || level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+				throw new IllegalArgumentException(PushConstants.PushServerSDKExceptions.INVALID_COMPRESSION_EXCEPTION);
+			}
+			return new PushCompression(true, thresholdBytes, level);
+		}
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.pool.ConnPoolControl;
+import org.apache.http.pool.PoolStats;
+
+/**
+ * The state of a pooled HTTP client for {@link PushMetrics}. The pool may be
+ * reported before its client exists, as non-blocking clients are only
+ * created on first use; until then it is empty.
+ */
+final class PushConnectionPool implements PushMetrics.ConnectionPool {
+
+	private static final PoolStats EMPTY = new PoolStats(0, 0, 0, 0);
+
+	private final String name;
+	private volatile ConnPoolControl<HttpRoute> control;
+
+	PushConnectionPool(String name) {
+		this.name = name;
+	}
+
+	void bind(ConnPoolControl<HttpRoute> control) {
+		this.control = control;
+	}
+
+	private PoolStats stats() {
+		ConnPoolControl<HttpRoute> current = control;
+		return current != null ? current.getTotalStats() : EMPTY;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public int getLeased() {
+		return stats().getLeased();
+	}
+
+	@Override
+	public int getAvailable() {
+		return stats().getAvailable();
+	}
+
+	@Override
+	public int getPending() {
+		return stats().getPending();
+	}
+
+	@Override
+	public int getMax() {
+		return stats().getMax();
+	}
+
+	@Override
+	public String toString() {
+		return "PushConnectionPool [name=" + name + ", " + stats() + "]";
+	}
+}
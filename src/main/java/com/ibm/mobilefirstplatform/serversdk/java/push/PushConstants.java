@@ -40,10 +40,13 @@ public final class PushConstants {
 	public static final String UTFEIGHT = "UTF-8";
 	public static final String ACCESS_TOKEN = "access_token";
 	public static final String EXPIRATION = "expiration";
+	public static final String EXPIRES_IN = "expires_in";
 	public static final String BEARER = "Bearer";
 	public static final String EMPTY_SPACE = " ";
 	public static final String ALERT_NOT_NULL_EXCEPTION = "The alert cannot be null. Please use MessageBuilder to set alert";
 	public static final String TLS_VERSION = "TLSv1.2";
+	public static final int TOO_MANY_REQUESTS = 429;
+	public static final String RETRY_AFTER_HEADER = "Retry-After";
 
 	private PushConstants() {
 
@@ -57,5 +60,34 @@ public final class PushConstants {
 		public static final String ALERT_NOT_NULL_EXCEPTION = "FPSDK0005A: The alert cannot be null. Please use MessageBuilder to set alert";
 		public static final String JSON_PARSER_EXCEPTION = "FPSDK0006A:  Header elements cannot be parsed";
 		public static final String JSON_IO_EXCEPTION = "FPSDK0007A: An error occurs reading the input stream";
+		public static final String INVALID_HTTP_CLIENT_CONFIG_EXCEPTION = "FPSDK0008A: Connection pool limits must be positive.";
+		public static final String INVALID_CLIENT_EXCEPTION = "FPSDK0009A: PushNotificationsClient requires a tenant ID, a region or server host, and either an app secret or an API key.";
+		public static final String INVALID_DEBUG_LOG_EXCEPTION = "FPSDK0010A: The debug log needs a level and a sample rate between 0 and 1.";
+		public static final String INVALID_PROXY_CONFIG_EXCEPTION = "FPSDK0011A: The proxy configuration must not be null and the proxy port must be positive.";
+		public static final String JSON_SERIALIZATION_EXCEPTION = "FPSDK0012A: The notification could not be serialized to JSON.";
+		public static final String INVALID_DISPATCHER_EXCEPTION = "FPSDK0013A: The dispatcher needs a client, a positive batch size, queue capacity and resend backoff, and a linger time and resend limit of at least 0.";
+		public static final String DISPATCHER_CLOSED_EXCEPTION = "FPSDK0014A: The dispatcher has been closed.";
+		public static final String DISPATCHER_QUEUE_FULL_EXCEPTION = "FPSDK0015A: Too many notifications are waiting to be sent.";
+		public static final String MISSING_BULK_RESULT_EXCEPTION = "FPSDK0016A: The bulk response contains no result for this notification.";
+		public static final String INVALID_RETRY_POLICY_EXCEPTION = "FPSDK0017A: The retry policy needs at least one attempt and non-negative backoff and budget settings.";
+		public static final String INVALID_CIRCUIT_BREAKER_EXCEPTION = "FPSDK0018A: The circuit breaker needs thresholds between 0 and 1, a positive window and probe count, and at most as many minimum calls as the window holds.";
+		public static final String CIRCUIT_OPEN_EXCEPTION = "FPSDK0019A: The push service is failing; requests are not sent until the circuit breaker closes again.";
+		public static final String INVALID_RATE_LIMITER_EXCEPTION = "FPSDK0020A: The rate limiter needs a positive rate, a minimum rate not above it, and a non-negative burst and wait.";
+		public static final String RATE_LIMITED_EXCEPTION = "FPSDK0021A: The request was not sent because the client-side rate limit would not allow it within the maximum wait.";
+		public static final String INVALID_REQUEST_OPTIONS_EXCEPTION = "FPSDK0022A: The request options need non-negative timeouts and deadline.";
+		public static final String DEADLINE_EXCEEDED_EXCEPTION = "FPSDK0023A: The send did not complete within its deadline.";
+		public static final String INVALID_TEMPLATE_EXCEPTION = "FPSDK0024A: A notification template needs settings, and its notifications a message with an alert and a value for each variable.";
+		public static final String INVALID_COMPRESSION_EXCEPTION = "FPSDK0025A: The compression needs a non-negative threshold and a level from -1 to 9.";
+		public static final String INVALID_TRANSPORT_EXCEPTION = "FPSDK0026A: The HTTP/2 transport needs at least one I/O thread.";
+		public static final String INVALID_METRICS_EXCEPTION = "FPSDK0027A: Metrics need a registry to record in.";
+		public static final String INVALID_SPOOL_EXCEPTION = "FPSDK0028A: The spool needs a directory and a segment size of at least 4 KB.";
+		public static final String SPOOL_IO_EXCEPTION = "FPSDK0029A: The spool could not be read or written, or is used by another process.";
+		public static final String DUPLICATE_NOTIFICATION_EXCEPTION = "FPSDK0030A: The notification was dropped as a duplicate of one sent within the deduplication window.";
+		public static final String INVALID_DEDUPLICATOR_EXCEPTION = "FPSDK0031A: The deduplicator needs a positive window and room for at least one key.";
+		public static final String INVALID_SCHEDULER_EXCEPTION = "FPSDK0032A: The scheduler needs a dispatcher, a positive tick and resend backoff, and a wheel size that is a power of two.";
+		public static final String SCHEDULER_CLOSED_EXCEPTION = "FPSDK0033A: The scheduler is closed and accepts no further notifications.";
+		public static final String UNKNOWN_BULK_RESULT_EXCEPTION = "FPSDK0034A: The bulk response entry for this notification has neither a message ID nor a status, so its outcome is unknown.";
+		public static final String CLIENT_CLOSED_EXCEPTION = "FPSDK0035A: The client has been closed and sends no further notifications.";
+		public static final String RESENDS_EXHAUSTED_EXCEPTION = "FPSDK0036A: The service did not answer for the notification within the resend limit; it stays in the spool for the next dispatcher.";
 	}
 }
@@ -0,0 +1,294 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Debug log of the requests sent to the Push Notifications and IAM services.
+ * <p>
+ * Events are passed as a name plus ordered fields to a {@link Sink}; the
+ * default sink writes them to {@code java.util.logging} at {@link Level#FINE}.
+ * Nothing is formatted unless the sink is enabled for the level and the
+ * request is picked by the sample rate. The {@code appSecret} and
+ * {@code Authorization} headers, API keys and access tokens are always
+ * masked.
+ */
+public final class PushDebugLog {
+
+	static final String REDACTED = "***";
+
+	private static final Pattern SECRET_FIELDS = Pattern
+			.compile("(\"(?:access_token|refresh_token|apikey|appSecret)\"\\s*:\\s*\")[^\"]*(\")");
+
+	private static final Pattern SECRET_FORM_FIELDS = Pattern.compile("((?:^|&)apikey=)[^&]*");
+
+	private static final PushDebugLog DISABLED = new Builder().sink(new Sink() {
+
+		@Override
+		public boolean isEnabled(Level level) {
+			return false;
+		}
+
+		@Override
+		public void log(Level level, String event, Map<String, Object> fields) {
+		}
+	}).build();
+
+	/**
+	 * Destination of the debug events.
+	 */
+	public interface Sink {
+
+		/**
+		 * @return Whether events at the given level would be written. Called
+		 *         on every request, so it should be cheap.
+		 */
+		boolean isEnabled(Level level);
+
+		/**
+		 * Writes one event.
+		 *
+		 * @param level
+		 *            The level the log was configured with.
+		 * @param event
+		 *            The event name, for example {@code push.request}.
+		 * @param fields
+		 *            The already redacted fields of the event, in order.
+		 */
+		void log(Level level, String event, Map<String, Object> fields);
+	}
+
+	private final Sink sink;
+	private final Level level;
+	private final double sampleRate;
+	private final boolean logBodies;
+
+	private PushDebugLog(Builder builder) {
+		this.sink = builder.sink;
+		this.level = builder.level;
+		this.sampleRate = builder.sampleRate;
+		this.logBodies = builder.logBodies;
+	}
+
+	/**
+	 *
+	 * @return A log writing every request to the
+	 *         {@code com.ibm.mobilefirstplatform.serversdk.java.push} logger
+	 *         at {@link Level#FINE}.
+	 */
+	public static PushDebugLog defaults() {
+		return new Builder().build();
+	}
+
+	/**
+	 *
+	 * @return A log that never writes anything.
+	 */
+	public static PushDebugLog disabled() {
+		return DISABLED;
+	}
+
+	/**
+	 * Decides whether the current request is logged. The result should be
+	 * kept for all events of the request, so that they are sampled together.
+	 *
+	 * @return true if the events of this request should be logged.
+	 */
+	public boolean sample() {
+		if (!sink.isEnabled(level)) {
+			return false;
+		}
+		return sampleRate >= 1.0 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+	}
+
+	void request(String event, HttpUriRequest request) {
+		Map<String, Object> fields = new LinkedHashMap<String, Object>();
+		fields.put("method", request.getMethod());
+		fields.put("uri", request.getURI());
+		for (Header header : request.getAllHeaders()) {
+			fields.put("header." + header.getName(), redactHeader(header.getName(), header.getValue()));
+		}
+		if (logBodies && request instanceof HttpEntityEnclosingRequest) {
+			HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+			if (entity != null && entity.isRepeatable() && entity.getContentLength() >= 0) {
+				try {
+					fields.put("body", redactBody(EntityUtils.toString(entity, PushConstants.UTFEIGHT)));
+				} catch (IOException e) {
+					fields.put("body", e.toString());
+				}
+			}
+		}
+		sink.log(level, event, fields);
+	}
+
+	void response(String event, Integer statusCode, String body, long startNanos) {
+		Map<String, Object> fields = new LinkedHashMap<String, Object>();
+		fields.put("status", statusCode);
+		fields.put("elapsedMillis", (System.nanoTime() - startNanos) / 1000000L);
+		if (logBodies && body != null) {
+			fields.put("body", redactBody(body));
+		}
+		sink.log(level, event, fields);
+	}
+
+	void failure(String event, Throwable t, long startNanos) {
+		Map<String, Object> fields = new LinkedHashMap<String, Object>();
+		fields.put("error", t);
+		fields.put("elapsedMillis", (System.nanoTime() - startNanos) / 1000000L);
+		sink.log(level, event, fields);
+	}
+
+	static String redactHeader(String name, String value) {
+		if (PushConstants.APPSECRET.equalsIgnoreCase(name)) {
+			return REDACTED;
+		}
+		if (PushConstants.AUTHORIZATION_HEADER.equalsIgnoreCase(name)) {
+			int space = value.indexOf(' ');
+			return space > 0 ? value.substring(0, space + 1) + REDACTED : REDACTED;
+		}
+		return value;
+	}
+
+	static String redactBody(String body) {
+		String redacted = SECRET_FIELDS.matcher(body).replaceAll("$1" + REDACTED + "$2");
+		return SECRET_FORM_FIELDS.matcher(redacted).replaceAll("$1" + REDACTED);
+	}
+
+	/**
+	 *
+	 * Builder for {@link PushDebugLog}.
+	 *
+	 */
+	public static class Builder {
+
+		private Sink sink;
+		private Level level = Level.FINE;
+		private double sampleRate = 1.0;
+		private boolean logBodies = true;
+
+		/**
+		 *
+		 * @param sink
+		 *            Where to write the events. Defaults to the
+		 *            {@code com.ibm.mobilefirstplatform.serversdk.java.push}
+		 *            java.util.logging logger.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder sink(final Sink sink) {
+			this.sink = sink;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param logger
+		 *            A java.util.logging logger to write the events to.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder logger(final Logger logger) {
+			this.sink = new LoggerSink(logger);
+			return this;
+		}
+
+		/**
+		 *
+		 * @param level
+		 *            The level events are written at. Defaults to
+		 *            {@link Level#FINE}.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder level(final Level level) {
+			this.level = level;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param sampleRate
+		 *            The fraction of requests to log, between 0 and 1.
+		 *            Defaults to 1, every request.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder sampleRate(final double sampleRate) {
+			this.sampleRate = sampleRate;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param logBodies
+		 *            Whether request and response bodies are logged. Defaults
+		 *            to true.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder logBodies(final boolean logBodies) {
+			this.logBodies = logBodies;
+			return this;
+		}
+
+		/**
+		 *
+		 * @return the {@link PushDebugLog} object.
+		 */
+		public final PushDebugLog build() {
+			if (sampleRate < 0 || sampleRate > 1 || level == null) {
+				throw new IllegalArgumentException(PushConstants.PushServerSDKExceptions.INVALID_DEBUG_LOG_EXCEPTION);
+			}
+			if (sink == null) {
+				sink = new LoggerSink(Logger.getLogger(PushDebugLog.class.getPackage().getName()));
+			}
+			return new PushDebugLog(this);
+		}
+	}
+
+	/**
+	 * Writes events as {@code event key=value ...} lines to a
+	 * java.util.logging logger.
+	 */
+	private static final class LoggerSink implements Sink {
+
+		private final Logger logger;
+
+		LoggerSink(Logger logger) {
+			this.logger = logger;
+		}
+
+		@Override
+		public boolean isEnabled(Level level) {
+			return logger.isLoggable(level);
+		}
+
+		@Override
+		public void log(Level level, String event, Map<String, Object> fields) {
+			StringBuilder line = new StringBuilder(event);
+			for (Map.Entry<String, Object> field : fields.entrySet()) {
+				line.append(' ').append(field.getKey()).append('=').append(field.getValue());
+			}
+			logger.log(level, line.toString());
+		}
+	}
+}
@@ -0,0 +1,282 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Drops notifications whose {@link Notification#getDedupKey()} was already
+ * sent within a time window, before they reach the network. Set through
+ * {@link PushNotificationsClient.Builder#deduplicator(PushDeduplicator)}.
+ * <p>
+ * A duplicate fails with
+ * {@link PushConstants.PushServerSDKExceptions#DUPLICATE_NOTIFICATION_EXCEPTION}
+ * instead of being sent. Within a bulk send, only the duplicates are dropped.
+ * A key is released again when its send fails, so that it can be retried.
+ * <p>
+ * Keys are held as 64-bit hashes in an open-addressing table, in the order
+ * they were sent, so memory is bounded by {@link Builder#maxKeys(int)}. Once
+ * that many keys were sent within the window, the oldest are forgotten before
+ * it ends. Two keys with the same hash are treated as one, which is unlikely
+ * enough to be ignored.
+ *
+ * <pre>
+ * new PushNotificationsClient.Builder()...deduplicator(new PushDeduplicator.Builder().windowMillis(600000).build()).build();
+ * client.send(new Notification.Builder().message(message).dedupKey("order-4711-shipped").build(), listener);
+ * </pre>
+ */
+public final class PushDeduplicator {
+
+	public static final long DEFAULT_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(10);
+	public static final int DEFAULT_MAX_KEYS = 100000;
+
+	private static final PushDeduplicator DISABLED = new PushDeduplicator(new Builder(), false);
+
+	private final boolean enabled;
+	private final long windowNanos;
+	private final int maxKeys;
+	private final LongSupplier clock;
+
+	// The hash and send time of every key, as a ring buffer indexed by the sequence number of the send.
+	private final long[] sentHashes;
+	private final long[] sentAtNanos;
+	private long oldest;
+	private long next;
+
+	// The held hashes and the sequence number they were sent with. 0 marks a free slot.
+	private final long[] table;
+	private final long[] tableSequences;
+	private final int mask;
+	private int size;
+
+	private PushDeduplicator(Builder builder, boolean enabled) {
+		this.enabled = enabled;
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(builder.windowMillis);
+		this.maxKeys = builder.maxKeys;
+		this.clock = builder.clock;
+		int ringSize = enabled ? maxKeys : 0;
+		int tableSize = enabled ? Integer.highestOneBit(Math.max(1, maxKeys - 1)) << 2 : 0;
+		this.sentHashes = new long[ringSize];
+		this.sentAtNanos = new long[ringSize];
+		this.table = new long[tableSize];
+		this.tableSequences = new long[tableSize];
+		this.mask = tableSize - 1;
+	}
+
+	/**
+	 *
+	 * @return A new deduplicator with all default values.
+	 */
+	public static PushDeduplicator defaults() {
+		return new Builder().build();
+	}
+
+	/**
+	 *
+	 * @return A deduplicator that sends every notification.
+	 */
+	public static PushDeduplicator disabled() {
+		return DISABLED;
+	}
+
+	final boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return The number of keys held.
+	 */
+	public synchronized int getSize() {
+		return size;
+	}
+
+	/**
+	 * Records the key of the notification, unless it is held already.
+	 *
+	 * @return false if the notification is a duplicate and must not be sent.
+	 */
+	final boolean tryAcquire(Notification notification) {
+		String key = notification.getDedupKey();
+		if (!enabled || key == null) {
+			return true;
+		}
+		long hash = hash(key);
+		synchronized (this) {
+			long now = clock.getAsLong();
+			while (oldest < next && (now - sentAtNanos[index(oldest)] >= windowNanos || next - oldest >= maxKeys)) {
+				forgetOldest();
+			}
+			if (find(hash) >= 0) {
+				return false;
+			}
+			sentHashes[index(next)] = hash;
+			sentAtNanos[index(next)] = now;
+			insert(hash, next++);
+			return true;
+		}
+	}
+
+	/**
+	 * Forgets the key of a notification whose send failed.
+	 */
+	final void release(Notification notification) {
+		String key = notification.getDedupKey();
+		if (!enabled || key == null) {
+			return;
+		}
+		long hash = hash(key);
+		synchronized (this) {
+			int slot = find(hash);
+			if (slot >= 0) {
+				removeAt(slot);
+			}
+		}
+	}
+
+	private int index(long sequence) {
+		return (int) (sequence % maxKeys);
+	}
+
+	private void forgetOldest() {
+		int slot = find(sentHashes[index(oldest)]);
+		// The key may have been released and sent again since.
+		if (slot >= 0 && tableSequences[slot] == oldest) {
+			removeAt(slot);
+		}
+		oldest++;
+	}
+
+	private int find(long hash) {
+		for (int slot = (int) hash & mask;; slot = (slot + 1) & mask) {
+			if (table[slot] == 0) {
+				return -1;
+			}
+			if (table[slot] == hash) {
+				return slot;
+			}
+		}
+	}
+
+	private void insert(long hash, long sequence) {
+		int slot = (int) hash & mask;
+		while (table[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		table[slot] = hash;
+		tableSequences[slot] = sequence;
+		size++;
+	}
+
+	/**
+	 * Frees the slot and moves later entries of its probe sequence back, so
+	 * that lookups never stop at a hole before their entry.
+	 */
+	private void removeAt(int slot) {
+		int free = slot;
+		for (int i = (free + 1) & mask; table[i] != 0; i = (i + 1) & mask) {
+			int home = (int) table[i] & mask;
+			boolean reachable = free <= i ? free < home && home <= i : free < home || home <= i;
+			if (!reachable) {
+				table[free] = table[i];
+				tableSequences[free] = tableSequences[i];
+				free = i;
+			}
+		}
+		table[free] = 0;
+		size--;
+	}
+
+	/**
+	 * A 64-bit FNV-1a hash of the key with the finalizer of MurmurHash3, so
+	 * that its low bits are evenly spread over the table.
+	 */
+	static long hash(String key) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); i++) {
+			hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash == 0 ? 1 : hash;
+	}
+
+	@Override
+	public String toString() {
+		return "PushDeduplicator [enabled=" + enabled + ", windowMillis=" + TimeUnit.NANOSECONDS.toMillis(windowNanos)
+				+ ", maxKeys=" + maxKeys + "]";
+	}
+
+	/**
+	 *
+	 * Builder for {@link PushDeduplicator}.
+	 *
+	 */
+	public static class Builder {
+
+		private long windowMillis = DEFAULT_WINDOW_MILLIS;
+		private int maxKeys = DEFAULT_MAX_KEYS;
+		private LongSupplier clock = new LongSupplier() {
+
+			@Override
+			public long getAsLong() {
+				return System.nanoTime();
+			}
+		};
+
+		/**
+		 *
+		 * @param windowMillis
+		 *            How long after a send the same key is dropped. Defaults
+		 *            to {@link PushDeduplicator#DEFAULT_WINDOW_MILLIS}.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder windowMillis(final long windowMillis) {
+			this.windowMillis = windowMillis;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param maxKeys
+		 *            The number of keys held at most, which bounds the memory
+		 *            used to at most 80 bytes per key. Defaults to
+		 *            {@link PushDeduplicator#DEFAULT_MAX_KEYS}.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder maxKeys(final int maxKeys) {
+			this.maxKeys = maxKeys;
+			return this;
+		}
+
+		final Builder clock(final LongSupplier clock) {
+			this.clock = clock;
+			return this;
+		}
+
+		/**
+		 *
+		 * @return the {@link PushDeduplicator} object.
+		 */
+		public final PushDeduplicator build() {
+			if (windowMillis <= 0 || maxKeys <= 0 || maxKeys > (1 << 28)) {
+				throw new IllegalArgumentException(PushConstants.PushServerSDKExceptions.INVALID_DEDUPLICATOR_EXCEPTION);
+			}
+			return new PushDeduplicator(this, true);
+		}
+	}
+}
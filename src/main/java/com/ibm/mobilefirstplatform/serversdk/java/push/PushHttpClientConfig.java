@@ -0,0 +1,157 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+/**
+ *
+ * Settings for the long-lived, pooled HTTP client the SDK uses to talk to the
+ * Push Notifications service.
+ *
+ */
+public final class PushHttpClientConfig {
+
+	public static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 50;
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+	public static final long DEFAULT_KEEP_ALIVE_MILLIS = 30000L;
+	public static final long DEFAULT_IDLE_CONNECTION_TIMEOUT_MILLIS = 60000L;
+	public static final int DEFAULT_VALIDATE_AFTER_INACTIVITY_MILLIS = 2000;
+
+	private final int maxTotalConnections;
+	private final int maxConnectionsPerRoute;
+	private final long keepAliveMillis;
+	private final long idleConnectionTimeoutMillis;
+	private final int validateAfterInactivityMillis;
+
+	public final int getMaxTotalConnections() {
+		return maxTotalConnections;
+	}
+
+	public final int getMaxConnectionsPerRoute() {
+		return maxConnectionsPerRoute;
+	}
+
+	public final long getKeepAliveMillis() {
+		return keepAliveMillis;
+	}
+
+	public final long getIdleConnectionTimeoutMillis() {
+		return idleConnectionTimeoutMillis;
+	}
+
+	public final int getValidateAfterInactivityMillis() {
+		return validateAfterInactivityMillis;
+	}
+
+	private PushHttpClientConfig(Builder builder) {
+		this.maxTotalConnections = builder.maxTotalConnections;
+		this.maxConnectionsPerRoute = builder.maxConnectionsPerRoute;
+		this.keepAliveMillis = builder.keepAliveMillis;
+		this.idleConnectionTimeoutMillis = builder.idleConnectionTimeoutMillis;
+		this.validateAfterInactivityMillis = builder.validateAfterInactivityMillis;
+	}
+
+	/**
+	 *
+	 * @return the {@link PushHttpClientConfig} with all default values.
+	 */
+	public static PushHttpClientConfig defaults() {
+		return new Builder().build();
+	}
+
+	/**
+	 *
+	 * Builder for {@link PushHttpClientConfig}.
+	 *
+	 */
+	public static class Builder {
+
+		private int maxTotalConnections = DEFAULT_MAX_TOTAL_CONNECTIONS;
+		private int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+		private long keepAliveMillis = DEFAULT_KEEP_ALIVE_MILLIS;
+		private long idleConnectionTimeoutMillis = DEFAULT_IDLE_CONNECTION_TIMEOUT_MILLIS;
+		private int validateAfterInactivityMillis = DEFAULT_VALIDATE_AFTER_INACTIVITY_MILLIS;
+
+		/**
+		 *
+		 * @param maxTotalConnections
+		 *            The maximum number of connections kept in the pool
+		 *            across all routes.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder maxTotalConnections(final int maxTotalConnections) {
+			this.maxTotalConnections = maxTotalConnections;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param maxConnectionsPerRoute
+		 *            The maximum number of connections kept in the pool for a
+		 *            single host, for example the push or the IAM endpoint.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder maxConnectionsPerRoute(final int maxConnectionsPerRoute) {
+			this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param keepAliveMillis
+		 *            How long a connection is kept for reuse when the server
+		 *            does not send a Keep-Alive header.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder keepAliveMillis(final long keepAliveMillis) {
+			this.keepAliveMillis = keepAliveMillis;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param idleConnectionTimeoutMillis
+		 *            Connections idle for longer than this are evicted from the
+		 *            pool by a background thread.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder idleConnectionTimeoutMillis(final long idleConnectionTimeoutMillis) {
+			this.idleConnectionTimeoutMillis = idleConnectionTimeoutMillis;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param validateAfterInactivityMillis
+		 *            Pooled connections idle for longer than this are checked
+		 *            for staleness before being leased again.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder validateAfterInactivityMillis(final int validateAfterInactivityMillis) {
+			this.validateAfterInactivityMillis = validateAfterInactivityMillis;
+			return this;
+		}
+
+		/**
+		 *
+		 * @return the {@link PushHttpClientConfig} object.
+		 */
+		public final PushHttpClientConfig build() {
+			if (maxTotalConnections <= 0 || maxConnectionsPerRoute <= 0) {
+				throw new IllegalArgumentException(
+						PushConstants.PushServerSDKExceptions.INVALID_HTTP_CLIENT_CONFIG_EXCEPTION);
+			}
+			return new PushHttpClientConfig(this);
+		}
+	}
+}
@@ -0,0 +1,223 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.routing.HttpRoutePlanner;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.protocol.HttpContext;
+
+import com.ibm.mobilefirstplatform.serversdk.java.push.exception.PushServerSDKException;
+
+/**
+ * Factory for the pooled HTTP clients used to reach the Push Notifications
+ * service. The clients are meant to be created once and reused for every
+ * request, so that connections and TLS sessions are kept alive between sends.
+ */
+public final class PushHttpClients {
+
+	private PushHttpClients() {
+
+	}
+
+	/**
+	 * Creates a new pooled HTTP client. The caller owns the returned client and
+	 * must close it when it is no longer needed. Requests are routed through
+	 * the proxy set in the system properties when the client is created.
+	 *
+	 * @param config
+	 *            The pool and keep-alive settings.
+	 * @return A new client backed by a {@link PoolingHttpClientConnectionManager}.
+	 * @see PushProxyConfig#fromSystemProperties()
+	 */
+	public static CloseableHttpClient createPooledClient(final PushHttpClientConfig config) {
+		return createPooledClient(config, new PushRoutePlanner(PushProxyConfig.fromSystemProperties()));
+	}
+
+	static CloseableHttpClient createPooledClient(final PushHttpClientConfig config,
+			final HttpRoutePlanner routePlanner) {
+		return createPooledClient(config, routePlanner, null);
+	}
+
+	/**
+	 * Like {@link #createPooledClient(PushHttpClientConfig)}, reporting the
+	 * state of the pool through the given one if it is not null.
+	 */
+	static CloseableHttpClient createPooledClient(final PushHttpClientConfig config,
+			final HttpRoutePlanner routePlanner, final PushConnectionPool pool) {
+		SSLConnectionSocketFactory sslSocketFactory = new SSLConnectionSocketFactory(createSSLContext());
+
+		Registry<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory> create()
+				.register("http", PlainConnectionSocketFactory.getSocketFactory())
+				.register("https", sslSocketFactory).build();
+
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(registry);
+		connectionManager.setMaxTotal(config.getMaxTotalConnections());
+		connectionManager.setDefaultMaxPerRoute(config.getMaxConnectionsPerRoute());
+		connectionManager.setValidateAfterInactivity(config.getValidateAfterInactivityMillis());
+		if (pool != null) {
+			pool.bind(connectionManager);
+		}
+
+		return HttpClients.custom().setConnectionManager(connectionManager).setRoutePlanner(routePlanner)
+				.setDefaultRequestConfig(PushRequestOptions.defaults().toRequestConfig())
+				.setKeepAliveStrategy(keepAliveStrategy(config.getKeepAliveMillis())).evictExpiredConnections()
+				.evictIdleConnections(config.getIdleConnectionTimeoutMillis(), TimeUnit.MILLISECONDS).build();
+	}
+
+	/**
+	 * Creates and starts a new pooled, non-blocking HTTP client. The caller owns
+	 * the returned client and must close it when it is no longer needed.
+	 * Requests are routed through the proxy set in the system properties when
+	 * the client is created.
+	 *
+	 * @param config
+	 *            The pool and keep-alive settings. Expired and idle
+	 *            connections are closed on the shared scheduler of the
+	 *            clients until the client is closed.
+	 * @return A started client backed by a
+	 *         {@link PoolingNHttpClientConnectionManager}.
+	 */
+	public static CloseableHttpAsyncClient createPooledAsyncClient(final PushHttpClientConfig config) {
+		return createPooledAsyncClient(config, new PushRoutePlanner(PushProxyConfig.fromSystemProperties()));
+	}
+
+	static CloseableHttpAsyncClient createPooledAsyncClient(final PushHttpClientConfig config,
+			final HttpRoutePlanner routePlanner) {
+		return createPooledAsyncClient(config, routePlanner, null);
+	}
+
+	static CloseableHttpAsyncClient createPooledAsyncClient(final PushHttpClientConfig config,
+			final HttpRoutePlanner routePlanner, final PushConnectionPool pool) {
+		Registry<SchemeIOSessionStrategy> registry = RegistryBuilder.<SchemeIOSessionStrategy> create()
+				.register("http", NoopIOSessionStrategy.INSTANCE)
+				.register("https", new SSLIOSessionStrategy(createSSLContext())).build();
+
+		PoolingNHttpClientConnectionManager connectionManager;
+		try {
+			connectionManager = new PoolingNHttpClientConnectionManager(
+					new DefaultConnectingIOReactor(IOReactorConfig.custom().setSoKeepAlive(true).build()), registry);
+		} catch (IOReactorException e) {
+			throw new PushServerSDKException(e);
+		}
+		connectionManager.setMaxTotal(config.getMaxTotalConnections());
+		connectionManager.setDefaultMaxPerRoute(config.getMaxConnectionsPerRoute());
+		if (pool != null) {
+			pool.bind(connectionManager);
+		}
+
+		CloseableHttpAsyncClient client = HttpAsyncClients.custom().setConnectionManager(connectionManager)
+				.setRoutePlanner(routePlanner).setKeepAliveStrategy(keepAliveStrategy(config.getKeepAliveMillis()))
+				.setDefaultRequestConfig(PushRequestOptions.defaults().toRequestConfig()).build();
+		client.start();
+		IdleConnectionReaper.start(client, connectionManager, config.getIdleConnectionTimeoutMillis());
+		return client;
+	}
+
+	static SSLContext createSSLContext() {
+		try {
+			SSLContext sslContext = SSLContext.getInstance(PushConstants.TLS_VERSION);
+			sslContext.init(null, null, null);
+			return sslContext;
+		} catch (NoSuchAlgorithmException e) {
+			throw new PushServerSDKException(e);
+		} catch (KeyManagementException e) {
+			throw new PushServerSDKException(e);
+		}
+	}
+
+	/**
+	 * Closes the expired and idle connections of a non-blocking pool, as the
+	 * eviction thread of the blocking client does, until the client stops.
+	 * Closing them neither blocks nor sends, so it runs on the scheduler
+	 * thread itself.
+	 */
+	private static final class IdleConnectionReaper implements Runnable {
+
+		private final CloseableHttpAsyncClient client;
+		private final PoolingNHttpClientConnectionManager connectionManager;
+		private final long idleTimeoutMillis;
+		private volatile ScheduledFuture<?> task;
+
+		private IdleConnectionReaper(CloseableHttpAsyncClient client,
+				PoolingNHttpClientConnectionManager connectionManager, long idleTimeoutMillis) {
+			this.client = client;
+			this.connectionManager = connectionManager;
+			this.idleTimeoutMillis = idleTimeoutMillis;
+		}
+
+		static void start(CloseableHttpAsyncClient client, PoolingNHttpClientConnectionManager connectionManager,
+				long idleTimeoutMillis) {
+			IdleConnectionReaper reaper = new IdleConnectionReaper(client, connectionManager, idleTimeoutMillis);
+			long periodMillis = idleTimeoutMillis > 0 ? idleTimeoutMillis
+					: PushHttpClientConfig.DEFAULT_IDLE_CONNECTION_TIMEOUT_MILLIS;
+			try {
+				reaper.task = PushSchedulers.scheduler().scheduleWithFixedDelay(reaper, periodMillis, periodMillis,
+						TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				// Connections are then only closed when the server drops them.
+			}
+		}
+
+		@Override
+		public void run() {
+			if (!client.isRunning()) {
+				ScheduledFuture<?> scheduled = task;
+				if (scheduled != null) {
+					scheduled.cancel(false);
+				}
+				return;
+			}
+			connectionManager.closeExpiredConnections();
+			connectionManager.closeIdleConnections(idleTimeoutMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	static ConnectionKeepAliveStrategy keepAliveStrategy(final long defaultKeepAliveMillis) {
+		return new ConnectionKeepAliveStrategy() {
+
+			@Override
+			public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+				long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+				return keepAlive > 0 ? keepAlive : defaultKeepAliveMillis;
+			}
+		};
+	}
+}
@@ -0,0 +1,222 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.ibm.mobilefirstplatform.serversdk.java.push.exception.PushServerSDKException;
+
+/**
+ * Serializes notifications into the JSON request bodies of the Push
+ * Notifications service, in a single pass straight to UTF-8 bytes.
+ * <p>
+ * The mapper and writers are thread safe and shared by all clients. The
+ * service still expects FCM settings under the legacy {@code gcm} name, which
+ * is mapped through {@link SettingsMixin} so that {@link Settings} itself
+ * keeps serializing as {@code fcm} for other mappers.
+ */
+final class PushMessageSerializer {
+
+	static final ObjectMapper MAPPER = new ObjectMapper().setSerializationInclusion(Include.NON_EMPTY)
+			.addMixIn(Settings.class, SettingsMixin.class);
+
+	private static final ObjectWriter MESSAGE_WRITER = MAPPER.writerFor(PushMessageModel.class);
+
+	// Leaves flushing to the generator buffer, instead of one flush per element.
+	private static final ObjectWriter BULK_ELEMENT_WRITER = MESSAGE_WRITER
+			.without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+	// Writes values of any type inside documents written by other writers.
+	static final ObjectWriter VALUE_WRITER = MAPPER.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+	private static final int INITIAL_BUFFER_SIZE = 512;
+
+	private static final byte RECORD_VERSION = 1;
+	private static final byte IDEMPOTENT = 1;
+	private static final int NO_DEDUP_KEY = -1;
+
+	private PushMessageSerializer() {
+
+	}
+
+	/**
+	 * Renames the FCM settings to the name expected by the service.
+	 */
+	abstract static class SettingsMixin {
+
+		@JsonProperty("gcm")
+		abstract FCM getFcm();
+	}
+
+	static PushMessageModel toModel(Notification notification) {
+		return new PushMessageModel.Builder().message(notification.getMessage()).target(notification.getTarget())
+				.settings(notification.getSettings()).build();
+	}
+
+	/**
+	 * @return The request body of a single notification.
+	 * @throws PushServerSDKException
+	 *             if the notification cannot be serialized.
+	 */
+	static byte[] writeNotification(Notification notification) {
+		if (notification.getJson() != null) {
+			return notification.getJson();
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+		try {
+			if (notification.getTemplate() == null) {
+				MESSAGE_WRITER.writeValue(out, toModel(notification));
+			} else {
+				JsonGenerator generator = createGenerator(out);
+				try {
+					notification.getTemplate().write(generator, out, notification);
+				} finally {
+					generator.close();
+				}
+			}
+		} catch (IOException e) {
+			throw new PushServerSDKException(PushConstants.PushServerSDKExceptions.JSON_SERIALIZATION_EXCEPTION, e);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Writes the record a notification is journaled as in a {@link PushSpool}:
+	 * a version, whether it is idempotent, its deduplication key and its JSON.
+	 * A notification replayed from it is retried and deduplicated like the
+	 * original.
+	 *
+	 * @param headerLength
+	 *            The bytes left free at the start of the record for the
+	 *            caller.
+	 */
+	static byte[] writeRecord(Notification notification, byte[] json, int headerLength) {
+		byte[] dedupKey = notification.getDedupKey() == null ? null
+				: notification.getDedupKey().getBytes(StandardCharsets.UTF_8);
+		ByteBuffer record = ByteBuffer.allocate(headerLength + 2 + Integer.BYTES
+				+ (dedupKey == null ? 0 : dedupKey.length) + json.length);
+		record.position(headerLength);
+		record.put(RECORD_VERSION).put(PushRetryPolicy.isIdempotent(notification) ? IDEMPOTENT : 0);
+		if (dedupKey == null) {
+			record.putInt(NO_DEDUP_KEY);
+		} else {
+			record.putInt(dedupKey.length).put(dedupKey);
+		}
+		return record.put(json).array();
+	}
+
+	/**
+	 * @param offset
+	 *            Where the record starts, after the header of the caller.
+	 * @return The notification journaled in the record by
+	 *         {@link #writeRecord(Notification, byte[], int)}.
+	 */
+	static Notification readRecord(byte[] record, int offset) {
+		if (record[offset] == '{') {
+			// Records of earlier versions hold the JSON only.
+			return new Notification(Arrays.copyOfRange(record, offset, record.length));
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(record, offset, record.length - offset);
+		buffer.get();
+		boolean idempotent = buffer.get() == IDEMPOTENT;
+		int dedupKeyLength = buffer.getInt();
+		String dedupKey = null;
+		if (dedupKeyLength != NO_DEDUP_KEY) {
+			dedupKey = new String(record, buffer.position(), dedupKeyLength, StandardCharsets.UTF_8);
+			buffer.position(buffer.position() + dedupKeyLength);
+		}
+		return new Notification(Arrays.copyOfRange(record, buffer.position(), record.length), dedupKey, idempotent);
+	}
+
+	/**
+	 * @return The request body of the bulk endpoint, a JSON array of the
+	 *         notifications.
+	 * @throws PushServerSDKException
+	 *             if a notification cannot be serialized.
+	 */
+	static byte[] writeNotifications(Notification[] notifications) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE * notifications.length);
+		try {
+			writeNotifications(notifications, out);
+		} catch (IOException e) {
+			throw new PushServerSDKException(PushConstants.PushServerSDKExceptions.JSON_SERIALIZATION_EXCEPTION, e);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Writes the bulk request body to the given stream one notification at a
+	 * time, without buffering the whole array. The stream is flushed but not
+	 * closed.
+	 */
+	static void writeNotifications(Notification[] notifications, OutputStream out) throws IOException {
+		JsonGenerator generator = createGenerator(out);
+		try {
+			generator.writeStartArray();
+			for (Notification notification : notifications) {
+				if (notification.getJson() != null) {
+					// Writes the separator before the value, which is then written to the stream directly.
+					generator.writeRawValue("");
+					generator.flush();
+					out.write(notification.getJson());
+				} else if (notification.getTemplate() == null) {
+					BULK_ELEMENT_WRITER.writeValue(generator, toModel(notification));
+				} else {
+					notification.getTemplate().write(generator, out, notification);
+				}
+			}
+			generator.writeEndArray();
+		} finally {
+			generator.close();
+		}
+		out.flush();
+	}
+
+	/**
+	 * @return The settings as a JSON object, as they are written in a
+	 *         notification.
+	 * @throws PushServerSDKException
+	 *             if the settings cannot be serialized.
+	 */
+	static byte[] writeSettings(Settings settings) {
+		try {
+			return MAPPER.writeValueAsBytes(settings);
+		} catch (IOException e) {
+			throw new PushServerSDKException(PushConstants.PushServerSDKExceptions.JSON_SERIALIZATION_EXCEPTION, e);
+		}
+	}
+
+	/**
+	 * @return A generator writing to the stream without flushing or closing
+	 *         it, and without separating values written at the top level.
+	 */
+	static JsonGenerator createGenerator(OutputStream out) throws IOException {
+		JsonGenerator generator = MAPPER.getFactory().createGenerator(out);
+		generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+		generator.disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+		generator.setRootValueSeparator(null);
+		return generator;
+	}
+}
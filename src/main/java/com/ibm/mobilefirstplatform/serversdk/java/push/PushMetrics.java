@@ -0,0 +1,182 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+/**
+ * Receives what a {@link PushNotificationsClient} measures while it sends:
+ * the latency and status code of every request, retries, circuit breaker
+ * rejections, access token refreshes, request body sizes and the state of
+ * its connection pools.
+ * <p>
+ * {@link MicrometerPushMetrics} and {@link DropwizardPushMetrics} bind these
+ * to the respective libraries; other systems can be bound by implementing
+ * the methods of interest, all of which do nothing by default.
+ *
+ * <pre>
+ * PushNotificationsClient client = new PushNotificationsClient.Builder()....metrics(new MicrometerPushMetrics(registry)).build();
+ * </pre>
+ *
+ * The methods are called on the sending threads and on the I/O threads of
+ * the HTTP clients, so they must be thread safe and must not block.
+ */
+public interface PushMetrics {
+
+	/**
+	 * The endpoint a request went to.
+	 */
+	enum Endpoint {
+		/** The endpoint of single notifications. */
+		SINGLE,
+		/** The bulk endpoint. */
+		BULK,
+		/** The IAM token endpoint. */
+		IAM;
+
+		/**
+		 * @return The name of the endpoint in lower case, for tags and metric
+		 *         names.
+		 */
+		public String tag() {
+			return name().toLowerCase();
+		}
+	}
+
+	/**
+	 * The current state of a connection pool.
+	 */
+	interface ConnectionPool {
+
+		/**
+		 * @return The name of the pool. Pools of several clients may share a
+		 *         name.
+		 */
+		String getName();
+
+		/**
+		 * @return The number of connections in use.
+		 */
+		int getLeased();
+
+		/**
+		 * @return The number of idle connections kept alive.
+		 */
+		int getAvailable();
+
+		/**
+		 * @return The number of requests waiting for a connection.
+		 */
+		int getPending();
+
+		/**
+		 * @return The maximum number of connections.
+		 */
+		int getMax();
+	}
+
+	/**
+	 *
+	 * @return Metrics that discard everything.
+	 */
+	static PushMetrics none() {
+		return PushMetricsNone.INSTANCE;
+	}
+
+	/**
+	 * A request got a response.
+	 *
+	 * @param endpoint
+	 *            The endpoint of the request.
+	 * @param statusCode
+	 *            The status code of the response.
+	 * @param durationNanos
+	 *            How long the request took, excluding waits for a token or
+	 *            the rate limiter.
+	 */
+	default void onResponse(Endpoint endpoint, int statusCode, long durationNanos) {
+	}
+
+	/**
+	 * A request got no response.
+	 *
+	 * @param endpoint
+	 *            The endpoint of the request.
+	 * @param failure
+	 *            Why there was no response.
+	 * @param durationNanos
+	 *            How long the request took until it failed.
+	 */
+	default void onFailure(Endpoint endpoint, Throwable failure, long durationNanos) {
+	}
+
+	/**
+	 * A request is going to be repeated after a failure or a response that
+	 * the retry policy deems temporary.
+	 *
+	 * @param endpoint
+	 *            The endpoint of the request.
+	 */
+	default void onRetry(Endpoint endpoint) {
+	}
+
+	/**
+	 * A request was not sent because the circuit breaker is open.
+	 *
+	 * @param endpoint
+	 *            The endpoint of the request.
+	 */
+	default void onCircuitBreakerRejection(Endpoint endpoint) {
+	}
+
+	/**
+	 * An access token was requested from IAM.
+	 *
+	 * @param durationNanos
+	 *            How long the refresh took, including retries.
+	 * @param succeeded
+	 *            Whether a token was obtained.
+	 */
+	default void onTokenRefresh(long durationNanos, boolean succeeded) {
+	}
+
+	/**
+	 * A request body was serialized.
+	 *
+	 * @param endpoint
+	 *            The endpoint of the request.
+	 * @param bytes
+	 *            The size of the body before compression.
+	 */
+	default void onPayload(Endpoint endpoint, long bytes) {
+	}
+
+	/**
+	 * A client started using a connection pool.
+	 *
+	 * @param pool
+	 *            The pool, whose state may be read at any time until it is
+	 *            closed.
+	 */
+	default void onConnectionPoolOpened(ConnectionPool pool) {
+	}
+
+	/**
+	 * A client closed a connection pool passed to
+	 * {@link #onConnectionPoolOpened(ConnectionPool)}.
+	 *
+	 * @param pool
+	 *            The pool.
+	 */
+	default void onConnectionPoolClosed(ConnectionPool pool) {
+	}
+}
@@ -0,0 +1,31 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+/**
+ * The metrics of {@link PushMetrics#none()}.
+ */
+final class PushMetricsNone implements PushMetrics {
+
+	static final PushMetrics INSTANCE = new PushMetricsNone();
+
+	private PushMetricsNone() {
+
+	}
+
+	@Override
+	public String toString() {
+		return "PushMetrics [none]";
+	}
+}
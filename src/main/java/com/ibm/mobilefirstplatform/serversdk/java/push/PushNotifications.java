@@ -13,51 +13,29 @@
 
 package com.ibm.mobilefirstplatform.serversdk.java.push;
 
-import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
-import java.security.KeyManagementException;
-import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.net.ssl.SSLContext;
-
 import org.apache.http.HttpStatus;
-import org.apache.http.NameValuePair;
-import org.apache.http.ParseException;
-import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.protocol.HTTP;
-import org.apache.http.util.EntityUtils;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
 import org.json.JSONObject;
 
-import com.fasterxml.jackson.annotation.JsonInclude.Include;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.ibm.mobilefirstplatform.serversdk.java.push.exception.PushServerSDKException;
-import java.security.KeyStoreException;
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpHeaders;
-import org.apache.http.HttpHost;
-import org.apache.http.client.config.RequestConfig;
-import org.apache.http.conn.ssl.NoopHostnameVerifier;
-import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
-import org.apache.http.conn.ssl.TrustSelfSignedStrategy;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.params.HttpProtocolParams;
-import org.apache.http.ssl.SSLContextBuilder;
 
 /**
  * This class is used to send notifications from a Java server to mobile devices
- * using the Push Notification service.
+ * using the Push Notification service. The static methods delegate to a default
+ * {@link PushNotificationsClient}; create clients directly to talk to several
+ * tenants from the same process.
  */
 public class PushNotifications {
 	public static final String US_SOUTH_REGION = ".ng.bluemix.net";
@@ -74,16 +52,67 @@ public class PushNotifications {
 	protected static String secret;
 	
 	protected static String apiKeyIdIs;
-	
+
+	/**
+	 * @deprecated The access token and its expiry are held by the
+	 *             {@link PushNotificationsClient} the static methods delegate
+	 *             to; this field is no longer read or written.
+	 */
+	@Deprecated
 	protected static long apiKeyExpireyTime;
-	
+
+	/**
+	 * @deprecated The access token is held by the
+	 *             {@link PushNotificationsClient} the static methods delegate
+	 *             to; this field is no longer read or written.
+	 */
+	@Deprecated
 	protected static String accessToken;
-	
+
 	protected static String iamRegion = ".eu-de.bluemix.net";
 
+	protected static String iamServerHost = null;
+
 	protected static String pushMessageEndpointURL;
 
-	private static  PushNotificationsResponseListener pushListner;
+	private static PushHttpClientConfig httpClientConfig = PushHttpClientConfig.defaults();
+
+	private static volatile CloseableHttpClient httpClient;
+
+	private static volatile CloseableHttpAsyncClient asyncHttpClient;
+
+	private static PushDebugLog debugLog = PushDebugLog.defaults();
+
+	private static PushRetryPolicy retryPolicy = PushRetryPolicy.none();
+
+	private static PushCircuitBreaker circuitBreaker = PushCircuitBreaker.disabled();
+
+	private static PushRateLimiter rateLimiter = PushRateLimiter.unlimited();
+
+	private static PushRequestOptions requestOptions = PushRequestOptions.defaults();
+
+	private static PushCompression compression = PushCompression.disabled();
+	private static PushTransport transport;
+
+	private static PushMetrics metrics = PushMetrics.none();
+
+	private static PushDeduplicator deduplicator = PushDeduplicator.disabled();
+
+	private static final PushConnectionPool CONNECTION_POOL = new PushConnectionPool("push");
+
+	private static final PushConnectionPool ASYNC_CONNECTION_POOL = new PushConnectionPool("push-async");
+
+	private static volatile PushRoutePlanner routePlanner;
+
+	private static final Supplier<CloseableHttpAsyncClient> ASYNC_HTTP_CLIENT = new Supplier<CloseableHttpAsyncClient>() {
+
+		@Override
+		public CloseableHttpAsyncClient get() {
+			return getAsyncHttpClient();
+		}
+	};
+
+	private static volatile DefaultClient defaultClient;
 	
 	/**
 	 * Overrides default server host with the provided host. It
@@ -93,6 +122,15 @@ public class PushNotifications {
 	 */
 	public static String overrideServerHost = null;
 
+	/**
+	 * Overrides the default IAM host from which access tokens are obtained,
+	 * for example with a private endpoint or a test server. Like
+	 * {@code overrideServerHost}, it is to be set before
+	 * {@link #initWithApiKey(String, String, String)}.
+	 * 
+	 */
+	public static String overrideIamServerHost = null;
+
 	/**
 	 * Specify the credentials and Bluemix region for your push notification
 	 * service. Also if you are using dedicated service, use overrideServerHost.
@@ -115,18 +153,8 @@ public class PushNotifications {
 	}
 
 	private static void createPushEndPointUrl(String tenantId, String bluemixRegion) {
-		if (overrideServerHost != null) {
-			pushMessageEndpointURL = overrideServerHost + PushConstants.URL + tenantId + PushConstants.API;
-                        pushMessageEndpointURL = pushMessageEndpointURL.replace("﻿imfpush.eu-de.bluemix.net", "﻿eu-de.imfpush.cloud.ibm.com");
-		} else {
-			if (bluemixRegion.equals(JP_TOK)) {
-				pushMessageEndpointURL = PushConstants.JPHOST + PushConstants.URL + tenantId + PushConstants.API;
-			} else {
-				pushMessageEndpointURL = PushConstants.HOST + bluemixRegion + PushConstants.URL + tenantId 
-				+ PushConstants.API;
-                                pushMessageEndpointURL = pushMessageEndpointURL.replace("﻿imfpush.eu-de.bluemix.net", "﻿eu-de.imfpush.cloud.ibm.com");
-			}
-		}
+		pushMessageEndpointURL = PushNotificationsClient.createPushEndPointUrl(overrideServerHost, tenantId,
+				bluemixRegion);
 	}
 
 	/**
@@ -177,70 +205,17 @@ public class PushNotifications {
 			logger.log(Level.SEVERE, exception.toString(), exception);
 			throw exception;
 		}
-		System.out.println(bluemixRegionn);
 		iamRegion = bluemixRegionn;
+		iamServerHost = overrideIamServerHost;
 	}
 	
 	public static CloseableHttpResponse getAuthToken() {
-		//HttpClientBuilder httpClientBuilder = HttpClientBuilder.create().useSystemProperties();
-                //2020-01-20
-                String proxyHost = null;
-                String proxyPort = null;
-                String proxyType = null;
-
-                proxyHost = System.getProperty("https.proxyHost");
-                proxyPort = System.getProperty("https.proxyPort");
-                proxyType = "http";
-                
-                // 2017-12-14: Proxy terminiert https selbst und leite http weiter? TLS termination proxy
-                // System.getProperty("https.isTlsTerminationProxy");
-                String isTlsTerminationProxy = System.getProperty("https.isTlsTerminationProxy");
-
-                if( isTlsTerminationProxy != null && "true".equals( isTlsTerminationProxy ) ){
-                   // System.out.println("using proxy: is TLS termination proxy");
-                    proxyType = "http";
-                }
-//                
-//                HttpClientBuilder httpClientBuilder = HttpClientBuilder.create();
-//                httpClientBuilder.setProxy(new HttpHost(proxyHost, Integer.valueOf(proxyPort), proxyType));
-//                
-//                    if(PushConstants.IAM_URI.startsWith("https://")){
-//                    try {
-//                        SSLContextBuilder builder = new SSLContextBuilder();
-////				builder.loadTrustMaterial(null, new TrustSelfSignedStrategy());
-//                        SSLConnectionSocketFactory sslsf = new SSLConnectionSocketFactory(builder.build(),
-//                                NoopHostnameVerifier.INSTANCE);
-//                        httpClientBuilder.setSSLSocketFactory(sslsf);
-//                    } catch (NoSuchAlgorithmException ex) {
-//                        Logger.getLogger(PushNotifications.class.getName()).log(Level.SEVERE, null, ex);
-//                    } catch (KeyManagementException ex) {
-//                        Logger.getLogger(PushNotifications.class.getName()).log(Level.SEVERE, null, ex);
-//                    }
-//                    }
-System.out.println("use proxy "+ proxyHost + " port " + proxyPort + " type " + proxyType);
-                
-                CloseableHttpClient httpClient = HttpsSSLClient.createSSLInsecureClient();
-                //CloseableHttpClient httpClient = httpClientBuilder.build();
-                String iamUri = PushConstants.IAM_URI + iamRegion + PushConstants.IAM_TOKEN_PATH;
-                System.out.println("iam uri");
-                System.out.println(iamUri);
-                HttpPost pushPost = new HttpPost(iamUri);
-                            HttpHost proxy = new HttpHost(proxyHost, NumberParser.parseInt(proxyPort,80), proxyType);
-            
-            RequestConfig config = RequestConfig.custom().setProxy(proxy).build();
-            pushPost.setConfig(config);
-                pushPost.addHeader(HTTP.CONTENT_TYPE, PushConstants.IAM_CONTENT_TYPE);
-                List <NameValuePair> nvps = new ArrayList <NameValuePair>();
-                nvps.add(new BasicNameValuePair(PushConstants.GRANT_TYPE, PushConstants.GRANT_TYPE_VALUE_APIKEY));
-                nvps.add(new BasicNameValuePair("apikey", apiKeyIdIs));
-                try {
-                    pushPost.setEntity(new UrlEncodedFormEntity(nvps,  PushConstants.UTFEIGHT));
-                    return httpClient.execute(pushPost);
-                } catch (IOException e) {
-                    logger.log(Level.SEVERE, e.toString(), e);
-                    throw  new PushServerSDKException(PushConstants.PushServerSDKExceptions.IAM_FAILURE_EXCEPTION, e);
-                }
-		
+		DefaultClient client = acquireDefaultClient();
+		try {
+			return client.client.getAuthToken();
+		} finally {
+			client.release();
+		}
 	}
 
 	protected static String getApplicationIdFromVCAP() {
@@ -314,7 +289,6 @@ System.out.println("use proxy "+ proxyHost + " port " + proxyPort + " type " + p
 	 *            result of this operation.
 	 */
 	public static void send(Notification notification, PushNotificationsResponseListener listener) throws Exception{
-		pushListner = listener;
 		if (pushMessageEndpointURL == null || pushMessageEndpointURL.length() == 0) {
 			Throwable exception = new RuntimeException(PushConstants.PushServerSDKExceptions.NULL_NOTIFICATION_EXCEPTION);
 			logger.log(Level.SEVERE, exception.toString(), exception);
@@ -333,33 +307,16 @@ System.out.println("use proxy "+ proxyHost + " port " + proxyPort + " type " + p
 			}
 			return;
 		}
-                
-		CloseableHttpClient httpClient = enableTLS();
-                
-
-		
-		PushMessageModel model = new PushMessageModel.Builder().message(notification.getMessage())
-				.target(notification.getTarget()).settings(notification.getSettings()).build();
-
-		JSONObject notificationJson = generateJSON(model);
-//		notificationJson.put("warningId", 1);
-//                notificationJson.put("type", "FOOD");
-		HttpPost pushPost = null;
-
-		pushPost = createPushPostRequest(notificationJson);
-                
-               pushPost.setHeader(HttpHeaders.USER_AGENT, "Mozilla/5.0 Firefox/26.0");
-                logger.log(Level.INFO, notificationJson.toString());
-		executePushPostRequest(pushPost, httpClient, listener);
-		
 
-        
-        
-        }
+		DefaultClient client = acquireDefaultClient();
+		try {
+			client.client.send(notification, listener);
+		} finally {
+			client.release();
+		}
+	}
 	
 	public static void sendBulk(Notification[] notifications, PushNotificationsResponseListener listener)  throws Exception{
-		
-		pushListner = listener;
 		if (pushMessageEndpointURL == null || pushMessageEndpointURL.length() == 0) {
 			Throwable exception = new RuntimeException(PushConstants.PushServerSDKExceptions.NOT_PROPERLY_INITIALIZED_EXCEPTION);
 			logger.log(Level.SEVERE, exception.toString(), exception);
@@ -370,379 +327,457 @@ System.out.println("use proxy "+ proxyHost + " port " + proxyPort + " type " + p
 			return;
 		}
 
-		if (notifications.length == 0) {
-			Throwable exception = new IllegalArgumentException(PushConstants.PushServerSDKExceptions.NULL_NOTIFICATION_EXCEPTION);
-			logger.log(Level.SEVERE, exception.toString(), exception);
-			if (listener != null) {
-				listener.onFailure(null, null, exception);
+		DefaultClient client = acquireDefaultClient();
+		try {
+			client.client.sendBulk(notifications, listener);
+		} finally {
+			client.release();
+		}
+	}
+
+	/**
+	 * Send the given push notification without blocking the calling thread.
+	 * 
+	 * @param notification
+	 *            The push notification to be sent.
+	 * @return A future completed with the response of the service.
+	 * @see PushNotificationsClient#sendAsync(Notification)
+	 */
+	public static CompletableFuture<PushResponse> sendAsync(Notification notification) {
+		if (pushMessageEndpointURL == null || pushMessageEndpointURL.length() == 0) {
+			return PushNotificationsClient.failedFuture(
+					new RuntimeException(PushConstants.PushServerSDKExceptions.NOT_PROPERLY_INITIALIZED_EXCEPTION));
+		}
+		DefaultClient client = acquireDefaultClient();
+		try {
+			return client.releaseOnCompletion(client.client.sendAsync(notification));
+		} catch (RuntimeException e) {
+			client.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Send the given push notifications to the bulk endpoint without blocking
+	 * the calling thread.
+	 * 
+	 * @param notifications
+	 *            The push notifications to be sent.
+	 * @return A future completed with the response of the service.
+	 * @see PushNotificationsClient#sendBulkAsync(Notification[])
+	 */
+	public static CompletableFuture<PushResponse> sendBulkAsync(Notification[] notifications) {
+		if (pushMessageEndpointURL == null || pushMessageEndpointURL.length() == 0) {
+			return PushNotificationsClient.failedFuture(
+					new RuntimeException(PushConstants.PushServerSDKExceptions.NOT_PROPERLY_INITIALIZED_EXCEPTION));
+		}
+		DefaultClient client = acquireDefaultClient();
+		try {
+			return client.releaseOnCompletion(client.client.sendBulkAsync(notifications));
+		} catch (RuntimeException e) {
+			client.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the client that the static methods delegate to. It is rebuilt
+	 * whenever the credentials, region or endpoint set through the init
+	 * methods change, and shares the pooled HTTP client of this class.
+	 */
+	private static DefaultClient currentDefaultClient() {
+		DefaultClient client = defaultClient;
+		if (client == null || !client.client.matches(pushMessageEndpointURL, secret, apiKeyIdIs, iamRegion, iamServerHost)) {
+			synchronized (PushNotifications.class) {
+				client = defaultClient;
+				if (client == null || !client.client.matches(pushMessageEndpointURL, secret, apiKeyIdIs, iamRegion, iamServerHost)) {
+					retireDefaultClient();
+					client = new DefaultClient(new PushNotificationsClient.Builder().pushMessageEndpointURL(pushMessageEndpointURL)
+							.appSecret(secret).apiKey(apiKeyIdIs).region(iamRegion).iamServerHost(iamServerHost)
+							.httpClient(getHttpClient()).asyncHttpClient(ASYNC_HTTP_CLIENT).routePlanner(getRoutePlanner())
+							.debugLog(debugLog).retryPolicy(retryPolicy).circuitBreaker(circuitBreaker)
+							.rateLimiter(rateLimiter).requestOptions(requestOptions).compression(compression)
+							.transport(transport).metrics(metrics).deduplicator(deduplicator).build());
+					defaultClient = client;
+				}
+			}
+		}
+		return client;
+	}
+
+	/**
+	 * Returns the default client for a send, which keeps it open until the
+	 * send has completed and {@link DefaultClient#release()} is called.
+	 */
+	private static DefaultClient acquireDefaultClient() {
+		while (true) {
+			DefaultClient client = currentDefaultClient();
+			if (client.acquire()) {
+				return client;
+			}
+		}
+	}
+
+	/**
+	 * Replaces the default client with one built on the next send. The
+	 * current one is closed once the sends in progress through it, including
+	 * their retries and token refreshes, have completed.
+	 */
+	private static void retireDefaultClient(Closeable... closedWithClient) {
+		DefaultClient client = defaultClient;
+		defaultClient = null;
+		if (client != null) {
+			client.retire(closedWithClient);
+		} else {
+			for (Closeable closeable : closedWithClient) {
+				closeQuietly(closeable);
 			}
-			return;
 		}
+	}
 
-		CloseableHttpClient httpClient = enableTLS();
+	/**
+	 * The default client together with the number of sends using it. The
+	 * count includes one reference held by this class until the client is
+	 * replaced, and the client is closed when it drops to zero.
+	 */
+	private static final class DefaultClient {
 
-		
-		List<JSONObject> MessageJson = new ArrayList<JSONObject>();
-		for (Notification notification: notifications){
-			
-			PushMessageModel model = new PushMessageModel.Builder().message(notification.getMessage())
-					.target(notification.getTarget()).settings(notification.getSettings()).build();
+		final PushNotificationsClient client;
 
-			JSONObject notificationJson = generateJSON(model);
-			MessageJson.add(notificationJson);
+		private final AtomicInteger references = new AtomicInteger(1);
+
+		private volatile Closeable[] closedWithClient = new Closeable[0];
+
+		DefaultClient(PushNotificationsClient client) {
+			this.client = client;
+		}
+
+		boolean acquire() {
+			while (true) {
+				int count = references.get();
+				if (count == 0) {
+					return false;
+				}
+				if (references.compareAndSet(count, count + 1)) {
+					return true;
+				}
+			}
+		}
+
+		<T> CompletableFuture<T> releaseOnCompletion(CompletableFuture<T> future) {
+			future.whenComplete((result, t) -> release());
+			return future;
+		}
+
+		void release() {
+			if (references.decrementAndGet() == 0) {
+				closeQuietly(client);
+				for (Closeable closeable : closedWithClient) {
+					closeQuietly(closeable);
+				}
+			}
+		}
+
+		void retire(Closeable... closedWithClient) {
+			this.closedWithClient = closedWithClient;
+			release();
 		}
-		
-		
-		HttpPost pushPost = createBulkPushPostRequest(MessageJson);
-
-                pushPost.setHeader(HttpHeaders.USER_AGENT, "Mozilla/5.0 Firefox/26.0");     
-                String proxyHost = null;
-                String proxyPort = null;
-                String proxyType = null;
-
-                proxyHost = System.getProperty("https.proxyHost");
-                proxyPort = System.getProperty("https.proxyPort");
-                proxyType = "http";
-                
-                // 2017-12-14: Proxy terminiert https selbst und leite http weiter? TLS termination proxy
-                // System.getProperty("https.isTlsTerminationProxy");
-                String isTlsTerminationProxy = System.getProperty("https.isTlsTerminationProxy");
-
-                if( isTlsTerminationProxy != null && "true".equals( isTlsTerminationProxy ) ){
-                   // System.out.println("using proxy: is TLS termination proxy");
-                    proxyType = "http";
-                }
-                HttpHost proxy = new HttpHost(proxyHost, NumberParser.parseInt(proxyPort,80), proxyType);
-            
-                RequestConfig config = RequestConfig.custom().setProxy(proxy).build();
-                pushPost.setConfig(config);
-                
-		executePushPostRequest(pushPost, httpClient, listener);
-	}
-
-	private static CloseableHttpClient enableTLS() throws Exception {
-		CloseableHttpClient httpClient = null;
-		SSLContext sslContext = null;
-		try {
-			sslContext = SSLContext.getInstance(PushConstants.TLS_VERSION);
-			sslContext.init(null, null, null);
-			httpClient = HttpClients.custom().setUserAgent("my UserAgent 5.0").setSSLContext(sslContext).build();
-		} catch (NoSuchAlgorithmException e) {
-			logger.log(Level.SEVERE, e.toString(), e);
-		} catch (KeyManagementException e) {
-			logger.log(Level.SEVERE, e.toString(), e);
-		}
-		return httpClient;
-//		HttpClientBuilder httpClientBuilder = HttpClientBuilder.create().useSystemProperties();
-//                
-//                try {
-//				SSLContextBuilder builder = new SSLContextBuilder();
-//				builder.loadTrustMaterial(null, new TrustSelfSignedStrategy());
-//				SSLConnectionSocketFactory sslsf = new SSLConnectionSocketFactory(builder.build(),
-//						NoopHostnameVerifier.INSTANCE);
-//				httpClientBuilder.setSSLSocketFactory(sslsf);
-//			
-//
-//                    CloseableHttpClient httpClient = httpClientBuilder.build();
-//                     return httpClient;
-//                }
-//                catch(Exception ex){
-//                   
-//                      throw ex;
-//                        }
-
-               //return HttpsSSLClient.createSSLInsecureClient();
-               
-               
 	}
 
 	/**
-	 * API converts object to json format.
+	 * Replaces the settings of the HTTP clients shared by all sends. The current
+	 * clients, if any, are closed once the sends in progress have completed,
+	 * and new ones are created with the given settings on the next send.
 	 * 
-	 * @param obj
-	 *            The object which needs to be serialized as json string.
+	 * @param config
+	 *            The connection pool and keep-alive settings to use.
+	 */
+	public static synchronized void configureHttpClient(PushHttpClientConfig config) {
+		if (config == null) {
+			throw new IllegalArgumentException(PushConstants.PushServerSDKExceptions.INVALID_HTTP_CLIENT_CONFIG_EXCEPTION);
+		}
+		httpClientConfig = config;
+		closeHttpClient();
+	}
+
+	/**
+	 * Reads the {@code https.proxyHost} and {@code https.proxyPort} system
+	 * properties again. They are otherwise read once, before the first
+	 * request, and applied to every following request.
+	 */
+	public static void reloadProxyConfig() {
+		getRoutePlanner().setProxyConfig(PushProxyConfig.fromSystemProperties());
+	}
+
+	/**
+	 * Replaces the log that requests and responses are written to for
+	 * debugging. By default they are written at FINE level to the
+	 * {@code com.ibm.mobilefirstplatform.serversdk.java.push} logger, with
+	 * credentials masked.
 	 * 
-	 * @return Return a JSONOject for the passed object.
+	 * @param log
+	 *            The debug log to use, for example
+	 *            {@link PushDebugLog#disabled()}.
 	 */
-	private static JSONObject generateJSON(Object obj) {
+	public static synchronized void setDebugLog(PushDebugLog log) {
+		if (log == null) {
+			throw new IllegalArgumentException(PushConstants.PushServerSDKExceptions.INVALID_DEBUG_LOG_EXCEPTION);
+		}
+		debugLog = log;
+		retireDefaultClient();
+	}
 
-		ObjectMapper mapper = new ObjectMapper();
+	/**
+	 * Replaces the policy that decides when failed requests to the Push
+	 * Notifications and IAM services are sent again. By default,
+	 * {@link PushRetryPolicy#none()} is used, so that a failed request is
+	 * reported at once as before.
+	 * 
+	 * @param policy
+	 *            The retry policy to use, for example
+	 *            {@link PushRetryPolicy#defaults()}.
+	 */
+	public static synchronized void setRetryPolicy(PushRetryPolicy policy) {
+		if (policy == null) {
+			throw new IllegalArgumentException(PushConstants.PushServerSDKExceptions.INVALID_RETRY_POLICY_EXCEPTION);
+		}
+		retryPolicy = policy;
+		retireDefaultClient();
+	}
 
-		String jsonString = null;
-		try {
-			mapper.setSerializationInclusion(Include.NON_EMPTY);
-			jsonString = mapper.writeValueAsString(obj);
+	/**
+	 * Replaces the circuit breaker that makes sends fail fast while the push
+	 * service is unhealthy. The breaker keeps its state when the credentials
+	 * or region change. By default, {@link PushCircuitBreaker#disabled()} is
+	 * used, so that every send is attempted as before.
+	 * 
+	 * @param breaker
+	 *            The circuit breaker to use, for example
+	 *            {@link PushCircuitBreaker#defaults()}.
+	 */
+	public static synchronized void setCircuitBreaker(PushCircuitBreaker breaker) {
+		if (breaker == null) {
+			throw new IllegalArgumentException(PushConstants.PushServerSDKExceptions.INVALID_CIRCUIT_BREAKER_EXCEPTION);
+		}
+		circuitBreaker = breaker;
+		retireDefaultClient();
+	}
 
-		} catch (JsonProcessingException exception) {
+	/**
+	 * @return The circuit breaker of the sends made through this class, for
+	 *         example to export its state as a metric.
+	 */
+	public static synchronized PushCircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
 
-			logger.log(Level.SEVERE, exception.toString(), exception);
+	/**
+	 * Limits the rate of requests sent through this class, with a separate
+	 * token bucket for each tenant and region. By default the rate is not
+	 * limited.
+	 * 
+	 * @param limiter
+	 *            The rate limiter to use, for example
+	 *            {@link PushRateLimiter#unlimited()}.
+	 */
+	public static synchronized void setRateLimiter(PushRateLimiter limiter) {
+		if (limiter == null) {
+			throw new IllegalArgumentException(PushConstants.PushServerSDKExceptions.INVALID_RATE_LIMITER_EXCEPTION);
 		}
+		rateLimiter = limiter;
+		retireDefaultClient();
+	}
 
-		JSONObject json = jsonString != null ? new JSONObject(jsonString) : new JSONObject();
-		
-		if (json.has("settings")) {
-			
-			JSONObject settingsJson = json.getJSONObject("settings");
-			if(settingsJson.has("fcm")) {
-				settingsJson.put("gcm", settingsJson.getJSONObject("fcm"));
-				settingsJson.remove("fcm");
-			}
+	/**
+	 * Replaces the connect, socket and connection pool timeouts and the
+	 * deadline of the sends made through this class.
+	 * 
+	 * @param options
+	 *            The timeouts to use.
+	 */
+	public static synchronized void setRequestOptions(PushRequestOptions options) {
+		if (options == null) {
+			throw new IllegalArgumentException(PushConstants.PushServerSDKExceptions.INVALID_REQUEST_OPTIONS_EXCEPTION);
 		}
+		requestOptions = options;
+		retireDefaultClient();
+	}
 
-		return json;
-	}
-
-	protected static HttpPost createPushPostRequest(JSONObject notification)  {
-String proxyHost = null;
-                String proxyPort = null;
-                String proxyType = null;
-
-                proxyHost = System.getProperty("https.proxyHost");
-                proxyPort = System.getProperty("https.proxyPort");
-                proxyType = "http";
-                
-                // 2017-12-14: Proxy terminiert https selbst und leite http weiter? TLS termination proxy
-                // System.getProperty("https.isTlsTerminationProxy");
-                String isTlsTerminationProxy = System.getProperty("https.isTlsTerminationProxy");
-
-                if( isTlsTerminationProxy != null && "true".equals( isTlsTerminationProxy ) ){
-                   // System.out.println("using proxy: is TLS termination proxy");
-                    proxyType = "http";
-                }
-//                
-//                HttpClientBuilder httpClientBuilder = HttpClientBuilder.create();
-//                httpClientBuilder.setProxy(new HttpHost(proxyHost, Integer.valueOf(proxyPort), proxyType));
-//                
-//                    if(PushConstants.IAM_URI.startsWith("https://")){
-//                    try {
-//                        SSLContextBuilder builder = new SSLContextBuilder();
-////				builder.loadTrustMaterial(null, new TrustSelfSignedStrategy());
-//                        SSLConnectionSocketFactory sslsf = new SSLConnectionSocketFactory(builder.build(),
-//                                NoopHostnameVerifier.INSTANCE);
-//                        httpClientBuilder.setSSLSocketFactory(sslsf);
-//                    } catch (NoSuchAlgorithmException ex) {
-//                        Logger.getLogger(PushNotifications.class.getName()).log(Level.SEVERE, null, ex);
-//                    } catch (KeyManagementException ex) {
-//                        Logger.getLogger(PushNotifications.class.getName()).log(Level.SEVERE, null, ex);
-//                    }
-//                    }
-            System.out.println("use proxy "+ proxyHost + " port " + proxyPort + " type " + proxyType);
-
-                            CloseableHttpClient httpClient = HttpsSSLClient.createSSLInsecureClient();
-                            //CloseableHttpClient httpClient = httpClientBuilder.build();
-                            String iamUri = PushConstants.IAM_URI + iamRegion + PushConstants.IAM_TOKEN_PATH;
-                            System.out.println("iam uri in create push");
-                            System.out.println(iamUri);
-                            System.out.println(pushMessageEndpointURL);
-                            HttpPost pushPost = new HttpPost(pushMessageEndpointURL);
-                            if(proxyHost !=null){
-                                        HttpHost proxy = new HttpHost(proxyHost, NumberParser.parseInt(proxyPort,80), proxyType);
-
-                RequestConfig config = RequestConfig.custom().setProxy(proxy).build();
-                pushPost.setConfig(config);
-
-                            }
-            
-
-		pushPost.addHeader(HTTP.CONTENT_TYPE, PushConstants.CONTENT_TYPE);
-		pushPost.setHeader(HttpHeaders.USER_AGENT, "Mozilla/5.0 Firefox/26.0");     
-		setHeader(pushPost);
-                System.out.println("headers set");
-                System.out.println(notification.toString());
-		StringEntity body = new StringEntity(notification.toString(), PushConstants.UTFEIGHT);
-		pushPost.setEntity(body);
-
-		return pushPost;
+	/**
+	 * Replaces the compression of request bodies of the sends made through
+	 * this class. By default, bodies are sent uncompressed.
+	 * 
+	 * @param compression
+	 *            When to compress request bodies.
+	 */
+	public static synchronized void setCompression(PushCompression compression) {
+		if (compression == null) {
+			throw new IllegalArgumentException(PushConstants.PushServerSDKExceptions.INVALID_COMPRESSION_EXCEPTION);
+		}
+		PushNotifications.compression = compression;
+		retireDefaultClient();
 	}
-	
-	protected static HttpPost createBulkPushPostRequest(List<JSONObject> messageJson) {
-            String proxyHost = null;
-                String proxyPort = null;
-                String proxyType = null;
-
-                proxyHost = System.getProperty("https.proxyHost");
-                proxyPort = System.getProperty("https.proxyPort");
-                proxyType = "http";
-                
-                // 2017-12-14: Proxy terminiert https selbst und leite http weiter? TLS termination proxy
-                // System.getProperty("https.isTlsTerminationProxy");
-                String isTlsTerminationProxy = System.getProperty("https.isTlsTerminationProxy");
-
-                if( isTlsTerminationProxy != null && "true".equals( isTlsTerminationProxy ) ){
-                   // System.out.println("using proxy: is TLS termination proxy");
-                    proxyType = "http";
-                }
-//                
-//                HttpClientBuilder httpClientBuilder = HttpClientBuilder.create();
-//                httpClientBuilder.setProxy(new HttpHost(proxyHost, Integer.valueOf(proxyPort), proxyType));
-//                
-//                    if(PushConstants.IAM_URI.startsWith("https://")){
-//                    try {
-//                        SSLContextBuilder builder = new SSLContextBuilder();
-////				builder.loadTrustMaterial(null, new TrustSelfSignedStrategy());
-//                        SSLConnectionSocketFactory sslsf = new SSLConnectionSocketFactory(builder.build(),
-//                                NoopHostnameVerifier.INSTANCE);
-//                        httpClientBuilder.setSSLSocketFactory(sslsf);
-//                    } catch (NoSuchAlgorithmException ex) {
-//                        Logger.getLogger(PushNotifications.class.getName()).log(Level.SEVERE, null, ex);
-//                    } catch (KeyManagementException ex) {
-//                        Logger.getLogger(PushNotifications.class.getName()).log(Level.SEVERE, null, ex);
-//                    }
-//                    }
-            System.out.println("use proxy "+ proxyHost + " port " + proxyPort + " type " + proxyType);
-
-                            CloseableHttpClient httpClient = HttpsSSLClient.createSSLInsecureClient();
-                            //CloseableHttpClient httpClient = httpClientBuilder.build();
-                            String iamUri = PushConstants.IAM_URI + iamRegion + PushConstants.IAM_TOKEN_PATH;
-                            System.out.println("iam uri");
-                            System.out.println(iamUri);
-                           HttpPost pushPost = new HttpPost(pushMessageEndpointURL + "/bulk");
-if(proxyHost !=null){
-                                        HttpHost proxy = new HttpHost(proxyHost, NumberParser.parseInt(proxyPort,80), proxyType);
-
-                RequestConfig config = RequestConfig.custom().setProxy(proxy).build();
-                pushPost.setConfig(config);
-}
-		pushPost.setHeader(HttpHeaders.USER_AGENT, "Mozilla/5.0 Firefox/26.0");     
-		pushPost.addHeader(HTTP.CONTENT_TYPE, PushConstants.CONTENT_TYPE);
-		setHeader(pushPost);
-		
-		StringEntity body = new StringEntity(messageJson.toString(), PushConstants.UTFEIGHT);
-		pushPost.setEntity(body);
 
-		return pushPost;
+	/**
+	 * Replaces the transport of the sends made through this class, for
+	 * example with an {@link Http2PushTransport}. The transport is not closed
+	 * by this class.
+	 * 
+	 * @param transport
+	 *            The transport to send through, or null to go back to the
+	 *            HTTP/1.1 connection pools of this class.
+	 */
+	public static synchronized void setTransport(PushTransport transport) {
+		PushNotifications.transport = transport;
+		retireDefaultClient();
 	}
 
-	private static void setHeader(HttpPost pushPost) {
-		if (secret != null) {
-                    System.out.println("add secret "+secret);
-			pushPost.addHeader(PushConstants.APPSECRET, secret);
-		} else {
-			CloseableHttpResponse auth = null;
-			try {
-				if (accessToken == null || (apiKeyExpireyTime - (System.currentTimeMillis() / 1000)) < 0) {
-                                    System.out.println("has no access token or expired");
-					auth = getAuthToken();
-//                                        try {
-//
-//                                            HttpEntity entity = auth.getEntity();
-//
-//                                            // Read the contents of an entity and return it as a String.
-//                                            String content = EntityUtils.toString(entity);
-//                                            System.out.println(content);
-//
-//                                        } catch (IOException e) {
-//                                            e.printStackTrace();
-//                                        }
-System.out.println(auth);
-					JSONObject json = null;
-					json = new JSONObject(EntityUtils.toString(auth.getEntity()));
-                                        System.out.println(json.toString());
-					int statusCode = auth.getStatusLine().getStatusCode();
-					String resonPhrase = auth.getStatusLine().getReasonPhrase();
-
-					if (statusCode == 200) {
-						accessToken = json.getString(PushConstants.ACCESS_TOKEN);
-						apiKeyExpireyTime = json.getInt(PushConstants.EXPIRATION);
-						pushPost.addHeader(PushConstants.AUTHORIZATION_HEADER,
-								PushConstants.BEARER + PushConstants.EMPTY_SPACE + accessToken);
-                                                System.out.println("add header access");
-                                                System.out.println(PushConstants.AUTHORIZATION_HEADER + " " +PushConstants.BEARER + PushConstants.EMPTY_SPACE + accessToken);
-                                                 
-					} else {
-                                            System.out.println("push failed for "+ auth.getStatusLine().getReasonPhrase());
-						PushServerSDKException pushServerSDKException = new PushServerSDKException(resonPhrase);
-						if (pushListner != null) {
-							pushListner.onFailure(statusCode, pushServerSDKException.getLocalizedMessage(),
-									pushServerSDKException);
-						}
-						throw pushServerSDKException;
-
-					}
-				} else {
-                                    System.out.println("has auth already use access "+accessToken);
-					pushPost.addHeader(PushConstants.AUTHORIZATION_HEADER, "Bearer " + accessToken);
-				}
-			}  catch (ParseException e) {
-				throw new PushServerSDKException(PushConstants.PushServerSDKExceptions.JSON_PARSER_EXCEPTION, e);
-			} catch (IOException e) {
-				throw  new PushServerSDKException(PushConstants.PushServerSDKExceptions.JSON_IO_EXCEPTION, e);
-			} finally {
-				if (auth != null) {
-					try {
-						auth.close();
-					} catch (IOException e) {
-						logger.log(Level.SEVERE, e.toString(), e);
-					}
-				}
-			}
-			
+	/**
+	 * Replaces the metrics of the sends made through this class, which
+	 * include the state of its shared connection pools. By default, nothing
+	 * is recorded.
+	 * 
+	 * @param metrics
+	 *            Where to record latencies, status codes, retries, token
+	 *            refreshes, body sizes and connection pool usage, or
+	 *            {@link PushMetrics#none()}.
+	 */
+	public static synchronized void setMetrics(PushMetrics metrics) {
+		if (metrics == null) {
+			throw new IllegalArgumentException(PushConstants.PushServerSDKExceptions.INVALID_METRICS_EXCEPTION);
+		}
+		PushNotifications.metrics.onConnectionPoolClosed(CONNECTION_POOL);
+		PushNotifications.metrics.onConnectionPoolClosed(ASYNC_CONNECTION_POOL);
+		metrics.onConnectionPoolOpened(CONNECTION_POOL);
+		metrics.onConnectionPoolOpened(ASYNC_CONNECTION_POOL);
+		PushNotifications.metrics = metrics;
+		retireDefaultClient();
+	}
 
+	/**
+	 * Replaces the deduplication of the sends made through this class. By
+	 * default, every notification is sent.
+	 * 
+	 * @param deduplicator
+	 *            Drops notifications whose deduplication key was sent
+	 *            recently, or {@link PushDeduplicator#disabled()}.
+	 */
+	public static synchronized void setDeduplicator(PushDeduplicator deduplicator) {
+		if (deduplicator == null) {
+			throw new IllegalArgumentException(PushConstants.PushServerSDKExceptions.INVALID_DEDUPLICATOR_EXCEPTION);
 		}
+		PushNotifications.deduplicator = deduplicator;
+		retireDefaultClient();
 	}
 
+	/**
+	 * Closes the HTTP clients shared by all sends and releases their pooled
+	 * connections once the sends in progress have completed. New clients are
+	 * created if the SDK is used again.
+	 */
+	public static synchronized void shutdown() {
+		closeHttpClient();
+	}
 
-	protected static void executePushPostRequest(HttpPost pushPost, CloseableHttpClient httpClient,
-			PushNotificationsResponseListener listener) {
-		CloseableHttpResponse response = null;
+	private static void closeHttpClient() {
+		retireDefaultClient(httpClient, asyncHttpClient);
+		httpClient = null;
+		asyncHttpClient = null;
+		CONNECTION_POOL.bind(null);
+		ASYNC_CONNECTION_POOL.bind(null);
+	}
 
-		try {
-			if (httpClient != null && listener != null) {
-                                System.out.println("execute");
-				response = httpClient.execute(pushPost);
-				sendResponseToListener(response, listener);
-			} else {
-				throw new PushServerSDKException(PushConstants.PushServerSDKExceptions.NOT_PROPERLY_INITIALIZED_EXCEPTION);
-			}
-		} catch (ClientProtocolException e) {
-			logger.log(Level.SEVERE, e.toString(), e);
-			if (listener != null) {
-				listener.onFailure(null, null, e);
-			}
-		} catch (IOException e) {
-			logger.log(Level.SEVERE, e.toString(), e);
-			if (listener != null) {
-				listener.onFailure(null, null, e);
+	private static void closeQuietly(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+				logger.log(Level.WARNING, e.toString(), e);
 			}
-		} finally {
-			if (response != null) {
-				try {
-					response.close();
-				} catch (IOException e) {
-					// Closing response is merely a best effort.
+		}
+	}
+
+	static CloseableHttpClient getHttpClient() {
+		CloseableHttpClient client = httpClient;
+		if (client == null) {
+			synchronized (PushNotifications.class) {
+				client = httpClient;
+				if (client == null) {
+					client = PushHttpClients.createPooledClient(httpClientConfig, getRoutePlanner(), CONNECTION_POOL);
+					httpClient = client;
 				}
 			}
+		}
+		return client;
+	}
 
+	static PushRoutePlanner getRoutePlanner() {
+		PushRoutePlanner planner = routePlanner;
+		if (planner == null) {
+			synchronized (PushNotifications.class) {
+				planner = routePlanner;
+				if (planner == null) {
+					planner = new PushRoutePlanner(PushProxyConfig.fromSystemProperties());
+					routePlanner = planner;
+				}
+			}
 		}
+		return planner;
 	}
 
-	protected static void sendResponseToListener(CloseableHttpResponse response,
-			PushNotificationsResponseListener listener) throws IOException {
-		String responseBody = null;
+	static CloseableHttpAsyncClient getAsyncHttpClient() {
+		CloseableHttpAsyncClient client = asyncHttpClient;
+		if (client == null) {
+			synchronized (PushNotifications.class) {
+				client = asyncHttpClient;
+				if (client == null) {
+					client = PushHttpClients.createPooledAsyncClient(httpClientConfig, getRoutePlanner(),
+							ASYNC_CONNECTION_POOL);
+					asyncHttpClient = client;
+				}
+			}
+		}
+		return client;
+	}
 
-		if (response.getEntity() != null) {
-			ByteArrayOutputStream outputAsByteArray = new ByteArrayOutputStream();
-			response.getEntity().writeTo(outputAsByteArray);
+	protected static HttpPost createPushPostRequest(JSONObject notification) {
+		DefaultClient client = acquireDefaultClient();
+		try {
+			return client.client.createPushPostRequest(notification, null);
+		} finally {
+			client.release();
+		}
+	}
 
-			responseBody = new String(outputAsByteArray.toByteArray());
-                        System.out.println("response has entity");
-                        System.out.println(responseBody);
+	protected static HttpPost createBulkPushPostRequest(List<JSONObject> messageJson) {
+		DefaultClient client = acquireDefaultClient();
+		try {
+			return client.client.createBulkPushPostRequest(messageJson, null);
+		} finally {
+			client.release();
 		}
+	}
 
-		Integer statusCode = null;
+	protected static void executePushPostRequest(HttpPost pushPost, CloseableHttpClient httpClient,
+			PushNotificationsResponseListener listener) {
+		Integer statusCode = PushNotificationsClient.executePushPostRequest(pushPost, httpClient, listener);
+		invalidateAccessTokenIfUnauthorized(statusCode);
+	}
 
-		if (response.getStatusLine() != null) {
-			statusCode = response.getStatusLine().getStatusCode();
-		}
+	protected static void sendResponseToListener(CloseableHttpResponse response,
+			PushNotificationsResponseListener listener) throws IOException {
+		Integer statusCode = PushNotificationsClient.sendResponseToListener(response, listener);
+		invalidateAccessTokenIfUnauthorized(statusCode);
+	}
 
-		if (statusCode != null && statusCode == HttpStatus.SC_ACCEPTED) {
-			listener.onSuccess(statusCode, responseBody);
-		} else {
-			if(statusCode != null && statusCode == 401) {
-				accessToken = null;
-				logger.log(Level.SEVERE, response.getStatusLine().getReasonPhrase());
+	private static void invalidateAccessTokenIfUnauthorized(Integer statusCode) {
+		DefaultClient client = defaultClient;
+		if (client != null && statusCode != null && statusCode == HttpStatus.SC_UNAUTHORIZED && client.acquire()) {
+			try {
+				client.client.invalidateAccessToken();
+			} finally {
+				client.release();
 			}
-			listener.onFailure(statusCode, responseBody, null);
 		}
 	}
 }
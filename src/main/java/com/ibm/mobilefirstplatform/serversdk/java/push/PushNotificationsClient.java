@@ -0,0 +1,1585 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.util.EntityUtils;
+import org.json.JSONObject;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.ibm.mobilefirstplatform.serversdk.java.push.exception.IamTokenException;
+import com.ibm.mobilefirstplatform.serversdk.java.push.exception.PushServerSDKException;
+
+/**
+ * A client for one Push Notifications service instance. Unlike the static
+ * {@link PushNotifications} facade, every client carries its own tenant,
+ * credentials, connection pool and access token, so several clients can be
+ * used side by side and shared between threads.
+ *
+ * <pre>
+ * PushNotificationsClient client = new PushNotificationsClient.Builder().tenantId("YOUR_APPLICATION_ID")
+ * 		.apiKey("YOUR_APIKEY").region(PushNotifications.US_SOUTH_REGION).build();
+ * client.send(notification, listener);
+ * client.sendAsync(notification).thenAccept(response -&gt; ...);
+ * </pre>
+ *
+ * Instances are immutable apart from the cached access token, which is
+ * refreshed in the background ahead of its expiry, and should be closed when
+ * no longer needed.
+ */
+public final class PushNotificationsClient implements Closeable {
+
+	public static final Logger logger = Logger.getLogger(PushNotificationsClient.class.getName());
+
+	private static final String BULK_PATH = "/bulk";
+	private static final String USER_AGENT = "Mozilla/5.0 Firefox/26.0";
+	private static final Header CONTENT_TYPE_HEADER = new BasicHeader(HTTP.CONTENT_TYPE, PushConstants.CONTENT_TYPE);
+	private static final Header USER_AGENT_HEADER = new BasicHeader(HttpHeaders.USER_AGENT, USER_AGENT);
+
+	private final String pushMessageEndpointURL;
+	private final URI pushMessageEndpointURI;
+	private final URI bulkEndpointURI;
+	// Set on every request; headers are immutable, so requests share them.
+	private final Header[] requestHeaders;
+	private volatile AuthorizationHeader authorizationHeader;
+	private final String appSecret;
+	private final String apiKey;
+	private final String iamRegion;
+	private final String iamServerHost;
+	private final String iamTokenURL;
+	private final CloseableHttpClient httpClient;
+	private final boolean ownsHttpClient;
+	private final PushHttpClientConfig httpClientConfig;
+	private final Supplier<CloseableHttpAsyncClient> asyncHttpClientSupplier;
+
+	private final Object asyncHttpClientLock = new Object();
+	private volatile CloseableHttpAsyncClient ownedAsyncHttpClient;
+	private final PushTransport transport;
+	private final PushConnectionPool connectionPool;
+	private final PushConnectionPool asyncConnectionPool;
+
+	private final IamTokenManager tokenManager;
+	private final PushDebugLog debugLog;
+	private final PushRoutePlanner routePlanner;
+	private final PushRetryPolicy retryPolicy;
+	private final PushCircuitBreaker circuitBreaker;
+	private final PushRateLimiter rateLimiter;
+	private final PushRequestOptions requestOptions;
+	private final PushCompression compression;
+	private final PushMetrics metrics;
+	private final PushDeduplicator deduplicator;
+	private volatile boolean closed;
+
+	private PushNotificationsClient(Builder builder) {
+		this.pushMessageEndpointURL = builder.pushMessageEndpointURL != null ? builder.pushMessageEndpointURL
+				: createPushEndPointUrl(builder.serverHost, builder.tenantId, builder.region);
+		this.appSecret = builder.appSecret;
+		this.apiKey = builder.apiKey;
+		try {
+			this.pushMessageEndpointURI = URI.create(pushMessageEndpointURL);
+			this.bulkEndpointURI = URI.create(pushMessageEndpointURL + BULK_PATH);
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException(PushConstants.PushServerSDKExceptions.INVALID_CLIENT_EXCEPTION, e);
+		}
+		this.requestHeaders = appSecret != null ? new Header[] { CONTENT_TYPE_HEADER, USER_AGENT_HEADER,
+				new BasicHeader(PushConstants.APPSECRET, appSecret) } : new Header[] { CONTENT_TYPE_HEADER, USER_AGENT_HEADER };
+		this.iamRegion = builder.region;
+		this.iamServerHost = builder.iamServerHost;
+		this.iamTokenURL = createIamTokenUrl(builder.iamServerHost, builder.region);
+		this.routePlanner = builder.routePlanner != null ? builder.routePlanner
+				: new PushRoutePlanner(builder.proxyConfig != null ? builder.proxyConfig
+						: PushProxyConfig.fromSystemProperties());
+		this.metrics = builder.metrics;
+		this.deduplicator = builder.deduplicator;
+		this.ownsHttpClient = builder.httpClient == null;
+		this.connectionPool = ownsHttpClient ? new PushConnectionPool("push") : null;
+		this.httpClient = ownsHttpClient
+				? PushHttpClients.createPooledClient(builder.httpClientConfig, routePlanner, connectionPool)
+				: builder.httpClient;
+		this.httpClientConfig = builder.httpClientConfig;
+		this.asyncHttpClientSupplier = builder.asyncHttpClientSupplier;
+		this.asyncConnectionPool = asyncHttpClientSupplier == null ? new PushConnectionPool("push-async") : null;
+		this.transport = builder.transport != null ? builder.transport : new DefaultTransport();
+		this.debugLog = builder.debugLog;
+		// Created per client, as both keep state.
+		this.retryPolicy = builder.retryPolicy != null ? builder.retryPolicy : PushRetryPolicy.defaults();
+		this.circuitBreaker = builder.circuitBreaker != null ? builder.circuitBreaker : PushCircuitBreaker.defaults();
+		this.rateLimiter = builder.rateLimiter;
+		this.requestOptions = builder.requestOptions;
+		this.compression = builder.compression;
+		this.tokenManager = apiKey != null ? new IamTokenManager(iamTokenURL, apiKey,
+				HttpsSSLClient.createSSLInsecureClient(routePlanner, requestOptions.toRequestConfig()), debugLog,
+				retryPolicy, metrics) : null;
+		if (connectionPool != null) {
+			metrics.onConnectionPoolOpened(connectionPool);
+		}
+		if (asyncConnectionPool != null) {
+			metrics.onConnectionPoolOpened(asyncConnectionPool);
+		}
+	}
+
+	static String createPushEndPointUrl(String serverHost, String tenantId, String bluemixRegion) {
+		String endpointURL;
+		if (serverHost != null) {
+			endpointURL = serverHost + PushConstants.URL + tenantId + PushConstants.API;
+		} else if (PushNotifications.JP_TOK.equals(bluemixRegion)) {
+			endpointURL = PushConstants.JPHOST + PushConstants.URL + tenantId + PushConstants.API;
+		} else {
+			endpointURL = PushConstants.HOST + bluemixRegion + PushConstants.URL + tenantId + PushConstants.API;
+		}
+		return endpointURL.replace("﻿imfpush.eu-de.bluemix.net", "﻿eu-de.imfpush.cloud.ibm.com");
+	}
+
+	static String createIamTokenUrl(String iamServerHost, String region) {
+		if (iamServerHost != null) {
+			return iamServerHost + PushConstants.IAM_TOKEN_PATH;
+		}
+		return PushConstants.IAM_URI + region + PushConstants.IAM_TOKEN_PATH;
+	}
+
+	public final String getPushMessageEndpointURL() {
+		return pushMessageEndpointURL;
+	}
+
+	/**
+	 * @return The circuit breaker of this client, for example to export its
+	 *         state as a metric.
+	 */
+	public final PushCircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+
+	/**
+	 * @return The timeouts used by sends that are not given their own.
+	 */
+	public final PushRequestOptions getRequestOptions() {
+		return requestOptions;
+	}
+
+	/**
+	 * Routes the following requests of this client through another proxy,
+	 * without recreating its connection pools. Connection pools passed in
+	 * through the {@link Builder} keep their own routing.
+	 *
+	 * @param proxyConfig
+	 *            The proxy to use, for example
+	 *            {@link PushProxyConfig#fromSystemProperties()} to pick up
+	 *            changed system properties.
+	 */
+	public void setProxyConfig(PushProxyConfig proxyConfig) {
+		routePlanner.setProxyConfig(proxyConfig);
+	}
+
+	final boolean matches(String endpointURL, String secret, String key, String region, String iamHost) {
+		return equal(pushMessageEndpointURL, endpointURL) && equal(appSecret, secret) && equal(apiKey, key)
+				&& equal(iamRegion, region) && equal(iamServerHost, iamHost);
+	}
+
+	private static boolean equal(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	/**
+	 * Send the given push notification, as configured, to devices using the
+	 * Push Notification service.
+	 *
+	 * @param notification
+	 *            The push notification to be sent.
+	 * @param listener
+	 *            PushNotificationsResponseListener to listen to the result of
+	 *            this operation.
+	 */
+	public void send(Notification notification, PushNotificationsResponseListener listener) {
+		send(notification, requestOptions, listener);
+	}
+
+	/**
+	 * Send the given push notification with timeouts that differ from those
+	 * of the client.
+	 *
+	 * @param notification
+	 *            The push notification to be sent.
+	 * @param options
+	 *            The timeouts and deadline of this send.
+	 * @param listener
+	 *            PushNotificationsResponseListener to listen to the result of
+	 *            this operation.
+	 */
+	public void send(Notification notification, PushRequestOptions options,
+			PushNotificationsResponseListener listener) {
+		if (notification == null) {
+			reportInvalidArgument(PushConstants.PushServerSDKExceptions.NULL_NOTIFICATION_EXCEPTION, listener);
+			return;
+		}
+		if (options == null) {
+			reportInvalidArgument(PushConstants.PushServerSDKExceptions.INVALID_REQUEST_OPTIONS_EXCEPTION, listener);
+			return;
+		}
+		long deadlineNanos = options.deadlineNanos(System.nanoTime());
+
+		byte[] body;
+		try {
+			body = PushMessageSerializer.writeNotification(notification);
+		} catch (PushServerSDKException e) {
+			logger.log(Level.SEVERE, e.toString(), e);
+			if (listener != null) {
+				listener.onFailure(null, null, e);
+			}
+			return;
+		}
+		requireListener(listener);
+		if (!deduplicator.tryAcquire(notification)) {
+			reportDuplicate(listener);
+			return;
+		}
+		listener = releaseKeysOnFailure(listener, new Notification[] { notification });
+
+		HttpPost pushPost = newPushPost(pushMessageEndpointURI, body);
+		setHeader(pushPost, deadlineNanos, listener);
+		executePushPostRequest(pushPost, PushRetryPolicy.isIdempotent(notification), options, deadlineNanos, listener);
+	}
+
+	/**
+	 * Fails a send without a listener before the deduplication keys of its
+	 * notifications are recorded, as it could not report their outcome.
+	 */
+	private static void requireListener(PushNotificationsResponseListener listener) {
+		if (listener == null) {
+			throw new PushServerSDKException(PushConstants.PushServerSDKExceptions.NOT_PROPERLY_INITIALIZED_EXCEPTION);
+		}
+	}
+
+	private static void reportDuplicate(PushNotificationsResponseListener listener) {
+		if (listener != null) {
+			listener.onFailure(null, null,
+					new PushServerSDKException(PushConstants.PushServerSDKExceptions.DUPLICATE_NOTIFICATION_EXCEPTION));
+		}
+	}
+
+	private static void reportInvalidArgument(String message, PushNotificationsResponseListener listener) {
+		Throwable exception = new IllegalArgumentException(message);
+		logger.log(Level.SEVERE, exception.toString(), exception);
+		if (listener != null) {
+			listener.onFailure(null, null, exception);
+		}
+	}
+
+	/**
+	 * Send the given push notifications in a single request to the bulk
+	 * endpoint of the Push Notification service. The request body is
+	 * serialized while it is sent, so large batches are not held in memory as
+	 * JSON.
+	 *
+	 * @param notifications
+	 *            The push notifications to be sent.
+	 * @param listener
+	 *            PushNotificationsResponseListener to listen to the result of
+	 *            this operation.
+	 */
+	public void sendBulk(Notification[] notifications, PushNotificationsResponseListener listener) {
+		sendBulk(notifications, requestOptions, listener);
+	}
+
+	/**
+	 * Send the given push notifications to the bulk endpoint with timeouts
+	 * that differ from those of the client.
+	 *
+	 * @param notifications
+	 *            The push notifications to be sent.
+	 * @param options
+	 *            The timeouts and deadline of this send.
+	 * @param listener
+	 *            PushNotificationsResponseListener to listen to the result of
+	 *            this operation.
+	 */
+	public void sendBulk(Notification[] notifications, PushRequestOptions options,
+			PushNotificationsResponseListener listener) {
+		if (notifications == null || notifications.length == 0) {
+			reportInvalidArgument(PushConstants.PushServerSDKExceptions.NULL_NOTIFICATION_EXCEPTION, listener);
+			return;
+		}
+		if (options == null) {
+			reportInvalidArgument(PushConstants.PushServerSDKExceptions.INVALID_REQUEST_OPTIONS_EXCEPTION, listener);
+			return;
+		}
+		long deadlineNanos = options.deadlineNanos(System.nanoTime());
+		requireListener(listener);
+		Notification[] sent = withoutDuplicates(notifications);
+		if (sent.length == 0) {
+			reportDuplicate(listener);
+			return;
+		}
+		listener = releaseKeysOnFailure(listener, sent);
+
+		HttpPost pushPost = newPushPost(bulkEndpointURI);
+		pushPost.setEntity(compression.apply(new BulkNotificationEntity(sent,
+				bytes -> metrics.onPayload(PushMetrics.Endpoint.BULK, bytes))));
+		setHeader(pushPost, deadlineNanos, listener);
+		executePushPostRequest(pushPost, PushRetryPolicy.isIdempotent(sent), options, deadlineNanos, listener);
+	}
+
+	/**
+	 * Send the given push notification without blocking the calling thread
+	 * for the round trip to the Push Notification service.
+	 *
+	 * @param notification
+	 *            The push notification to be sent.
+	 * @return A future completed with the response of the service, whatever
+	 *         its status code; check {@link PushResponse#isSuccess()}. The
+	 *         future completes exceptionally if no response was received.
+	 */
+	public CompletableFuture<PushResponse> sendAsync(Notification notification) {
+		return sendAsync(notification, requestOptions);
+	}
+
+	/**
+	 * Send the given push notification without blocking, with timeouts that
+	 * differ from those of the client.
+	 *
+	 * @param notification
+	 *            The push notification to be sent.
+	 * @param options
+	 *            The timeouts and deadline of this send.
+	 * @return A future completed with the response of the service.
+	 * @see #sendAsync(Notification)
+	 */
+	public CompletableFuture<PushResponse> sendAsync(Notification notification, PushRequestOptions options) {
+		if (closed) {
+			return clientClosed();
+		}
+		if (notification == null) {
+			return failedFuture(
+					new IllegalArgumentException(PushConstants.PushServerSDKExceptions.NULL_NOTIFICATION_EXCEPTION));
+		}
+		if (options == null) {
+			return failedFuture(
+					new IllegalArgumentException(PushConstants.PushServerSDKExceptions.INVALID_REQUEST_OPTIONS_EXCEPTION));
+		}
+
+		byte[] body;
+		try {
+			body = PushMessageSerializer.writeNotification(notification);
+		} catch (RuntimeException e) {
+			return failedFuture(e);
+		}
+		if (!deduplicator.tryAcquire(notification)) {
+			return failedFuture(
+					new PushServerSDKException(PushConstants.PushServerSDKExceptions.DUPLICATE_NOTIFICATION_EXCEPTION));
+		}
+		HttpPost pushPost = newPushPost(pushMessageEndpointURI, body);
+		return releaseKeysOnFailure(
+				authorizeAndExecuteAsync(pushPost, PushRetryPolicy.isIdempotent(notification), options),
+				new Notification[] { notification });
+	}
+
+	/**
+	 * Send the given push notifications in a single request to the bulk
+	 * endpoint, without blocking the calling thread.
+	 *
+	 * @param notifications
+	 *            The push notifications to be sent.
+	 * @return A future completed with the response of the service.
+	 * @see #sendAsync(Notification)
+	 */
+	public CompletableFuture<PushResponse> sendBulkAsync(Notification[] notifications) {
+		return sendBulkAsync(notifications, requestOptions);
+	}
+
+	/**
+	 * Send the given push notifications to the bulk endpoint without
+	 * blocking, with timeouts that differ from those of the client.
+	 *
+	 * @param notifications
+	 *            The push notifications to be sent.
+	 * @param options
+	 *            The timeouts and deadline of this send.
+	 * @return A future completed with the response of the service.
+	 * @see #sendAsync(Notification)
+	 */
+	public CompletableFuture<PushResponse> sendBulkAsync(Notification[] notifications, PushRequestOptions options) {
+		if (closed) {
+			return clientClosed();
+		}
+		if (notifications == null || notifications.length == 0) {
+			return failedFuture(
+					new IllegalArgumentException(PushConstants.PushServerSDKExceptions.NULL_NOTIFICATION_EXCEPTION));
+		}
+		if (options == null) {
+			return failedFuture(
+					new IllegalArgumentException(PushConstants.PushServerSDKExceptions.INVALID_REQUEST_OPTIONS_EXCEPTION));
+		}
+
+		Notification[] sent = withoutDuplicates(notifications);
+		if (sent.length == 0) {
+			return failedFuture(
+					new PushServerSDKException(PushConstants.PushServerSDKExceptions.DUPLICATE_NOTIFICATION_EXCEPTION));
+		}
+		return releaseKeysOnFailure(executeBulkAsync(sent, options), sent);
+	}
+
+	private CompletableFuture<PushResponse> executeBulkAsync(Notification[] notifications, PushRequestOptions options) {
+		HttpPost pushPost;
+		try {
+			pushPost = newPushPost(bulkEndpointURI,
+					PushMessageSerializer.writeNotifications(notifications));
+		} catch (RuntimeException e) {
+			return failedFuture(e);
+		}
+		return authorizeAndExecuteAsync(pushPost, PushRetryPolicy.isIdempotent(notifications), options);
+	}
+
+	/**
+	 * Send the given push notifications to the bulk endpoint without blocking
+	 * the calling thread, and report the outcome of each notification.
+	 *
+	 * @param notifications
+	 *            The push notifications to be sent.
+	 * @return A future completed with the result of every notification, in
+	 *         the order they were passed. Notifications dropped by the
+	 *         {@link PushDeduplicator} fail without a status code; if all of
+	 *         them are dropped, no request is made and the status code of the
+	 *         result is 0. The future completes exceptionally if no response
+	 *         was received.
+	 */
+	public CompletableFuture<BulkResult> sendBulkAsyncWithResults(final Notification[] notifications) {
+		if (closed) {
+			return clientClosed();
+		}
+		if (notifications == null || notifications.length == 0 || !deduplicator.isEnabled()) {
+			final int notificationCount = notifications == null ? 0 : notifications.length;
+			return sendBulkAsync(notifications).thenApply(response -> BulkResult.parse(response, notificationCount));
+		}
+		final Notification[] sent = withoutDuplicates(notifications);
+		if (sent.length == 0) {
+			return CompletableFuture.completedFuture(BulkResult.duplicates(notifications));
+		}
+		return releaseKeysOnFailure(executeBulkAsync(sent, requestOptions), sent).thenApply(response -> {
+			BulkResult result = BulkResult.parse(response, sent.length);
+			if (response.isSuccess()) {
+				for (int i = 0; i < sent.length; i++) {
+					if (!result.get(i).isSuccess()) {
+						deduplicator.release(sent[i]);
+					}
+				}
+			}
+			return sent == notifications ? result : BulkResult.withDuplicates(result, sent, notifications);
+		});
+	}
+
+	/**
+	 * Records the deduplication keys of the notifications.
+	 *
+	 * @return The notifications that are not duplicates, the given array if
+	 *         none is.
+	 */
+	private Notification[] withoutDuplicates(Notification[] notifications) {
+		if (!deduplicator.isEnabled()) {
+			return notifications;
+		}
+		List<Notification> kept = null;
+		for (int i = 0; i < notifications.length; i++) {
+			if (!deduplicator.tryAcquire(notifications[i])) {
+				if (kept == null) {
+					kept = new ArrayList<Notification>(Arrays.asList(notifications).subList(0, i));
+				}
+			} else if (kept != null) {
+				kept.add(notifications[i]);
+			}
+		}
+		return kept == null ? notifications : kept.toArray(new Notification[kept.size()]);
+	}
+
+	/**
+	 * Releases the deduplication keys of the notifications if their send
+	 * fails, so that they can be sent again.
+	 */
+	private PushNotificationsResponseListener releaseKeysOnFailure(final PushNotificationsResponseListener listener,
+			final Notification[] notifications) {
+		if (!deduplicator.isEnabled()) {
+			return listener;
+		}
+		return new PushNotificationsResponseListener() {
+
+			@Override
+			public void onSuccess(int statusCode, String responseBody) {
+				listener.onSuccess(statusCode, responseBody);
+			}
+
+			@Override
+			public void onFailure(Integer statusCode, String responseBody, Throwable t) {
+				for (Notification notification : notifications) {
+					deduplicator.release(notification);
+				}
+				listener.onFailure(statusCode, responseBody, t);
+			}
+		};
+	}
+
+	private CompletableFuture<PushResponse> releaseKeysOnFailure(CompletableFuture<PushResponse> future,
+			final Notification[] notifications) {
+		if (!deduplicator.isEnabled()) {
+			return future;
+		}
+		return future.whenComplete((response, t) -> {
+			if (t != null || !response.isSuccess()) {
+				for (Notification notification : notifications) {
+					deduplicator.release(notification);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Closes the connection pools of this client, unless they were passed in
+	 * through the {@link Builder}. A {@link PushTransport} set through the
+	 * Builder is not closed either.
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		if (ownsHttpClient) {
+			httpClient.close();
+		}
+		CloseableHttpAsyncClient asyncClient = ownedAsyncHttpClient;
+		if (asyncClient != null) {
+			asyncClient.close();
+		}
+		if (tokenManager != null) {
+			tokenManager.close();
+		}
+		if (connectionPool != null) {
+			metrics.onConnectionPoolClosed(connectionPool);
+		}
+		if (asyncConnectionPool != null) {
+			metrics.onConnectionPoolClosed(asyncConnectionPool);
+		}
+	}
+
+	private CloseableHttpAsyncClient asyncHttpClient() {
+		if (asyncHttpClientSupplier != null) {
+			return asyncHttpClientSupplier.get();
+		}
+		CloseableHttpAsyncClient client = ownedAsyncHttpClient;
+		if (client == null) {
+			synchronized (asyncHttpClientLock) {
+				client = ownedAsyncHttpClient;
+				if (client == null) {
+					client = PushHttpClients.createPooledAsyncClient(httpClientConfig, routePlanner, asyncConnectionPool);
+					ownedAsyncHttpClient = client;
+				}
+			}
+		}
+		return client;
+	}
+
+	/**
+	 * Sends through the connection pools of this client.
+	 */
+	private final class DefaultTransport implements PushTransport {
+
+		@Override
+		public HttpResponse execute(HttpUriRequest request) throws IOException {
+			return httpClient.execute(request);
+		}
+
+		@Override
+		public Future<HttpResponse> execute(HttpUriRequest request, FutureCallback<HttpResponse> callback) {
+			return asyncHttpClient().execute(request, callback);
+		}
+
+		@Override
+		public void close() {
+			// The pools are closed with the client.
+		}
+	}
+
+	private static <T> CompletableFuture<T> clientClosed() {
+		return failedFuture(new IllegalStateException(PushConstants.PushServerSDKExceptions.CLIENT_CLOSED_EXCEPTION));
+	}
+
+	static <T> CompletableFuture<T> failedFuture(Throwable t) {
+		CompletableFuture<T> future = new CompletableFuture<T>();
+		future.completeExceptionally(t);
+		return future;
+	}
+
+	/**
+	 * API converts object to json format. The sends no longer go through
+	 * org.json; this is kept for callers of the {@link JSONObject} based
+	 * request methods.
+	 *
+	 * @param obj
+	 *            The object which needs to be serialized as json string.
+	 *
+	 * @return Return a JSONOject for the passed object.
+	 */
+	static JSONObject generateJSON(Object obj) {
+		String jsonString = null;
+		try {
+			jsonString = PushMessageSerializer.MAPPER.writeValueAsString(obj);
+		} catch (JsonProcessingException exception) {
+			logger.log(Level.SEVERE, exception.toString(), exception);
+		}
+
+		return jsonString != null ? new JSONObject(jsonString) : new JSONObject();
+	}
+
+	HttpPost createPushPostRequest(JSONObject notification, PushNotificationsResponseListener listener) {
+		HttpPost pushPost = newPushPost(pushMessageEndpointURI, notification.toString());
+		pushPost.setConfig(requestOptions.toRequestConfig());
+		setHeader(pushPost, listener);
+
+		return pushPost;
+	}
+
+	HttpPost createBulkPushPostRequest(List<JSONObject> messageJson, PushNotificationsResponseListener listener) {
+		HttpPost pushPost = newPushPost(bulkEndpointURI, messageJson.toString());
+		pushPost.setConfig(requestOptions.toRequestConfig());
+		setHeader(pushPost, listener);
+
+		return pushPost;
+	}
+
+	private HttpPost newPushPost(URI uri, String body) {
+		HttpPost pushPost = newPushPost(uri);
+		StringEntity entity = new StringEntity(body, PushConstants.UTFEIGHT);
+		metrics.onPayload(endpoint(uri), entity.getContentLength());
+		pushPost.setEntity(compression.apply(entity));
+
+		return pushPost;
+	}
+
+	private HttpPost newPushPost(URI uri, byte[] body) {
+		HttpPost pushPost = newPushPost(uri);
+		metrics.onPayload(endpoint(uri), body.length);
+		pushPost.setEntity(compression.apply(new ByteArrayEntity(body, ContentType.APPLICATION_JSON)));
+
+		return pushPost;
+	}
+
+	private PushMetrics.Endpoint endpoint(URI uri) {
+		return bulkEndpointURI.equals(uri) ? PushMetrics.Endpoint.BULK : PushMetrics.Endpoint.SINGLE;
+	}
+
+	private HttpPost newPushPost(URI uri) {
+		HttpPost pushPost = new HttpPost(uri);
+		pushPost.setHeaders(requestHeaders);
+
+		return pushPost;
+	}
+
+	CloseableHttpResponse getAuthToken() {
+		if (tokenManager == null) {
+			throw new PushServerSDKException(PushConstants.PushServerSDKExceptions.NOT_PROPERLY_INITIALIZED_EXCEPTION);
+		}
+		return tokenManager.executeTokenRequest();
+	}
+
+	private void setHeader(HttpPost pushPost, PushNotificationsResponseListener listener) {
+		setHeader(pushPost, Long.MAX_VALUE, listener);
+	}
+
+	private void setHeader(HttpPost pushPost, long deadlineNanos, PushNotificationsResponseListener listener) {
+		if (appSecret == null) {
+			String token;
+			try {
+				token = tokenManager.getToken(deadlineNanos);
+			} catch (PushServerSDKException e) {
+				if (listener != null) {
+					Integer statusCode = e instanceof IamTokenException ? ((IamTokenException) e).getStatusCode() : null;
+					listener.onFailure(statusCode, e.getLocalizedMessage(), e);
+				}
+				throw e;
+			}
+			pushPost.addHeader(authorizationHeader(token));
+		}
+	}
+
+	/**
+	 * @return The authorization header of the token, created only when the
+	 *         token differs from that of the previous call.
+	 */
+	Header authorizationHeader(String token) {
+		AuthorizationHeader current = authorizationHeader;
+		if (current == null || !current.token.equals(token)) {
+			current = new AuthorizationHeader(token);
+			authorizationHeader = current;
+		}
+		return current.header;
+	}
+
+	private static final class AuthorizationHeader {
+
+		private final String token;
+		private final Header header;
+
+		AuthorizationHeader(String token) {
+			this.token = token;
+			this.header = new BasicHeader(PushConstants.AUTHORIZATION_HEADER,
+					PushConstants.BEARER + PushConstants.EMPTY_SPACE + token);
+		}
+	}
+
+	private CompletableFuture<PushResponse> authorizeAndExecuteAsync(HttpPost pushPost, boolean idempotent,
+			PushRequestOptions options) {
+		AsyncSend send = new AsyncSend(pushPost, idempotent, options);
+		send.start();
+		return send.future;
+	}
+
+	/**
+	 * Drops the cached access token, so that the next send requests a new one.
+	 */
+	void invalidateAccessToken() {
+		if (tokenManager != null) {
+			tokenManager.invalidate();
+		}
+	}
+
+	/**
+	 * Executes the request, retrying it as the retry policy and the deadline
+	 * allow, and reports the outcome of the last attempt to the listener.
+	 */
+	void executePushPostRequest(HttpPost pushPost, boolean idempotent, PushRequestOptions options,
+			long deadlineNanos, PushNotificationsResponseListener listener) {
+		if (listener == null) {
+			throw new PushServerSDKException(PushConstants.PushServerSDKExceptions.NOT_PROPERLY_INITIALIZED_EXCEPTION);
+		}
+		if (debugLog.sample()) {
+			debugLog.request("push.request", pushPost);
+			listener = new DebugLogListener(debugLog, listener);
+		}
+
+		PushMetrics.Endpoint endpoint = endpoint(pushPost.getURI());
+		ScheduledFuture<?> abort = scheduleAbort(pushPost, deadlineNanos);
+		try {
+			for (int attempt = 1;; attempt++) {
+				long remainingNanos = remainingNanos(deadlineNanos);
+				if (remainingNanos <= 0) {
+					listener.onFailure(null, null, deadlineExceeded(null));
+					return;
+				}
+				try {
+					rateLimiter.acquire(pushMessageEndpointURL, 1, remainingNanos);
+				} catch (PushServerSDKException e) {
+					listener.onFailure(null, null, e);
+					return;
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					listener.onFailure(null, null, e);
+					return;
+				}
+				if (!circuitBreaker.tryAcquirePermission()) {
+					metrics.onCircuitBreakerRejection(endpoint);
+					listener.onFailure(null, null,
+							new PushServerSDKException(PushConstants.PushServerSDKExceptions.CIRCUIT_OPEN_EXCEPTION));
+					return;
+				}
+				pushPost.setConfig(options.toRequestConfig(remainingMillis(deadlineNanos)));
+
+				long delay;
+				HttpResponse response = null;
+				try {
+					long startNanos = System.nanoTime();
+					try {
+						response = transport.execute(pushPost);
+						metrics.onResponse(endpoint, response.getStatusLine().getStatusCode(),
+								System.nanoTime() - startNanos);
+					} catch (IOException e) {
+						metrics.onFailure(endpoint, e, System.nanoTime() - startNanos);
+						throw e;
+					} finally {
+						circuitBreaker.onResult(System.nanoTime() - startNanos, isServiceFailure(response));
+					}
+					int statusCode = response.getStatusLine().getStatusCode();
+					adaptRateLimit(statusCode, response);
+					delay = withinDeadline(
+							retryPolicy.retryDelayAfterResponse(attempt, statusCode, retryAfter(response), idempotent),
+							deadlineNanos);
+					if (delay == PushRetryPolicy.NO_RETRY) {
+						if (statusCode == HttpStatus.SC_UNAUTHORIZED) {
+							invalidateAccessToken();
+						}
+						sendResponseToListener(response, listener);
+						return;
+					}
+					metrics.onRetry(endpoint);
+					EntityUtils.consumeQuietly(response.getEntity());
+				} catch (IOException e) {
+					if (remainingNanos(deadlineNanos) <= 0) {
+						listener.onFailure(null, null, deadlineExceeded(e));
+						return;
+					}
+					delay = withinDeadline(retryPolicy.retryDelayAfterFailure(attempt, e, idempotent), deadlineNanos);
+					if (delay == PushRetryPolicy.NO_RETRY) {
+						logger.log(Level.SEVERE, e.toString(), e);
+						listener.onFailure(null, null, e);
+						return;
+					}
+					metrics.onRetry(endpoint);
+				} finally {
+					closeQuietly(response);
+				}
+
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					listener.onFailure(null, null, e);
+					return;
+				}
+			}
+		} finally {
+			if (abort != null) {
+				abort.cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * Aborts the request once the deadline has passed, so that a stalled
+	 * attempt does not outlive it.
+	 */
+	private static ScheduledFuture<?> scheduleAbort(final HttpPost pushPost, long deadlineNanos) {
+		if (deadlineNanos == Long.MAX_VALUE) {
+			return null;
+		}
+		try {
+			return PushSchedulers.scheduler().schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					pushPost.abort();
+				}
+			}, remainingNanos(deadlineNanos), TimeUnit.NANOSECONDS);
+		} catch (RejectedExecutionException e) {
+			// The deadline is then only enforced through the timeouts of each attempt.
+			return null;
+		}
+	}
+
+	private static long remainingNanos(long deadlineNanos) {
+		return deadlineNanos == Long.MAX_VALUE ? Long.MAX_VALUE : deadlineNanos - System.nanoTime();
+	}
+
+	private static long remainingMillis(long deadlineNanos) {
+		long remainingNanos = remainingNanos(deadlineNanos);
+		return remainingNanos == Long.MAX_VALUE ? Long.MAX_VALUE
+				: TimeUnit.NANOSECONDS.toMillis(remainingNanos + TimeUnit.MILLISECONDS.toNanos(1) - 1);
+	}
+
+	/**
+	 * @return The retry delay, or {@link PushRetryPolicy#NO_RETRY} if the
+	 *         retry would start after the deadline.
+	 */
+	private static long withinDeadline(long delayMillis, long deadlineNanos) {
+		if (delayMillis == PushRetryPolicy.NO_RETRY
+				|| TimeUnit.MILLISECONDS.toNanos(delayMillis) >= remainingNanos(deadlineNanos)) {
+			return PushRetryPolicy.NO_RETRY;
+		}
+		return delayMillis;
+	}
+
+	private static PushServerSDKException deadlineExceeded(Throwable cause) {
+		return new PushServerSDKException(PushConstants.PushServerSDKExceptions.DEADLINE_EXCEEDED_EXCEPTION, cause);
+	}
+
+	/**
+	 * @return true if the response, or the lack of one, means that the push
+	 *         service could not handle the request.
+	 */
+	private static boolean isServiceFailure(HttpResponse response) {
+		return response == null || response.getStatusLine().getStatusCode() >= HttpStatus.SC_INTERNAL_SERVER_ERROR;
+	}
+
+	private void adaptRateLimit(int statusCode, HttpResponse response) {
+		if (statusCode == PushConstants.TOO_MANY_REQUESTS) {
+			String retryAfter = retryAfter(response);
+			rateLimiter.onThrottled(pushMessageEndpointURL,
+					retryAfter != null ? PushRetryPolicy.parseRetryAfterMillis(retryAfter) : null);
+		} else if (statusCode >= HttpStatus.SC_OK && statusCode < HttpStatus.SC_MULTIPLE_CHOICES) {
+			rateLimiter.onAccepted(pushMessageEndpointURL);
+		}
+	}
+
+	private static String retryAfter(HttpResponse response) {
+		Header header = response.getFirstHeader(PushConstants.RETRY_AFTER_HEADER);
+		return header != null ? header.getValue() : null;
+	}
+
+	private static void closeQuietly(HttpResponse response) {
+		if (response instanceof Closeable) {
+			try {
+				((Closeable) response).close();
+			} catch (IOException e) {
+				// Closing response is merely a best effort.
+			}
+		}
+	}
+
+	/**
+	 * One non-blocking send, from the access token through its attempts to
+	 * the completion of its future.
+	 */
+	private final class AsyncSend {
+
+		private final HttpPost pushPost;
+		private final boolean idempotent;
+		private final PushRequestOptions options;
+		private final long startNanos = System.nanoTime();
+		private final long deadlineNanos;
+		private final CompletableFuture<PushResponse> future = new CompletableFuture<PushResponse>();
+		private final boolean traced = debugLog.sample();
+		private final PushMetrics.Endpoint endpoint;
+		private volatile Future<HttpResponse> inFlight;
+
+		AsyncSend(HttpPost pushPost, boolean idempotent, PushRequestOptions options) {
+			this.pushPost = pushPost;
+			this.idempotent = idempotent;
+			this.options = options;
+			this.deadlineNanos = options.deadlineNanos(startNanos);
+			this.endpoint = endpoint(pushPost.getURI());
+		}
+
+		void start() {
+			scheduleDeadline();
+			try {
+				if (appSecret != null) {
+					authorized();
+					return;
+				}
+				tokenManager.token().whenComplete((token, t) -> {
+					if (t != null) {
+						future.completeExceptionally(t);
+						return;
+					}
+					try {
+						pushPost.addHeader(authorizationHeader(token));
+						authorized();
+					} catch (RuntimeException e) {
+						future.completeExceptionally(e);
+					}
+				});
+			} catch (RuntimeException e) {
+				future.completeExceptionally(e);
+			}
+		}
+
+		private void authorized() {
+			if (traced) {
+				debugLog.request("push.request", pushPost);
+			}
+			attempt(1);
+		}
+
+		private void scheduleDeadline() {
+			if (deadlineNanos == Long.MAX_VALUE) {
+				return;
+			}
+			final ScheduledFuture<?> timer;
+			try {
+				timer = PushSchedulers.schedule(new Runnable() {
+
+					@Override
+					public void run() {
+						if (future.completeExceptionally(deadlineExceeded(null))) {
+							Future<HttpResponse> request = inFlight;
+							if (request != null) {
+								request.cancel(true);
+							}
+						}
+					}
+				}, remainingNanos(deadlineNanos), TimeUnit.NANOSECONDS);
+			} catch (RejectedExecutionException e) {
+				// The deadline is then only enforced through the timeouts of each attempt.
+				return;
+			}
+			future.whenComplete((response, t) -> timer.cancel(false));
+		}
+
+		private void attempt(final int attempt) {
+			if (future.isDone()) {
+				return;
+			}
+			try {
+				rateLimiter.acquireAsync(pushMessageEndpointURL, 1, remainingNanos(deadlineNanos))
+						.whenComplete((permitted, t) -> {
+							if (t != null) {
+								future.completeExceptionally(t);
+								return;
+							}
+							try {
+								execute(attempt);
+							} catch (RuntimeException e) {
+								future.completeExceptionally(e);
+							}
+						});
+			} catch (RuntimeException e) {
+				future.completeExceptionally(e);
+			}
+		}
+
+		private void execute(final int attempt) {
+			if (future.isDone()) {
+				return;
+			}
+			if (!circuitBreaker.tryAcquirePermission()) {
+				metrics.onCircuitBreakerRejection(endpoint);
+				future.completeExceptionally(
+						new PushServerSDKException(PushConstants.PushServerSDKExceptions.CIRCUIT_OPEN_EXCEPTION));
+				return;
+			}
+			final long attemptStartNanos = System.nanoTime();
+			try {
+				pushPost.setConfig(options.toRequestConfig(remainingMillis(deadlineNanos)));
+				inFlight = transport.execute(pushPost, callback(attempt, attemptStartNanos));
+			} catch (RuntimeException e) {
+				// A transport that cannot take the request, such as a closed one, throws instead of calling back.
+				long durationNanos = System.nanoTime() - attemptStartNanos;
+				circuitBreaker.onResult(durationNanos, true);
+				metrics.onFailure(endpoint, e, durationNanos);
+				future.completeExceptionally(e);
+			}
+		}
+
+		private FutureCallback<HttpResponse> callback(final int attempt, final long attemptStartNanos) {
+			return new FutureCallback<HttpResponse>() {
+
+				@Override
+				public void completed(HttpResponse response) {
+					long durationNanos = System.nanoTime() - attemptStartNanos;
+					circuitBreaker.onResult(durationNanos, isServiceFailure(response));
+					try {
+						int statusCode = response.getStatusLine().getStatusCode();
+						metrics.onResponse(endpoint, statusCode, durationNanos);
+						adaptRateLimit(statusCode, response);
+						long delay = withinDeadline(retryPolicy.retryDelayAfterResponse(attempt, statusCode,
+								retryAfter(response), idempotent), deadlineNanos);
+						if (delay != PushRetryPolicy.NO_RETRY && scheduleRetry(attempt + 1, delay)) {
+							EntityUtils.consumeQuietly(response.getEntity());
+							return;
+						}
+						if (statusCode == HttpStatus.SC_UNAUTHORIZED) {
+							logger.log(Level.SEVERE, response.getStatusLine().getReasonPhrase());
+							invalidateAccessToken();
+						}
+						String responseBody = readResponseBody(response);
+						if (traced) {
+							debugLog.response("push.response", statusCode, responseBody, startNanos);
+						}
+						future.complete(new PushResponse(statusCode, responseBody));
+					} catch (IOException e) {
+						if (traced) {
+							debugLog.failure("push.failure", e, startNanos);
+						}
+						future.completeExceptionally(e);
+					}
+				}
+
+				@Override
+				public void failed(Exception e) {
+					long durationNanos = System.nanoTime() - attemptStartNanos;
+					circuitBreaker.onResult(durationNanos, true);
+					metrics.onFailure(endpoint, e, durationNanos);
+					long delay = withinDeadline(retryPolicy.retryDelayAfterFailure(attempt, e, idempotent),
+							deadlineNanos);
+					if (delay != PushRetryPolicy.NO_RETRY && scheduleRetry(attempt + 1, delay)) {
+						return;
+					}
+					logger.log(Level.SEVERE, e.toString(), e);
+					if (traced) {
+						debugLog.failure("push.failure", e, startNanos);
+					}
+					future.completeExceptionally(remainingNanos(deadlineNanos) <= 0 ? deadlineExceeded(e) : e);
+				}
+
+				@Override
+				public void cancelled() {
+					// Cancelled at the deadline, which a blocking send sees as an aborted request.
+					long durationNanos = System.nanoTime() - attemptStartNanos;
+					circuitBreaker.onResult(durationNanos, true);
+					metrics.onFailure(endpoint, deadlineExceeded(null), durationNanos);
+					future.cancel(false);
+				}
+			};
+		}
+
+		private boolean scheduleRetry(final int attempt, long delayMillis) {
+			try {
+				PushSchedulers.schedule(new Runnable() {
+
+					@Override
+					public void run() {
+						attempt(attempt);
+					}
+				}, delayMillis, TimeUnit.MILLISECONDS);
+				metrics.onRetry(endpoint);
+				return true;
+			} catch (RejectedExecutionException e) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Executes the request and reports the outcome to the listener.
+	 *
+	 * @return The status code of the response, or null if there was none.
+	 */
+	static Integer executePushPostRequest(HttpPost pushPost, CloseableHttpClient httpClient,
+			PushNotificationsResponseListener listener) {
+		CloseableHttpResponse response = null;
+
+		try {
+			if (httpClient != null && listener != null) {
+				response = httpClient.execute(pushPost);
+				return sendResponseToListener(response, listener);
+			} else {
+				throw new PushServerSDKException(
+						PushConstants.PushServerSDKExceptions.NOT_PROPERLY_INITIALIZED_EXCEPTION);
+			}
+		} catch (ClientProtocolException e) {
+			logger.log(Level.SEVERE, e.toString(), e);
+			if (listener != null) {
+				listener.onFailure(null, null, e);
+			}
+		} catch (IOException e) {
+			logger.log(Level.SEVERE, e.toString(), e);
+			if (listener != null) {
+				listener.onFailure(null, null, e);
+			}
+		} finally {
+			if (response != null) {
+				try {
+					response.close();
+				} catch (IOException e) {
+					// Closing response is merely a best effort.
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Reports the response to the listener.
+	 *
+	 * @return The status code of the response, or null if there was none.
+	 */
+	static Integer sendResponseToListener(HttpResponse response, PushNotificationsResponseListener listener)
+			throws IOException {
+		String responseBody = readResponseBody(response);
+
+		Integer statusCode = null;
+
+		if (response.getStatusLine() != null) {
+			statusCode = response.getStatusLine().getStatusCode();
+		}
+
+		if (statusCode != null && statusCode == HttpStatus.SC_ACCEPTED) {
+			listener.onSuccess(statusCode, responseBody);
+		} else {
+			if (statusCode != null && statusCode == HttpStatus.SC_UNAUTHORIZED) {
+				logger.log(Level.SEVERE, response.getStatusLine().getReasonPhrase());
+			}
+			listener.onFailure(statusCode, responseBody, null);
+		}
+		return statusCode;
+	}
+
+	private static String readResponseBody(HttpResponse response) throws IOException {
+		if (response.getEntity() == null) {
+			return null;
+		}
+		ByteArrayOutputStream outputAsByteArray = new ByteArrayOutputStream();
+		response.getEntity().writeTo(outputAsByteArray);
+
+		return new String(outputAsByteArray.toByteArray());
+	}
+
+	/**
+	 * Writes the outcome of a sampled request to the debug log before passing
+	 * it on to the listener of the caller.
+	 */
+	private static final class DebugLogListener implements PushNotificationsResponseListener {
+
+		private final PushDebugLog debugLog;
+		private final PushNotificationsResponseListener delegate;
+		private final long startNanos = System.nanoTime();
+
+		DebugLogListener(PushDebugLog debugLog, PushNotificationsResponseListener delegate) {
+			this.debugLog = debugLog;
+			this.delegate = delegate;
+		}
+
+		@Override
+		public void onSuccess(int statusCode, String responseBody) {
+			debugLog.response("push.response", statusCode, responseBody, startNanos);
+			delegate.onSuccess(statusCode, responseBody);
+		}
+
+		@Override
+		public void onFailure(Integer statusCode, String responseBody, Throwable t) {
+			if (t != null) {
+				debugLog.failure("push.failure", t, startNanos);
+			} else {
+				debugLog.response("push.response", statusCode, responseBody, startNanos);
+			}
+			delegate.onFailure(statusCode, responseBody, t);
+		}
+	}
+
+	/**
+	 *
+	 * Builder for {@link PushNotificationsClient}.
+	 *
+	 */
+	public static class Builder {
+
+		private String tenantId;
+		private String appSecret;
+		private String apiKey;
+		private String region;
+		private String serverHost;
+		private String iamServerHost;
+		private String pushMessageEndpointURL;
+		private PushHttpClientConfig httpClientConfig = PushHttpClientConfig.defaults();
+		private CloseableHttpClient httpClient;
+		private Supplier<CloseableHttpAsyncClient> asyncHttpClientSupplier;
+		private PushDebugLog debugLog = PushDebugLog.defaults();
+		private PushProxyConfig proxyConfig;
+		private PushRetryPolicy retryPolicy;
+		private PushCircuitBreaker circuitBreaker;
+		private PushRateLimiter rateLimiter = PushRateLimiter.unlimited();
+		private PushRequestOptions requestOptions = PushRequestOptions.defaults();
+		private PushCompression compression = PushCompression.disabled();
+		private PushTransport transport;
+		private PushMetrics metrics = PushMetrics.none();
+		private PushDeduplicator deduplicator = PushDeduplicator.disabled();
+		private PushRoutePlanner routePlanner;
+
+		/**
+		 *
+		 * @param tenantId
+		 *            The tenant ID for the IBM Cloud application that the Push
+		 *            Notifications service is bound to.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder tenantId(final String tenantId) {
+			this.tenantId = tenantId;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param appSecret
+		 *            The credential required for Push Notifications service
+		 *            authorization. Takes precedence over an API key.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder appSecret(final String appSecret) {
+			this.appSecret = appSecret;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param apiKey
+		 *            The IBM Cloud API key used to obtain IAM access tokens.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder apiKey(final String apiKey) {
+			this.apiKey = apiKey;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param region
+		 *            The IBM Cloud region where the Push Notifications service
+		 *            is hosted. For example,
+		 *            {@link PushNotifications#US_SOUTH_REGION}.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder region(final String region) {
+			this.region = region;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param serverHost
+		 *            Overrides the default server host, for example for a
+		 *            dedicated service.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder serverHost(final String serverHost) {
+			this.serverHost = serverHost;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param iamServerHost
+		 *            Overrides the default IAM host from which access tokens
+		 *            are obtained, for example a private endpoint or a test
+		 *            server. The region is not needed then.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder iamServerHost(final String iamServerHost) {
+			this.iamServerHost = iamServerHost;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param httpClientConfig
+		 *            The settings of the connection pool owned by the client.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder httpClientConfig(final PushHttpClientConfig httpClientConfig) {
+			this.httpClientConfig = httpClientConfig;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param httpClient
+		 *            An existing HTTP client to share between several
+		 *            PushNotificationsClients. The client is not closed by
+		 *            {@link PushNotificationsClient#close()}.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder httpClient(final CloseableHttpClient httpClient) {
+			this.httpClient = httpClient;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param asyncHttpClient
+		 *            An existing, started non-blocking HTTP client to share
+		 *            between several PushNotificationsClients. The client is
+		 *            not closed by {@link PushNotificationsClient#close()}.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder asyncHttpClient(final CloseableHttpAsyncClient asyncHttpClient) {
+			this.asyncHttpClientSupplier = asyncHttpClient == null ? null : new Supplier<CloseableHttpAsyncClient>() {
+
+				@Override
+				public CloseableHttpAsyncClient get() {
+					return asyncHttpClient;
+				}
+			};
+			return this;
+		}
+
+		/**
+		 *
+		 * @param debugLog
+		 *            Where requests and responses are logged for debugging.
+		 *            Defaults to {@link PushDebugLog#defaults()}, which only
+		 *            writes when the package logger is set to FINE.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder debugLog(final PushDebugLog debugLog) {
+			this.debugLog = debugLog;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param proxyConfig
+		 *            The proxy to route requests through. Defaults to the
+		 *            proxy set in the {@code https.proxyHost} and
+		 *            {@code https.proxyPort} system properties when the client
+		 *            is built.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder proxyConfig(final PushProxyConfig proxyConfig) {
+			this.proxyConfig = proxyConfig;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param retryPolicy
+		 *            When failed requests to the Push Notifications and IAM
+		 *            services are sent again. Defaults to a new
+		 *            {@link PushRetryPolicy#defaults()} per client, with its
+		 *            own retry budget; use {@link PushRetryPolicy#none()} to
+		 *            disable retries.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder retryPolicy(final PushRetryPolicy retryPolicy) {
+			this.retryPolicy = retryPolicy;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param circuitBreaker
+		 *            Makes sends fail fast while the push service is
+		 *            unhealthy. Defaults to a new
+		 *            {@link PushCircuitBreaker#defaults()} per client; use
+		 *            {@link PushCircuitBreaker#disabled()} to always send.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder circuitBreaker(final PushCircuitBreaker circuitBreaker) {
+			this.circuitBreaker = circuitBreaker;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param rateLimiter
+		 *            Limits the rate of requests to the push endpoint of this
+		 *            client. Defaults to {@link PushRateLimiter#unlimited()}.
+		 *            Clients sharing a limiter share the bucket of their
+		 *            endpoint.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder rateLimiter(final PushRateLimiter rateLimiter) {
+			this.rateLimiter = rateLimiter;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param requestOptions
+		 *            The connect, socket and connection pool timeouts and the
+		 *            deadline of every send of this client, and the timeouts
+		 *            of its IAM token requests. Defaults to
+		 *            {@link PushRequestOptions#defaults()}.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder requestOptions(final PushRequestOptions requestOptions) {
+			this.requestOptions = requestOptions;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param compression
+		 *            When request bodies are compressed with gzip. Defaults to
+		 *            {@link PushCompression#disabled()}.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder compression(final PushCompression compression) {
+			this.compression = compression;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param transport
+		 *            Sends the push requests of this client instead of its
+		 *            own HTTP/1.1 connection pools, for example an
+		 *            {@link Http2PushTransport}. The transport is not closed
+		 *            by {@link PushNotificationsClient#close()}. Access
+		 *            tokens are still requested over HTTP/1.1.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder transport(final PushTransport transport) {
+			this.transport = transport;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param metrics
+		 *            Where the client records latencies, status codes,
+		 *            retries, token refreshes, body sizes and connection pool
+		 *            usage. Defaults to {@link PushMetrics#none()}.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder metrics(final PushMetrics metrics) {
+			this.metrics = metrics;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param deduplicator
+		 *            Drops notifications whose deduplication key was sent
+		 *            recently. Defaults to {@link PushDeduplicator#disabled()}.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder deduplicator(final PushDeduplicator deduplicator) {
+			this.deduplicator = deduplicator;
+			return this;
+		}
+
+		final Builder routePlanner(final PushRoutePlanner routePlanner) {
+			this.routePlanner = routePlanner;
+			return this;
+		}
+
+		final Builder asyncHttpClient(final Supplier<CloseableHttpAsyncClient> asyncHttpClientSupplier) {
+			this.asyncHttpClientSupplier = asyncHttpClientSupplier;
+			return this;
+		}
+
+		final Builder pushMessageEndpointURL(final String pushMessageEndpointURL) {
+			this.pushMessageEndpointURL = pushMessageEndpointURL;
+			return this;
+		}
+
+		/**
+		 *
+		 * @return the {@link PushNotificationsClient} object.
+		 */
+		public PushNotificationsClient build() {
+			boolean hasEndpoint = pushMessageEndpointURL != null
+					|| (tenantId != null && (serverHost != null || region != null));
+			if (!hasEndpoint || (appSecret == null && apiKey == null)
+					|| (appSecret == null && region == null && iamServerHost == null) || httpClientConfig == null || debugLog == null
+					|| rateLimiter == null || requestOptions == null || compression == null || metrics == null
+					|| deduplicator == null) {
+				throw new IllegalArgumentException(PushConstants.PushServerSDKExceptions.INVALID_CLIENT_EXCEPTION);
+			}
+			return new PushNotificationsClient(this);
+		}
+	}
+}
@@ -0,0 +1,527 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ibm.mobilefirstplatform.serversdk.java.push.exception.PushServerSDKException;
+
+/**
+ * Sends notifications to the bulk endpoint through separate lanes per
+ * {@link Priority}, so that latency-critical notifications, such as one-time
+ * passwords, do not wait behind a marketing campaign.
+ * <p>
+ * Every lane has its own queue, its own limit of bulk requests in flight and
+ * its own {@link PushRateLimiter}. Batches are formed only when a request is
+ * about to be sent, always from the highest priority lane that has
+ * notifications waiting and a request to spare. A notification of a higher
+ * priority therefore overtakes all queued notifications of lower priorities;
+ * only requests already sent are not interrupted.
+ *
+ * <pre>
+ * PushPriorityDispatcher dispatcher = new PushPriorityDispatcher.Builder().client(client)
+ * 		.lane(Priority.LOW, new PushPriorityDispatcher.Lane.Builder().maxConcurrency(1)
+ * 				.rateLimiter(new PushRateLimiter.Builder().permitsPerSecond(500).build()).build())
+ * 		.build();
+ * dispatcher.send(otpNotification, Priority.HIGH);
+ * dispatcher.send(campaignNotification, Priority.LOW);
+ * </pre>
+ *
+ * Strict priorities can starve the lower lanes; bound the higher ones with a
+ * rate limiter if they may carry sustained traffic.
+ */
+public final class PushPriorityDispatcher implements Closeable {
+
+	public static final Logger logger = Logger.getLogger(PushPriorityDispatcher.class.getName());
+
+	private static final long IDLE_WAIT_MILLIS = 100L;
+
+	/**
+	 * The lanes, from the one served first to the one served last.
+	 */
+	public enum Priority {
+		HIGH, NORMAL, LOW;
+
+		/**
+		 * @return The lane of a notification that was given none, derived
+		 *         from its FCM priority: {@code HIGH} and {@code MAX} are
+		 *         high, {@code LOW} and {@code MIN} are low and all others
+		 *         normal.
+		 */
+		public static Priority of(Notification notification) {
+			Settings settings = notification.getSettings();
+			FCM.Builder.FCMPriority priority = settings != null && settings.getFcm() != null
+					? settings.getFcm().getPriority() : null;
+			if (priority == FCM.Builder.FCMPriority.HIGH || priority == FCM.Builder.FCMPriority.MAX) {
+				return HIGH;
+			}
+			if (priority == FCM.Builder.FCMPriority.LOW || priority == FCM.Builder.FCMPriority.MIN) {
+				return LOW;
+			}
+			return NORMAL;
+		}
+	}
+
+	private final Function<Notification[], CompletableFuture<BulkResult>> bulkSender;
+	private final LaneQueue[] lanes;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = lock.newCondition();
+	private final Thread dispatcher;
+
+	private volatile boolean closed;
+
+	private PushPriorityDispatcher(Builder builder) {
+		this.bulkSender = builder.bulkSender;
+		Priority[] priorities = Priority.values();
+		this.lanes = new LaneQueue[priorities.length];
+		for (Priority priority : priorities) {
+			Lane lane = builder.lanes.get(priority);
+			lanes[priority.ordinal()] = new LaneQueue(priority, lane != null ? lane : Lane.defaults());
+		}
+		this.dispatcher = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				dispatchUntilClosed();
+			}
+		}, "push-priority-dispatcher");
+		this.dispatcher.setDaemon(true);
+		this.dispatcher.start();
+	}
+
+	/**
+	 * Queues the notification in the lane of {@link Priority#of(Notification)}.
+	 *
+	 * @see #send(Notification, Priority)
+	 */
+	public CompletableFuture<PushResponse> send(Notification notification) {
+		if (notification == null) {
+			return PushNotificationsClient.failedFuture(
+					new IllegalArgumentException(PushConstants.PushServerSDKExceptions.NULL_NOTIFICATION_EXCEPTION));
+		}
+		return send(notification, Priority.of(notification));
+	}
+
+	/**
+	 * Queues the notification in the lane of the given priority.
+	 *
+	 * @param notification
+	 *            The push notification to be sent.
+	 * @param priority
+	 *            The lane to send it through.
+	 * @return A future completed with the outcome of the notification, that
+	 *         of its entry in the bulk response. It completes exceptionally
+	 *         if the lane is full, the dispatcher is closed or no result was
+	 *         received.
+	 */
+	public CompletableFuture<PushResponse> send(Notification notification, Priority priority) {
+		if (notification == null || priority == null) {
+			return PushNotificationsClient.failedFuture(
+					new IllegalArgumentException(PushConstants.PushServerSDKExceptions.NULL_NOTIFICATION_EXCEPTION));
+		}
+		Pending pending = new Pending(notification);
+		LaneQueue lane = lanes[priority.ordinal()];
+		lock.lock();
+		try {
+			if (closed) {
+				return PushNotificationsClient.failedFuture(
+						new PushServerSDKException(PushConstants.PushServerSDKExceptions.DISPATCHER_CLOSED_EXCEPTION));
+			}
+			if (lane.queue.size() >= lane.config.maxQueuedNotifications) {
+				return PushNotificationsClient.failedFuture(new PushServerSDKException(
+						PushConstants.PushServerSDKExceptions.DISPATCHER_QUEUE_FULL_EXCEPTION));
+			}
+			lane.queue.add(pending);
+			changed.signal();
+		} finally {
+			lock.unlock();
+		}
+		return pending.future;
+	}
+
+	/**
+	 * @return The number of notifications waiting in the lane.
+	 */
+	public int getQueuedNotifications(Priority priority) {
+		lock.lock();
+		try {
+			return lanes[priority.ordinal()].queue.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stops accepting notifications and sends the ones already queued. Waits
+	 * until all of them have been handed to the client, which may take until
+	 * earlier requests of their lane are answered.
+	 */
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			changed.signal();
+		} finally {
+			lock.unlock();
+		}
+		try {
+			dispatcher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void dispatchUntilClosed() {
+		lock.lock();
+		try {
+			while (true) {
+				LaneQueue lane = nextLane();
+				if (lane == null) {
+					if (closed && isEmpty()) {
+						return;
+					}
+					changed.await(IDLE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+					continue;
+				}
+				List<Pending> batch = new ArrayList<Pending>(Math.min(lane.queue.size(), lane.config.maxBatchSize));
+				while (batch.size() < lane.config.maxBatchSize && !lane.queue.isEmpty()) {
+					batch.add(lane.queue.poll());
+				}
+				lane.inFlight++;
+				lock.unlock();
+				try {
+					start(lane, batch);
+				} finally {
+					lock.lock();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return The highest priority lane with notifications waiting and a
+	 *         request to spare, or null.
+	 */
+	private LaneQueue nextLane() {
+		for (LaneQueue lane : lanes) {
+			if (!lane.queue.isEmpty() && lane.inFlight < lane.config.maxConcurrency) {
+				return lane;
+			}
+		}
+		return null;
+	}
+
+	private boolean isEmpty() {
+		for (LaneQueue lane : lanes) {
+			if (!lane.queue.isEmpty()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Sends the batch once the rate limiter of its lane allows. While it
+	 * waits, it takes one of the lane's requests, but other lanes go on.
+	 */
+	private void start(final LaneQueue lane, final List<Pending> batch) {
+		long waitNanos = lane.config.rateLimiter.reserve(lane.name, batch.size(), Long.MAX_VALUE);
+		if (waitNanos <= 0) {
+			dispatch(lane, batch);
+			return;
+		}
+		try {
+			PushSchedulers.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					dispatch(lane, batch);
+				}
+			}, waitNanos, TimeUnit.NANOSECONDS);
+		} catch (RejectedExecutionException e) {
+			dispatch(lane, batch);
+		}
+	}
+
+	private void dispatch(final LaneQueue lane, final List<Pending> batch) {
+		Notification[] notifications = new Notification[batch.size()];
+		for (int i = 0; i < notifications.length; i++) {
+			notifications[i] = batch.get(i).notification;
+		}
+
+		CompletableFuture<BulkResult> response;
+		try {
+			response = bulkSender.apply(notifications);
+		} catch (RuntimeException e) {
+			response = PushNotificationsClient.failedFuture(e);
+		}
+		response.whenComplete(new BiConsumer<BulkResult, Throwable>() {
+
+			@Override
+			public void accept(BulkResult result, Throwable t) {
+				lock.lock();
+				try {
+					lane.inFlight--;
+					changed.signal();
+				} finally {
+					lock.unlock();
+				}
+				if (t != null) {
+					logger.log(Level.SEVERE, t.toString(), t);
+				}
+				for (int i = 0; i < batch.size(); i++) {
+					if (t != null) {
+						batch.get(i).future.completeExceptionally(t);
+					} else {
+						PushBatchingDispatcher.complete(batch.get(i).future, result, result.get(i));
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * The queue of a lane and its requests in flight, guarded by the lock.
+	 */
+	private static final class LaneQueue {
+		private final String name;
+		private final Lane config;
+		private final ArrayDeque<Pending> queue = new ArrayDeque<Pending>();
+		private int inFlight;
+
+		LaneQueue(Priority priority, Lane config) {
+			this.name = "lane-" + priority.name().toLowerCase();
+			this.config = config;
+		}
+	}
+
+	/**
+	 * A queued notification together with the future of its caller.
+	 */
+	private static final class Pending {
+		private final Notification notification;
+		private final CompletableFuture<PushResponse> future = new CompletableFuture<PushResponse>();
+
+		Pending(Notification notification) {
+			this.notification = notification;
+		}
+	}
+
+	/**
+	 * The quotas of one lane.
+	 */
+	public static final class Lane {
+
+		public static final int DEFAULT_MAX_CONCURRENCY = 4;
+		public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+		public static final int DEFAULT_MAX_QUEUED_NOTIFICATIONS = 10000;
+
+		private final int maxConcurrency;
+		private final int maxBatchSize;
+		private final int maxQueuedNotifications;
+		private final PushRateLimiter rateLimiter;
+
+		private Lane(Builder builder) {
+			this.maxConcurrency = builder.maxConcurrency;
+			this.maxBatchSize = builder.maxBatchSize;
+			this.maxQueuedNotifications = builder.maxQueuedNotifications;
+			this.rateLimiter = builder.rateLimiter;
+		}
+
+		/**
+		 *
+		 * @return A lane with all default values and no rate limit.
+		 */
+		public static Lane defaults() {
+			return new Builder().build();
+		}
+
+		public final int getMaxConcurrency() {
+			return maxConcurrency;
+		}
+
+		public final int getMaxBatchSize() {
+			return maxBatchSize;
+		}
+
+		public final int getMaxQueuedNotifications() {
+			return maxQueuedNotifications;
+		}
+
+		public final PushRateLimiter getRateLimiter() {
+			return rateLimiter;
+		}
+
+		@Override
+		public String toString() {
+			return "Lane [maxConcurrency=" + maxConcurrency + ", maxBatchSize=" + maxBatchSize
+					+ ", maxQueuedNotifications=" + maxQueuedNotifications + ", rateLimiter=" + rateLimiter + "]";
+		}
+
+		/**
+		 *
+		 * Builder for {@link Lane}.
+		 *
+		 */
+		public static class Builder {
+
+			private int maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+			private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+			private int maxQueuedNotifications = DEFAULT_MAX_QUEUED_NOTIFICATIONS;
+			private PushRateLimiter rateLimiter = PushRateLimiter.unlimited();
+
+			/**
+			 *
+			 * @param maxConcurrency
+			 *            The number of bulk requests of the lane in flight at
+			 *            a time. Defaults to
+			 *            {@link Lane#DEFAULT_MAX_CONCURRENCY}.
+			 * @return The Builder object for calls to be linked.
+			 */
+			public final Builder maxConcurrency(final int maxConcurrency) {
+				this.maxConcurrency = maxConcurrency;
+				return this;
+			}
+
+			/**
+			 *
+			 * @param maxBatchSize
+			 *            The number of notifications per bulk request at most.
+			 *            Defaults to {@link Lane#DEFAULT_MAX_BATCH_SIZE}.
+			 * @return The Builder object for calls to be linked.
+			 */
+			public final Builder maxBatchSize(final int maxBatchSize) {
+				this.maxBatchSize = maxBatchSize;
+				return this;
+			}
+
+			/**
+			 *
+			 * @param maxQueuedNotifications
+			 *            The number of notifications that may wait in the lane
+			 *            before further sends to it are rejected. Defaults to
+			 *            {@link Lane#DEFAULT_MAX_QUEUED_NOTIFICATIONS}.
+			 * @return The Builder object for calls to be linked.
+			 */
+			public final Builder maxQueuedNotifications(final int maxQueuedNotifications) {
+				this.maxQueuedNotifications = maxQueuedNotifications;
+				return this;
+			}
+
+			/**
+			 *
+			 * @param rateLimiter
+			 *            The notifications per second of the lane, counted per
+			 *            notification rather than per request. Defaults to
+			 *            {@link PushRateLimiter#unlimited()}.
+			 * @return The Builder object for calls to be linked.
+			 */
+			public final Builder rateLimiter(final PushRateLimiter rateLimiter) {
+				this.rateLimiter = rateLimiter;
+				return this;
+			}
+
+			/**
+			 *
+			 * @return the {@link Lane} object.
+			 */
+			public final Lane build() {
+				if (maxConcurrency <= 0 || maxBatchSize <= 0 || maxQueuedNotifications <= 0 || rateLimiter == null) {
+					throw new IllegalArgumentException(
+							PushConstants.PushServerSDKExceptions.INVALID_DISPATCHER_EXCEPTION);
+				}
+				return new Lane(this);
+			}
+		}
+	}
+
+	/**
+	 *
+	 * Builder for {@link PushPriorityDispatcher}.
+	 *
+	 */
+	public static class Builder {
+
+		private Function<Notification[], CompletableFuture<BulkResult>> bulkSender;
+		private final Map<Priority, Lane> lanes = new HashMap<Priority, Lane>();
+
+		/**
+		 *
+		 * @param client
+		 *            The client whose bulk endpoint the notifications are sent
+		 *            to. The client is not closed with the dispatcher.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder client(final PushNotificationsClient client) {
+			this.bulkSender = client == null ? null : new Function<Notification[], CompletableFuture<BulkResult>>() {
+
+				@Override
+				public CompletableFuture<BulkResult> apply(Notification[] notifications) {
+					return client.sendBulkAsyncWithResults(notifications);
+				}
+			};
+			return this;
+		}
+
+		final Builder bulkSender(final Function<Notification[], CompletableFuture<BulkResult>> bulkSender) {
+			this.bulkSender = bulkSender;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param priority
+		 *            The lane to configure.
+		 * @param lane
+		 *            Its quotas. Lanes not configured use
+		 *            {@link Lane#defaults()}.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder lane(final Priority priority, final Lane lane) {
+			this.lanes.put(priority, lane);
+			return this;
+		}
+
+		/**
+		 *
+		 * @return the {@link PushPriorityDispatcher} object, already
+		 *         accepting notifications.
+		 */
+		public final PushPriorityDispatcher build() {
+			if (bulkSender == null || lanes.containsKey(null) || lanes.containsValue(null)) {
+				throw new IllegalArgumentException(PushConstants.PushServerSDKExceptions.INVALID_DISPATCHER_EXCEPTION);
+			}
+			return new PushPriorityDispatcher(this);
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import org.apache.http.HttpHost;
+
+/**
+ * The proxy that requests to the Push Notifications and IAM services are
+ * routed through. It is resolved once and applied by the route planner of the
+ * connection pool, instead of being looked up for every request.
+ */
+public final class PushProxyConfig {
+
+	static final String PROXY_HOST_PROPERTY = "https.proxyHost";
+	static final String PROXY_PORT_PROPERTY = "https.proxyPort";
+
+	static final int DEFAULT_PROXY_PORT = 80;
+
+	private static final PushProxyConfig NONE = new PushProxyConfig(null);
+
+	private final HttpHost proxy;
+
+	private PushProxyConfig(HttpHost proxy) {
+		this.proxy = proxy;
+	}
+
+	/**
+	 *
+	 * @return A configuration that connects to the services directly.
+	 */
+	public static PushProxyConfig none() {
+		return NONE;
+	}
+
+	/**
+	 * Resolves the proxy from the {@code https.proxyHost} and
+	 * {@code https.proxyPort} system properties. The port defaults to 80. The
+	 * proxy is always spoken to in plain http, also when
+	 * {@code https.isTlsTerminationProxy} is set, since it terminates TLS
+	 * itself or tunnels it.
+	 *
+	 * @return The proxy configured through system properties, or
+	 *         {@link #none()} if {@code https.proxyHost} is not set.
+	 */
+	public static PushProxyConfig fromSystemProperties() {
+		String proxyHost = System.getProperty(PROXY_HOST_PROPERTY);
+		if (proxyHost == null) {
+			return NONE;
+		}
+		String proxyPort = System.getProperty(PROXY_PORT_PROPERTY);
+		return new PushProxyConfig(new HttpHost(proxyHost, NumberParser.parseInt(proxyPort, DEFAULT_PROXY_PORT), "http"));
+	}
+
+	/**
+	 *
+	 * @return The proxy host, or null if requests are not proxied.
+	 */
+	public HttpHost getProxy() {
+		return proxy;
+	}
+
+	@Override
+	public String toString() {
+		return proxy == null ? "PushProxyConfig[none]" : "PushProxyConfig[" + proxy.toURI() + "]";
+	}
+
+	/**
+	 *
+	 * Builder for {@link PushProxyConfig}.
+	 *
+	 */
+	public static class Builder {
+
+		private String host;
+		private int port = DEFAULT_PROXY_PORT;
+
+		/**
+		 *
+		 * @param host
+		 *            The host name of the proxy.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder host(final String host) {
+			this.host = host;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param port
+		 *            The port of the proxy. Defaults to 80.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder port(final int port) {
+			this.port = port;
+			return this;
+		}
+
+		/**
+		 *
+		 * @return the {@link PushProxyConfig} object, or {@link #none()} if
+		 *         no host was set.
+		 */
+		public final PushProxyConfig build() {
+			if (host == null) {
+				return NONE;
+			}
+			if (port <= 0) {
+				throw new IllegalArgumentException(PushConstants.PushServerSDKExceptions.INVALID_PROXY_CONFIG_EXCEPTION);
+			}
+			return new PushProxyConfig(new HttpHost(host, port, "http"));
+		}
+	}
+}
@@ -0,0 +1,413 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import com.ibm.mobilefirstplatform.serversdk.java.push.exception.PushServerSDKException;
+
+/**
+ * Spreads requests to the push service over time with one token bucket per
+ * push endpoint, that is, per tenant and region.
+ * <p>
+ * Every request takes a token; tokens are added at
+ * {@link Builder#permitsPerSecond(double)} up to {@link Builder#burst(int)}.
+ * A request that finds no token waits until one is available, for at most
+ * {@link Builder#maxWaitMillis(long)}; with a maximum wait of 0 it fails at
+ * once instead. Waiting requests are served in order.
+ * <p>
+ * When the service answers 429, the rate of that endpoint is halved, down to
+ * {@link Builder#minPermitsPerSecond(double)}, and no tokens are handed out
+ * until its {@code Retry-After} has passed. Accepted requests raise the rate
+ * again step by step.
+ *
+ * <pre>
+ * PushRateLimiter limiter = new PushRateLimiter.Builder().permitsPerSecond(50).burst(100).build();
+ * </pre>
+ *
+ * One limiter may be shared by several clients; clients of the same endpoint
+ * then share its bucket.
+ */
+public final class PushRateLimiter {
+
+	public static final long DEFAULT_MAX_WAIT_MILLIS = 10000L;
+
+	static final long NOT_PERMITTED = -1L;
+
+	private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+	private static final long MIN_DECREASE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+	private static final double DECREASE_FACTOR = 0.5;
+	private static final double INCREASE_STEP = 0.01;
+
+	private static final PushRateLimiter UNLIMITED = new PushRateLimiter(null);
+
+	private final double permitsPerSecond;
+	private final int burst;
+	private final double minPermitsPerSecond;
+	private final long maxWaitNanos;
+	private final boolean adaptive;
+	private final LongSupplier clock;
+
+	private final ConcurrentMap<String, Bucket> buckets = new ConcurrentHashMap<String, Bucket>();
+
+	private PushRateLimiter(Builder builder) {
+		if (builder == null) {
+			this.permitsPerSecond = Double.POSITIVE_INFINITY;
+			this.burst = Integer.MAX_VALUE;
+			this.minPermitsPerSecond = Double.POSITIVE_INFINITY;
+			this.maxWaitNanos = 0;
+			this.adaptive = false;
+			this.clock = null;
+			return;
+		}
+		this.permitsPerSecond = builder.permitsPerSecond;
+		this.burst = builder.burst > 0 ? builder.burst : (int) Math.max(1, Math.ceil(builder.permitsPerSecond));
+		this.minPermitsPerSecond = builder.minPermitsPerSecond > 0 ? builder.minPermitsPerSecond
+				: builder.permitsPerSecond / 10;
+		this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(builder.maxWaitMillis);
+		this.adaptive = builder.adaptive;
+		this.clock = builder.clock;
+	}
+
+	/**
+	 *
+	 * @return A limiter that lets every request through at once.
+	 */
+	public static PushRateLimiter unlimited() {
+		return UNLIMITED;
+	}
+
+	private boolean isUnlimited() {
+		return clock == null;
+	}
+
+	/**
+	 * Takes the permits if they are available right away.
+	 *
+	 * @param endpoint
+	 *            The push endpoint URL the bucket belongs to.
+	 * @param permits
+	 *            The number of tokens to take.
+	 * @return false if the permits are not available without waiting.
+	 */
+	public boolean tryAcquire(String endpoint, int permits) {
+		return reserve(endpoint, permits, 0) == 0;
+	}
+
+	/**
+	 * Takes the permits, waiting for them if necessary.
+	 *
+	 * @param endpoint
+	 *            The push endpoint URL the bucket belongs to.
+	 * @param permits
+	 *            The number of tokens to take.
+	 * @throws PushServerSDKException
+	 *             if the permits would not be available within the maximum
+	 *             wait. No permits are taken then.
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting. The permits are
+	 *             taken nonetheless.
+	 */
+	public void acquire(String endpoint, int permits) throws InterruptedException {
+		acquire(endpoint, permits, maxWaitNanos);
+	}
+
+	/**
+	 * Like {@link #acquire(String, int)}, waiting no longer than the given
+	 * time, for example what is left until a deadline.
+	 */
+	void acquire(String endpoint, int permits, long maxWaitNanos) throws InterruptedException {
+		long waitNanos = reserve(endpoint, permits, Math.min(this.maxWaitNanos, maxWaitNanos));
+		if (waitNanos == NOT_PERMITTED) {
+			throw new PushServerSDKException(PushConstants.PushServerSDKExceptions.RATE_LIMITED_EXCEPTION);
+		}
+		if (waitNanos > 0) {
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+		}
+	}
+
+	/**
+	 * Takes the permits without blocking the calling thread.
+	 *
+	 * @param endpoint
+	 *            The push endpoint URL the bucket belongs to.
+	 * @param permits
+	 *            The number of tokens to take.
+	 * @return A future completed once the permits are available. It completes
+	 *         exceptionally with a {@link PushServerSDKException} if the
+	 *         permits would not be available within the maximum wait.
+	 */
+	public CompletableFuture<Void> acquireAsync(String endpoint, int permits) {
+		return acquireAsync(endpoint, permits, maxWaitNanos);
+	}
+
+	/**
+	 * Like {@link #acquireAsync(String, int)}, waiting no longer than the
+	 * given time.
+	 */
+	CompletableFuture<Void> acquireAsync(String endpoint, int permits, long maxWaitNanos) {
+		long waitNanos = reserve(endpoint, permits, Math.min(this.maxWaitNanos, maxWaitNanos));
+		if (waitNanos == NOT_PERMITTED) {
+			return PushNotificationsClient.failedFuture(
+					new PushServerSDKException(PushConstants.PushServerSDKExceptions.RATE_LIMITED_EXCEPTION));
+		}
+		if (waitNanos == 0) {
+			return CompletableFuture.completedFuture(null);
+		}
+		final CompletableFuture<Void> future = new CompletableFuture<Void>();
+		try {
+			// Completed on a worker, as the waiting attempt sends from there.
+			PushSchedulers.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					future.complete(null);
+				}
+			}, waitNanos, TimeUnit.NANOSECONDS);
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * Takes the permits, possibly ahead of time.
+	 *
+	 * @return How long the caller has to wait before sending, or
+	 *         {@link #NOT_PERMITTED} if that is longer than the given maximum.
+	 */
+	long reserve(String endpoint, int permits, long maxWaitNanos) {
+		if (isUnlimited()) {
+			return 0;
+		}
+		return bucket(endpoint).reserve(permits, maxWaitNanos, clock.getAsLong());
+	}
+
+	/**
+	 * Slows the endpoint down after it answered 429.
+	 *
+	 * @param retryAfterMillis
+	 *            The wait the service asked for, or null.
+	 */
+	void onThrottled(String endpoint, Long retryAfterMillis) {
+		if (isUnlimited() || !adaptive) {
+			return;
+		}
+		bucket(endpoint).onThrottled(clock.getAsLong(), retryAfterMillis);
+	}
+
+	/**
+	 * Speeds the endpoint up again after it accepted a request.
+	 */
+	void onAccepted(String endpoint) {
+		if (isUnlimited() || !adaptive) {
+			return;
+		}
+		bucket(endpoint).onAccepted();
+	}
+
+	/**
+	 *
+	 * @param endpoint
+	 *            The push endpoint URL the bucket belongs to.
+	 * @return The rate the endpoint is currently limited to, lower than the
+	 *         configured one after 429 responses.
+	 */
+	public double getPermitsPerSecond(String endpoint) {
+		if (isUnlimited()) {
+			return permitsPerSecond;
+		}
+		Bucket bucket = buckets.get(endpoint);
+		return bucket == null ? permitsPerSecond : bucket.getRate();
+	}
+
+	private Bucket bucket(String endpoint) {
+		Bucket bucket = buckets.get(endpoint);
+		if (bucket == null) {
+			Bucket created = new Bucket(clock.getAsLong());
+			bucket = buckets.putIfAbsent(endpoint, created);
+			if (bucket == null) {
+				bucket = created;
+			}
+		}
+		return bucket;
+	}
+
+	@Override
+	public String toString() {
+		return isUnlimited() ? "PushRateLimiter [unlimited]"
+				: "PushRateLimiter [permitsPerSecond=" + permitsPerSecond + ", burst=" + burst + "]";
+	}
+
+	/**
+	 * The tokens of one endpoint. Tokens go negative when requests reserve
+	 * them ahead of time; the debt is what later requests wait for.
+	 */
+	private final class Bucket {
+		private double rate = permitsPerSecond;
+		private double tokens = burst;
+		private long refilledAtNanos;
+		private long decreasedAtNanos;
+
+		Bucket(long nowNanos) {
+			this.refilledAtNanos = nowNanos;
+			this.decreasedAtNanos = nowNanos - MIN_DECREASE_INTERVAL_NANOS;
+		}
+
+		synchronized long reserve(int permits, long maxWaitNanos, long nowNanos) {
+			refill(nowNanos);
+			double missing = permits - tokens;
+			long waitNanos = missing <= 0 ? 0 : (long) Math.ceil(missing * NANOS_PER_SECOND / rate);
+			if (waitNanos > maxWaitNanos) {
+				return NOT_PERMITTED;
+			}
+			tokens -= permits;
+			return waitNanos;
+		}
+
+		synchronized void onThrottled(long nowNanos, Long retryAfterMillis) {
+			refill(nowNanos);
+			// One 429 burst of concurrent requests halves the rate once.
+			if (nowNanos - decreasedAtNanos >= MIN_DECREASE_INTERVAL_NANOS) {
+				rate = Math.max(minPermitsPerSecond, rate * DECREASE_FACTOR);
+				decreasedAtNanos = nowNanos;
+			}
+			if (retryAfterMillis != null && retryAfterMillis > 0) {
+				tokens = Math.min(tokens, -rate * retryAfterMillis / 1000.0);
+			}
+		}
+
+		synchronized void onAccepted() {
+			if (rate < permitsPerSecond) {
+				rate = Math.min(permitsPerSecond, rate + permitsPerSecond * INCREASE_STEP);
+			}
+		}
+
+		synchronized double getRate() {
+			return rate;
+		}
+
+		private void refill(long nowNanos) {
+			long elapsedNanos = nowNanos - refilledAtNanos;
+			if (elapsedNanos > 0) {
+				tokens = Math.min(burst, tokens + elapsedNanos * rate / NANOS_PER_SECOND);
+				refilledAtNanos = nowNanos;
+			}
+		}
+	}
+
+	/**
+	 *
+	 * Builder for {@link PushRateLimiter}.
+	 *
+	 */
+	public static class Builder {
+
+		private double permitsPerSecond;
+		private int burst;
+		private double minPermitsPerSecond;
+		private long maxWaitMillis = DEFAULT_MAX_WAIT_MILLIS;
+		private boolean adaptive = true;
+		private LongSupplier clock = new LongSupplier() {
+
+			@Override
+			public long getAsLong() {
+				return System.nanoTime();
+			}
+		};
+
+		/**
+		 *
+		 * @param permitsPerSecond
+		 *            The number of requests per second sent to each endpoint.
+		 *            Required.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder permitsPerSecond(final double permitsPerSecond) {
+			this.permitsPerSecond = permitsPerSecond;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param burst
+		 *            The number of requests that may be sent at once after a
+		 *            quiet period. Defaults to one second worth of requests.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder burst(final int burst) {
+			this.burst = burst;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param minPermitsPerSecond
+		 *            The rate 429 responses cannot push an endpoint below.
+		 *            Defaults to a tenth of the configured rate.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder minPermitsPerSecond(final double minPermitsPerSecond) {
+			this.minPermitsPerSecond = minPermitsPerSecond;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param maxWaitMillis
+		 *            How long a send waits for a token before it fails. 0
+		 *            makes sends fail at once when no token is available.
+		 *            Defaults to {@link PushRateLimiter#DEFAULT_MAX_WAIT_MILLIS}.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder maxWaitMillis(final long maxWaitMillis) {
+			this.maxWaitMillis = maxWaitMillis;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param adaptive
+		 *            Whether 429 responses lower the rate. Defaults to true.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder adaptive(final boolean adaptive) {
+			this.adaptive = adaptive;
+			return this;
+		}
+
+		final Builder clock(final LongSupplier clock) {
+			this.clock = clock;
+			return this;
+		}
+
+		/**
+		 *
+		 * @return the {@link PushRateLimiter} object.
+		 */
+		public final PushRateLimiter build() {
+			if (!(permitsPerSecond > 0) || Double.isInfinite(permitsPerSecond) || burst < 0
+					|| minPermitsPerSecond < 0 || minPermitsPerSecond > permitsPerSecond || maxWaitMillis < 0
+					|| clock == null) {
+				throw new IllegalArgumentException(PushConstants.PushServerSDKExceptions.INVALID_RATE_LIMITER_EXCEPTION);
+			}
+			return new PushRateLimiter(this);
+		}
+	}
+}
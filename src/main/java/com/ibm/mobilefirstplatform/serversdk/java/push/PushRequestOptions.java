@@ -0,0 +1,218 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.config.RequestConfig;
+
+/**
+ *
+ * Timeouts of a send. Set for all sends of a client through
+ * {@link PushNotificationsClient.Builder#requestOptions(PushRequestOptions)},
+ * or for a single send through the overloads that take options.
+ * <p>
+ * The connect, socket and connection request timeouts bound each attempt.
+ * The deadline bounds the whole send: waiting for an access token and for the
+ * rate limiter, every attempt and the waits between retries. A send that
+ * runs past its deadline is aborted and fails with
+ * {@link PushConstants.PushServerSDKExceptions#DEADLINE_EXCEEDED_EXCEPTION}.
+ *
+ * <pre>
+ * client.sendAsync(notification, new PushRequestOptions.Builder(client.getRequestOptions()).deadlineMillis(2000).build());
+ * </pre>
+ *
+ */
+public final class PushRequestOptions {
+
+	public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10000;
+	public static final int DEFAULT_SOCKET_TIMEOUT_MILLIS = 30000;
+	public static final int DEFAULT_CONNECTION_REQUEST_TIMEOUT_MILLIS = 5000;
+	public static final long NO_DEADLINE = 0L;
+
+	private final int connectTimeoutMillis;
+	private final int socketTimeoutMillis;
+	private final int connectionRequestTimeoutMillis;
+	private final long deadlineMillis;
+	// The timeouts of attempts without a deadline, built once as most sends have none.
+	private final RequestConfig requestConfig;
+
+	private PushRequestOptions(Builder builder) {
+		this.connectTimeoutMillis = builder.connectTimeoutMillis;
+		this.socketTimeoutMillis = builder.socketTimeoutMillis;
+		this.connectionRequestTimeoutMillis = builder.connectionRequestTimeoutMillis;
+		this.deadlineMillis = builder.deadlineMillis;
+		this.requestConfig = RequestConfig.custom().setConnectTimeout(connectTimeoutMillis)
+				.setSocketTimeout(socketTimeoutMillis).setConnectionRequestTimeout(connectionRequestTimeoutMillis)
+				.build();
+	}
+
+	/**
+	 *
+	 * @return the {@link PushRequestOptions} with all default values and no
+	 *         deadline.
+	 */
+	public static PushRequestOptions defaults() {
+		return new Builder().build();
+	}
+
+	public final int getConnectTimeoutMillis() {
+		return connectTimeoutMillis;
+	}
+
+	public final int getSocketTimeoutMillis() {
+		return socketTimeoutMillis;
+	}
+
+	public final int getConnectionRequestTimeoutMillis() {
+		return connectionRequestTimeoutMillis;
+	}
+
+	public final long getDeadlineMillis() {
+		return deadlineMillis;
+	}
+
+	/**
+	 * @return The {@link System#nanoTime()} by which a send started at the
+	 *         given time must be done, or {@link Long#MAX_VALUE} if it has no
+	 *         deadline.
+	 */
+	final long deadlineNanos(long startNanos) {
+		return deadlineMillis == NO_DEADLINE ? Long.MAX_VALUE
+				: startNanos + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+	}
+
+	final RequestConfig toRequestConfig() {
+		return requestConfig;
+	}
+
+	/**
+	 * @return The timeouts of one attempt, none longer than what is left
+	 *         until the deadline.
+	 */
+	final RequestConfig toRequestConfig(long remainingMillis) {
+		if (remainingMillis == Long.MAX_VALUE) {
+			return requestConfig;
+		}
+		return RequestConfig.custom().setConnectTimeout(bounded(connectTimeoutMillis, remainingMillis))
+				.setSocketTimeout(bounded(socketTimeoutMillis, remainingMillis))
+				.setConnectionRequestTimeout(bounded(connectionRequestTimeoutMillis, remainingMillis)).build();
+	}
+
+	private static int bounded(int timeoutMillis, long remainingMillis) {
+		// 0 means no timeout to HttpClient, and at least 1 ms must be left.
+		int remaining = (int) Math.max(1, Math.min(Integer.MAX_VALUE, remainingMillis));
+		return timeoutMillis == 0 ? remaining : Math.min(timeoutMillis, remaining);
+	}
+
+	@Override
+	public String toString() {
+		return "PushRequestOptions [connectTimeoutMillis=" + connectTimeoutMillis + ", socketTimeoutMillis="
+				+ socketTimeoutMillis + ", connectionRequestTimeoutMillis=" + connectionRequestTimeoutMillis
+				+ ", deadlineMillis=" + deadlineMillis + "]";
+	}
+
+	/**
+	 *
+	 * Builder for {@link PushRequestOptions}.
+	 *
+	 */
+	public static class Builder {
+
+		private int connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+		private int socketTimeoutMillis = DEFAULT_SOCKET_TIMEOUT_MILLIS;
+		private int connectionRequestTimeoutMillis = DEFAULT_CONNECTION_REQUEST_TIMEOUT_MILLIS;
+		private long deadlineMillis = NO_DEADLINE;
+
+		public Builder() {
+
+		}
+
+		/**
+		 * Starts from the values of existing options, for example those of a
+		 * client, to change some of them for a single send.
+		 *
+		 * @param options
+		 *            The options to copy.
+		 */
+		public Builder(PushRequestOptions options) {
+			this.connectTimeoutMillis = options.connectTimeoutMillis;
+			this.socketTimeoutMillis = options.socketTimeoutMillis;
+			this.connectionRequestTimeoutMillis = options.connectionRequestTimeoutMillis;
+			this.deadlineMillis = options.deadlineMillis;
+		}
+
+		/**
+		 *
+		 * @param connectTimeoutMillis
+		 *            How long establishing a connection may take. 0 means no
+		 *            timeout.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder connectTimeoutMillis(final int connectTimeoutMillis) {
+			this.connectTimeoutMillis = connectTimeoutMillis;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param socketTimeoutMillis
+		 *            How long to wait for data from the service once
+		 *            connected. 0 means no timeout.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder socketTimeoutMillis(final int socketTimeoutMillis) {
+			this.socketTimeoutMillis = socketTimeoutMillis;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param connectionRequestTimeoutMillis
+		 *            How long to wait for a free connection of the pool. 0
+		 *            means no timeout.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder connectionRequestTimeoutMillis(final int connectionRequestTimeoutMillis) {
+			this.connectionRequestTimeoutMillis = connectionRequestTimeoutMillis;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param deadlineMillis
+		 *            How long the whole send, including token acquisition and
+		 *            retries, may take. {@link PushRequestOptions#NO_DEADLINE}
+		 *            by default.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder deadlineMillis(final long deadlineMillis) {
+			this.deadlineMillis = deadlineMillis;
+			return this;
+		}
+
+		/**
+		 *
+		 * @return the {@link PushRequestOptions} object.
+		 */
+		public final PushRequestOptions build() {
+			if (connectTimeoutMillis < 0 || socketTimeoutMillis < 0 || connectionRequestTimeoutMillis < 0
+					|| deadlineMillis < 0) {
+				throw new IllegalArgumentException(
+						PushConstants.PushServerSDKExceptions.INVALID_REQUEST_OPTIONS_EXCEPTION);
+			}
+			return new PushRequestOptions(this);
+		}
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import org.apache.http.HttpStatus;
+
+/**
+ *
+ * The response of the Push Notification service to a send request, as
+ * returned by {@link PushNotificationsClient#sendAsync(Notification)}.
+ *
+ */
+public final class PushResponse {
+
+	private final int statusCode;
+	private final String responseBody;
+	private final String error;
+
+	public PushResponse(int statusCode, String responseBody) {
+		this(statusCode, responseBody, null);
+	}
+
+	PushResponse(int statusCode, String responseBody, String error) {
+		this.statusCode = statusCode;
+		this.responseBody = responseBody;
+		this.error = error;
+	}
+
+	/**
+	 *
+	 * @return The status code of the response.
+	 */
+	public final int getStatusCode() {
+		return statusCode;
+	}
+
+	/**
+	 *
+	 * @return The body of the response, or null if no body was received.
+	 */
+	public final String getResponseBody() {
+		return responseBody;
+	}
+
+	/**
+	 *
+	 * @return The reason the service gave for not accepting a notification
+	 *         that was sent as part of a bulk request, or null.
+	 */
+	public final String getError() {
+		return error;
+	}
+
+	/**
+	 *
+	 * @return true if the service accepted the notification.
+	 */
+	public final boolean isSuccess() {
+		return statusCode == HttpStatus.SC_ACCEPTED && error == null;
+	}
+
+	@Override
+	public String toString() {
+		return "PushResponse [statusCode=" + statusCode + ", responseBody=" + responseBody
+				+ (error != null ? ", error=" + error : "") + "]";
+	}
+}
@@ -0,0 +1,341 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLException;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+
+/**
+ * Decides whether and when a failed request to the Push Notifications or IAM
+ * service is sent again.
+ * <p>
+ * Connection failures and 429 responses are always retried, since the service
+ * has not processed the request. Read failures and 5xx responses may come
+ * after the service accepted the notification, so they are only retried when
+ * the request is idempotent: when every notification in it carries a collapse
+ * key that makes the devices show a repeated notification once, or a
+ * deduplication key.
+ * <p>
+ * Retries wait for an exponential backoff with full jitter, or for the
+ * {@code Retry-After} of the response. A retry budget caps retries at a
+ * fraction of the requests, so that an outage does not multiply the load on
+ * the service. A policy, and its budget, can be shared by several clients.
+ */
+public final class PushRetryPolicy {
+
+	public static final int DEFAULT_MAX_ATTEMPTS = 3;
+	public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 100L;
+	public static final long DEFAULT_MAX_BACKOFF_MILLIS = 10000L;
+	public static final double DEFAULT_BACKOFF_MULTIPLIER = 2.0;
+	public static final long DEFAULT_MAX_RETRY_AFTER_MILLIS = 60000L;
+	public static final double DEFAULT_RETRY_BUDGET_RATIO = 0.2;
+	public static final int DEFAULT_MIN_RETRY_BUDGET = 10;
+
+	static final long NO_RETRY = -1L;
+
+	private static final long TOKEN = 1000L;
+
+	private final int maxAttempts;
+	private final long initialBackoffMillis;
+	private final long maxBackoffMillis;
+	private final double backoffMultiplier;
+	private final long maxRetryAfterMillis;
+	private final long budgetDepositPerRequest;
+	private final long maxBudget;
+
+	// In thousandths of a retry.
+	private final AtomicLong budget;
+
+	private PushRetryPolicy(Builder builder) {
+		this.maxAttempts = builder.maxAttempts;
+		this.initialBackoffMillis = builder.initialBackoffMillis;
+		this.maxBackoffMillis = builder.maxBackoffMillis;
+		this.backoffMultiplier = builder.backoffMultiplier;
+		this.maxRetryAfterMillis = builder.maxRetryAfterMillis;
+		this.budgetDepositPerRequest = (long) (builder.retryBudgetRatio * TOKEN);
+		this.maxBudget = Math.max(builder.minRetryBudget * TOKEN, budgetDepositPerRequest * 100);
+		this.budget = new AtomicLong(builder.minRetryBudget * TOKEN);
+	}
+
+	/**
+	 *
+	 * @return A new policy with all default values and its own retry budget.
+	 */
+	public static PushRetryPolicy defaults() {
+		return new Builder().build();
+	}
+
+	/**
+	 *
+	 * @return A policy that never retries.
+	 */
+	public static PushRetryPolicy none() {
+		return new Builder().maxAttempts(1).build();
+	}
+
+	public final int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	/**
+	 * @return true if a repeated delivery of the notification is collapsed on
+	 *         the device or carries a deduplication key, so that it can be
+	 *         retried after the service may already have accepted it.
+	 */
+	static boolean isIdempotent(Notification notification) {
+		if (notification.isIdempotent() || notEmpty(notification.getDedupKey())) {
+			return true;
+		}
+		Settings settings = notification.getSettings();
+		if (settings == null) {
+			return false;
+		}
+		return (settings.getFcm() != null && notEmpty(settings.getFcm().getCollapseKey()))
+				|| (settings.getApns() != null && notEmpty(settings.getApns().getApnsCollapseId()));
+	}
+
+	static boolean isIdempotent(Notification[] notifications) {
+		for (Notification notification : notifications) {
+			if (!isIdempotent(notification)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean notEmpty(String value) {
+		return value != null && !value.isEmpty();
+	}
+
+	/**
+	 * @param attempt
+	 *            The attempt that got the response, starting at 1.
+	 * @param retryAfter
+	 *            The value of the {@code Retry-After} header, or null.
+	 * @return The milliseconds to wait before the next attempt, or
+	 *         {@link #NO_RETRY}.
+	 */
+	long retryDelayAfterResponse(int attempt, int statusCode, String retryAfter, boolean idempotent) {
+		depositIfFirst(attempt);
+		boolean retryable = statusCode == PushConstants.TOO_MANY_REQUESTS
+				|| (idempotent && statusCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR);
+		if (!retryable || attempt >= maxAttempts) {
+			return NO_RETRY;
+		}
+		long delay = backoffMillis(attempt);
+		Long retryAfterMillis = retryAfter != null ? parseRetryAfterMillis(retryAfter) : null;
+		if (retryAfterMillis != null) {
+			if (retryAfterMillis > maxRetryAfterMillis) {
+				return NO_RETRY;
+			}
+			delay = Math.max(retryAfterMillis, 0);
+		}
+		return withdraw() ? delay : NO_RETRY;
+	}
+
+	/**
+	 * @param attempt
+	 *            The attempt that failed, starting at 1.
+	 * @return The milliseconds to wait before the next attempt, or
+	 *         {@link #NO_RETRY}.
+	 */
+	long retryDelayAfterFailure(int attempt, Throwable failure, boolean idempotent) {
+		depositIfFirst(attempt);
+		if (attempt >= maxAttempts || !(isNotSent(failure) || (idempotent && isTransient(failure)))) {
+			return NO_RETRY;
+		}
+		return withdraw() ? backoffMillis(attempt) : NO_RETRY;
+	}
+
+	/**
+	 * @return true if the request failed before it reached the service.
+	 */
+	private static boolean isNotSent(Throwable failure) {
+		return failure instanceof ConnectException || failure instanceof ConnectTimeoutException
+				|| failure instanceof ConnectionPoolTimeoutException || failure instanceof UnknownHostException;
+	}
+
+	private static boolean isTransient(Throwable failure) {
+		return failure instanceof IOException && !(failure instanceof SSLException);
+	}
+
+	/**
+	 * Full jitter: a random wait between 0 and the exponential backoff.
+	 */
+	long backoffMillis(int attempt) {
+		double ceiling = initialBackoffMillis * Math.pow(backoffMultiplier, attempt - 1);
+		long cappedCeiling = (long) Math.min(ceiling, maxBackoffMillis);
+		return cappedCeiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(cappedCeiling + 1);
+	}
+
+	/**
+	 * @return The wait asked for by a {@code Retry-After} header given in
+	 *         seconds or as an HTTP date, or null if it cannot be parsed.
+	 */
+	static Long parseRetryAfterMillis(String retryAfter) {
+		String value = retryAfter.trim();
+		try {
+			return Long.parseLong(value) * 1000L;
+		} catch (NumberFormatException e) {
+			Date date = DateUtils.parseDate(value);
+			return date == null ? null : date.getTime() - System.currentTimeMillis();
+		}
+	}
+
+	private void depositIfFirst(int attempt) {
+		if (attempt != 1) {
+			return;
+		}
+		while (true) {
+			long current = budget.get();
+			long next = Math.min(maxBudget, current + budgetDepositPerRequest);
+			if (current == next || budget.compareAndSet(current, next)) {
+				return;
+			}
+		}
+	}
+
+	private boolean withdraw() {
+		while (true) {
+			long current = budget.get();
+			if (current < TOKEN) {
+				return false;
+			}
+			if (budget.compareAndSet(current, current - TOKEN)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 *
+	 * Builder for {@link PushRetryPolicy}.
+	 *
+	 */
+	public static class Builder {
+
+		private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+		private long initialBackoffMillis = DEFAULT_INITIAL_BACKOFF_MILLIS;
+		private long maxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+		private double backoffMultiplier = DEFAULT_BACKOFF_MULTIPLIER;
+		private long maxRetryAfterMillis = DEFAULT_MAX_RETRY_AFTER_MILLIS;
+		private double retryBudgetRatio = DEFAULT_RETRY_BUDGET_RATIO;
+		private int minRetryBudget = DEFAULT_MIN_RETRY_BUDGET;
+
+		/**
+		 *
+		 * @param maxAttempts
+		 *            The number of times a request is sent at most, including
+		 *            the first attempt. 1 disables retries.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder maxAttempts(final int maxAttempts) {
+			this.maxAttempts = maxAttempts;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param initialBackoffMillis
+		 *            The upper bound of the wait before the first retry.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder initialBackoffMillis(final long initialBackoffMillis) {
+			this.initialBackoffMillis = initialBackoffMillis;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param maxBackoffMillis
+		 *            The upper bound of the wait before any retry.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder maxBackoffMillis(final long maxBackoffMillis) {
+			this.maxBackoffMillis = maxBackoffMillis;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param backoffMultiplier
+		 *            The factor the backoff grows by with every attempt.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder backoffMultiplier(final double backoffMultiplier) {
+			this.backoffMultiplier = backoffMultiplier;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param maxRetryAfterMillis
+		 *            The longest {@code Retry-After} that is waited for. A
+		 *            request asked to wait longer fails instead.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder maxRetryAfterMillis(final long maxRetryAfterMillis) {
+			this.maxRetryAfterMillis = maxRetryAfterMillis;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param retryBudgetRatio
+		 *            The number of retries allowed per request sent, for
+		 *            example 0.2 for one retry per five requests.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder retryBudgetRatio(final double retryBudgetRatio) {
+			this.retryBudgetRatio = retryBudgetRatio;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param minRetryBudget
+		 *            The retries available before any request has been sent,
+		 *            so that a client with little traffic can still retry.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder minRetryBudget(final int minRetryBudget) {
+			this.minRetryBudget = minRetryBudget;
+			return this;
+		}
+
+		/**
+		 *
+		 * @return the {@link PushRetryPolicy} object.
+		 */
+		public final PushRetryPolicy build() {
+			if (maxAttempts < 1 || initialBackoffMillis < 0 || maxBackoffMillis < initialBackoffMillis
+					|| backoffMultiplier < 1 || maxRetryAfterMillis < 0 || retryBudgetRatio < 0
+					|| minRetryBudget < 0) {
+				throw new IllegalArgumentException(PushConstants.PushServerSDKExceptions.INVALID_RETRY_POLICY_EXCEPTION);
+			}
+			return new PushRetryPolicy(this);
+		}
+	}
+}
@@ -0,0 +1,51 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.impl.conn.DefaultRoutePlanner;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Routes every request of a connection pool through the current
+ * {@link PushProxyConfig}. The configuration can be swapped while the pool is
+ * in use; new routes pick it up, and pooled connections to the previous route
+ * simply expire.
+ */
+final class PushRoutePlanner extends DefaultRoutePlanner {
+
+	private volatile PushProxyConfig proxyConfig;
+
+	PushRoutePlanner(PushProxyConfig proxyConfig) {
+		super(null);
+		this.proxyConfig = proxyConfig;
+	}
+
+	PushProxyConfig getProxyConfig() {
+		return proxyConfig;
+	}
+
+	void setProxyConfig(PushProxyConfig proxyConfig) {
+		if (proxyConfig == null) {
+			throw new IllegalArgumentException(PushConstants.PushServerSDKExceptions.INVALID_PROXY_CONFIG_EXCEPTION);
+		}
+		this.proxyConfig = proxyConfig;
+	}
+
+	@Override
+	protected HttpHost determineProxy(HttpHost target, HttpRequest request, HttpContext context) {
+		return proxyConfig.getProxy();
+	}
+}
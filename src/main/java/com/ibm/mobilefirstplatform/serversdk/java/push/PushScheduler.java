@@ -0,0 +1,718 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ibm.mobilefirstplatform.serversdk.java.push.exception.IamTokenException;
+import com.ibm.mobilefirstplatform.serversdk.java.push.exception.PushServerSDKException;
+
+/**
+ * Holds notifications until their time and then hands them to a
+ * {@link PushBatchingDispatcher}.
+ * <p>
+ * Scheduled notifications are kept in a hierarchical timing wheel. The first
+ * level has {@link Builder#wheelSize(int)} slots of
+ * {@link Builder#tickMillis(long)} each; every further level has as many
+ * slots, each spanning a full turn of the level below. Scheduling and
+ * cancelling take constant time, and a single thread advances the wheel once
+ * per tick, moving notifications down a level as their time approaches. A
+ * notification is released at the first tick at or after its time.
+ *
+ * <pre>
+ * PushScheduler scheduler = new PushScheduler.Builder().dispatcher(dispatcher).build();
+ * PushScheduler.ScheduledNotification reminder = scheduler.schedule(notification, Instant.parse("2020-12-24T18:00:00Z"));
+ * reminder.getResponse().thenAccept(response -&gt; ...);
+ * reminder.cancel();
+ * </pre>
+ *
+ * Without a {@link PushSpool}, scheduled notifications live only in memory.
+ * With one, they are journaled when scheduled, acknowledged once the service
+ * has answered for them or they are cancelled, and scheduled again when the
+ * next scheduler is built with the spool. Those that fell due meanwhile are
+ * released at once. A journaled notification the dispatcher had no room for,
+ * that failed with a transport error or timeout, or that the service did not
+ * answer for goes back on the wheel, with a backoff that doubles from
+ * {@link Builder#resendBackoffMillis(long)} up to
+ * {@link PushBatchingDispatcher#MAX_RESEND_BACKOFF_MILLIS}. Any other failure
+ * completes its response and acknowledges it.
+ */
+public final class PushScheduler implements Closeable {
+
+	public static final Logger logger = Logger.getLogger(PushScheduler.class.getName());
+
+	public static final long DEFAULT_TICK_MILLIS = 100L;
+	public static final int DEFAULT_WHEEL_SIZE = 512;
+
+	private static final long NOT_SPOOLED = -1L;
+
+	private final Function<Notification, CompletableFuture<PushResponse>> sender;
+	private final long tickMillis;
+	private final long resendBackoffMillis;
+	private final int bits;
+	private final long mask;
+	private final PushSpool spool;
+	private final LongSupplier clock;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = lock.newCondition();
+	private final Thread driver;
+
+	// Guarded by the lock. The slots of each level, allocated when first used.
+	private final Slot[][] levels;
+	private final List<ScheduledNotification> moved = new ArrayList<ScheduledNotification>();
+	private long currentTick;
+	private int size;
+	private boolean closed;
+
+	private PushScheduler(Builder builder) {
+		this.sender = builder.sender;
+		this.tickMillis = builder.tickMillis;
+		this.resendBackoffMillis = builder.resendBackoffMillis;
+		this.bits = Integer.numberOfTrailingZeros(builder.wheelSize);
+		this.mask = builder.wheelSize - 1;
+		this.spool = builder.spool;
+		this.clock = builder.clock;
+		this.levels = new Slot[(Long.SIZE - 2) / bits + 1][];
+		this.currentTick = Math.floorDiv(clock.getAsLong(), tickMillis);
+
+		List<ScheduledNotification> due = new ArrayList<ScheduledNotification>();
+		if (spool != null) {
+			recover(due);
+		}
+		this.driver = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				advanceUntilClosed();
+			}
+		}, "push-scheduler-wheel");
+		this.driver.setDaemon(true);
+		this.driver.start();
+		for (ScheduledNotification scheduled : due) {
+			release(scheduled);
+		}
+	}
+
+	/**
+	 * Schedules the notifications left in the spool by a previous run. Nobody
+	 * waits for them, so failures are only logged.
+	 */
+	private void recover(List<ScheduledNotification> due) {
+		List<PushSpool.Entry> entries = spool.takeRecovered();
+		if (!entries.isEmpty()) {
+			logger.info("Scheduling " + entries.size() + " notifications recovered from the spool.");
+		}
+		for (PushSpool.Entry entry : entries) {
+			Instant dueTime = Instant.ofEpochMilli(ByteBuffer.wrap(entry.payload).getLong());
+			Notification notification = PushMessageSerializer.readRecord(entry.payload, Long.BYTES);
+			ScheduledNotification scheduled = new ScheduledNotification(notification, dueTime, entry.id);
+			scheduled.response.whenComplete(new BiConsumer<PushResponse, Throwable>() {
+
+				@Override
+				public void accept(PushResponse response, Throwable t) {
+					if (t != null || !response.isSuccess()) {
+						logger.warning("A scheduled notification recovered from the spool failed: "
+								+ (t != null ? t.toString() : response.toString()));
+					}
+				}
+			});
+			lock.lock();
+			try {
+				if (place(scheduled)) {
+					size++;
+				} else {
+					due.add(scheduled);
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Schedules the notification. With a spool, it returns once the
+	 * notification is journaled.
+	 *
+	 * @param notification
+	 *            The push notification to be sent.
+	 * @param time
+	 *            When to send it. A time that has passed sends it at once.
+	 * @return The handle to follow or cancel the notification.
+	 * @throws PushServerSDKException
+	 *             if the scheduler is closed or the notification could not
+	 *             be journaled.
+	 */
+	public ScheduledNotification schedule(Notification notification, Instant time) {
+		if (notification == null || time == null) {
+			throw new IllegalArgumentException(PushConstants.PushServerSDKExceptions.NULL_NOTIFICATION_EXCEPTION);
+		}
+		ScheduledNotification scheduled;
+		if (spool == null) {
+			scheduled = new ScheduledNotification(notification, time, NOT_SPOOLED);
+		} else {
+			// Serialized once, for the spool and the bulk request.
+			byte[] json = PushMessageSerializer.writeNotification(notification);
+			byte[] record = PushMessageSerializer.writeRecord(notification, json, Long.BYTES);
+			ByteBuffer.wrap(record).putLong(epochMillis(time));
+			scheduled = new ScheduledNotification(new Notification(notification, json), time, spool.append(record));
+		}
+
+		boolean due;
+		lock.lock();
+		try {
+			if (closed) {
+				acknowledge(scheduled);
+				throw new PushServerSDKException(PushConstants.PushServerSDKExceptions.SCHEDULER_CLOSED_EXCEPTION);
+			}
+			if (size == 0) {
+				// The wheel stands still while it is empty.
+				currentTick = Math.max(currentTick, Math.floorDiv(clock.getAsLong(), tickMillis));
+			}
+			due = !place(scheduled);
+			if (!due && size++ == 0) {
+				changed.signal();
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (due) {
+			release(scheduled);
+		}
+		return scheduled;
+	}
+
+	/**
+	 * @return The number of notifications waiting for their time.
+	 */
+	public int getScheduledNotifications() {
+		lock.lock();
+		try {
+			return size;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stops the wheel. Notifications still waiting fail with
+	 * {@link PushConstants.PushServerSDKExceptions#SCHEDULER_CLOSED_EXCEPTION};
+	 * those in a spool are scheduled again by the next scheduler built with
+	 * it. Neither the dispatcher nor the spool is closed.
+	 */
+	@Override
+	public void close() {
+		List<ScheduledNotification> dropped = new ArrayList<ScheduledNotification>();
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			for (Slot[] slots : levels) {
+				if (slots == null) {
+					continue;
+				}
+				for (Slot slot : slots) {
+					if (slot != null) {
+						slot.drainTo(dropped);
+					}
+				}
+			}
+			size = 0;
+			changed.signal();
+		} finally {
+			lock.unlock();
+		}
+		try {
+			driver.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for (ScheduledNotification scheduled : dropped) {
+			scheduled.response.completeExceptionally(
+					new PushServerSDKException(PushConstants.PushServerSDKExceptions.SCHEDULER_CLOSED_EXCEPTION));
+		}
+	}
+
+	private void advanceUntilClosed() {
+		List<ScheduledNotification> due = new ArrayList<ScheduledNotification>();
+		try {
+			while (true) {
+				lock.lock();
+				try {
+					if (closed) {
+						return;
+					}
+					long now = clock.getAsLong();
+					long nowTick = Math.floorDiv(now, tickMillis);
+					if (size == 0 && nowTick > currentTick) {
+						currentTick = nowTick;
+					}
+					while (currentTick < nowTick) {
+						advance(due);
+					}
+					if (due.isEmpty()) {
+						if (size == 0) {
+							changed.await();
+						} else {
+							changed.await(Math.max(1, (currentTick + 1) * tickMillis - now), TimeUnit.MILLISECONDS);
+						}
+						continue;
+					}
+				} finally {
+					lock.unlock();
+				}
+				for (ScheduledNotification scheduled : due) {
+					release(scheduled);
+				}
+				due.clear();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Moves the wheel one tick forward. Where a turn of a level ends, the
+	 * next slot of the level above is spread over the levels below; then the
+	 * notifications of the tick are collected.
+	 */
+	private void advance(List<ScheduledNotification> due) {
+		long tick = ++currentTick;
+		for (int level = 1; level < levels.length && (tick & ((1L << (bits * level)) - 1)) == 0; level++) {
+			Slot slot = slot(level, tick, false);
+			if (slot != null) {
+				slot.drainTo(moved);
+			}
+		}
+		Slot slot = slot(0, tick, false);
+		if (slot != null) {
+			slot.drainTo(moved);
+		}
+		for (ScheduledNotification scheduled : moved) {
+			size--;
+			if (place(scheduled)) {
+				size++;
+			} else {
+				due.add(scheduled);
+			}
+		}
+		moved.clear();
+	}
+
+	/**
+	 * Puts the notification into the lowest level whose span covers its time.
+	 *
+	 * @return false if it is due already.
+	 */
+	private boolean place(ScheduledNotification scheduled) {
+		long delta = scheduled.dueTick - currentTick;
+		if (delta <= 0) {
+			return false;
+		}
+		int level = 0;
+		while (level < levels.length - 1 && delta >= 1L << (bits * (level + 1))) {
+			level++;
+		}
+		slot(level, scheduled.dueTick, true).add(scheduled);
+		return true;
+	}
+
+	private Slot slot(int level, long tick, boolean create) {
+		Slot[] slots = levels[level];
+		if (slots == null) {
+			if (!create) {
+				return null;
+			}
+			slots = new Slot[(int) mask + 1];
+			levels[level] = slots;
+		}
+		int index = (int) ((tick >>> (bits * level)) & mask);
+		Slot slot = slots[index];
+		if (slot == null && create) {
+			slot = new Slot();
+			slots[index] = slot;
+		}
+		return slot;
+	}
+
+	private boolean cancel(ScheduledNotification scheduled) {
+		lock.lock();
+		try {
+			if (scheduled.slot == null) {
+				return false;
+			}
+			scheduled.slot.remove(scheduled);
+			size--;
+		} finally {
+			lock.unlock();
+		}
+		acknowledge(scheduled);
+		scheduled.response.cancel(false);
+		return true;
+	}
+
+	/**
+	 * Hands the notification to the dispatcher. A journaled notification is
+	 * acknowledged once the service has answered for it, and otherwise goes
+	 * back on the wheel.
+	 */
+	private void release(final ScheduledNotification scheduled) {
+		CompletableFuture<PushResponse> sent;
+		try {
+			sent = sender.apply(scheduled.notification);
+		} catch (RuntimeException e) {
+			sent = PushNotificationsClient.failedFuture(e);
+		}
+		sent.whenComplete(new BiConsumer<PushResponse, Throwable>() {
+
+			@Override
+			public void accept(PushResponse response, Throwable t) {
+				boolean answered = t != null ? !isUnanswered(t)
+						: PushBatchingDispatcher.isAnswered(response.getStatusCode(), null);
+				if (answered) {
+					acknowledge(scheduled);
+				} else if (scheduled.spoolId != NOT_SPOOLED && rescheduled(scheduled)) {
+					return;
+				}
+				if (t != null) {
+					scheduled.response.completeExceptionally(t);
+				} else {
+					scheduled.response.complete(response);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return true if the failure leaves open whether the service got the
+	 *         notification: a transport error, a timeout, a dispatcher that
+	 *         had no room for it or a bulk response without its result. Any
+	 *         other failure, such as a closed dispatcher, a missing listener,
+	 *         an open circuit breaker or a notification that cannot be
+	 *         serialized, would recur on every resend.
+	 */
+	static boolean isUnanswered(Throwable t) {
+		while (t instanceof CompletionException && t.getCause() != null) {
+			t = t.getCause();
+		}
+		if (t instanceof IOException || t instanceof CancellationException
+				|| (t instanceof IamTokenException && t.getCause() instanceof IOException)) {
+			return true;
+		}
+		String message = t.getMessage();
+		return PushConstants.PushServerSDKExceptions.DEADLINE_EXCEEDED_EXCEPTION.equals(message)
+				|| PushConstants.PushServerSDKExceptions.DISPATCHER_QUEUE_FULL_EXCEPTION.equals(message)
+				|| PushConstants.PushServerSDKExceptions.MISSING_BULK_RESULT_EXCEPTION.equals(message)
+				|| PushConstants.PushServerSDKExceptions.UNKNOWN_BULK_RESULT_EXCEPTION.equals(message);
+	}
+
+	/**
+	 * Puts a notification that was not answered for back on the wheel.
+	 *
+	 * @return false if the scheduler is closed, which leaves the notification
+	 *         in the spool for the next one.
+	 */
+	private boolean rescheduled(ScheduledNotification scheduled) {
+		long maxDelayMillis = Math.max(resendBackoffMillis, PushBatchingDispatcher.MAX_RESEND_BACKOFF_MILLIS);
+		long delayMillis = resendBackoffMillis;
+		for (int i = 0; i < scheduled.resends && delayMillis < maxDelayMillis; i++) {
+			delayMillis *= 2;
+		}
+		delayMillis = Math.min(delayMillis, maxDelayMillis);
+		boolean due;
+		lock.lock();
+		try {
+			if (closed) {
+				return false;
+			}
+			scheduled.resends++;
+			long now = clock.getAsLong();
+			if (size == 0) {
+				currentTick = Math.max(currentTick, Math.floorDiv(now, tickMillis));
+			}
+			scheduled.dueTick = dueTick(now + delayMillis);
+			due = !place(scheduled);
+			if (!due && size++ == 0) {
+				changed.signal();
+			}
+		} finally {
+			lock.unlock();
+		}
+		logger.warning("Scheduling a notification again in " + delayMillis
+				+ " ms, as the service did not answer for it.");
+		if (due) {
+			release(scheduled);
+		}
+		return true;
+	}
+
+	private void acknowledge(ScheduledNotification scheduled) {
+		if (scheduled.spoolId == NOT_SPOOLED) {
+			return;
+		}
+		try {
+			spool.acknowledge(scheduled.spoolId);
+		} catch (PushServerSDKException e) {
+			logger.log(Level.WARNING, e.toString(), e);
+		}
+	}
+
+	/**
+	 * @return The first tick at or after the time.
+	 */
+	private long dueTick(long millis) {
+		return millis == Long.MIN_VALUE ? 0
+				: Math.floorDiv(millis, tickMillis) + (Math.floorMod(millis, tickMillis) == 0 ? 0 : 1);
+	}
+
+	private static long epochMillis(Instant time) {
+		try {
+			return time.toEpochMilli();
+		} catch (ArithmeticException e) {
+			return time.isBefore(Instant.EPOCH) ? Long.MIN_VALUE : Long.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * A notification waiting for its time, linked into the slot of the wheel
+	 * it waits in.
+	 */
+	public final class ScheduledNotification {
+		private final Notification notification;
+		private final Instant time;
+		private final long spoolId;
+		private final CompletableFuture<PushResponse> response = new CompletableFuture<PushResponse>();
+
+		// Guarded by the lock of the scheduler.
+		private long dueTick;
+		private int resends;
+		private Slot slot;
+		private ScheduledNotification previous;
+		private ScheduledNotification next;
+
+		ScheduledNotification(Notification notification, Instant time, long spoolId) {
+			this.notification = notification;
+			this.time = time;
+			this.dueTick = dueTick(epochMillis(time));
+			this.spoolId = spoolId;
+		}
+
+		public Notification getNotification() {
+			return notification;
+		}
+
+		public Instant getTime() {
+			return time;
+		}
+
+		/**
+		 * @return A future completed with the outcome of the notification
+		 *         once it was sent; with a spool, once the service has
+		 *         answered for it or the scheduler is closed. It is cancelled
+		 *         with the notification.
+		 */
+		public CompletableFuture<PushResponse> getResponse() {
+			return response;
+		}
+
+		/**
+		 * Removes the notification from the wheel.
+		 *
+		 * @return false if it was already released or cancelled.
+		 */
+		public boolean cancel() {
+			return PushScheduler.this.cancel(this);
+		}
+	}
+
+	/**
+	 * The notifications of one slot, as a doubly linked list through them so
+	 * that any of them is removed in constant time.
+	 */
+	private static final class Slot {
+		private ScheduledNotification head;
+
+		void add(ScheduledNotification scheduled) {
+			scheduled.slot = this;
+			scheduled.previous = null;
+			scheduled.next = head;
+			if (head != null) {
+				head.previous = scheduled;
+			}
+			head = scheduled;
+		}
+
+		void remove(ScheduledNotification scheduled) {
+			if (scheduled.previous != null) {
+				scheduled.previous.next = scheduled.next;
+			} else {
+				head = scheduled.next;
+			}
+			if (scheduled.next != null) {
+				scheduled.next.previous = scheduled.previous;
+			}
+			scheduled.slot = null;
+			scheduled.previous = null;
+			scheduled.next = null;
+		}
+
+		void drainTo(List<ScheduledNotification> drained) {
+			ScheduledNotification scheduled = head;
+			while (scheduled != null) {
+				ScheduledNotification next = scheduled.next;
+				scheduled.slot = null;
+				scheduled.previous = null;
+				scheduled.next = null;
+				drained.add(scheduled);
+				scheduled = next;
+			}
+			head = null;
+		}
+	}
+
+	/**
+	 *
+	 * Builder for {@link PushScheduler}.
+	 *
+	 */
+	public static class Builder {
+
+		private Function<Notification, CompletableFuture<PushResponse>> sender;
+		private long tickMillis = DEFAULT_TICK_MILLIS;
+		private int wheelSize = DEFAULT_WHEEL_SIZE;
+		private long resendBackoffMillis = PushBatchingDispatcher.DEFAULT_RESEND_BACKOFF_MILLIS;
+		private PushSpool spool;
+		private LongSupplier clock = new LongSupplier() {
+
+			@Override
+			public long getAsLong() {
+				return System.currentTimeMillis();
+			}
+		};
+
+		/**
+		 *
+		 * @param dispatcher
+		 *            The dispatcher notifications are handed to when their
+		 *            time has come. It is not closed with the scheduler.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder dispatcher(final PushBatchingDispatcher dispatcher) {
+			this.sender = dispatcher == null ? null
+					: new Function<Notification, CompletableFuture<PushResponse>>() {
+
+						@Override
+						public CompletableFuture<PushResponse> apply(Notification notification) {
+							return dispatcher.send(notification);
+						}
+					};
+			return this;
+		}
+
+		final Builder sender(final Function<Notification, CompletableFuture<PushResponse>> sender) {
+			this.sender = sender;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param tickMillis
+		 *            The resolution of the wheel; notifications are released
+		 *            up to one tick late. Defaults to
+		 *            {@link PushScheduler#DEFAULT_TICK_MILLIS}.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder tickMillis(final long tickMillis) {
+			this.tickMillis = tickMillis;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param wheelSize
+		 *            The number of slots per level, a power of two. Defaults
+		 *            to {@link PushScheduler#DEFAULT_WHEEL_SIZE}.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder wheelSize(final int wheelSize) {
+			this.wheelSize = wheelSize;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param spool
+		 *            The spool scheduled notifications are journaled in, so
+		 *            that they survive a restart. It must not be the spool of
+		 *            the dispatcher and is not closed with the scheduler.
+		 *            None by default.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder spool(final PushSpool spool) {
+			this.spool = spool;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param resendBackoffMillis
+		 *            How long a journaled notification that was not answered
+		 *            for waits on the wheel before it is handed to the
+		 *            dispatcher again the first time. The wait doubles with
+		 *            every further attempt. Defaults to
+		 *            {@link PushBatchingDispatcher#DEFAULT_RESEND_BACKOFF_MILLIS}.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder resendBackoffMillis(final long resendBackoffMillis) {
+			this.resendBackoffMillis = resendBackoffMillis;
+			return this;
+		}
+
+		final Builder clock(final LongSupplier clock) {
+			this.clock = clock;
+			return this;
+		}
+
+		/**
+		 *
+		 * @return the {@link PushScheduler} object, with the notifications of
+		 *         the spool scheduled again.
+		 */
+		public final PushScheduler build() {
+			if (sender == null || tickMillis <= 0 || wheelSize < 2 || Integer.bitCount(wheelSize) != 1
+					|| resendBackoffMillis <= 0) {
+				throw new IllegalArgumentException(PushConstants.PushServerSDKExceptions.INVALID_SCHEDULER_EXCEPTION);
+			}
+			return new PushScheduler(this);
+		}
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the daemon thread shared by every client of the process to time
+ * retries, rate-limited attempts and batches, deadlines of sends and resends
+ * of spooled notifications, and the daemon workers that run them once due.
+ * The scheduler thread only times tasks, so that a send, its serialization or
+ * the callbacks it completes do not hold up the timers of other clients.
+ */
+final class PushSchedulers {
+
+	private static volatile ScheduledExecutorService scheduler;
+	private static volatile ExecutorService worker;
+
+	private PushSchedulers() {
+	}
+
+	/**
+	 * @return The shared scheduler, started on first use. Tasks run on it
+	 *         must not block or send.
+	 */
+	static ScheduledExecutorService scheduler() {
+		ScheduledExecutorService executor = scheduler;
+		if (executor == null) {
+			synchronized (PushSchedulers.class) {
+				executor = scheduler;
+				if (executor == null) {
+					executor = Executors.newSingleThreadScheduledExecutor(daemonThreads("push-scheduler"));
+					scheduler = executor;
+				}
+			}
+		}
+		return executor;
+	}
+
+	/**
+	 * @return The shared workers, which start on demand and stop after a
+	 *         minute without work.
+	 */
+	static Executor worker() {
+		ExecutorService executor = worker;
+		if (executor == null) {
+			synchronized (PushSchedulers.class) {
+				executor = worker;
+				if (executor == null) {
+					executor = Executors.newCachedThreadPool(daemonThreads("push-worker"));
+					worker = executor;
+				}
+			}
+		}
+		return executor;
+	}
+
+	/**
+	 * Runs the task on a worker once the delay has passed.
+	 *
+	 * @return The timer, which can be cancelled until the task is handed to a
+	 *         worker.
+	 */
+	static ScheduledFuture<?> schedule(final Runnable task, long delay, TimeUnit unit) {
+		return scheduler().schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				worker().execute(task);
+			}
+		}, delay, unit);
+	}
+
+	private static ThreadFactory daemonThreads(final String name) {
+		return new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+}
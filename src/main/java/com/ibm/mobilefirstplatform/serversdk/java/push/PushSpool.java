@@ -0,0 +1,617 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import com.ibm.mobilefirstplatform.serversdk.java.push.exception.PushServerSDKException;
+
+/**
+ * A local write-ahead log of notifications that have been accepted but not
+ * yet delivered, so that they survive a restart of the process.
+ * <p>
+ * Entries are appended to segment files in a directory and are forced to disk
+ * before {@link PushBatchingDispatcher#send(Notification)} returns. Once the
+ * service has answered for an entry, it is acknowledged, and a segment is
+ * deleted as soon as all entries in it and in the segments before it are
+ * acknowledged. When a new segment is started and only few entries of the
+ * old segments are still pending, they are copied into it, so that they do
+ * not hold back the deletion of the segments after theirs. Opening the spool again recovers
+ * the entries that were never acknowledged; a dispatcher built with it sends
+ * them first. Delivery is at least once: a notification whose
+ * acknowledgement was lost in a crash is sent again.
+ *
+ * <pre>
+ * PushSpool spool = new PushSpool.Builder().directory(Paths.get("/var/lib/push-spool")).build();
+ * PushBatchingDispatcher dispatcher = new PushBatchingDispatcher.Builder().client(client).spool(spool).build();
+ * </pre>
+ *
+ * Only one spool may use a directory at a time, which is enforced with a file
+ * lock. Close the spool after the dispatcher that uses it.
+ */
+public final class PushSpool implements Closeable {
+
+	public static final Logger logger = Logger.getLogger(PushSpool.class.getName());
+
+	public static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+	public static final long MIN_SEGMENT_BYTES = 4096L;
+
+	private static final String SEGMENT_SUFFIX = ".spool";
+	private static final String LOCK_FILE = "spool.lock";
+
+	private static final byte APPEND = 1;
+	private static final byte ACK = 2;
+	// The payload length, the type, the entry id and a CRC32 of the type, id and payload.
+	private static final int HEADER_BYTES = 4 + 1 + 8 + 4;
+	// The old segments are compacted once at most one in this many of their entries is pending.
+	private static final int COMPACT_RATIO = 4;
+
+	private final Path directory;
+	private final long segmentBytes;
+	private final boolean forceWrites;
+	private final FileChannel lockChannel;
+	private final FileLock lock;
+	private final Object forceLock = new Object();
+	// The number of records written that are known to be on disk.
+	private final AtomicLong forced = new AtomicLong();
+
+	// Guarded by this.
+	private final TreeMap<Long, Segment> segments = new TreeMap<Long, Segment>();
+	private final Map<Long, Segment> pending = new HashMap<Long, Segment>();
+	private Segment current;
+	private long nextId = 1;
+	private long written;
+	private List<Entry> recovered;
+	private boolean compacting;
+	private boolean closed;
+
+	private PushSpool(Builder builder, FileChannel lockChannel, FileLock lock) {
+		this.directory = builder.directory;
+		this.segmentBytes = builder.segmentBytes;
+		this.forceWrites = builder.forceWrites;
+		this.lockChannel = lockChannel;
+		this.lock = lock;
+	}
+
+	private static PushSpool open(Builder builder) throws IOException {
+		Files.createDirectories(builder.directory);
+		FileChannel lockChannel = FileChannel.open(builder.directory.resolve(LOCK_FILE), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE);
+		FileLock lock;
+		try {
+			lock = lockChannel.tryLock();
+		} catch (OverlappingFileLockException e) {
+			lock = null;
+		}
+		if (lock == null) {
+			lockChannel.close();
+			throw new IOException("The spool directory " + builder.directory + " is locked.");
+		}
+		PushSpool spool = new PushSpool(builder, lockChannel, lock);
+		try {
+			spool.recover();
+		} catch (IOException | RuntimeException e) {
+			spool.close();
+			throw e;
+		}
+		return spool;
+	}
+
+	/**
+	 * Reads all segments, then rewrites the entries that were never
+	 * acknowledged into a new segment and deletes the old ones.
+	 */
+	private synchronized void recover() throws IOException {
+		List<Path> files = new ArrayList<Path>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+			for (Path file : stream) {
+				files.add(file);
+			}
+		}
+		TreeMap<Long, Path> old = new TreeMap<Long, Path>();
+		for (Path file : files) {
+			String name = file.getFileName().toString();
+			try {
+				old.put(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())), file);
+			} catch (NumberFormatException e) {
+				logger.warning("Ignoring unknown file " + file + " in the spool directory.");
+			}
+		}
+
+		TreeMap<Long, byte[]> entries = new TreeMap<Long, byte[]>();
+		for (Path file : old.values()) {
+			read(file, entries);
+		}
+
+		current = openSegment(old.isEmpty() ? 1 : old.lastKey() + 1);
+		for (Map.Entry<Long, byte[]> entry : entries.entrySet()) {
+			write(APPEND, entry.getKey(), entry.getValue());
+			pending.put(entry.getKey(), current);
+			current.pending++;
+		}
+		current.channel.force(true);
+		forced.set(written);
+		forceDirectory();
+		for (Path file : old.values()) {
+			Files.delete(file);
+		}
+
+		recovered = new ArrayList<Entry>(entries.size());
+		for (Map.Entry<Long, byte[]> entry : entries.entrySet()) {
+			recovered.add(new Entry(entry.getKey(), entry.getValue()));
+		}
+		if (!recovered.isEmpty()) {
+			logger.info("Recovered " + recovered.size() + " unacknowledged entries from " + directory + ".");
+		}
+	}
+
+	/**
+	 * Applies the records of a segment to the entries. A record that was only
+	 * partly written or is corrupt ends the segment, which is truncated there.
+	 */
+	private void read(Path file, TreeMap<Long, byte[]> entries) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			long size = channel.size();
+			long position = 0;
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			while (position + HEADER_BYTES <= size) {
+				header.clear();
+				readFully(channel, header, position);
+				int length = header.getInt(0);
+				byte type = header.get(4);
+				long id = header.getLong(5);
+				int checksum = header.getInt(13);
+				if (length < 0 || length > size - position - HEADER_BYTES || (type != APPEND && type != ACK)) {
+					break;
+				}
+				ByteBuffer payload = ByteBuffer.allocate(length);
+				readFully(channel, payload, position + HEADER_BYTES);
+				if (checksum(header.array(), payload.array()) != checksum) {
+					break;
+				}
+				if (type == APPEND) {
+					entries.put(id, payload.array());
+				} else {
+					entries.remove(id);
+				}
+				nextId = Math.max(nextId, id + 1);
+				position += HEADER_BYTES + length;
+			}
+			if (position < size) {
+				logger.warning("Truncating " + (size - position) + " bytes of an incomplete record at the end of "
+						+ file + ".");
+				channel.truncate(position);
+			}
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of spool segment.");
+			}
+		}
+	}
+
+	private static int checksum(byte[] header, byte[] payload) {
+		CRC32 crc = new CRC32();
+		crc.update(header, 4, 1 + 8);
+		crc.update(payload, 0, payload.length);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Journals an entry and, unless writes are not forced, waits until it is
+	 * on disk. Concurrent appends share one force.
+	 *
+	 * @return The id with which the entry is acknowledged.
+	 * @throws PushServerSDKException
+	 *             if the entry could not be written.
+	 */
+	long append(byte[] payload) {
+		long id;
+		long target;
+		try {
+			synchronized (this) {
+				ensureOpen();
+				id = nextId++;
+				write(APPEND, id, payload);
+				pending.put(id, current);
+				current.pending++;
+				target = written;
+			}
+			if (forceWrites) {
+				force(target);
+			}
+		} catch (IOException e) {
+			throw new PushServerSDKException(PushConstants.PushServerSDKExceptions.SPOOL_IO_EXCEPTION, e);
+		}
+		return id;
+	}
+
+	/**
+	 * Marks the entry as done, so that it is not recovered again. The
+	 * acknowledgement is not forced; if it is lost, the entry is delivered
+	 * again.
+	 *
+	 * @throws PushServerSDKException
+	 *             if the acknowledgement could not be written.
+	 */
+	synchronized void acknowledge(long id) {
+		if (closed) {
+			return;
+		}
+		Segment segment = pending.remove(id);
+		if (segment == null) {
+			return;
+		}
+		segment.pending--;
+		try {
+			write(ACK, id, new byte[0]);
+			deleteDoneSegments();
+		} catch (IOException e) {
+			throw new PushServerSDKException(PushConstants.PushServerSDKExceptions.SPOOL_IO_EXCEPTION, e);
+		}
+	}
+
+	/**
+	 * @return The entries recovered when the spool was opened, which are
+	 *         returned only once.
+	 */
+	synchronized List<Entry> takeRecovered() {
+		List<Entry> entries = recovered;
+		recovered = Collections.emptyList();
+		return entries;
+	}
+
+	/**
+	 * @return The number of entries that have not been acknowledged yet.
+	 */
+	public synchronized int getPendingEntries() {
+		return pending.size();
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	private void write(byte type, long id, byte[] payload) throws IOException {
+		int recordBytes = HEADER_BYTES + payload.length;
+		if (current.size > 0 && current.size + recordBytes > segmentBytes) {
+			rollOver();
+		}
+		if (!current.channel.isOpen()) {
+			// An interrupted thread closes the channel it was writing to.
+			current.channel = openChannel(current.file, current.size);
+		}
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		header.putInt(payload.length).put(type).putLong(id).putInt(0);
+		header.putInt(13, checksum(header.array(), payload));
+		header.flip();
+		ByteBuffer[] buffers = new ByteBuffer[] { header, ByteBuffer.wrap(payload) };
+		try {
+			while (buffers[0].hasRemaining() || buffers[1].hasRemaining()) {
+				current.channel.write(buffers);
+			}
+		} catch (IOException e) {
+			// Keeps a partly written record from hiding the ones after it.
+			if (current.channel.isOpen()) {
+				current.channel.truncate(current.size);
+				current.channel.position(current.size);
+			}
+			throw e;
+		}
+		current.size += recordBytes;
+		if (type == APPEND) {
+			current.appended++;
+		}
+		written++;
+	}
+
+	private void rollOver() throws IOException {
+		if (forceWrites) {
+			current.channel.force(false);
+			forced.accumulateAndGet(written, Math::max);
+		}
+		current.channel.close();
+		current = openSegment(current.sequence + 1);
+		forceDirectory();
+		if (!compacting) {
+			compact();
+		}
+		deleteDoneSegments();
+	}
+
+	/**
+	 * Copies the pending entries of the old segments into the current one if
+	 * they are few compared with all entries of those segments, so that the
+	 * old segments can be deleted.
+	 */
+	private void compact() throws IOException {
+		long live = 0;
+		long total = 0;
+		for (Segment segment : segments.values()) {
+			if (segment != current) {
+				live += segment.pending;
+				total += segment.appended;
+			}
+		}
+		if (live == 0 || live * COMPACT_RATIO > total) {
+			return;
+		}
+		compacting = true;
+		try {
+			// The copies may fill the current segment and start another.
+			long target = current.sequence;
+			boolean moved = false;
+			for (Segment segment : new ArrayList<Segment>(segments.headMap(target).values())) {
+				if (segment.pending == 0) {
+					continue;
+				}
+				TreeMap<Long, byte[]> entries = new TreeMap<Long, byte[]>();
+				read(segment.file, entries);
+				for (Map.Entry<Long, byte[]> entry : entries.entrySet()) {
+					if (pending.get(entry.getKey()) == segment) {
+						write(APPEND, entry.getKey(), entry.getValue());
+						pending.put(entry.getKey(), current);
+						current.pending++;
+						segment.pending--;
+						moved = true;
+					}
+				}
+			}
+			if (moved && forceWrites) {
+				// The copies must be on disk before the originals are deleted.
+				current.channel.force(false);
+				forced.accumulateAndGet(written, Math::max);
+			}
+		} finally {
+			compacting = false;
+		}
+	}
+
+	/**
+	 * Deletes the oldest segments as long as all their entries are
+	 * acknowledged. Later segments are kept until then, as their
+	 * acknowledgements would otherwise be lost.
+	 */
+	private void deleteDoneSegments() throws IOException {
+		Iterator<Segment> oldest = segments.values().iterator();
+		while (oldest.hasNext()) {
+			Segment segment = oldest.next();
+			if (segment == current || segment.pending > 0) {
+				return;
+			}
+			oldest.remove();
+			Files.deleteIfExists(segment.file);
+		}
+	}
+
+	/**
+	 * Forces the records up to the given one to disk, together with any
+	 * written meanwhile, unless another thread already did.
+	 */
+	private void force(long target) throws IOException {
+		if (forced.get() >= target) {
+			return;
+		}
+		synchronized (forceLock) {
+			if (forced.get() >= target) {
+				return;
+			}
+			FileChannel channel;
+			long upTo;
+			synchronized (this) {
+				ensureOpen();
+				channel = current.channel;
+				upTo = written;
+			}
+			try {
+				channel.force(false);
+			} catch (ClosedByInterruptException e) {
+				throw e;
+			} catch (ClosedChannelException e) {
+				// Rolled over to the next segment, which forced this one before closing it.
+				synchronized (this) {
+					ensureOpen();
+				}
+			}
+			forced.accumulateAndGet(upTo, Math::max);
+		}
+	}
+
+	private Segment openSegment(long sequence) throws IOException {
+		Path file = directory.resolve(String.format("%020d", sequence) + SEGMENT_SUFFIX);
+		Segment segment = new Segment(sequence, file, openChannel(file, 0));
+		segments.put(sequence, segment);
+		return segment;
+	}
+
+	private static FileChannel openChannel(Path file, long size) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		channel.truncate(size);
+		channel.position(size);
+		return channel;
+	}
+
+	/**
+	 * Makes created segments durable. Not supported on every platform, where
+	 * it is skipped.
+	 */
+	private void forceDirectory() {
+		if (!forceWrites) {
+			return;
+		}
+		try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException e) {
+			logger.log(Level.FINE, "The spool directory cannot be forced.", e);
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) {
+			throw new ClosedChannelException();
+		}
+	}
+
+	/**
+	 * Forces what was written to disk and releases the directory.
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			if (current != null && current.channel.isOpen()) {
+				if (forceWrites) {
+					current.channel.force(false);
+				}
+				current.channel.close();
+			}
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "The spool segment could not be closed.", e);
+		}
+		try {
+			lock.release();
+			lockChannel.close();
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "The spool lock could not be released.", e);
+		}
+	}
+
+	/**
+	 * An entry recovered from the spool.
+	 */
+	static final class Entry {
+		final long id;
+		final byte[] payload;
+
+		Entry(long id, byte[] payload) {
+			this.id = id;
+			this.payload = payload;
+		}
+	}
+
+	/**
+	 * A segment file, the number of entries appended to it and the number of
+	 * them not yet acknowledged. Only the current segment has an open channel.
+	 */
+	private static final class Segment {
+		private final long sequence;
+		private final Path file;
+		private FileChannel channel;
+		private long size;
+		private int appended;
+		private int pending;
+
+		Segment(long sequence, Path file, FileChannel channel) {
+			this.sequence = sequence;
+			this.file = file;
+			this.channel = channel;
+		}
+	}
+
+	/**
+	 *
+	 * Builder for {@link PushSpool}.
+	 *
+	 */
+	public static class Builder {
+
+		private Path directory;
+		private long segmentBytes = DEFAULT_SEGMENT_BYTES;
+		private boolean forceWrites = true;
+
+		/**
+		 *
+		 * @param directory
+		 *            The directory the segments are kept in, created if it
+		 *            does not exist.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder directory(final Path directory) {
+			this.directory = directory;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param segmentBytes
+		 *            The size after which a new segment is started. Defaults
+		 *            to {@link PushSpool#DEFAULT_SEGMENT_BYTES}.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder segmentBytes(final long segmentBytes) {
+			this.segmentBytes = segmentBytes;
+			return this;
+		}
+
+		/**
+		 *
+		 * @param forceWrites
+		 *            Whether a send waits until its notification is on disk.
+		 *            Without it, notifications still in the page cache are
+		 *            lost when the machine, not only the process, fails.
+		 *            Defaults to true.
+		 * @return The Builder object for calls to be linked.
+		 */
+		public final Builder forceWrites(final boolean forceWrites) {
+			this.forceWrites = forceWrites;
+			return this;
+		}
+
+		/**
+		 *
+		 * @return the {@link PushSpool} object, with the unacknowledged
+		 *         entries of a previous run recovered.
+		 * @throws PushServerSDKException
+		 *             if the directory cannot be read, written or locked.
+		 */
+		public final PushSpool build() {
+			if (directory == null || segmentBytes < MIN_SEGMENT_BYTES) {
+				throw new IllegalArgumentException(PushConstants.PushServerSDKExceptions.INVALID_SPOOL_EXCEPTION);
+			}
+			try {
+				return open(this);
+			} catch (IOException e) {
+				throw new PushServerSDKException(PushConstants.PushServerSDKExceptions.SPOOL_IO_EXCEPTION, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Future;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+
+/**
+ * Sends the requests of a {@link PushNotificationsClient} to the push
+ * service. The client builds each request with its headers, body and
+ * timeouts, and decides on retries; the transport only carries it over the
+ * wire.
+ * <p>
+ * By default a client sends through its own HttpClient connection pools over
+ * HTTP/1.1. Another transport, such as {@link Http2PushTransport}, is set
+ * through {@link PushNotificationsClient.Builder#transport(PushTransport)}:
+ *
+ * <pre>
+ * PushTransport transport = new Http2PushTransport.Builder().build();
+ * PushNotificationsClient client = new PushNotificationsClient.Builder()....transport(transport).build();
+ * </pre>
+ *
+ * A transport may be shared by several clients and is not closed by them.
+ * <p>
+ * Implementations abort a request when {@link org.apache.http.client.methods.HttpPost#abort()}
+ * is called on it, which is how clients enforce deadlines.
+ */
+public interface PushTransport extends Closeable {
+
+	/**
+	 * Sends the request and waits for the response.
+	 *
+	 * @param request
+	 *            The request to send.
+	 * @return The response. Its entity is consumed by the caller, and it is
+	 *         closed if it is {@link Closeable}.
+	 * @throws IOException
+	 *             if no response was received.
+	 */
+	HttpResponse execute(HttpUriRequest request) throws IOException;
+
+	/**
+	 * Sends the request without blocking the calling thread.
+	 *
+	 * @param request
+	 *            The request to send.
+	 * @param callback
+	 *            Told about the response, the failure or the cancellation.
+	 * @return A future that cancels the request.
+	 */
+	Future<HttpResponse> execute(HttpUriRequest request, FutureCallback<HttpResponse> callback);
+}
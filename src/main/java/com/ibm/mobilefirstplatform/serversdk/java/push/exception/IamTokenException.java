@@ -0,0 +1,42 @@
+/*
+ *     Copyright 2020 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.ibm.mobilefirstplatform.serversdk.java.push.exception;
+
+/**
+ * Thrown when no IAM access token could be obtained for an API key.
+ */
+public class IamTokenException extends PushServerSDKException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Integer statusCode;
+
+	public IamTokenException(final String message, final Integer statusCode) {
+		super(message);
+		this.statusCode = statusCode;
+	}
+
+	public IamTokenException(final String message, final Throwable cause) {
+		super(message, cause);
+		this.statusCode = null;
+	}
+
+	/**
+	 * @return The status code returned by IAM, or null if no response was
+	 *         received.
+	 */
+	public Integer getStatusCode() {
+		return statusCode;
+	}
+}
@@ -0,0 +1,53 @@
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+
+import org.apache.http.util.EntityUtils;
+import org.json.JSONArray;
+import org.junit.Test;
+
+public class BulkNotificationEntityTest {
+
+	private static Notification[] notifications(int count) {
+		Notification[] notifications = new Notification[count];
+		for (int i = 0; i < count; i++) {
+			notifications[i] = new Notification.Builder()
+					.message(new Message.Builder().alert("testMessage" + i).build()).build();
+		}
+		return notifications;
+	}
+
+	@Test
+	public void shouldStreamChunkedJsonArray() throws Exception {
+		BulkNotificationEntity entity = new BulkNotificationEntity(notifications(1000));
+
+		assertTrue(entity.isChunked());
+		assertEquals(-1, entity.getContentLength());
+		assertEquals("application/json; charset=UTF-8", entity.getContentType().getValue());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		entity.writeTo(out);
+		JSONArray json = new JSONArray(new String(out.toByteArray(), "UTF-8"));
+
+		assertEquals(1000, json.length());
+		assertEquals("testMessage999", json.getJSONObject(999).getJSONObject("message").getString("alert"));
+	}
+
+	@Test
+	public void shouldWriteSameBodyOnEveryAttempt() throws Exception {
+		Notification[] notifications = notifications(3);
+		BulkNotificationEntity entity = new BulkNotificationEntity(notifications);
+
+		ByteArrayOutputStream first = new ByteArrayOutputStream();
+		entity.writeTo(first);
+		ByteArrayOutputStream second = new ByteArrayOutputStream();
+		entity.writeTo(second);
+
+		assertTrue(entity.isRepeatable());
+		assertArrayEquals(first.toByteArray(), second.toByteArray());
+		assertArrayEquals(PushMessageSerializer.writeNotifications(notifications), first.toByteArray());
+		assertEquals(new String(first.toByteArray(), "UTF-8"), EntityUtils.toString(entity, "UTF-8"));
+	}
+}
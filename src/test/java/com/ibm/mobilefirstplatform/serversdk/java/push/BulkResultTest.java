@@ -0,0 +1,74 @@
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.apache.http.HttpStatus;
+import org.junit.Test;
+
+public class BulkResultTest {
+
+	private static Notification notification(String alert) {
+		return new Notification.Builder().message(new Message.Builder().alert(alert).build()).build();
+	}
+
+	@Test
+	public void shouldMapEntriesToNotificationsByIndex() {
+		String body = "[{\"messageId\":\"first\"},{\"code\":400,\"message\":\"testError\"},{\"messageId\":\"third\"}]";
+
+		BulkResult result = BulkResult.parse(HttpStatus.SC_ACCEPTED, body, 3);
+
+		assertFalse(result.isSuccess());
+		assertEquals(3, result.size());
+		assertTrue(result.get(0).isSuccess());
+		assertEquals("first", result.get(0).getMessageId());
+		assertFalse(result.get(1).isSuccess());
+		assertEquals(Integer.valueOf(400), result.get(1).getStatusCode());
+		assertEquals("testError", result.get(1).getError());
+		assertEquals("third", result.get(2).getMessageId());
+		assertEquals(Arrays.asList(1), result.getFailedIndexes());
+	}
+
+	@Test
+	public void shouldSelectFailedNotificationsForResend() {
+		Notification[] sent = { notification("first"), notification("second"), notification("third") };
+		String body = "[{\"messageId\":\"first\"},{\"error\":\"testError\"}]";
+
+		BulkResult result = BulkResult.parse(HttpStatus.SC_ACCEPTED, body, sent.length);
+
+		assertArrayEquals(new Notification[] { sent[1], sent[2] }, result.getFailedNotifications(sent));
+		assertNull(result.get(2).getStatusCode());
+	}
+
+	@Test
+	public void shouldNotAcceptEntriesWithoutMessageIdOrStatus() {
+		String body = "[{\"messageId\":\"first\"},{\"state\":\"rejected\"},{\"status\":\"failed\"},{\"status\":201}]";
+
+		BulkResult result = BulkResult.parse(HttpStatus.SC_ACCEPTED, body, 4);
+
+		assertEquals(Arrays.asList(1, 2), result.getFailedIndexes());
+		assertNull(result.get(1).getStatusCode());
+		assertEquals(PushConstants.PushServerSDKExceptions.UNKNOWN_BULK_RESULT_EXCEPTION, result.get(1).getError());
+		assertEquals("{\"state\":\"rejected\"}", result.get(1).getResponseEntry());
+		assertNull(result.get(2).getStatusCode());
+		assertEquals(Integer.valueOf(HttpStatus.SC_ACCEPTED), result.get(0).getStatusCode());
+		assertEquals(Integer.valueOf(HttpStatus.SC_CREATED), result.get(3).getStatusCode());
+	}
+
+	@Test
+	public void shouldFailEveryNotificationWhenRequestIsRejected() {
+		BulkResult result = BulkResult.parse(HttpStatus.SC_UNAUTHORIZED, "{\"message\":\"Unauthorized\"}", 2);
+
+		assertEquals(Arrays.asList(0, 1), result.getFailedIndexes());
+		assertEquals(Integer.valueOf(HttpStatus.SC_UNAUTHORIZED), result.get(1).getStatusCode());
+	}
+
+	@Test
+	public void shouldAcceptEveryNotificationWhenResponseHasNoDetails() {
+		BulkResult result = BulkResult.parse(new PushResponse(HttpStatus.SC_ACCEPTED, null), 2);
+
+		assertTrue(result.isSuccess());
+		assertNull(result.get(0).getMessageId());
+	}
+}
@@ -0,0 +1,178 @@
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.Message;
+import org.apache.hc.core5.http.impl.bootstrap.HttpAsyncServer;
+import org.apache.hc.core5.http.nio.AsyncRequestConsumer;
+import org.apache.hc.core5.http.nio.AsyncServerRequestHandler;
+import org.apache.hc.core5.http.nio.entity.BasicAsyncEntityConsumer;
+import org.apache.hc.core5.http.nio.support.AsyncResponseBuilder;
+import org.apache.hc.core5.http.nio.support.BasicRequestConsumer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.http2.impl.nio.bootstrap.H2ServerBootstrap;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.http.HttpStatus;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ibm.mobilefirstplatform.serversdk.java.push.exception.PushServerSDKException;
+
+public class Http2PushTransportTest {
+
+	private final List<Message<HttpRequest, byte[]>> requests = new CopyOnWriteArrayList<Message<HttpRequest, byte[]>>();
+	private final List<String> protocols = new CopyOnWriteArrayList<String>();
+	private HttpAsyncServer server;
+	private String serverHost;
+	private Http2PushTransport transport;
+	private PushNotificationsClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		server = H2ServerBootstrap.bootstrap().setVersionPolicy(HttpVersionPolicy.FORCE_HTTP_2)
+				.register("*", new AsyncServerRequestHandler<Message<HttpRequest, byte[]>>() {
+
+					@Override
+					public AsyncRequestConsumer<Message<HttpRequest, byte[]>> prepare(HttpRequest request,
+							EntityDetails entityDetails, HttpContext context) throws HttpException {
+						return new BasicRequestConsumer<byte[]>(
+								entityDetails != null ? new BasicAsyncEntityConsumer() : null);
+					}
+
+					@Override
+					public void handle(Message<HttpRequest, byte[]> request, ResponseTrigger responseTrigger,
+							HttpContext context) throws HttpException, IOException {
+						requests.add(request);
+						protocols.add(context.getProtocolVersion().toString());
+						if (request.getHead().getPath().contains("slowTenantId")) {
+							return;
+						}
+						responseTrigger.submitResponse(AsyncResponseBuilder.create(HttpStatus.SC_ACCEPTED)
+								.setEntity("{\"messageId\":\"abc\"}").build(), context);
+					}
+				}).create();
+		server.start();
+		int port = ((InetSocketAddress) server.listen(new InetSocketAddress("localhost", 0)).get().getAddress())
+				.getPort();
+		transport = new Http2PushTransport.Builder().build();
+		serverHost = "http://localhost:" + port;
+		client = client("testTenantId", PushCompression.disabled());
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		client.close();
+		transport.close();
+		server.close(CloseMode.IMMEDIATE);
+	}
+
+	private PushNotificationsClient client(String tenantId, PushCompression compression) {
+		return new PushNotificationsClient.Builder()
+				.pushMessageEndpointURL(serverHost + "/imfpush/v1/apps/" + tenantId + "/messages").appSecret("testAppSecret").compression(compression).transport(transport).build();
+	}
+
+	private static Notification notification(String alert) {
+		return new Notification.Builder()
+				.message(new com.ibm.mobilefirstplatform.serversdk.java.push.Message.Builder().alert(alert).build()).build();
+	}
+
+	private static byte[] gunzip(byte[] compressed) throws IOException {
+		InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[100];
+		for (int read; (read = in.read(buffer)) != -1;) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+
+	@Test
+	public void shouldSendOverHttp2() throws Exception {
+		PushNotificationsResponseListener listener = mock(PushNotificationsResponseListener.class);
+		client.send(notification("testMessage"), listener);
+
+		verify(listener).onSuccess(HttpStatus.SC_ACCEPTED, "{\"messageId\":\"abc\"}");
+		HttpRequest request = requests.get(0).getHead();
+		assertEquals("HTTP/2.0", protocols.get(0));
+		assertEquals("POST", request.getMethod());
+		assertEquals("/imfpush/v1/apps/testTenantId/messages", request.getPath());
+		assertEquals("testAppSecret", request.getFirstHeader(PushConstants.APPSECRET).getValue());
+		assertNull(request.getFirstHeader("Connection"));
+		assertEquals("testMessage", new JSONObject(new String(requests.get(0).getBody(), "UTF-8"))
+				.getJSONObject("message").getString("alert"));
+	}
+
+	@Test
+	public void shouldMultiplexAsyncSends() throws Exception {
+		List<CompletableFuture<PushResponse>> futures = new ArrayList<CompletableFuture<PushResponse>>();
+		for (int i = 0; i < 50; i++) {
+			futures.add(client.sendAsync(notification("Notification " + i)));
+		}
+		for (CompletableFuture<PushResponse> future : futures) {
+			assertEquals(HttpStatus.SC_ACCEPTED, future.get(10, TimeUnit.SECONDS).getStatusCode());
+		}
+		assertEquals(50, requests.size());
+		assertFalse(protocols.contains("HTTP/1.1"));
+	}
+
+	@Test
+	public void shouldSendCompressedBodies() throws Exception {
+		PushNotificationsClient compressing = client("testTenantId",
+				new PushCompression.Builder().thresholdBytes(0).build());
+
+		assertEquals(HttpStatus.SC_ACCEPTED, compressing.sendAsync(notification("testMessage")).get().getStatusCode());
+		compressing.close();
+
+		HttpRequest request = requests.get(0).getHead();
+		assertEquals("gzip", request.getFirstHeader("Content-Encoding").getValue());
+		assertEquals("testMessage", new JSONObject(new String(gunzip(requests.get(0).getBody()), "UTF-8"))
+				.getJSONObject("message").getString("alert"));
+	}
+
+	@Test
+	public void shouldCancelStreamAtDeadline() throws Exception {
+		PushNotificationsClient slow = client("slowTenantId", PushCompression.disabled());
+		PushRequestOptions options = new PushRequestOptions.Builder().deadlineMillis(200).build();
+
+		try {
+			slow.sendAsync(notification("testMessage"), options).get(5, TimeUnit.SECONDS);
+			fail("A send without a response should fail at its deadline.");
+		} catch (ExecutionException e) {
+			assertEquals(PushConstants.PushServerSDKExceptions.DEADLINE_EXCEEDED_EXCEPTION, e.getCause().getMessage());
+		}
+		PushNotificationsResponseListener listener = mock(PushNotificationsResponseListener.class);
+		slow.send(notification("testMessage"), options, listener);
+		verify(listener).onFailure(isNull(Integer.class), isNull(String.class), any(PushServerSDKException.class));
+		slow.close();
+	}
+
+	@Test
+	public void shouldRejectInvalidSettings() {
+		try {
+			new Http2PushTransport.Builder().ioThreads(0).build();
+			fail("A transport without I/O threads should be rejected.");
+		} catch (IllegalArgumentException e) {
+			assertEquals(PushConstants.PushServerSDKExceptions.INVALID_TRANSPORT_EXCEPTION, e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicStatusLine;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.ibm.mobilefirstplatform.serversdk.java.push.exception.IamTokenException;
+
+public class IamTokenManagerTest {
+
+	private static CloseableHttpResponse tokenResponse(int statusCode, String body) throws Exception {
+		CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+		when(response.getStatusLine()).thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, statusCode, "reason"));
+		when(response.getEntity()).thenReturn(new StringEntity(body));
+		return response;
+	}
+
+	private static IamTokenManager tokenManager(CloseableHttpClient iamClient) {
+		return new IamTokenManager("https://iam.example.com/identity/token", "testApiKey", iamClient,
+				PushDebugLog.disabled(), PushRetryPolicy.none(), PushMetrics.none());
+	}
+
+	private static String tokenBody(String token) {
+		long expiration = System.currentTimeMillis() / 1000 + 3600;
+		return "{\"access_token\":\"" + token + "\",\"expiration\":" + expiration + "}";
+	}
+
+	@Test
+	public void shouldShareOneRequestBetweenConcurrentCallers() throws Exception {
+		CloseableHttpClient iamClient = mock(CloseableHttpClient.class);
+		when(iamClient.execute(any(HttpUriRequest.class))).thenAnswer(new Answer<CloseableHttpResponse>() {
+			@Override
+			public CloseableHttpResponse answer(InvocationOnMock invocation) throws Throwable {
+				Thread.sleep(200);
+				return tokenResponse(HttpStatus.SC_OK, tokenBody("testToken"));
+			}
+		});
+		final IamTokenManager tokenManager = tokenManager(iamClient);
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<String>> tokens = new ArrayList<Future<String>>();
+			for (int i = 0; i < 8; i++) {
+				tokens.add(executor.submit(new Callable<String>() {
+					@Override
+					public String call() {
+						return tokenManager.getToken();
+					}
+				}));
+			}
+			for (Future<String> token : tokens) {
+				assertEquals("testToken", token.get());
+			}
+		} finally {
+			executor.shutdown();
+			tokenManager.close();
+		}
+
+		verify(iamClient, times(1)).execute(any(HttpUriRequest.class));
+	}
+
+	@Test
+	public void shouldFetchNewTokenAfterInvalidation() throws Exception {
+		CloseableHttpClient iamClient = mock(CloseableHttpClient.class);
+		CloseableHttpResponse first = tokenResponse(HttpStatus.SC_OK, tokenBody("first"));
+		CloseableHttpResponse second = tokenResponse(HttpStatus.SC_OK, tokenBody("second"));
+		when(iamClient.execute(any(HttpUriRequest.class))).thenReturn(first, second);
+		IamTokenManager tokenManager = tokenManager(iamClient);
+
+		assertEquals("first", tokenManager.getToken());
+		assertEquals("first", tokenManager.getToken());
+		tokenManager.invalidate();
+		assertEquals("second", tokenManager.getToken());
+		tokenManager.close();
+	}
+
+	@Test
+	public void shouldReportStatusCodeWhenIamRejectsApiKey() throws Exception {
+		CloseableHttpClient iamClient = mock(CloseableHttpClient.class);
+		CloseableHttpResponse rejected = tokenResponse(HttpStatus.SC_BAD_REQUEST, "{}");
+		when(iamClient.execute(any(HttpUriRequest.class))).thenReturn(rejected);
+		IamTokenManager tokenManager = tokenManager(iamClient);
+
+		try {
+			tokenManager.getToken();
+			fail("Should not have obtained a token.");
+		} catch (IamTokenException e) {
+			assertEquals(Integer.valueOf(HttpStatus.SC_BAD_REQUEST), e.getStatusCode());
+		} finally {
+			tokenManager.close();
+		}
+	}
+
+	@Test
+	public void shouldNotRefreshInTightLoopWhenExpirationHasPassed() throws Exception {
+		final long expiration = System.currentTimeMillis() / 1000 - 60;
+		CloseableHttpClient iamClient = mock(CloseableHttpClient.class);
+		when(iamClient.execute(any(HttpUriRequest.class))).thenAnswer(new Answer<CloseableHttpResponse>() {
+			@Override
+			public CloseableHttpResponse answer(InvocationOnMock invocation) throws Throwable {
+				return tokenResponse(HttpStatus.SC_OK,
+						"{\"access_token\":\"testToken\",\"expiration\":" + expiration + "}");
+			}
+		});
+		IamTokenManager tokenManager = tokenManager(iamClient);
+
+		assertEquals("testToken", tokenManager.getToken());
+		Thread.sleep(500);
+		tokenManager.close();
+
+		verify(iamClient, times(1)).execute(any(HttpUriRequest.class));
+	}
+
+	@Test
+	public void shouldTakeLifetimeFromExpiresIn() throws Exception {
+		long expiration = System.currentTimeMillis() / 1000 - 60;
+		CloseableHttpClient iamClient = mock(CloseableHttpClient.class);
+		CloseableHttpResponse response = tokenResponse(HttpStatus.SC_OK,
+				"{\"access_token\":\"testToken\",\"expiration\":" + expiration + ",\"expires_in\":3600}");
+		when(iamClient.execute(any(HttpUriRequest.class))).thenReturn(response);
+		IamTokenManager tokenManager = tokenManager(iamClient);
+
+		assertEquals("testToken", tokenManager.getToken());
+		assertEquals("testToken", tokenManager.getToken());
+		tokenManager.close();
+
+		verify(iamClient, times(1)).execute(any(HttpUriRequest.class));
+	}
+}
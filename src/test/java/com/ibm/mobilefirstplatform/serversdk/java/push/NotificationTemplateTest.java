@@ -0,0 +1,107 @@
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class NotificationTemplateTest {
+
+	private static Settings settings(Object orderId, String title) {
+		JSONObject payload = new JSONObject().put("orderId", orderId).put("source", "campaign");
+		FCM fcm = new FCM.Builder().collapseKey("testCollapseKey").androidTitle(title).payload(payload).build();
+		APNs apns = new APNs.Builder().title(title).payload(payload).build();
+		return new Settings.Builder().fcm(fcm).apns(apns)
+				.chromeWeb(new ChromeWeb.Builder().title(title).build()).build();
+	}
+
+	private static Message message(String alert) {
+		return new Message.Builder().alert(alert).url("https://example.com/" + alert).build();
+	}
+
+	private static Target target(String deviceId) {
+		return new Target.Builder().deviceIds(new String[] { deviceId }).build();
+	}
+
+	private static JSONObject json(byte[] body) throws Exception {
+		return new JSONObject(new String(body, "UTF-8"));
+	}
+
+	@Test
+	public void shouldWriteSameJsonAsNotification() throws Exception {
+		NotificationTemplate template = new NotificationTemplate.Builder().settings(settings(4711, "Ödön")).build();
+		Notification expected = new Notification.Builder().message(message("first")).target(target("testDeviceId"))
+				.settings(settings(4711, "Ödön")).build();
+
+		Notification notification = template.notification(message("first"), target("testDeviceId"));
+
+		assertTrue(json(PushMessageSerializer.writeNotification(expected))
+				.similar(json(PushMessageSerializer.writeNotification(notification))));
+		assertSame(template.getSettings(), notification.getSettings());
+	}
+
+	@Test
+	public void shouldReplaceVariablesWithValues() throws Exception {
+		NotificationTemplate template = new NotificationTemplate.Builder().settings(settings("{{orderId}}", "{{title}}"))
+				.build();
+		assertEquals(5, template.getVariables().size());
+		assertEquals(new HashSet<String>(Arrays.asList("orderId", "title")), new HashSet<String>(template.getVariables()));
+		Map<String, Object> values = new HashMap<String, Object>();
+		values.put("orderId", 4711);
+		values.put("title", "Order \"4711\"");
+
+		Notification notification = template.notification(message("first"), target("testDeviceId"), values);
+
+		Notification expected = new Notification.Builder().message(message("first")).target(target("testDeviceId"))
+				.settings(settings(4711, "Order \"4711\"")).build();
+		assertTrue(json(PushMessageSerializer.writeNotification(expected))
+				.similar(json(PushMessageSerializer.writeNotification(notification))));
+	}
+
+	@Test
+	public void shouldWriteTemplatedAndOtherNotificationsInBulk() throws Exception {
+		NotificationTemplate template = new NotificationTemplate.Builder().settings(settings("{{orderId}}", "title"))
+				.build();
+		Notification plain = new Notification.Builder().message(message("plain")).build();
+
+		JSONArray json = new JSONArray(new String(PushMessageSerializer.writeNotifications(new Notification[] {
+				template.notification(message("first"), target("firstDevice"), Collections.singletonMap("orderId", 1)),
+				plain,
+				template.notification(message("second"), null, Collections.singletonMap("orderId", 2)) }), "UTF-8"));
+
+		assertEquals(3, json.length());
+		assertEquals("firstDevice", json.getJSONObject(0).getJSONObject("target").getJSONArray("deviceIds").get(0));
+		assertEquals(1, json.getJSONObject(0).getJSONObject("settings").getJSONObject("gcm").getJSONObject("payload")
+				.getInt("orderId"));
+		assertEquals("plain", json.getJSONObject(1).getJSONObject("message").getString("alert"));
+		assertFalse(json.getJSONObject(2).has("target"));
+		assertEquals(2, json.getJSONObject(2).getJSONObject("settings").getJSONObject("apns").getJSONObject("payload")
+				.getInt("orderId"));
+	}
+
+	@Test
+	public void shouldRejectMissingValuesAndAlerts() {
+		NotificationTemplate template = new NotificationTemplate.Builder().settings(settings("{{orderId}}", "title"))
+				.build();
+
+		try {
+			template.notification(message("first"), null);
+			fail("A variable without value should be rejected.");
+		} catch (IllegalArgumentException e) {
+			assertEquals(PushConstants.PushServerSDKExceptions.INVALID_TEMPLATE_EXCEPTION, e.getMessage());
+		}
+		try {
+			template.notification(new Message.Builder().build(), null, Collections.singletonMap("orderId", 1));
+			fail("A message without alert should be rejected.");
+		} catch (IllegalArgumentException e) {
+			assertEquals(PushConstants.PushServerSDKExceptions.INVALID_TEMPLATE_EXCEPTION, e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.apache.http.HttpStatus;
+import org.junit.Test;
+
+import com.ibm.mobilefirstplatform.serversdk.java.push.exception.PushServerSDKException;
+
+public class PushBatchingDispatcherTest {
+
+	private static class RecordingSender implements Function<Notification[], CompletableFuture<BulkResult>> {
+
+		private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+
+		@Override
+		public CompletableFuture<BulkResult> apply(Notification[] notifications) {
+			batchSizes.add(notifications.length);
+			return CompletableFuture.completedFuture(BulkResult.parse(HttpStatus.SC_ACCEPTED, null, notifications.length));
+		}
+	}
+
+	private static Notification notification() {
+		return new Notification.Builder().message(new Message.Builder().alert("testMessage").build()).build();
+	}
+
+	@Test
+	public void shouldSendFullBatchWithoutWaitingForLinger() throws Exception {
+		RecordingSender sender = new RecordingSender();
+		PushBatchingDispatcher dispatcher = new PushBatchingDispatcher.Builder().bulkSender(sender).maxBatchSize(10)
+				.lingerMillis(60000).build();
+
+		List<CompletableFuture<PushResponse>> futures = new ArrayList<CompletableFuture<PushResponse>>();
+		for (int i = 0; i < 10; i++) {
+			futures.add(dispatcher.send(notification()));
+		}
+		for (CompletableFuture<PushResponse> future : futures) {
+			assertTrue(future.get(5, TimeUnit.SECONDS).isSuccess());
+		}
+		dispatcher.close();
+
+		assertEquals(Collections.singletonList(10), sender.batchSizes);
+	}
+
+	@Test
+	public void shouldSendPartialBatchAfterLinger() throws Exception {
+		RecordingSender sender = new RecordingSender();
+		PushBatchingDispatcher dispatcher = new PushBatchingDispatcher.Builder().bulkSender(sender).maxBatchSize(100)
+				.lingerMillis(50).build();
+
+		CompletableFuture<PushResponse> first = dispatcher.send(notification());
+		CompletableFuture<PushResponse> second = dispatcher.send(notification());
+
+		assertTrue(first.get(5, TimeUnit.SECONDS).isSuccess());
+		assertTrue(second.get(5, TimeUnit.SECONDS).isSuccess());
+		dispatcher.close();
+
+		assertEquals(Collections.singletonList(2), sender.batchSizes);
+	}
+
+	@Test
+	public void shouldSendQueuedNotificationsOnClose() throws Exception {
+		RecordingSender sender = new RecordingSender();
+		PushBatchingDispatcher dispatcher = new PushBatchingDispatcher.Builder().bulkSender(sender).maxBatchSize(100)
+				.lingerMillis(60000).build();
+
+		CompletableFuture<PushResponse> future = dispatcher.send(notification());
+		dispatcher.close();
+
+		assertTrue(future.get(5, TimeUnit.SECONDS).isSuccess());
+		try {
+			dispatcher.send(notification()).get();
+			fail("A closed dispatcher should not accept notifications.");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof PushServerSDKException);
+		}
+	}
+
+	@Test
+	public void shouldRejectNotificationsWhenQueueIsFull() throws Exception {
+		final CountDownLatch sending = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		PushBatchingDispatcher dispatcher = new PushBatchingDispatcher.Builder()
+				.bulkSender(new Function<Notification[], CompletableFuture<BulkResult>>() {
+
+					@Override
+					public CompletableFuture<BulkResult> apply(Notification[] notifications) {
+						sending.countDown();
+						try {
+							release.await();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+						return CompletableFuture.completedFuture(BulkResult.parse(HttpStatus.SC_ACCEPTED, null, notifications.length));
+					}
+				}).maxBatchSize(1).lingerMillis(0).maxQueuedNotifications(2).build();
+
+		dispatcher.send(notification());
+		assertTrue(sending.await(5, TimeUnit.SECONDS));
+		dispatcher.send(notification());
+		dispatcher.send(notification());
+		CompletableFuture<PushResponse> rejected = dispatcher.send(notification());
+
+		assertTrue(rejected.isCompletedExceptionally());
+		release.countDown();
+		dispatcher.close();
+	}
+
+	@Test
+	public void shouldCompleteEachCallerWithItsOwnResult() throws Exception {
+		final String body = "[{\"messageId\":\"first\"},{\"code\":400,\"message\":\"testError\"}]";
+		PushBatchingDispatcher dispatcher = new PushBatchingDispatcher.Builder()
+				.bulkSender(new Function<Notification[], CompletableFuture<BulkResult>>() {
+
+					@Override
+					public CompletableFuture<BulkResult> apply(Notification[] notifications) {
+						return CompletableFuture
+								.completedFuture(BulkResult.parse(HttpStatus.SC_ACCEPTED, body, notifications.length));
+					}
+				}).maxBatchSize(2).lingerMillis(60000).build();
+
+		CompletableFuture<PushResponse> firstFuture = dispatcher.send(notification());
+		CompletableFuture<PushResponse> secondFuture = dispatcher.send(notification());
+		PushResponse first = firstFuture.get(5, TimeUnit.SECONDS);
+		PushResponse second = secondFuture.get(5, TimeUnit.SECONDS);
+		dispatcher.close();
+
+		assertTrue(first.isSuccess());
+		assertEquals("{\"messageId\":\"first\"}", first.getResponseBody());
+		assertFalse(second.isSuccess());
+		assertEquals(400, second.getStatusCode());
+		assertEquals("testError", second.getError());
+	}
+
+	@Test
+	public void shouldFailEveryCallerWhenBulkRequestFails() throws Exception {
+		final RuntimeException failure = new RuntimeException("testFailure");
+		PushBatchingDispatcher dispatcher = new PushBatchingDispatcher.Builder()
+				.bulkSender(new Function<Notification[], CompletableFuture<BulkResult>>() {
+
+					@Override
+					public CompletableFuture<BulkResult> apply(Notification[] notifications) {
+						return PushNotificationsClient.failedFuture(failure);
+					}
+				}).maxBatchSize(2).lingerMillis(60000).build();
+
+		CompletableFuture<PushResponse> first = dispatcher.send(notification());
+		CompletableFuture<PushResponse> second = dispatcher.send(notification());
+		for (CompletableFuture<PushResponse> future : Arrays.asList(first, second)) {
+			try {
+				future.get(5, TimeUnit.SECONDS);
+				fail("The failure of the bulk request should be reported to every caller.");
+			} catch (ExecutionException e) {
+				assertSame(failure, e.getCause());
+			}
+		}
+		dispatcher.close();
+	}
+}
@@ -0,0 +1,205 @@
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.junit.Test;
+
+import com.ibm.mobilefirstplatform.serversdk.java.push.PushCircuitBreaker.State;
+
+public class PushCircuitBreakerTest {
+
+	private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final AtomicLong now = new AtomicLong();
+	private final List<String> transitions = new ArrayList<String>();
+
+	private PushCircuitBreaker.Builder builder() {
+		return new PushCircuitBreaker.Builder().slidingWindowSize(10).minimumCalls(4).failureRateThreshold(0.5)
+				.slowCallDurationMillis(1000).openDurationMillis(5000).halfOpenCalls(2)
+				.listener(new PushCircuitBreaker.Listener() {
+
+					@Override
+					public void onStateTransition(State from, State to) {
+						transitions.add(from + "->" + to);
+					}
+				}).clock(new LongSupplier() {
+
+					@Override
+					public long getAsLong() {
+						return now.get();
+					}
+				});
+	}
+
+	private static void call(PushCircuitBreaker breaker, long durationMillis, boolean failed) {
+		assertTrue(breaker.tryAcquirePermission());
+		breaker.onResult(durationMillis * MILLIS, failed);
+	}
+
+	@Test
+	public void shouldOpenWhenFailureRateIsReached() {
+		PushCircuitBreaker breaker = builder().build();
+
+		call(breaker, 10, true);
+		call(breaker, 10, true);
+		call(breaker, 10, false);
+		assertEquals(State.CLOSED, breaker.getState());
+		call(breaker, 10, false);
+
+		assertEquals(State.OPEN, breaker.getState());
+		assertFalse(breaker.tryAcquirePermission());
+		assertEquals(1, breaker.getNotPermittedCalls());
+	}
+
+	@Test
+	public void shouldOpenWhenCallsAreSlow() {
+		PushCircuitBreaker breaker = builder().slowCallRateThreshold(0.75).build();
+
+		for (int i = 0; i < 3; i++) {
+			call(breaker, 2000, false);
+		}
+		call(breaker, 10, false);
+
+		assertEquals(State.OPEN, breaker.getState());
+		assertEquals(0.75, breaker.getSlowCallRate(), 0.001);
+	}
+
+	@Test
+	public void shouldForgetOutcomesOutsideWindow() {
+		PushCircuitBreaker breaker = builder().build();
+
+		call(breaker, 10, true);
+		for (int i = 0; i < 9; i++) {
+			call(breaker, 10, false);
+		}
+		assertEquals(0.1, breaker.getFailureRate(), 0.001);
+		call(breaker, 10, false);
+
+		assertEquals(State.CLOSED, breaker.getState());
+		assertEquals(0, breaker.getFailureRate(), 0.001);
+	}
+
+	@Test
+	public void shouldCloseAfterSuccessfulProbes() {
+		PushCircuitBreaker breaker = builder().build();
+		for (int i = 0; i < 4; i++) {
+			call(breaker, 10, true);
+		}
+
+		now.addAndGet(5000 * MILLIS);
+		assertTrue(breaker.tryAcquirePermission());
+		assertTrue(breaker.tryAcquirePermission());
+		assertFalse(breaker.tryAcquirePermission());
+		assertEquals(State.HALF_OPEN, breaker.getState());
+		breaker.onResult(10 * MILLIS, false);
+		breaker.onResult(10 * MILLIS, false);
+
+		assertEquals(State.CLOSED, breaker.getState());
+		assertEquals(0, breaker.getFailureRate(), 0.001);
+		assertEquals("[CLOSED->OPEN, OPEN->HALF_OPEN, HALF_OPEN->CLOSED]", transitions.toString());
+	}
+
+	@Test
+	public void shouldReopenWhenProbeFails() {
+		PushCircuitBreaker breaker = builder().build();
+		for (int i = 0; i < 4; i++) {
+			call(breaker, 10, true);
+		}
+
+		now.addAndGet(5000 * MILLIS);
+		call(breaker, 10, true);
+
+		assertEquals(State.OPEN, breaker.getState());
+		now.addAndGet(4999 * MILLIS);
+		assertFalse(breaker.tryAcquirePermission());
+		assertEquals("[CLOSED->OPEN, OPEN->HALF_OPEN, HALF_OPEN->OPEN]", transitions.toString());
+	}
+
+	@Test
+	public void shouldNeverOpenWhenDisabled() {
+		PushCircuitBreaker breaker = PushCircuitBreaker.disabled();
+
+		for (int i = 0; i < 100; i++) {
+			call(breaker, 60000, true);
+		}
+
+		assertEquals(State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void shouldGiveEveryClientOfBuilderItsOwnBreaker() throws IOException {
+		PushNotificationsClient.Builder builder = new PushNotificationsClient.Builder().tenantId("testTenantId")
+				.appSecret("testAppSecret").region(PushNotifications.UK_REGION);
+		PushNotificationsClient first = builder.build();
+		PushNotificationsClient second = builder.build();
+
+		assertNotNull(first.getCircuitBreaker());
+		assertNotSame(first.getCircuitBreaker(), second.getCircuitBreaker());
+		first.close();
+		second.close();
+	}
+
+	@Test
+	public void shouldCountAsyncSendsCancelledAtDeadlineAsFailures() throws Exception {
+		final CountDownLatch cancelled = new CountDownLatch(4);
+		PushTransport transport = new PushTransport() {
+
+			@Override
+			public HttpResponse execute(HttpUriRequest request) throws IOException {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public Future<HttpResponse> execute(HttpUriRequest request, final FutureCallback<HttpResponse> callback) {
+				return new CompletableFuture<HttpResponse>() {
+
+					@Override
+					public boolean cancel(boolean mayInterruptIfRunning) {
+						boolean done = super.cancel(mayInterruptIfRunning);
+						callback.cancelled();
+						cancelled.countDown();
+						return done;
+					}
+				};
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		PushCircuitBreaker breaker = builder().build();
+		PushNotificationsClient client = new PushNotificationsClient.Builder().tenantId("testTenantId")
+				.appSecret("testAppSecret").region(PushNotifications.UK_REGION).transport(transport)
+				.circuitBreaker(breaker).build();
+		PushRequestOptions options = new PushRequestOptions.Builder().deadlineMillis(20).build();
+
+		for (int i = 0; i < 4; i++) {
+			try {
+				client.sendAsync(new Notification.Builder().message(new Message.Builder().alert("testMessage").build())
+						.build(), options).get(5, TimeUnit.SECONDS);
+				fail("A send without a response should fail at its deadline.");
+			} catch (ExecutionException e) {
+				assertEquals(PushConstants.PushServerSDKExceptions.DEADLINE_EXCEEDED_EXCEPTION, e.getCause().getMessage());
+			}
+		}
+		assertTrue(cancelled.await(5, TimeUnit.SECONDS));
+
+		assertEquals(State.OPEN, breaker.getState());
+		assertEquals(1.0, breaker.getFailureRate(), 0.001);
+		client.close();
+	}
+}
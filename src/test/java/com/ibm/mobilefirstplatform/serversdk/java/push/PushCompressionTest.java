@@ -0,0 +1,103 @@
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.json.JSONArray;
+import org.junit.Test;
+
+public class PushCompressionTest {
+
+	private static byte[] body(int size) {
+		StringBuilder body = new StringBuilder("[");
+		for (int i = 0; body.length() < size; i++) {
+			body.append("{\"message\":{\"alert\":\"Notification ").append(i).append("\"}},");
+		}
+		body.setCharAt(body.length() - 1, ']');
+		return body.toString().getBytes();
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[100];
+		for (int read; (read = in.read(buffer)) != -1;) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] gunzip(byte[] compressed) throws IOException {
+		return readAll(new GZIPInputStream(new ByteArrayInputStream(compressed)));
+	}
+
+	@Test
+	public void shouldCompressOnlyBodiesFromThreshold() {
+		PushCompression compression = new PushCompression.Builder().thresholdBytes(1000).build();
+		HttpEntity small = new ByteArrayEntity(new byte[999]);
+		HttpEntity large = new ByteArrayEntity(new byte[1000]);
+		HttpEntity streamed = new BulkNotificationEntity(new Notification[] {
+				new Notification.Builder().message(new Message.Builder().alert("testMessage").build()).build() });
+
+		assertSame(small, compression.apply(small));
+		assertEquals("gzip", compression.apply(large).getContentEncoding().getValue());
+		assertEquals(-1, compression.apply(large).getContentLength());
+		assertTrue(compression.apply(streamed) instanceof GzipRequestEntity);
+		assertSame(large, PushCompression.disabled().apply(large));
+	}
+
+	@Test
+	public void shouldCompressWrittenAndReadBodies() throws Exception {
+		byte[] body = body(100000);
+		HttpEntity entity = PushCompression.defaults().apply(new ByteArrayEntity(body));
+
+		ByteArrayOutputStream written = new ByteArrayOutputStream();
+		entity.writeTo(written);
+		byte[] read = readAll(entity.getContent());
+
+		assertTrue(written.size() < body.length / 10);
+		assertArrayEquals(body, gunzip(written.toByteArray()));
+		assertArrayEquals(body, gunzip(read));
+	}
+
+	@Test
+	public void shouldCompressStreamedBulkBodies() throws Exception {
+		Notification[] notifications = new Notification[500];
+		for (int i = 0; i < notifications.length; i++) {
+			notifications[i] = new Notification.Builder()
+					.message(new Message.Builder().alert("Notification " + i).build()).build();
+		}
+		HttpEntity entity = new PushCompression.Builder().thresholdBytes(0).level(9).build()
+				.apply(new BulkNotificationEntity(notifications));
+
+		ByteArrayOutputStream written = new ByteArrayOutputStream();
+		entity.writeTo(written);
+		JSONArray json = new JSONArray(new String(gunzip(written.toByteArray()), "UTF-8"));
+
+		assertEquals(500, json.length());
+		assertEquals("Notification 499", json.getJSONObject(499).getJSONObject("message").getString("alert"));
+		assertArrayEquals(gunzip(written.toByteArray()), gunzip(readAll(entity.getContent())));
+	}
+
+	@Test
+	public void shouldRejectInvalidSettings() {
+		try {
+			new PushCompression.Builder().thresholdBytes(-1).build();
+			fail("A negative threshold should be rejected.");
+		} catch (IllegalArgumentException e) {
+			assertEquals(PushConstants.PushServerSDKExceptions.INVALID_COMPRESSION_EXCEPTION, e.getMessage());
+		}
+		try {
+			new PushCompression.Builder().level(10).build();
+			fail("A level above 9 should be rejected.");
+		} catch (IllegalArgumentException e) {
+			assertEquals(PushConstants.PushServerSDKExceptions.INVALID_COMPRESSION_EXCEPTION, e.getMessage());
+		}
+	}
+}
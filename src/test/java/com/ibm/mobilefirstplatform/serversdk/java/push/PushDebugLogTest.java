@@ -0,0 +1,85 @@
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.junit.Test;
+
+public class PushDebugLogTest {
+
+	private static class RecordingSink implements PushDebugLog.Sink {
+
+		private final boolean enabled;
+		private final List<Map<String, Object>> events = new ArrayList<Map<String, Object>>();
+
+		RecordingSink(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		@Override
+		public boolean isEnabled(Level level) {
+			return enabled;
+		}
+
+		@Override
+		public void log(Level level, String event, Map<String, Object> fields) {
+			events.add(fields);
+		}
+	}
+
+	@Test
+	public void shouldMaskCredentialsInRequests() throws Exception {
+		RecordingSink sink = new RecordingSink(true);
+		PushDebugLog log = new PushDebugLog.Builder().sink(sink).build();
+
+		HttpPost post = new HttpPost("https://example.com/messages");
+		post.addHeader(PushConstants.APPSECRET, "testAppSecret");
+		post.addHeader(PushConstants.AUTHORIZATION_HEADER, "Bearer testToken");
+		post.setEntity(new StringEntity("{\"message\":{\"alert\":\"testMessage\"}}", PushConstants.UTFEIGHT));
+
+		assertTrue(log.sample());
+		log.request("push.request", post);
+
+		Map<String, Object> fields = sink.events.get(0);
+		assertEquals("***", fields.get("header." + PushConstants.APPSECRET));
+		assertEquals("Bearer ***", fields.get("header." + PushConstants.AUTHORIZATION_HEADER));
+		assertEquals("{\"message\":{\"alert\":\"testMessage\"}}", fields.get("body"));
+		assertFalse(fields.toString().contains("testAppSecret"));
+		assertFalse(fields.toString().contains("testToken"));
+	}
+
+	@Test
+	public void shouldMaskTokensInBodies() {
+		assertEquals("{\"access_token\":\"***\",\"expiration\":1}",
+				PushDebugLog.redactBody("{\"access_token\":\"secretToken\",\"expiration\":1}"));
+		assertEquals("grant_type=urn&apikey=***", PushDebugLog.redactBody("grant_type=urn&apikey=secretKey"));
+	}
+
+	@Test
+	public void shouldNotSampleWhenSinkIsDisabled() {
+		PushDebugLog log = new PushDebugLog.Builder().sink(new RecordingSink(false)).build();
+
+		assertFalse(log.sample());
+		assertFalse(PushDebugLog.disabled().sample());
+	}
+
+	@Test
+	public void shouldNeverSampleAtRateZero() {
+		PushDebugLog log = new PushDebugLog.Builder().sink(new RecordingSink(true)).sampleRate(0).build();
+
+		for (int i = 0; i < 100; i++) {
+			assertFalse(log.sample());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectSampleRateAboveOne() {
+		new PushDebugLog.Builder().sampleRate(1.5).build();
+	}
+}
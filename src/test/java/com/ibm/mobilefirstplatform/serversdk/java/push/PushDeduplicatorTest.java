@@ -0,0 +1,281 @@
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.json.JSONArray;
+import org.junit.Test;
+
+import com.ibm.mobilefirstplatform.serversdk.java.push.exception.PushServerSDKException;
+
+public class PushDeduplicatorTest {
+
+	private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final AtomicLong now = new AtomicLong();
+
+	private PushDeduplicator.Builder builder() {
+		return new PushDeduplicator.Builder().windowMillis(1000).maxKeys(100).clock(new LongSupplier() {
+
+			@Override
+			public long getAsLong() {
+				return now.get();
+			}
+		});
+	}
+
+	private static Notification notification(String dedupKey) {
+		return new Notification.Builder().message(new Message.Builder().alert("testMessage").build())
+				.dedupKey(dedupKey).build();
+	}
+
+	@Test
+	public void shouldDropKeysSentWithinWindow() {
+		PushDeduplicator deduplicator = builder().build();
+
+		assertTrue(deduplicator.tryAcquire(notification("first")));
+		assertFalse(deduplicator.tryAcquire(notification("first")));
+		assertTrue(deduplicator.tryAcquire(notification("second")));
+		assertTrue(deduplicator.tryAcquire(notification(null)));
+		assertTrue(deduplicator.tryAcquire(notification(null)));
+
+		now.addAndGet(999 * MILLIS);
+		assertFalse(deduplicator.tryAcquire(notification("first")));
+		now.addAndGet(MILLIS);
+		assertTrue(deduplicator.tryAcquire(notification("first")));
+		assertEquals(1, deduplicator.getSize());
+	}
+
+	@Test
+	public void shouldForgetOldestKeysWhenFull() {
+		PushDeduplicator deduplicator = builder().maxKeys(2).build();
+
+		assertTrue(deduplicator.tryAcquire(notification("first")));
+		assertTrue(deduplicator.tryAcquire(notification("second")));
+		assertTrue(deduplicator.tryAcquire(notification("third")));
+
+		assertEquals(2, deduplicator.getSize());
+		assertTrue(deduplicator.tryAcquire(notification("first")));
+	}
+
+	@Test
+	public void shouldKeepKeySentAgainAfterRelease() {
+		PushDeduplicator deduplicator = builder().build();
+
+		assertTrue(deduplicator.tryAcquire(notification("first")));
+		deduplicator.release(notification("first"));
+		now.addAndGet(500 * MILLIS);
+		assertTrue(deduplicator.tryAcquire(notification("first")));
+
+		now.addAndGet(500 * MILLIS);
+		assertFalse(deduplicator.tryAcquire(notification("first")));
+	}
+
+	@Test
+	public void shouldMatchHashSetUnderRandomSendsAndReleases() {
+		PushDeduplicator deduplicator = builder().maxKeys(20000).build();
+		Set<String> held = new HashSet<String>();
+		Random random = new Random(42);
+
+		for (int i = 0; i < 20000; i++) {
+			String key = Integer.toString(random.nextInt(2000));
+			if (random.nextInt(4) == 0) {
+				deduplicator.release(notification(key));
+				held.remove(key);
+			} else {
+				assertEquals(held.add(key), deduplicator.tryAcquire(notification(key)));
+			}
+		}
+		assertEquals(held.size(), deduplicator.getSize());
+	}
+
+	@Test
+	public void shouldNeverDropWhenDisabled() {
+		PushDeduplicator deduplicator = PushDeduplicator.disabled();
+
+		for (int i = 0; i < 10; i++) {
+			assertTrue(deduplicator.tryAcquire(notification("first")));
+		}
+	}
+
+	@Test
+	public void shouldSendOnlyNotificationsThatAreNoDuplicates() throws Exception {
+		final List<Integer> sentCounts = new ArrayList<Integer>();
+		PushTransport transport = new PushTransport() {
+
+			@Override
+			public HttpResponse execute(HttpUriRequest request) throws IOException {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public Future<HttpResponse> execute(HttpUriRequest request, FutureCallback<HttpResponse> callback) {
+				HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_ACCEPTED, "Accepted");
+				try {
+					String body = EntityUtils.toString(((HttpEntityEnclosingRequestBase) request).getEntity());
+					int count = body.startsWith("[") ? new JSONArray(body).length() : 1;
+					sentCounts.add(count);
+					StringBuilder entries = new StringBuilder("[");
+					for (int i = 0; i < count; i++) {
+						entries.append(i == 0 ? "" : ",").append("{\"messageId\":\"").append(i).append("\"}");
+					}
+					response.setEntity(new StringEntity(entries.append("]").toString()));
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+				callback.completed(response);
+				return CompletableFuture.completedFuture(response);
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		PushNotificationsClient client = new PushNotificationsClient.Builder().tenantId("testTenantId")
+				.appSecret("testAppSecret").region(PushNotifications.UK_REGION).transport(transport)
+				.deduplicator(builder().build()).build();
+
+		BulkResult result = client.sendBulkAsyncWithResults(
+				new Notification[] { notification("first"), notification("first"), notification(null) }).get();
+
+		assertEquals(1, sentCounts.size());
+		assertEquals(Integer.valueOf(2), sentCounts.get(0));
+		assertTrue(result.get(0).isSuccess());
+		assertEquals(PushConstants.PushServerSDKExceptions.DUPLICATE_NOTIFICATION_EXCEPTION, result.get(1).getError());
+		assertEquals("1", result.get(2).getMessageId());
+		try {
+			client.sendAsync(notification("first")).get();
+			fail("A duplicate should not be sent.");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof PushServerSDKException);
+			assertEquals(PushConstants.PushServerSDKExceptions.DUPLICATE_NOTIFICATION_EXCEPTION,
+					e.getCause().getMessage());
+		}
+		assertEquals(1, sentCounts.size());
+		client.close();
+	}
+
+	@Test
+	public void shouldRetryServerErrorsOfNotificationsWithKeys() throws Exception {
+		final List<Integer> statusCodes = new ArrayList<Integer>();
+		PushTransport transport = new PushTransport() {
+
+			@Override
+			public HttpResponse execute(HttpUriRequest request) throws IOException {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public Future<HttpResponse> execute(HttpUriRequest request, FutureCallback<HttpResponse> callback) {
+				int statusCode = statusCodes.isEmpty() ? HttpStatus.SC_SERVICE_UNAVAILABLE : HttpStatus.SC_ACCEPTED;
+				statusCodes.add(statusCode);
+				HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, statusCode, "");
+				try {
+					response.setEntity(new StringEntity(
+							statusCode == HttpStatus.SC_ACCEPTED ? "[{\"messageId\":\"0\"},{\"messageId\":\"1\"}]" : ""));
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+				callback.completed(response);
+				return CompletableFuture.completedFuture(response);
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		PushNotificationsClient client = new PushNotificationsClient.Builder().tenantId("testTenantId")
+				.appSecret("testAppSecret").region(PushNotifications.UK_REGION).transport(transport)
+				.retryPolicy(new PushRetryPolicy.Builder().initialBackoffMillis(1).build())
+				.deduplicator(builder().build()).build();
+
+		BulkResult result = client
+				.sendBulkAsyncWithResults(new Notification[] { notification("first"), notification("second") }).get();
+
+		assertEquals(2, statusCodes.size());
+		assertEquals(Integer.valueOf(HttpStatus.SC_ACCEPTED), statusCodes.get(1));
+		assertTrue(result.get(0).isSuccess());
+		assertTrue(result.get(1).isSuccess());
+		client.close();
+	}
+
+	@Test
+	public void shouldKeepKeysFreeWhenSendFailsWithoutListener() throws Exception {
+		final List<HttpUriRequest> requests = new ArrayList<HttpUriRequest>();
+		PushTransport transport = new PushTransport() {
+
+			@Override
+			public HttpResponse execute(HttpUriRequest request) throws IOException {
+				requests.add(request);
+				return new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_ACCEPTED, "Accepted");
+			}
+
+			@Override
+			public Future<HttpResponse> execute(HttpUriRequest request, FutureCallback<HttpResponse> callback) {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		PushNotificationsClient client = new PushNotificationsClient.Builder().tenantId("testTenantId")
+				.appSecret("testAppSecret").region(PushNotifications.UK_REGION).transport(transport)
+				.deduplicator(builder().build()).build();
+
+		try {
+			client.send(notification("first"), null);
+			fail("A send without listener should fail.");
+		} catch (PushServerSDKException e) {
+			assertEquals(PushConstants.PushServerSDKExceptions.NOT_PROPERLY_INITIALIZED_EXCEPTION, e.getMessage());
+		}
+		try {
+			client.sendBulk(new Notification[] { notification("second") }, null);
+			fail("A send without listener should fail.");
+		} catch (PushServerSDKException e) {
+			assertEquals(PushConstants.PushServerSDKExceptions.NOT_PROPERLY_INITIALIZED_EXCEPTION, e.getMessage());
+		}
+		assertTrue(requests.isEmpty());
+
+		final List<Integer> statusCodes = new ArrayList<Integer>();
+		PushNotificationsResponseListener listener = new PushNotificationsResponseListener() {
+
+			@Override
+			public void onSuccess(int statusCode, String responseBody) {
+				statusCodes.add(statusCode);
+			}
+
+			@Override
+			public void onFailure(Integer statusCode, String responseBody, Throwable t) {
+				fail("The retried send should not fail: " + t);
+			}
+		};
+		client.send(notification("first"), listener);
+		client.sendBulk(new Notification[] { notification("second") }, listener);
+
+		assertEquals(2, requests.size());
+		assertEquals(2, statusCodes.size());
+		client.close();
+	}
+}
@@ -0,0 +1,35 @@
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class PushHttpClientConfigTest {
+
+	@Test
+	public void shouldPoolFiftyConnectionsAndTwentyPerRouteByDefault() {
+		PushHttpClientConfig config = PushHttpClientConfig.defaults();
+
+		assertEquals(50, config.getMaxTotalConnections());
+		assertEquals(20, config.getMaxConnectionsPerRoute());
+		assertEquals(PushHttpClientConfig.DEFAULT_KEEP_ALIVE_MILLIS, config.getKeepAliveMillis());
+		assertEquals(PushHttpClientConfig.DEFAULT_IDLE_CONNECTION_TIMEOUT_MILLIS,
+				config.getIdleConnectionTimeoutMillis());
+	}
+
+	@Test
+	public void shouldRejectPoolLimitsThatAreNotPositive() {
+		try {
+			new PushHttpClientConfig.Builder().maxTotalConnections(0).build();
+			fail("A pool without connections should be rejected.");
+		} catch (IllegalArgumentException e) {
+			assertEquals(PushConstants.PushServerSDKExceptions.INVALID_HTTP_CLIENT_CONFIG_EXCEPTION, e.getMessage());
+		}
+		try {
+			new PushHttpClientConfig.Builder().maxConnectionsPerRoute(-1).build();
+			fail("A route without connections should be rejected.");
+		} catch (IllegalArgumentException e) {
+			assertEquals(PushConstants.PushServerSDKExceptions.INVALID_HTTP_CLIENT_CONFIG_EXCEPTION, e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,210 @@
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class PushHttpClientsTest {
+
+	private final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+	private final CountDownLatch release = new CountDownLatch(1);
+	private final ExecutorService serverExecutor = Executors.newCachedThreadPool();
+	private HttpServer server;
+
+	@Before
+	public void startServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				clientPorts.add(exchange.getRemoteAddress().getPort());
+				if (exchange.getRequestURI().getPath().equals("/held")) {
+					try {
+						release.await(10, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+				exchange.sendResponseHeaders(HttpStatus.SC_OK, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		});
+		server.setExecutor(serverExecutor);
+		server.start();
+	}
+
+	@After
+	public void stopServer() {
+		release.countDown();
+		server.stop(0);
+		serverExecutor.shutdownNow();
+	}
+
+	private String url(String path) {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+	}
+
+	private static int send(CloseableHttpClient client, String url) throws IOException {
+		CloseableHttpResponse response = client.execute(new HttpGet(url));
+		try {
+			EntityUtils.consume(response.getEntity());
+			return response.getStatusLine().getStatusCode();
+		} finally {
+			response.close();
+		}
+	}
+
+	private static CloseableHttpClient createClient(PushHttpClientConfig config, PushConnectionPool pool) {
+		return PushHttpClients.createPooledClient(config, new PushRoutePlanner(PushProxyConfig.none()), pool);
+	}
+
+	@Test
+	public void shouldKeepConnectionAliveAsLongAsServerAsksOrByDefault() {
+		ConnectionKeepAliveStrategy strategy = PushHttpClients.keepAliveStrategy(30000);
+		HttpResponse withHeader = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+		withHeader.addHeader("Keep-Alive", "timeout=5, max=100");
+		HttpResponse withoutHeader = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+
+		assertEquals(5000, strategy.getKeepAliveDuration(withHeader, new BasicHttpContext()));
+		assertEquals(30000, strategy.getKeepAliveDuration(withoutHeader, new BasicHttpContext()));
+	}
+
+	@Test
+	public void shouldReuseOnePooledConnectionAcrossSends() throws Exception {
+		PushConnectionPool pool = new PushConnectionPool("test");
+		CloseableHttpClient client = createClient(PushHttpClientConfig.defaults(), pool);
+		try {
+			for (int i = 0; i < 5; i++) {
+				assertEquals(HttpStatus.SC_OK, send(client, url("/")));
+			}
+
+			assertEquals(1, clientPorts.size());
+			assertEquals(1, pool.getAvailable());
+			assertEquals(0, pool.getLeased());
+			assertEquals(PushHttpClientConfig.DEFAULT_MAX_TOTAL_CONNECTIONS, pool.getMax());
+		} finally {
+			client.close();
+		}
+	}
+
+	@Test
+	public void shouldQueueSendsBeyondConnectionsPerRoute() throws Exception {
+		PushConnectionPool pool = new PushConnectionPool("test");
+		final CloseableHttpClient client = createClient(
+				new PushHttpClientConfig.Builder().maxTotalConnections(10).maxConnectionsPerRoute(1).build(), pool);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<Integer> held = executor.submit(new Callable<Integer>() {
+
+				@Override
+				public Integer call() throws IOException {
+					return send(client, url("/held"));
+				}
+			});
+			long deadline = System.currentTimeMillis() + 5000;
+			while (pool.getLeased() == 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			Future<Integer> queued = executor.submit(new Callable<Integer>() {
+
+				@Override
+				public Integer call() throws IOException {
+					return send(client, url("/"));
+				}
+			});
+			while (pool.getPending() == 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+
+			assertEquals(1, pool.getLeased());
+			assertEquals(1, pool.getPending());
+			release.countDown();
+			assertEquals(Integer.valueOf(HttpStatus.SC_OK), held.get(5, TimeUnit.SECONDS));
+			assertEquals(Integer.valueOf(HttpStatus.SC_OK), queued.get(5, TimeUnit.SECONDS));
+			assertEquals(1, clientPorts.size());
+		} finally {
+			executor.shutdownNow();
+			client.close();
+		}
+	}
+
+	@Test
+	public void shouldEvictIdleConnections() throws Exception {
+		PushConnectionPool pool = new PushConnectionPool("test");
+		CloseableHttpClient client = createClient(
+				new PushHttpClientConfig.Builder().idleConnectionTimeoutMillis(100).build(), pool);
+		try {
+			assertEquals(HttpStatus.SC_OK, send(client, url("/")));
+			assertEquals(1, pool.getAvailable());
+
+			long deadline = System.currentTimeMillis() + 5000;
+			while (pool.getAvailable() > 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(20);
+			}
+
+			assertEquals(0, pool.getAvailable());
+		} finally {
+			client.close();
+		}
+	}
+
+	@Test
+	public void shouldEvictIdleConnectionsOfAsyncClient() throws Exception {
+		PushConnectionPool pool = new PushConnectionPool("test");
+		CloseableHttpAsyncClient client = PushHttpClients.createPooledAsyncClient(
+				new PushHttpClientConfig.Builder().idleConnectionTimeoutMillis(100).build(),
+				new PushRoutePlanner(PushProxyConfig.none()), pool);
+		try {
+			HttpResponse response = client.execute(new HttpGet(url("/")), null).get(5, TimeUnit.SECONDS);
+			assertEquals(HttpStatus.SC_OK, response.getStatusLine().getStatusCode());
+			long deadline = System.currentTimeMillis() + 5000;
+			while (pool.getAvailable() == 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertEquals(1, pool.getAvailable());
+
+			while (pool.getAvailable() > 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(20);
+			}
+
+			assertEquals(0, pool.getAvailable());
+		} finally {
+			client.close();
+		}
+	}
+}
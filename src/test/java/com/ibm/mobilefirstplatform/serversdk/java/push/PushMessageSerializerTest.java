@@ -0,0 +1,81 @@
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import static org.junit.Assert.*;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class PushMessageSerializerTest {
+
+	private static Notification notification(String alert) {
+		FCM fcm = new FCM.Builder().collapseKey("testCollapseKey").build();
+		Settings settings = new Settings.Builder().fcm(fcm).build();
+		Target target = new Target.Builder().deviceIds(new String[] { "testDeviceId" }).build();
+		return new Notification.Builder().message(new Message.Builder().alert(alert).build()).settings(settings)
+				.target(target).build();
+	}
+
+	@Test
+	public void shouldWriteFcmSettingsAsGcm() throws Exception {
+		JSONObject json = new JSONObject(
+				new String(PushMessageSerializer.writeNotification(notification("testMessage")), "UTF-8"));
+
+		JSONObject settings = json.getJSONObject("settings");
+		assertTrue(settings.has("gcm"));
+		assertFalse(settings.has("fcm"));
+		assertEquals("testCollapseKey", settings.getJSONObject("gcm").getString("collapseKey"));
+		assertEquals("testMessage", json.getJSONObject("message").getString("alert"));
+		assertEquals("testDeviceId", json.getJSONObject("target").getJSONArray("deviceIds").getString(0));
+	}
+
+	@Test
+	public void shouldOmitEmptyFields() throws Exception {
+		Notification notification = new Notification.Builder()
+				.message(new Message.Builder().alert("testMessage").build()).build();
+
+		String json = new String(PushMessageSerializer.writeNotification(notification), "UTF-8");
+
+		assertEquals("{\"message\":{\"alert\":\"testMessage\"}}", json);
+	}
+
+	@Test
+	public void shouldWriteSameJsonAsGenerateJSON() throws Exception {
+		Notification notification = notification("testMessage");
+
+		JSONObject written = new JSONObject(new String(PushMessageSerializer.writeNotification(notification), "UTF-8"));
+		JSONObject generated = PushNotificationsClient.generateJSON(PushMessageSerializer.toModel(notification));
+
+		assertTrue(written.similar(generated));
+	}
+
+	@Test
+	public void shouldWriteBulkNotificationsAsArray() throws Exception {
+		JSONArray json = new JSONArray(new String(PushMessageSerializer
+				.writeNotifications(new Notification[] { notification("first"), notification("second") }), "UTF-8"));
+
+		assertEquals(2, json.length());
+		assertEquals("first", json.getJSONObject(0).getJSONObject("message").getString("alert"));
+		assertEquals("second", json.getJSONObject(1).getJSONObject("message").getString("alert"));
+	}
+
+	@Test
+	public void shouldKeepKeyAndIdempotencyInSpoolRecord() throws Exception {
+		Notification collapsible = notification("testMessage");
+		byte[] json = PushMessageSerializer.writeNotification(collapsible);
+
+		Notification replayed = PushMessageSerializer.readRecord(
+				PushMessageSerializer.writeRecord(collapsible.withDedupKey("testKey"), json, 8), 8);
+		Notification plain = PushMessageSerializer.readRecord(PushMessageSerializer.writeRecord(
+				new Notification.Builder().message(new Message.Builder().alert("testMessage").build()).build(), json,
+				0), 0);
+
+		assertEquals("testKey", replayed.getDedupKey());
+		assertTrue(replayed.isIdempotent());
+		assertEquals(new String(json, "UTF-8"), new String(replayed.getJson(), "UTF-8"));
+		assertNull(plain.getDedupKey());
+		assertFalse(PushRetryPolicy.isIdempotent(plain));
+		assertEquals(new String(json, "UTF-8"),
+				new String(PushMessageSerializer.readRecord(json, 0).getJson(), "UTF-8"));
+	}
+}
@@ -0,0 +1,126 @@
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayOutputStream;
+
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicStatusLine;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.codahale.metrics.MetricRegistry;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class PushMetricsTest {
+
+	private static CloseableHttpResponse response(int statusCode) {
+		CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+		when(response.getStatusLine()).thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, statusCode, "reason"));
+		return response;
+	}
+
+	private static Notification notification(String alert) {
+		return new Notification.Builder().message(new Message.Builder().alert(alert).build()).build();
+	}
+
+	@Test
+	public void shouldRecordRequestsRetriesAndPayloads() throws Exception {
+		CloseableHttpResponse throttled = response(PushConstants.TOO_MANY_REQUESTS);
+		when(throttled.getFirstHeader(PushConstants.RETRY_AFTER_HEADER))
+				.thenReturn(new BasicHeader(PushConstants.RETRY_AFTER_HEADER, "0"));
+		CloseableHttpResponse accepted = response(HttpStatus.SC_ACCEPTED);
+		CloseableHttpClient httpClient = mock(CloseableHttpClient.class);
+		when(httpClient.execute(any(HttpUriRequest.class))).thenReturn(throttled, accepted);
+		MeterRegistry registry = new SimpleMeterRegistry();
+		PushNotificationsClient client = new PushNotificationsClient.Builder().tenantId("testTenantId")
+				.appSecret("testAppSecret").region(PushNotifications.UK_REGION).httpClient(httpClient)
+				.metrics(new MicrometerPushMetrics(registry)).build();
+
+		client.send(notification("testMessage"), mock(PushNotificationsResponseListener.class));
+
+		assertEquals(1, registry.get("push.requests").tags("endpoint", "single", "status", "429").timer().count());
+		assertEquals(1, registry.get("push.requests").tags("endpoint", "single", "status", "202").timer().count());
+		assertEquals(1, registry.get("push.retries").tag("endpoint", "single").counter().count(), 0);
+		assertEquals(1, registry.get("push.payload.size").tag("endpoint", "single").summary().count());
+		assertEquals(PushMessageSerializer.writeNotification(notification("testMessage")).length,
+				registry.get("push.payload.size").tag("endpoint", "single").summary().totalAmount(), 0);
+	}
+
+	@Test
+	public void shouldRecordStreamedBulkPayloadOnce() throws Exception {
+		final ByteArrayOutputStream written = new ByteArrayOutputStream();
+		CloseableHttpClient httpClient = mock(CloseableHttpClient.class);
+		when(httpClient.execute(any(HttpUriRequest.class))).thenAnswer(new Answer<CloseableHttpResponse>() {
+			@Override
+			public CloseableHttpResponse answer(InvocationOnMock invocation) throws Throwable {
+				written.reset();
+				((HttpEntityEnclosingRequest) invocation.getArguments()[0]).getEntity().writeTo(written);
+				return response(HttpStatus.SC_SERVICE_UNAVAILABLE);
+			}
+		});
+		MetricRegistry registry = new MetricRegistry();
+		PushNotificationsClient client = new PushNotificationsClient.Builder().tenantId("testTenantId")
+				.appSecret("testAppSecret").region(PushNotifications.UK_REGION).httpClient(httpClient)
+				.retryPolicy(new PushRetryPolicy.Builder().maxAttempts(3).initialBackoffMillis(1).build())
+				.circuitBreaker(PushCircuitBreaker.disabled()).metrics(new DropwizardPushMetrics(registry)).build();
+
+		client.sendBulk(new Notification[] { notification("first"), notification("second") },
+				mock(PushNotificationsResponseListener.class));
+
+		verify(httpClient, atLeast(1)).execute(any(HttpUriRequest.class));
+		assertEquals(1, registry.histogram("push.payload.size.bulk").getCount());
+		assertEquals(written.size(), registry.histogram("push.payload.size.bulk").getSnapshot().getMax());
+		assertEquals(registry.timer("push.requests.bulk").getCount(),
+				registry.meter("push.responses.bulk.503").getCount());
+	}
+
+	@Test
+	public void shouldRecordTokenRefreshes() throws Exception {
+		CloseableHttpResponse tokenResponse = response(HttpStatus.SC_OK);
+		when(tokenResponse.getEntity()).thenReturn(new StringEntity("{\"access_token\":\"testToken\",\"expiration\":"
+				+ (System.currentTimeMillis() / 1000 + 3600) + "}"));
+		CloseableHttpClient iamClient = mock(CloseableHttpClient.class);
+		when(iamClient.execute(any(HttpUriRequest.class))).thenReturn(tokenResponse);
+		MeterRegistry registry = new SimpleMeterRegistry();
+		IamTokenManager tokenManager = new IamTokenManager("https://iam.example.com/identity/token", "testApiKey",
+				iamClient, PushDebugLog.disabled(), PushRetryPolicy.none(), new MicrometerPushMetrics(registry));
+
+		assertEquals("testToken", tokenManager.getToken());
+		tokenManager.close();
+
+		assertEquals(1, registry.get("push.token.refresh").tag("outcome", "success").timer().count());
+		assertEquals(1, registry.get("push.requests").tags("endpoint", "iam", "status", "200").timer().count());
+	}
+
+	@Test
+	public void shouldAddUpConnectionPoolsOfSameName() throws Exception {
+		MeterRegistry registry = new SimpleMeterRegistry();
+		PushMetrics metrics = new MicrometerPushMetrics(registry);
+		PushHttpClientConfig config = new PushHttpClientConfig.Builder().maxTotalConnections(10).build();
+		PushNotificationsClient first = new PushNotificationsClient.Builder().tenantId("first")
+				.appSecret("testAppSecret").region(PushNotifications.UK_REGION).httpClientConfig(config)
+				.metrics(metrics).build();
+		PushNotificationsClient second = new PushNotificationsClient.Builder().tenantId("second")
+				.appSecret("testAppSecret").region(PushNotifications.UK_REGION).httpClientConfig(config)
+				.metrics(metrics).build();
+
+		assertEquals(20, registry.get("push.connections.max").tag("pool", "push").gauge().value(), 0);
+		assertEquals(0, registry.get("push.connections.leased").tag("pool", "push").gauge().value(), 0);
+		assertEquals(0, registry.get("push.connections.max").tag("pool", "push-async").gauge().value(), 0);
+		first.close();
+		assertEquals(10, registry.get("push.connections.max").tag("pool", "push").gauge().value(), 0);
+		second.close();
+	}
+}
@@ -0,0 +1,284 @@
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.ibm.mobilefirstplatform.serversdk.java.push.exception.PushServerSDKException;
+
+public class PushNotificationsClientTest {
+
+	@Test
+	public void shouldBuildEndpointURLFromTenantAndRegion() {
+		PushNotificationsClient client = new PushNotificationsClient.Builder().tenantId("testTenantId")
+				.appSecret("testAppSecret").region(PushNotifications.US_SOUTH_REGION)
+				.httpClient(mock(CloseableHttpClient.class)).build();
+
+		assertEquals("https://eu-de.imfpush" + PushNotifications.US_SOUTH_REGION + ":/imfpush/v1/apps/testTenantId/messages",
+				client.getPushMessageEndpointURL());
+	}
+
+	@Test
+	public void shouldTakeIamTokenUrlFromIamServerHost() {
+		assertEquals("http://127.0.0.1:8080/identity/token",
+				PushNotificationsClient.createIamTokenUrl("http://127.0.0.1:8080", PushNotifications.UK_REGION));
+		assertEquals("https://iam" + PushNotifications.UK_REGION + "/identity/token",
+				PushNotificationsClient.createIamTokenUrl(null, PushNotifications.UK_REGION));
+	}
+
+	@Test
+	public void shouldKeepCredentialsOfEachClientSeparate() {
+		CloseableHttpClient sharedClient = mock(CloseableHttpClient.class);
+		PushNotificationsClient first = new PushNotificationsClient.Builder().tenantId("first").appSecret("firstSecret")
+				.serverHost("https://first.example.com").httpClient(sharedClient).build();
+		PushNotificationsClient second = new PushNotificationsClient.Builder().tenantId("second")
+				.appSecret("secondSecret").serverHost("https://second.example.com").httpClient(sharedClient).build();
+
+		HttpPost firstPost = first.createPushPostRequest(new JSONObject(), null);
+		HttpPost secondPost = second.createPushPostRequest(new JSONObject(), null);
+
+		assertEquals("firstSecret", firstPost.getFirstHeader("appSecret").getValue());
+		assertEquals("secondSecret", secondPost.getFirstHeader("appSecret").getValue());
+		assertTrue(firstPost.getURI().toString().startsWith("https://first.example.com"));
+		assertTrue(secondPost.getURI().toString().startsWith("https://second.example.com"));
+	}
+
+	@Test
+	public void shouldShareHeadersAndEndpointBetweenRequests() {
+		PushNotificationsClient client = new PushNotificationsClient.Builder().tenantId("testTenantId")
+				.appSecret("testAppSecret").region(PushNotifications.UK_REGION)
+				.httpClient(mock(CloseableHttpClient.class)).build();
+
+		HttpPost first = client.createPushPostRequest(new JSONObject(), null);
+		HttpPost second = client.createPushPostRequest(new JSONObject(), null);
+
+		assertSame(first.getURI(), second.getURI());
+		assertSame(first.getFirstHeader("appSecret"), second.getFirstHeader("appSecret"));
+		assertSame(first.getFirstHeader("User-Agent"), second.getFirstHeader("User-Agent"));
+		assertEquals(1, first.getHeaders("Content-Type").length);
+
+		Header authorization = client.authorizationHeader("firstToken");
+		assertEquals("Bearer firstToken", authorization.getValue());
+		assertSame(authorization, client.authorizationHeader(new String("firstToken")));
+		assertEquals("Bearer secondToken", client.authorizationHeader("secondToken").getValue());
+	}
+
+	@Test
+	public void shouldNotCloseSharedHttpClient() throws Exception {
+		CloseableHttpClient sharedClient = mock(CloseableHttpClient.class);
+		PushNotificationsClient client = new PushNotificationsClient.Builder().tenantId("testTenantId")
+				.appSecret("testAppSecret").region(PushNotifications.UK_REGION).httpClient(sharedClient).build();
+
+		client.close();
+
+		verify(sharedClient, never()).close();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRequireCredentials() {
+		new PushNotificationsClient.Builder().tenantId("testTenantId").region(PushNotifications.UK_REGION).build();
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void shouldCompleteFutureWithResponseWhenSendingAsync() throws Exception {
+		final HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_ACCEPTED, "Accepted");
+		response.setEntity(new StringEntity("{\"messageId\":\"1\"}"));
+
+		CloseableHttpAsyncClient asyncClient = mock(CloseableHttpAsyncClient.class);
+		when(asyncClient.execute(any(HttpUriRequest.class), any(FutureCallback.class)))
+				.thenAnswer(new Answer<Object>() {
+					@Override
+					public Object answer(InvocationOnMock invocation) {
+						((FutureCallback<HttpResponse>) invocation.getArguments()[1]).completed(response);
+						return null;
+					}
+				});
+
+		PushNotificationsClient client = new PushNotificationsClient.Builder().tenantId("testTenantId")
+				.appSecret("testAppSecret").region(PushNotifications.UK_REGION)
+				.httpClient(mock(CloseableHttpClient.class)).asyncHttpClient(asyncClient).build();
+
+		Notification notification = new Notification.Builder()
+				.message(new Message.Builder().alert("testMessage").build()).build();
+		PushResponse pushResponse = client.sendAsync(notification).get();
+
+		assertTrue(pushResponse.isSuccess());
+		assertEquals("{\"messageId\":\"1\"}", pushResponse.getResponseBody());
+	}
+
+	@Test
+	public void shouldFailFutureWhenSendingNullNotificationAsync() throws InterruptedException {
+		PushNotificationsClient client = new PushNotificationsClient.Builder().tenantId("testTenantId")
+				.appSecret("testAppSecret").region(PushNotifications.UK_REGION)
+				.httpClient(mock(CloseableHttpClient.class)).build();
+
+		CompletableFuture<PushResponse> future = client.sendAsync(null);
+		try {
+			future.get();
+			fail("Sending a null notification should fail.");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+	}
+
+	@Test
+	public void shouldRetryTooManyRequestsAfterRetryAfter() throws Exception {
+		CloseableHttpResponse throttled = mock(CloseableHttpResponse.class);
+		when(throttled.getStatusLine()).thenReturn(
+				new BasicStatusLine(HttpVersion.HTTP_1_1, PushConstants.TOO_MANY_REQUESTS, "Too Many Requests"));
+		when(throttled.getFirstHeader(PushConstants.RETRY_AFTER_HEADER))
+				.thenReturn(new BasicHeader(PushConstants.RETRY_AFTER_HEADER, "0"));
+		CloseableHttpResponse accepted = mock(CloseableHttpResponse.class);
+		when(accepted.getStatusLine())
+				.thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, HttpStatus.SC_ACCEPTED, "Accepted"));
+
+		CloseableHttpClient httpClient = mock(CloseableHttpClient.class);
+		when(httpClient.execute(any(HttpUriRequest.class))).thenReturn(throttled, accepted);
+		PushNotificationsClient client = new PushNotificationsClient.Builder().tenantId("testTenantId")
+				.appSecret("testAppSecret").region(PushNotifications.UK_REGION).httpClient(httpClient).build();
+
+		PushNotificationsResponseListener listener = mock(PushNotificationsResponseListener.class);
+		client.send(new Notification.Builder().message(new Message.Builder().alert("testMessage").build()).build(),
+				listener);
+
+		verify(httpClient, times(2)).execute(any(HttpUriRequest.class));
+		verify(listener).onSuccess(HttpStatus.SC_ACCEPTED, null);
+		verify(listener, never()).onFailure(anyInt(), anyString(), any(Throwable.class));
+	}
+
+	@Test
+	public void shouldApplyTimeoutsOfCallToRequest() throws Exception {
+		CloseableHttpResponse accepted = mock(CloseableHttpResponse.class);
+		when(accepted.getStatusLine())
+				.thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, HttpStatus.SC_ACCEPTED, "Accepted"));
+		CloseableHttpClient httpClient = mock(CloseableHttpClient.class);
+		when(httpClient.execute(any(HttpUriRequest.class))).thenReturn(accepted);
+		PushNotificationsClient client = new PushNotificationsClient.Builder().tenantId("testTenantId")
+				.appSecret("testAppSecret").region(PushNotifications.UK_REGION).httpClient(httpClient)
+				.requestOptions(new PushRequestOptions.Builder().connectTimeoutMillis(1000).build()).build();
+
+		client.send(new Notification.Builder().message(new Message.Builder().alert("testMessage").build()).build(),
+				new PushRequestOptions.Builder(client.getRequestOptions()).socketTimeoutMillis(2000).build(),
+				mock(PushNotificationsResponseListener.class));
+
+		ArgumentCaptor<HttpUriRequest> request = ArgumentCaptor.forClass(HttpUriRequest.class);
+		verify(httpClient).execute(request.capture());
+		assertEquals(1000, ((HttpRequestBase) request.getValue()).getConfig().getConnectTimeout());
+		assertEquals(2000, ((HttpRequestBase) request.getValue()).getConfig().getSocketTimeout());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void shouldFailAsyncSendAfterDeadline() throws Exception {
+		final Future<HttpResponse> inFlight = mock(Future.class);
+		CloseableHttpAsyncClient asyncClient = mock(CloseableHttpAsyncClient.class);
+		when(asyncClient.execute(any(HttpUriRequest.class), any(FutureCallback.class))).thenReturn(inFlight);
+		PushNotificationsClient client = new PushNotificationsClient.Builder().tenantId("testTenantId")
+				.appSecret("testAppSecret").region(PushNotifications.UK_REGION)
+				.httpClient(mock(CloseableHttpClient.class)).asyncHttpClient(asyncClient).build();
+
+		CompletableFuture<PushResponse> future = client.sendAsync(
+				new Notification.Builder().message(new Message.Builder().alert("testMessage").build()).build(),
+				new PushRequestOptions.Builder().deadlineMillis(50).build());
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			fail("A send without a response should fail at its deadline.");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof PushServerSDKException);
+			assertEquals(PushConstants.PushServerSDKExceptions.DEADLINE_EXCEEDED_EXCEPTION, e.getCause().getMessage());
+		}
+		verify(inFlight, timeout(1000)).cancel(true);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void shouldFailAsyncSendAfterClose() throws Exception {
+		final HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_ACCEPTED, "Accepted");
+		CloseableHttpAsyncClient asyncClient = mock(CloseableHttpAsyncClient.class);
+		when(asyncClient.execute(any(HttpUriRequest.class), any(FutureCallback.class)))
+				.thenAnswer(new Answer<Object>() {
+					@Override
+					public Object answer(InvocationOnMock invocation) {
+						((FutureCallback<HttpResponse>) invocation.getArguments()[1]).completed(response);
+						return null;
+					}
+				});
+		PushNotificationsClient client = new PushNotificationsClient.Builder().tenantId("testTenantId")
+				.appSecret("testAppSecret").region(PushNotifications.UK_REGION)
+				.httpClient(mock(CloseableHttpClient.class)).asyncHttpClient(asyncClient).build();
+		Notification notification = new Notification.Builder()
+				.message(new Message.Builder().alert("testMessage").build()).build();
+		assertTrue(client.sendAsync(notification).get(5, TimeUnit.SECONDS).isSuccess());
+
+		client.close();
+
+		try {
+			client.sendAsync(notification).get(5, TimeUnit.SECONDS);
+			fail("A send after close should fail.");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+			assertEquals(PushConstants.PushServerSDKExceptions.CLIENT_CLOSED_EXCEPTION, e.getCause().getMessage());
+		}
+		try {
+			client.sendBulkAsync(new Notification[] { notification }).get(5, TimeUnit.SECONDS);
+			fail("A bulk send after close should fail.");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		verify(asyncClient, times(1)).execute(any(HttpUriRequest.class), any(FutureCallback.class));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void shouldFailAsyncSendAndReleasePermitWhenTransportThrows() throws Exception {
+		CloseableHttpAsyncClient asyncClient = mock(CloseableHttpAsyncClient.class);
+		when(asyncClient.execute(any(HttpUriRequest.class), any(FutureCallback.class)))
+				.thenThrow(new IllegalStateException("Request cannot be executed; I/O reactor status: STOPPED"));
+		PushCircuitBreaker breaker = new PushCircuitBreaker.Builder().slidingWindowSize(10).minimumCalls(10)
+				.halfOpenCalls(1).build();
+		PushNotificationsClient client = new PushNotificationsClient.Builder().tenantId("testTenantId")
+				.appSecret("testAppSecret").region(PushNotifications.UK_REGION)
+				.httpClient(mock(CloseableHttpClient.class)).asyncHttpClient(asyncClient).circuitBreaker(breaker)
+				.build();
+		Notification notification = new Notification.Builder()
+				.message(new Message.Builder().alert("testMessage").build()).build();
+
+		for (int i = 0; i < 10; i++) {
+			try {
+				client.sendAsync(notification).get(5, TimeUnit.SECONDS);
+				fail("A send through a transport that throws should fail.");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof IllegalStateException);
+			}
+		}
+
+		assertEquals(PushCircuitBreaker.State.OPEN, breaker.getState());
+		assertEquals(1.0, breaker.getFailureRate(), 0.001);
+	}
+}
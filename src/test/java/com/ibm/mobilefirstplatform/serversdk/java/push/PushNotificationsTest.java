@@ -5,25 +5,40 @@ import static org.mockito.Mockito.*;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
 import org.apache.http.ProtocolVersion;
 import org.apache.http.StatusLine;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicHttpResponse;
 import org.apache.http.protocol.HTTP;
 import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
 public class PushNotificationsTest {
 	@Before
 	public void cleanup() {
@@ -259,4 +274,95 @@ public class PushNotificationsTest {
 			}
 		});
 	}
+
+	@Test
+	public void shouldKeepReplacedDefaultClientOpenUntilItsSendsComplete() throws Exception {
+		final CountDownLatch fetchingToken = new CountDownLatch(1);
+		final CountDownLatch releaseToken = new CountDownLatch(1);
+		HttpServer iamServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		iamServer.createContext(PushConstants.IAM_TOKEN_PATH, new HttpHandler() {
+
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				fetchingToken.countDown();
+				try {
+					releaseToken.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				JSONObject token = new JSONObject();
+				token.put(PushConstants.ACCESS_TOKEN, "testToken");
+				token.put("expires_in", 3600);
+				token.put(PushConstants.EXPIRATION, TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + 3600);
+				byte[] body = token.toString().getBytes(StandardCharsets.UTF_8);
+				exchange.sendResponseHeaders(HttpStatus.SC_OK, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		});
+		iamServer.start();
+		PushNotifications.setTransport(new PushTransport() {
+
+			@Override
+			public HttpResponse execute(HttpUriRequest request) {
+				return new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_ACCEPTED, "Accepted");
+			}
+
+			@Override
+			public Future<HttpResponse> execute(HttpUriRequest request, FutureCallback<HttpResponse> callback) {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public void close() {
+			}
+		});
+		PushNotifications.overrideIamServerHost = "http://127.0.0.1:" + iamServer.getAddress().getPort();
+		try {
+			PushNotifications.initWithApiKey("testTenantId", "testApiKey", PushNotifications.US_SOUTH_REGION);
+			final AtomicReference<Object> result = new AtomicReference<Object>();
+			Thread sender = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						PushNotifications.send(
+								new Notification.Builder().message(new Message.Builder().alert("testMessage").build())
+										.build(),
+								new PushNotificationsResponseListener() {
+
+									@Override
+									public void onSuccess(int statusCode, String responseBody) {
+										result.set(statusCode);
+									}
+
+									@Override
+									public void onFailure(Integer statusCode, String responseBody, Throwable t) {
+										result.set(t);
+									}
+								});
+					} catch (Exception e) {
+						result.set(e);
+					}
+				}
+			});
+			sender.start();
+			assertTrue(fetchingToken.await(10, TimeUnit.SECONDS));
+
+			// Replaces the default client while the send waits for its token.
+			PushNotifications.setDebugLog(PushDebugLog.defaults());
+			releaseToken.countDown();
+			sender.join(TimeUnit.SECONDS.toMillis(10));
+
+			assertEquals(HttpStatus.SC_ACCEPTED, result.get());
+		} finally {
+			releaseToken.countDown();
+			iamServer.stop(0);
+			PushNotifications.setTransport(null);
+			PushNotifications.overrideIamServerHost = null;
+			PushNotifications.iamServerHost = null;
+			PushNotifications.apiKeyIdIs = null;
+		}
+	}
 }
@@ -0,0 +1,124 @@
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.apache.http.HttpStatus;
+import org.junit.Test;
+
+import com.ibm.mobilefirstplatform.serversdk.java.push.PushPriorityDispatcher.Lane;
+import com.ibm.mobilefirstplatform.serversdk.java.push.PushPriorityDispatcher.Priority;
+
+public class PushPriorityDispatcherTest {
+
+	private static final class Call {
+		private final Notification[] notifications;
+		private final CompletableFuture<BulkResult> result = new CompletableFuture<BulkResult>();
+
+		Call(Notification[] notifications) {
+			this.notifications = notifications;
+		}
+
+		void accept() {
+			result.complete(BulkResult.parse(HttpStatus.SC_ACCEPTED, null, notifications.length));
+		}
+	}
+
+	private static class PendingSender implements Function<Notification[], CompletableFuture<BulkResult>> {
+
+		private final BlockingQueue<Call> calls = new LinkedBlockingQueue<Call>();
+
+		@Override
+		public CompletableFuture<BulkResult> apply(Notification[] notifications) {
+			Call call = new Call(notifications);
+			calls.add(call);
+			return call.result;
+		}
+
+		Call next() throws InterruptedException {
+			Call call = calls.poll(5, TimeUnit.SECONDS);
+			assertNotNull("A batch should have been sent.", call);
+			return call;
+		}
+	}
+
+	private static Notification notification(String alert) {
+		return new Notification.Builder().message(new Message.Builder().alert(alert).build()).build();
+	}
+
+	@Test
+	public void shouldSendHighPriorityWhileLowPriorityIsQueued() throws Exception {
+		PendingSender sender = new PendingSender();
+		PushPriorityDispatcher dispatcher = new PushPriorityDispatcher.Builder().bulkSender(sender)
+				.lane(Priority.LOW, new Lane.Builder().maxConcurrency(1).maxBatchSize(2).build()).build();
+
+		Notification[] campaign = new Notification[4];
+		for (int i = 0; i < campaign.length; i++) {
+			campaign[i] = notification("campaign");
+			dispatcher.send(campaign[i], Priority.LOW);
+		}
+		// The first batch may leave before the rest of the campaign is queued.
+		Call firstCampaignBatch = sender.next();
+		int queued = campaign.length - firstCampaignBatch.notifications.length;
+		assertEquals(queued, dispatcher.getQueuedNotifications(Priority.LOW));
+
+		Notification otp = notification("otp");
+		CompletableFuture<PushResponse> otpResponse = dispatcher.send(otp, Priority.HIGH);
+		Call otpBatch = sender.next();
+		assertSame(otp, otpBatch.notifications[0]);
+		otpBatch.accept();
+		assertTrue(otpResponse.get(5, TimeUnit.SECONDS).isSuccess());
+		assertEquals(queued, dispatcher.getQueuedNotifications(Priority.LOW));
+
+		firstCampaignBatch.accept();
+		Call secondCampaignBatch = sender.next();
+		assertSame(campaign[firstCampaignBatch.notifications.length], secondCampaignBatch.notifications[0]);
+		secondCampaignBatch.accept();
+		dispatcher.close();
+	}
+
+	@Test
+	public void shouldHoldBackOnlyTheRateLimitedLane() throws Exception {
+		PendingSender sender = new PendingSender();
+		PushPriorityDispatcher dispatcher = new PushPriorityDispatcher.Builder().bulkSender(sender)
+				.lane(Priority.LOW, new Lane.Builder().maxBatchSize(1)
+						.rateLimiter(new PushRateLimiter.Builder().permitsPerSecond(2).burst(1).build()).build())
+				.build();
+
+		dispatcher.send(notification("first"), Priority.LOW);
+		sender.next().accept();
+		Notification delayed = notification("second");
+		dispatcher.send(delayed, Priority.LOW);
+		Notification otp = notification("otp");
+		dispatcher.send(otp, Priority.NORMAL);
+
+		Call call = sender.next();
+		assertSame(otp, call.notifications[0]);
+		call.accept();
+		call = sender.next();
+		assertSame(delayed, call.notifications[0]);
+		call.accept();
+		dispatcher.close();
+	}
+
+	@Test
+	public void shouldDeriveLaneFromFcmPriority() {
+		Notification high = new Notification.Builder().message(new Message.Builder().alert("testMessage").build())
+				.settings(new Settings.Builder()
+						.fcm(new FCM.Builder().priority(FCM.Builder.FCMPriority.MAX).build()).build())
+				.build();
+		Notification low = new Notification.Builder().message(new Message.Builder().alert("testMessage").build())
+				.settings(new Settings.Builder()
+						.fcm(new FCM.Builder().priority(FCM.Builder.FCMPriority.MIN).build()).build())
+				.build();
+
+		assertEquals(Priority.HIGH, Priority.of(high));
+		assertEquals(Priority.LOW, Priority.of(low));
+		assertEquals(Priority.NORMAL, Priority.of(notification("testMessage")));
+	}
+}
@@ -0,0 +1,55 @@
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import static org.junit.Assert.*;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.protocol.BasicHttpContext;
+import org.junit.After;
+import org.junit.Test;
+
+public class PushProxyConfigTest {
+
+	private static final HttpHost TARGET = new HttpHost("imfpush.example.com", 443, "https");
+
+	@After
+	public void clearProxyProperties() {
+		System.clearProperty(PushProxyConfig.PROXY_HOST_PROPERTY);
+		System.clearProperty(PushProxyConfig.PROXY_PORT_PROPERTY);
+	}
+
+	@Test
+	public void shouldResolveProxyFromSystemProperties() {
+		System.setProperty(PushProxyConfig.PROXY_HOST_PROPERTY, "proxy.example.com");
+		System.setProperty(PushProxyConfig.PROXY_PORT_PROPERTY, "3128");
+
+		HttpHost proxy = PushProxyConfig.fromSystemProperties().getProxy();
+
+		assertEquals("proxy.example.com", proxy.getHostName());
+		assertEquals(3128, proxy.getPort());
+		assertEquals("http", proxy.getSchemeName());
+	}
+
+	@Test
+	public void shouldConnectDirectlyWithoutProxyHost() {
+		System.setProperty(PushProxyConfig.PROXY_PORT_PROPERTY, "3128");
+
+		assertNull(PushProxyConfig.fromSystemProperties().getProxy());
+	}
+
+	@Test
+	public void shouldRouteThroughCurrentProxy() throws Exception {
+		PushRoutePlanner planner = new PushRoutePlanner(PushProxyConfig.none());
+		HttpPost post = new HttpPost("https://imfpush.example.com/imfpush/v1/apps/testTenantId/messages");
+
+		HttpRoute direct = planner.determineRoute(TARGET, post, new BasicHttpContext());
+		assertNull(direct.getProxyHost());
+
+		planner.setProxyConfig(new PushProxyConfig.Builder().host("proxy.example.com").port(3128).build());
+		HttpRoute proxied = planner.determineRoute(TARGET, post, new BasicHttpContext());
+
+		assertEquals(new HttpHost("proxy.example.com", 3128, "http"), proxied.getProxyHost());
+		assertEquals(TARGET, proxied.getTargetHost());
+	}
+}
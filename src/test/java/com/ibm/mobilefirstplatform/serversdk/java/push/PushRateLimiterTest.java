@@ -0,0 +1,126 @@
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.junit.Test;
+
+import com.ibm.mobilefirstplatform.serversdk.java.push.exception.PushServerSDKException;
+
+public class PushRateLimiterTest {
+
+	private static final String ENDPOINT = "https://example.com/imfpush/v1/apps/testTenantId/messages";
+	private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final AtomicLong now = new AtomicLong();
+
+	private PushRateLimiter.Builder builder() {
+		return new PushRateLimiter.Builder().permitsPerSecond(10).burst(2).clock(new LongSupplier() {
+
+			@Override
+			public long getAsLong() {
+				return now.get();
+			}
+		});
+	}
+
+	@Test
+	public void shouldAllowBurstThenRefillAtRate() {
+		PushRateLimiter limiter = builder().build();
+
+		assertTrue(limiter.tryAcquire(ENDPOINT, 1));
+		assertTrue(limiter.tryAcquire(ENDPOINT, 1));
+		assertFalse(limiter.tryAcquire(ENDPOINT, 1));
+
+		now.addAndGet(100 * MILLIS);
+		assertTrue(limiter.tryAcquire(ENDPOINT, 1));
+		assertFalse(limiter.tryAcquire(ENDPOINT, 1));
+	}
+
+	@Test
+	public void shouldKeepSeparateBucketPerEndpoint() {
+		PushRateLimiter limiter = builder().burst(1).build();
+
+		assertTrue(limiter.tryAcquire(ENDPOINT, 1));
+		assertTrue(limiter.tryAcquire(ENDPOINT + "/other", 1));
+		assertFalse(limiter.tryAcquire(ENDPOINT, 1));
+	}
+
+	@Test
+	public void shouldQueueReservationsInOrder() {
+		PushRateLimiter limiter = builder().burst(1).build();
+
+		assertEquals(0, limiter.reserve(ENDPOINT, 1, Long.MAX_VALUE));
+		assertEquals(100 * MILLIS, limiter.reserve(ENDPOINT, 1, Long.MAX_VALUE));
+		assertEquals(200 * MILLIS, limiter.reserve(ENDPOINT, 1, Long.MAX_VALUE));
+		assertEquals(PushRateLimiter.NOT_PERMITTED, limiter.reserve(ENDPOINT, 1, 250 * MILLIS));
+		assertEquals(300 * MILLIS, limiter.reserve(ENDPOINT, 1, 300 * MILLIS));
+	}
+
+	@Test
+	public void shouldFailAcquireWhenWaitIsTooLong() throws Exception {
+		PushRateLimiter limiter = builder().burst(1).maxWaitMillis(0).build();
+
+		limiter.acquire(ENDPOINT, 1);
+		try {
+			limiter.acquire(ENDPOINT, 1);
+			fail("The limiter should not wait longer than its maximum.");
+		} catch (PushServerSDKException e) {
+			assertEquals(PushConstants.PushServerSDKExceptions.RATE_LIMITED_EXCEPTION, e.getMessage());
+		}
+		CompletableFuture<Void> future = limiter.acquireAsync(ENDPOINT, 1);
+		try {
+			future.get();
+			fail("The limiter should not wait longer than its maximum.");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof PushServerSDKException);
+		}
+	}
+
+	@Test
+	public void shouldSlowDownOnTooManyRequestsAndRecover() {
+		PushRateLimiter limiter = builder().minPermitsPerSecond(2).build();
+
+		limiter.onThrottled(ENDPOINT, null);
+		limiter.onThrottled(ENDPOINT, null);
+		assertEquals(5, limiter.getPermitsPerSecond(ENDPOINT), 0.001);
+
+		now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+		limiter.onThrottled(ENDPOINT, null);
+		now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+		limiter.onThrottled(ENDPOINT, null);
+		assertEquals(2, limiter.getPermitsPerSecond(ENDPOINT), 0.001);
+
+		for (int i = 0; i < 1000; i++) {
+			limiter.onAccepted(ENDPOINT);
+		}
+		assertEquals(10, limiter.getPermitsPerSecond(ENDPOINT), 0.001);
+	}
+
+	@Test
+	public void shouldHoldTokensBackForRetryAfter() {
+		PushRateLimiter limiter = builder().build();
+
+		limiter.onThrottled(ENDPOINT, 1000L);
+
+		assertFalse(limiter.tryAcquire(ENDPOINT, 1));
+		now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+		assertFalse(limiter.tryAcquire(ENDPOINT, 1));
+		now.addAndGet(200 * MILLIS);
+		assertTrue(limiter.tryAcquire(ENDPOINT, 1));
+	}
+
+	@Test
+	public void shouldNeverWaitWhenUnlimited() {
+		PushRateLimiter limiter = PushRateLimiter.unlimited();
+
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(limiter.tryAcquire(ENDPOINT, 1));
+		}
+	}
+}
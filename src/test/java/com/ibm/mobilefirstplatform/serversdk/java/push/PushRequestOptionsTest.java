@@ -0,0 +1,51 @@
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import static org.junit.Assert.*;
+
+import org.apache.http.client.config.RequestConfig;
+import org.junit.Test;
+
+public class PushRequestOptionsTest {
+
+	@Test
+	public void shouldMapTimeoutsToRequestConfig() {
+		PushRequestOptions options = new PushRequestOptions.Builder().connectTimeoutMillis(1000)
+				.socketTimeoutMillis(2000).connectionRequestTimeoutMillis(300).build();
+
+		RequestConfig config = options.toRequestConfig();
+
+		assertEquals(1000, config.getConnectTimeout());
+		assertEquals(2000, config.getSocketTimeout());
+		assertEquals(300, config.getConnectionRequestTimeout());
+		assertEquals(Long.MAX_VALUE, options.deadlineNanos(System.nanoTime()));
+	}
+
+	@Test
+	public void shouldShortenTimeoutsToRemainingTime() {
+		PushRequestOptions options = new PushRequestOptions.Builder().connectTimeoutMillis(1000)
+				.socketTimeoutMillis(0).connectionRequestTimeoutMillis(300).build();
+
+		RequestConfig config = options.toRequestConfig(500);
+
+		assertEquals(500, config.getConnectTimeout());
+		assertEquals(500, config.getSocketTimeout());
+		assertEquals(300, config.getConnectionRequestTimeout());
+		assertEquals(1, options.toRequestConfig(0).getConnectTimeout());
+	}
+
+	@Test
+	public void shouldCopyOptionsIntoBuilder() {
+		PushRequestOptions options = new PushRequestOptions.Builder().socketTimeoutMillis(1234).build();
+
+		PushRequestOptions copy = new PushRequestOptions.Builder(options).deadlineMillis(5000).build();
+
+		assertEquals(1234, copy.getSocketTimeoutMillis());
+		assertEquals(5000, copy.getDeadlineMillis());
+		assertEquals(0, options.getDeadlineMillis());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectNegativeTimeouts() {
+		new PushRequestOptions.Builder().connectTimeoutMillis(-1).build();
+	}
+}
@@ -0,0 +1,88 @@
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+
+import org.apache.http.HttpStatus;
+import org.junit.Test;
+
+public class PushRetryPolicyTest {
+
+	private static PushRetryPolicy policy(int maxAttempts) {
+		return new PushRetryPolicy.Builder().maxAttempts(maxAttempts).initialBackoffMillis(100).maxBackoffMillis(1000)
+				.build();
+	}
+
+	@Test
+	public void shouldRetryTooManyRequestsEvenIfNotIdempotent() {
+		PushRetryPolicy policy = policy(3);
+
+		long delay = policy.retryDelayAfterResponse(1, PushConstants.TOO_MANY_REQUESTS, null, false);
+
+		assertTrue(delay >= 0 && delay <= 100);
+		assertEquals(PushRetryPolicy.NO_RETRY,
+				policy.retryDelayAfterResponse(3, PushConstants.TOO_MANY_REQUESTS, null, false));
+	}
+
+	@Test
+	public void shouldRetryServerErrorsOnlyIfIdempotent() {
+		PushRetryPolicy policy = policy(3);
+
+		assertEquals(PushRetryPolicy.NO_RETRY,
+				policy.retryDelayAfterResponse(1, HttpStatus.SC_SERVICE_UNAVAILABLE, null, false));
+		assertNotEquals(PushRetryPolicy.NO_RETRY,
+				policy.retryDelayAfterResponse(1, HttpStatus.SC_SERVICE_UNAVAILABLE, null, true));
+		assertEquals(PushRetryPolicy.NO_RETRY, policy.retryDelayAfterResponse(1, HttpStatus.SC_BAD_REQUEST, null, true));
+	}
+
+	@Test
+	public void shouldHonorRetryAfterUpToMaximum() {
+		PushRetryPolicy policy = new PushRetryPolicy.Builder().maxRetryAfterMillis(5000).build();
+
+		assertEquals(2000L, policy.retryDelayAfterResponse(1, PushConstants.TOO_MANY_REQUESTS, "2", false));
+		assertEquals(PushRetryPolicy.NO_RETRY,
+				policy.retryDelayAfterResponse(1, PushConstants.TOO_MANY_REQUESTS, "120", false));
+		long delay = policy.retryDelayAfterResponse(1, PushConstants.TOO_MANY_REQUESTS, "soon", false);
+		assertTrue(delay >= 0 && delay <= PushRetryPolicy.DEFAULT_INITIAL_BACKOFF_MILLIS);
+	}
+
+	@Test
+	public void shouldRetryReadFailuresOnlyIfIdempotent() {
+		PushRetryPolicy policy = policy(3);
+
+		assertNotEquals(PushRetryPolicy.NO_RETRY, policy.retryDelayAfterFailure(1, new ConnectException(), false));
+		assertEquals(PushRetryPolicy.NO_RETRY, policy.retryDelayAfterFailure(1, new SocketTimeoutException(), false));
+		assertNotEquals(PushRetryPolicy.NO_RETRY, policy.retryDelayAfterFailure(1, new SocketTimeoutException(), true));
+		assertEquals(PushRetryPolicy.NO_RETRY, policy.retryDelayAfterFailure(1, new IllegalStateException(), true));
+	}
+
+	@Test
+	public void shouldStopRetryingWhenBudgetIsSpent() {
+		PushRetryPolicy policy = new PushRetryPolicy.Builder().retryBudgetRatio(0.1).minRetryBudget(2).build();
+
+		assertNotEquals(PushRetryPolicy.NO_RETRY, policy.retryDelayAfterFailure(2, new ConnectException(), false));
+		assertNotEquals(PushRetryPolicy.NO_RETRY, policy.retryDelayAfterFailure(2, new ConnectException(), false));
+		assertEquals(PushRetryPolicy.NO_RETRY, policy.retryDelayAfterFailure(2, new ConnectException(), false));
+
+		for (int i = 0; i < 10; i++) {
+			policy.retryDelayAfterFailure(1, new IOException(), false);
+		}
+		assertNotEquals(PushRetryPolicy.NO_RETRY, policy.retryDelayAfterFailure(2, new ConnectException(), false));
+	}
+
+	@Test
+	public void shouldTreatCollapsibleNotificationsAsIdempotent() {
+		Message message = new Message.Builder().alert("testMessage").build();
+		Notification plain = new Notification.Builder().message(message).build();
+		Notification collapsible = new Notification.Builder().message(message)
+				.settings(new Settings.Builder().fcm(new FCM.Builder().collapseKey("testKey").build()).build()).build();
+
+		assertFalse(PushRetryPolicy.isIdempotent(plain));
+		assertTrue(PushRetryPolicy.isIdempotent(collapsible));
+		assertTrue(PushRetryPolicy.isIdempotent(plain.withDedupKey("testKey")));
+		assertFalse(PushRetryPolicy.isIdempotent(new Notification[] { collapsible, plain }));
+	}
+}
@@ -0,0 +1,250 @@
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import static org.junit.Assert.*;
+
+import java.net.SocketTimeoutException;
+import java.time.Instant;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+import org.apache.http.HttpStatus;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ibm.mobilefirstplatform.serversdk.java.push.PushScheduler.ScheduledNotification;
+import com.ibm.mobilefirstplatform.serversdk.java.push.exception.PushServerSDKException;
+
+public class PushSchedulerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final class Release {
+		private final Notification notification;
+		private final long releasedAtMillis = System.currentTimeMillis();
+
+		Release(Notification notification) {
+			this.notification = notification;
+		}
+	}
+
+	private static class RecordingSender implements Function<Notification, CompletableFuture<PushResponse>> {
+
+		private final BlockingQueue<Release> releases = new LinkedBlockingQueue<Release>();
+
+		@Override
+		public CompletableFuture<PushResponse> apply(Notification notification) {
+			releases.add(new Release(notification));
+			return CompletableFuture.completedFuture(new PushResponse(HttpStatus.SC_ACCEPTED, null));
+		}
+
+		Release next() throws InterruptedException {
+			Release release = releases.poll(5, TimeUnit.SECONDS);
+			assertNotNull("A notification should have been released.", release);
+			return release;
+		}
+	}
+
+	private static Notification notification(String alert) {
+		return new Notification.Builder().message(new Message.Builder().alert(alert).build()).build();
+	}
+
+	private PushSpool spool() {
+		return new PushSpool.Builder().directory(folder.getRoot().toPath()).build();
+	}
+
+	private static void awaitPendingEntries(PushSpool spool, int expected) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (spool.getPendingEntries() != expected && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(expected, spool.getPendingEntries());
+	}
+
+	@Test
+	public void shouldReleaseNotificationsAtTheirTime() throws Exception {
+		RecordingSender sender = new RecordingSender();
+		PushScheduler scheduler = new PushScheduler.Builder().sender(sender).tickMillis(10).wheelSize(4).build();
+
+		Instant start = Instant.now();
+		ScheduledNotification[] scheduled = new ScheduledNotification[6];
+		for (int i = 0; i < scheduled.length; i++) {
+			scheduled[i] = scheduler.schedule(notification("reminder" + i), start.plusMillis(50 + i * 150));
+		}
+		assertEquals(scheduled.length, scheduler.getScheduledNotifications());
+
+		for (int i = 0; i < scheduled.length; i++) {
+			Release release = sender.next();
+			assertSame(scheduled[i].getNotification(), release.notification);
+			assertTrue(release.releasedAtMillis >= scheduled[i].getTime().toEpochMilli());
+			assertTrue(scheduled[i].getResponse().get(5, TimeUnit.SECONDS).isSuccess());
+		}
+		assertEquals(0, scheduler.getScheduledNotifications());
+		scheduler.close();
+	}
+
+	@Test
+	public void shouldReleasePastTimesAtOnce() throws Exception {
+		RecordingSender sender = new RecordingSender();
+		PushScheduler scheduler = new PushScheduler.Builder().sender(sender).build();
+
+		ScheduledNotification scheduled = scheduler.schedule(notification("late"), Instant.now().minusSeconds(60));
+
+		assertSame(scheduled.getNotification(), sender.next().notification);
+		assertFalse(scheduled.cancel());
+		scheduler.close();
+	}
+
+	@Test
+	public void shouldCancelScheduledNotification() throws Exception {
+		RecordingSender sender = new RecordingSender();
+		PushScheduler scheduler = new PushScheduler.Builder().sender(sender).tickMillis(10).build();
+
+		ScheduledNotification cancelled = scheduler.schedule(notification("cancelled"), Instant.now().plusMillis(50));
+		ScheduledNotification kept = scheduler.schedule(notification("kept"), Instant.now().plusMillis(100));
+
+		assertTrue(cancelled.cancel());
+		assertFalse(cancelled.cancel());
+		assertTrue(cancelled.getResponse().isCancelled());
+		assertSame(kept.getNotification(), sender.next().notification);
+		assertNull(sender.releases.poll(100, TimeUnit.MILLISECONDS));
+		scheduler.close();
+	}
+
+	@Test
+	public void shouldScheduleAgainFromSpool() throws Exception {
+		final long start = System.currentTimeMillis();
+		PushSpool spool = spool();
+		PushScheduler scheduler = new PushScheduler.Builder().sender(new RecordingSender()).spool(spool)
+				.clock(new LongSupplier() {
+
+					@Override
+					public long getAsLong() {
+						return start;
+					}
+				}).build();
+		scheduler.schedule(notification("soon").withDedupKey("soon"), Instant.ofEpochMilli(start + 200));
+		scheduler.schedule(notification("later"), Instant.ofEpochMilli(start + 3600000));
+		scheduler.close();
+		assertEquals(2, spool.getPendingEntries());
+		spool.close();
+
+		spool = spool();
+		RecordingSender sender = new RecordingSender();
+		scheduler = new PushScheduler.Builder().sender(sender).spool(spool).clock(new LongSupplier() {
+
+			@Override
+			public long getAsLong() {
+				return start + 1000;
+			}
+		}).build();
+
+		Notification recovered = sender.next().notification;
+		String released = new String(PushMessageSerializer.writeNotification(recovered), "UTF-8");
+		assertTrue(released.contains("\"soon\""));
+		assertEquals("soon", recovered.getDedupKey());
+		assertTrue(PushRetryPolicy.isIdempotent(recovered));
+		assertEquals(1, scheduler.getScheduledNotifications());
+		assertEquals(1, spool.getPendingEntries());
+		scheduler.close();
+		spool.close();
+	}
+
+	@Test
+	public void shouldAcknowledgeOnlyAnsweredNotifications() throws Exception {
+		final AtomicInteger attempts = new AtomicInteger();
+		PushSpool spool = spool();
+		PushScheduler scheduler = new PushScheduler.Builder()
+				.sender(new Function<Notification, CompletableFuture<PushResponse>>() {
+
+					@Override
+					public CompletableFuture<PushResponse> apply(Notification notification) {
+						if (attempts.incrementAndGet() <= 2) {
+							return PushNotificationsClient.failedFuture(new PushServerSDKException(
+									PushConstants.PushServerSDKExceptions.DISPATCHER_QUEUE_FULL_EXCEPTION));
+						}
+						return CompletableFuture.completedFuture(new PushResponse(HttpStatus.SC_ACCEPTED, null));
+					}
+				}).spool(spool).tickMillis(10).resendBackoffMillis(10).build();
+
+		ScheduledNotification retried = scheduler.schedule(notification("retried"), Instant.now());
+
+		assertTrue(retried.getResponse().get(5, TimeUnit.SECONDS).isSuccess());
+		assertEquals(3, attempts.get());
+		assertEquals(0, spool.getPendingEntries());
+		scheduler.close();
+
+		final CountDownLatch unanswered = new CountDownLatch(2);
+		scheduler = new PushScheduler.Builder().sender(new Function<Notification, CompletableFuture<PushResponse>>() {
+
+			@Override
+			public CompletableFuture<PushResponse> apply(Notification notification) {
+				unanswered.countDown();
+				return CompletableFuture
+						.completedFuture(new PushResponse(HttpStatus.SC_SERVICE_UNAVAILABLE, null));
+			}
+		}).spool(spool).tickMillis(10).resendBackoffMillis(10).build();
+		ScheduledNotification failing = scheduler.schedule(notification("failing"), Instant.now());
+		assertTrue(unanswered.await(5, TimeUnit.SECONDS));
+		scheduler.close();
+		try {
+			// Unless it was being sent at close, when it completes with that outcome.
+			assertFalse(failing.getResponse().get(5, TimeUnit.SECONDS).isSuccess());
+		} catch (ExecutionException e) {
+			assertEquals(PushConstants.PushServerSDKExceptions.SCHEDULER_CLOSED_EXCEPTION, e.getCause().getMessage());
+		}
+		assertEquals(1, spool.getPendingEntries());
+		spool.close();
+
+		spool = spool();
+		RecordingSender sender = new RecordingSender();
+		scheduler = new PushScheduler.Builder().sender(sender).spool(spool).build();
+		String released = new String(PushMessageSerializer.writeNotification(sender.next().notification), "UTF-8");
+		assertTrue(released.contains("\"failing\""));
+		// The sender records the release before the scheduler sees its answer.
+		awaitPendingEntries(spool, 0);
+		scheduler.close();
+		spool.close();
+	}
+
+	@Test
+	public void shouldAcknowledgeNotificationsThatFailForGood() throws Exception {
+		final AtomicInteger attempts = new AtomicInteger();
+		PushSpool spool = spool();
+		PushScheduler scheduler = new PushScheduler.Builder()
+				.sender(new Function<Notification, CompletableFuture<PushResponse>>() {
+
+					@Override
+					public CompletableFuture<PushResponse> apply(Notification notification) {
+						attempts.incrementAndGet();
+						return PushNotificationsClient.failedFuture(new PushServerSDKException(
+								PushConstants.PushServerSDKExceptions.DISPATCHER_CLOSED_EXCEPTION));
+					}
+				}).spool(spool).tickMillis(10).resendBackoffMillis(10).build();
+
+		ScheduledNotification failed = scheduler.schedule(notification("failed"), Instant.now());
+
+		try {
+			failed.getResponse().get(5, TimeUnit.SECONDS);
+			fail("A notification the dispatcher cannot take should fail.");
+		} catch (ExecutionException e) {
+			assertEquals(PushConstants.PushServerSDKExceptions.DISPATCHER_CLOSED_EXCEPTION, e.getCause().getMessage());
+		}
+		assertEquals(1, attempts.get());
+		assertEquals(0, spool.getPendingEntries());
+		assertTrue(PushScheduler.isUnanswered(new CompletionException(new SocketTimeoutException())));
+		assertFalse(PushScheduler.isUnanswered(
+				new PushServerSDKException(PushConstants.PushServerSDKExceptions.CIRCUIT_OPEN_EXCEPTION)));
+		scheduler.close();
+		spool.close();
+	}
+}
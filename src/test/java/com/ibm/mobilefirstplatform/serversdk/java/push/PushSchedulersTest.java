@@ -0,0 +1,26 @@
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class PushSchedulersTest {
+
+	@Test
+	public void shouldRunScheduledTasksOnWorker() throws Exception {
+		final CompletableFuture<String> thread = new CompletableFuture<String>();
+
+		PushSchedulers.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				thread.complete(Thread.currentThread().getName());
+			}
+		}, 10, TimeUnit.MILLISECONDS);
+
+		assertEquals("push-worker", thread.get(5, TimeUnit.SECONDS));
+	}
+}
@@ -0,0 +1,310 @@
+package com.ibm.mobilefirstplatform.serversdk.java.push;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ibm.mobilefirstplatform.serversdk.java.push.exception.PushServerSDKException;
+
+public class PushSpoolTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private PushSpool open() {
+		return new PushSpool.Builder().directory(folder.getRoot().toPath()).segmentBytes(PushSpool.MIN_SEGMENT_BYTES)
+				.build();
+	}
+
+	private static byte[] bytes(String value) {
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static List<String> payloads(List<PushSpool.Entry> entries) {
+		List<String> payloads = new ArrayList<String>();
+		for (PushSpool.Entry entry : entries) {
+			payloads.add(new String(entry.payload, StandardCharsets.UTF_8));
+		}
+		return payloads;
+	}
+
+	private File[] segments() {
+		return folder.getRoot().listFiles(new FilenameFilter() {
+
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".spool");
+			}
+		});
+	}
+
+	@Test
+	public void shouldRecoverUnacknowledgedEntries() {
+		PushSpool spool = open();
+		spool.append(bytes("first"));
+		long second = spool.append(bytes("second"));
+		spool.append(bytes("third"));
+		spool.acknowledge(second);
+		spool.close();
+
+		spool = open();
+		assertEquals(2, spool.getPendingEntries());
+		assertEquals("[first, third]", payloads(spool.takeRecovered()).toString());
+		assertTrue(spool.takeRecovered().isEmpty());
+		spool.close();
+	}
+
+	@Test
+	public void shouldTruncateIncompleteRecord() throws IOException {
+		PushSpool spool = open();
+		spool.append(bytes("first"));
+		spool.close();
+		try (FileOutputStream out = new FileOutputStream(segments()[0], true)) {
+			out.write(new byte[] { 0, 0, 0, 42, 1, 0, 0 });
+		}
+
+		spool = open();
+		assertEquals("[first]", payloads(spool.takeRecovered()).toString());
+		spool.append(bytes("second"));
+		spool.close();
+
+		spool = open();
+		assertEquals("[first, second]", payloads(spool.takeRecovered()).toString());
+		spool.close();
+	}
+
+	@Test
+	public void shouldDeleteSegmentsOnceAcknowledged() {
+		PushSpool spool = open();
+		List<Long> ids = new ArrayList<Long>();
+		for (int i = 0; i < 10; i++) {
+			ids.add(spool.append(new byte[1000]));
+		}
+		assertTrue(segments().length > 1);
+
+		for (long id : ids) {
+			spool.acknowledge(id);
+		}
+
+		assertEquals(1, segments().length);
+		assertEquals(0, spool.getPendingEntries());
+		spool.close();
+	}
+
+	@Test
+	public void shouldCompactEntriesPendingInOldSegments() {
+		PushSpool spool = open();
+		spool.append(bytes("straggler"));
+		for (int i = 0; i < 40; i++) {
+			spool.acknowledge(spool.append(new byte[1000]));
+			assertTrue(segments().length <= 3);
+		}
+		assertEquals(1, spool.getPendingEntries());
+		spool.close();
+
+		spool = open();
+		assertEquals("[straggler]", payloads(spool.takeRecovered()).toString());
+		spool.close();
+	}
+
+	@Test
+	public void shouldLockDirectory() {
+		PushSpool spool = open();
+		try {
+			open();
+			fail("A second spool should not open the same directory.");
+		} catch (PushServerSDKException e) {
+			assertEquals(PushConstants.PushServerSDKExceptions.SPOOL_IO_EXCEPTION, e.getMessage());
+		} finally {
+			spool.close();
+		}
+	}
+
+	@Test
+	public void shouldResendNotificationsWithoutFinalOutcome() throws Exception {
+		final String body = "[{\"messageId\":\"first\"},{\"code\":400,\"message\":\"testError\"},{\"code\":503}]";
+		PushSpool spool = open();
+		PushBatchingDispatcher dispatcher = new PushBatchingDispatcher.Builder()
+				.bulkSender(new Function<Notification[], CompletableFuture<BulkResult>>() {
+
+					@Override
+					public CompletableFuture<BulkResult> apply(Notification[] notifications) {
+						return CompletableFuture
+								.completedFuture(BulkResult.parse(HttpStatus.SC_ACCEPTED, body, notifications.length));
+					}
+				}).maxBatchSize(3).lingerMillis(60000).resendBackoffMillis(10).spool(spool).build();
+		List<CompletableFuture<PushResponse>> futures = new ArrayList<CompletableFuture<PushResponse>>();
+		for (String alert : new String[] { "first", "second", "third" }) {
+			futures.add(dispatcher.send(new Notification.Builder()
+					.message(new Message.Builder().alert(alert).build()).dedupKey(alert).build()));
+		}
+		futures.get(0).get(5, TimeUnit.SECONDS);
+		futures.get(1).get(5, TimeUnit.SECONDS);
+		dispatcher.close();
+		try {
+			futures.get(2).get(5, TimeUnit.SECONDS);
+			fail("A notification without final outcome should be kept for the next dispatcher.");
+		} catch (ExecutionException e) {
+			assertEquals(PushConstants.PushServerSDKExceptions.DISPATCHER_CLOSED_EXCEPTION, e.getCause().getMessage());
+		}
+		assertEquals(1, spool.getPendingEntries());
+		spool.close();
+
+		final List<String> resent = new ArrayList<String>();
+		final CompletableFuture<Void> replayed = new CompletableFuture<Void>();
+		spool = open();
+		dispatcher = new PushBatchingDispatcher.Builder()
+				.bulkSender(new Function<Notification[], CompletableFuture<BulkResult>>() {
+
+					@Override
+					public CompletableFuture<BulkResult> apply(Notification[] notifications) {
+						for (Notification notification : notifications) {
+							resent.add(new String(PushMessageSerializer.writeNotification(notification),
+									StandardCharsets.UTF_8));
+							resent.add(notification.getDedupKey());
+							resent.add(String.valueOf(PushRetryPolicy.isIdempotent(notification)));
+						}
+						replayed.complete(null);
+						return CompletableFuture
+								.completedFuture(BulkResult.parse(HttpStatus.SC_ACCEPTED, null, notifications.length));
+					}
+				}).spool(spool).build();
+		replayed.get(5, TimeUnit.SECONDS);
+		dispatcher.close();
+
+		assertEquals(3, resent.size());
+		assertTrue(resent.get(0).contains("\"third\""));
+		assertEquals("third", resent.get(1));
+		assertEquals("true", resent.get(2));
+		assertEquals(0, spool.getPendingEntries());
+		spool.close();
+	}
+
+	@Test
+	public void shouldResendUnansweredNotificationsAndDeleteTheirSegments() throws Exception {
+		final AtomicInteger calls = new AtomicInteger();
+		PushSpool spool = open();
+		PushBatchingDispatcher dispatcher = new PushBatchingDispatcher.Builder()
+				.bulkSender(new Function<Notification[], CompletableFuture<BulkResult>>() {
+
+					@Override
+					public CompletableFuture<BulkResult> apply(Notification[] notifications) {
+						if (calls.incrementAndGet() <= 2) {
+							return PushNotificationsClient.failedFuture(new IOException("testFailure"));
+						}
+						return CompletableFuture
+								.completedFuture(BulkResult.parse(HttpStatus.SC_ACCEPTED, null, notifications.length));
+					}
+				}).maxBatchSize(1).resendBackoffMillis(10).spool(spool).build();
+		char[] alert = new char[1000];
+		Arrays.fill(alert, 'a');
+		List<CompletableFuture<PushResponse>> futures = new ArrayList<CompletableFuture<PushResponse>>();
+		for (int i = 0; i < 20; i++) {
+			futures.add(dispatcher.send(new Notification.Builder()
+					.message(new Message.Builder().alert(new String(alert)).build()).build()));
+		}
+
+		for (CompletableFuture<PushResponse> future : futures) {
+			assertTrue(future.get(5, TimeUnit.SECONDS).isSuccess());
+		}
+		assertTrue(calls.get() > futures.size());
+		assertEquals(0, spool.getPendingEntries());
+		assertEquals(1, segments().length);
+		dispatcher.close();
+		spool.close();
+	}
+
+	@Test
+	public void shouldKeepNotificationsInSpoolAfterResendLimit() throws Exception {
+		final AtomicInteger calls = new AtomicInteger();
+		PushSpool spool = open();
+		PushBatchingDispatcher dispatcher = new PushBatchingDispatcher.Builder()
+				.bulkSender(new Function<Notification[], CompletableFuture<BulkResult>>() {
+
+					@Override
+					public CompletableFuture<BulkResult> apply(Notification[] notifications) {
+						calls.incrementAndGet();
+						return PushNotificationsClient.failedFuture(new IOException("testFailure"));
+					}
+				}).resendBackoffMillis(10).maxResends(2).spool(spool).build();
+
+		try {
+			dispatcher.send(new Notification.Builder().message(new Message.Builder().alert("testMessage").build())
+					.build()).get(5, TimeUnit.SECONDS);
+			fail("A notification without answer should fail after the resend limit.");
+		} catch (ExecutionException e) {
+			assertEquals(PushConstants.PushServerSDKExceptions.RESENDS_EXHAUSTED_EXCEPTION, e.getCause().getMessage());
+		}
+		assertEquals(3, calls.get());
+		assertEquals(1, spool.getPendingEntries());
+		dispatcher.close();
+		spool.close();
+	}
+
+	@Test
+	public void shouldAcknowledgeDuplicatesWithoutSendingThem() throws Exception {
+		final AtomicInteger requests = new AtomicInteger();
+		PushTransport transport = new PushTransport() {
+
+			@Override
+			public HttpResponse execute(HttpUriRequest request) throws IOException {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public Future<HttpResponse> execute(HttpUriRequest request, FutureCallback<HttpResponse> callback) {
+				requests.incrementAndGet();
+				callback.failed(new IOException("testFailure"));
+				return PushNotificationsClient.failedFuture(new IOException("testFailure"));
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		Notification notification = new Notification.Builder()
+				.message(new Message.Builder().alert("testMessage").build()).dedupKey("first").build();
+		PushDeduplicator deduplicator = new PushDeduplicator.Builder().build();
+		assertTrue(deduplicator.tryAcquire(notification));
+		PushNotificationsClient client = new PushNotificationsClient.Builder().tenantId("testTenantId")
+				.appSecret("testAppSecret").region(PushNotifications.UK_REGION).transport(transport)
+				.deduplicator(deduplicator).build();
+		PushSpool spool = open();
+		PushBatchingDispatcher dispatcher = new PushBatchingDispatcher.Builder().client(client).maxBatchSize(1)
+				.resendBackoffMillis(10).spool(spool).build();
+
+		try {
+			dispatcher.send(notification).get(5, TimeUnit.SECONDS);
+			fail("A duplicate should not be sent.");
+		} catch (ExecutionException e) {
+			assertEquals(PushConstants.PushServerSDKExceptions.DUPLICATE_NOTIFICATION_EXCEPTION,
+					e.getCause().getMessage());
+		}
+		assertEquals(0, spool.getPendingEntries());
+		assertEquals(0, requests.get());
+		dispatcher.close();
+		client.close();
+		spool.close();
+	}
+}